@@ -0,0 +1,557 @@
+package xyz.srclab.common.bean.processing;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.*;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Annotation processor which generates {@code xyz.srclab.common.bean.BeanDescriptor} for each class annotated by
+ * {@code xyz.srclab.annotations.JavaBean}, and lists generated descriptors in index resource
+ * {@code META-INF/services/xyz.srclab.common.bean.BeanDescriptor}.
+ * <p>
+ * A descriptor describes bean style properties (public {@code getXxx()} and {@code setXxx(Xxx)}) of the class, and
+ * accesses them by direct calls. Generic classes, private classes and classes of which property types contain type
+ * variables are skipped, they are resolved by reflection at runtime. Nothing is generated if
+ * {@code BeanDescriptor} is not on the class path.
+ * <p>
+ * This processor is not registered as a service, because {@code JavaBean} is widely used as a nickname annotation
+ * and generation should not happen in every build depending on boat-core. It is enabled explicitly, with boat-core on
+ * the processor path:
+ * <pre>
+ *     javac -processorpath boat-core.jar -processor xyz.srclab.common.bean.processing.JavaBeanProcessor ...
+ * </pre>
+ * Descriptors of index resource are carried forward between (incremental) compilations only if their bean classes
+ * still exist and are still annotated.
+ */
+@SupportedAnnotationTypes(JavaBeanProcessor.JAVA_BEAN)
+public class JavaBeanProcessor extends AbstractProcessor {
+
+    static final String JAVA_BEAN = "xyz.srclab.annotations.JavaBean";
+
+    private static final String BEAN_DESCRIPTOR = "xyz.srclab.common.bean.BeanDescriptor";
+    private static final String CLASS_NAME_SUFFIX = "$$BeanDescriptor";
+    private static final String INDEX_RESOURCE = "META-INF/services/" + BEAN_DESCRIPTOR;
+    private static final String TYPES = "xyz.srclab.common.reflect.Types";
+    private static final String TYPE = "java.lang.reflect.Type";
+    private static final TypeKind[] PRIMITIVE_KINDS = {
+            TypeKind.BOOLEAN, TypeKind.BYTE, TypeKind.SHORT, TypeKind.CHAR,
+            TypeKind.INT, TypeKind.LONG, TypeKind.FLOAT, TypeKind.DOUBLE,
+    };
+
+    private final Set<String> descriptorNames = new TreeSet<>();
+    private final Set<String> skippedNames = new HashSet<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (roundEnv.processingOver()) {
+            writeIndex();
+            return false;
+        }
+        Elements elements = processingEnv.getElementUtils();
+        TypeElement javaBean = elements.getTypeElement(JAVA_BEAN);
+        if (javaBean == null || elements.getTypeElement(BEAN_DESCRIPTOR) == null) {
+            return false;
+        }
+        for (Element element : roundEnv.getElementsAnnotatedWith(javaBean)) {
+            if (element.getKind() == ElementKind.CLASS) {
+                generate((TypeElement) element);
+            }
+        }
+        return false;
+    }
+
+    private void generate(TypeElement bean) {
+        Elements elements = processingEnv.getElementUtils();
+        String binaryName = elements.getBinaryName(bean).toString();
+        String descriptorName = binaryName + CLASS_NAME_SUFFIX;
+        String skipReason = checkBean(bean);
+        if (skipReason != null) {
+            note(bean, "Bean descriptor is not generated, " + skipReason);
+            skippedNames.add(descriptorName);
+            return;
+        }
+        List<Property> properties = resolveProperties(bean);
+        for (Property property : properties) {
+            property.typeExpression = typeExpression(property.type);
+            if (property.typeExpression == null) {
+                note(bean, "Bean descriptor is not generated, type of property is not supported: "
+                        + property.accessorName);
+                skippedNames.add(descriptorName);
+                return;
+            }
+        }
+        String packageName = elements.getPackageOf(bean).getQualifiedName().toString();
+        String simpleName = packageName.isEmpty() ? descriptorName : descriptorName.substring(packageName.length() + 1);
+        try (Writer writer = processingEnv.getFiler().createSourceFile(descriptorName, bean).openWriter()) {
+            writer.write(generateSource(packageName, simpleName, bean, properties));
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(
+                    Diagnostic.Kind.WARNING, "Failed to generate bean descriptor: " + e, bean);
+            skippedNames.add(descriptorName);
+            return;
+        }
+        descriptorNames.add(descriptorName);
+    }
+
+    private String checkBean(TypeElement bean) {
+        if (!bean.getTypeParameters().isEmpty()) {
+            return "generic class is not supported.";
+        }
+        Element element = bean;
+        while (element instanceof TypeElement) {
+            TypeElement typeElement = (TypeElement) element;
+            if (typeElement.getModifiers().contains(Modifier.PRIVATE)) {
+                return "private class is not supported.";
+            }
+            NestingKind nestingKind = typeElement.getNestingKind();
+            if (nestingKind == NestingKind.LOCAL || nestingKind == NestingKind.ANONYMOUS) {
+                return "local class is not supported.";
+            }
+            element = element.getEnclosingElement();
+        }
+        return null;
+    }
+
+    /**
+     * Resolves properties as {@code BeanStyleBeanResolveHandler}: getters are paired with setters of which parameter
+     * type is same as return type of getters, a getter which has setters but none of them matches is not a property,
+     * and overloaded setters without getter are not a property.
+     */
+    private List<Property> resolveProperties(TypeElement bean) {
+        Elements elements = processingEnv.getElementUtils();
+        Types types = processingEnv.getTypeUtils();
+        DeclaredType beanType = (DeclaredType) bean.asType();
+        Map<String, ExecutableElement> getters = new LinkedHashMap<>();
+        Map<String, List<ExecutableElement>> setters = new LinkedHashMap<>();
+        for (ExecutableElement method : ElementFilter.methodsIn(elements.getAllMembers(bean))) {
+            Set<Modifier> modifiers = method.getModifiers();
+            if (!modifiers.contains(Modifier.PUBLIC) || modifiers.contains(Modifier.STATIC)) {
+                continue;
+            }
+            String name = method.getSimpleName().toString();
+            if (name.length() <= 3) {
+                continue;
+            }
+            if (name.startsWith("get") && method.getParameters().isEmpty()
+                    && method.getReturnType().getKind() != TypeKind.VOID) {
+                getters.put(name.substring(3), method);
+                continue;
+            }
+            if (name.startsWith("set") && method.getParameters().size() == 1) {
+                setters.computeIfAbsent(name.substring(3), k -> new ArrayList<>()).add(method);
+            }
+        }
+        List<Property> properties = new ArrayList<>();
+        for (Map.Entry<String, ExecutableElement> getter : getters.entrySet()) {
+            Property property = new Property(getter.getKey());
+            ExecutableType getterType = (ExecutableType) types.asMemberOf(beanType, getter.getValue());
+            property.type = getterType.getReturnType();
+            property.getterName = getter.getValue().getSimpleName().toString();
+            List<ExecutableElement> setterCandidates = setters.remove(getter.getKey());
+            if (setterCandidates != null) {
+                for (ExecutableElement setter : setterCandidates) {
+                    ExecutableType setterType = (ExecutableType) types.asMemberOf(beanType, setter);
+                    TypeMirror parameterType = setterType.getParameterTypes().get(0);
+                    if (types.isSameType(parameterType, property.type)) {
+                        property.setterName = setter.getSimpleName().toString();
+                        property.setterParameterType = parameterType;
+                        break;
+                    }
+                }
+                if (property.setterName == null) {
+                    continue;
+                }
+            }
+            properties.add(property);
+        }
+        for (Map.Entry<String, List<ExecutableElement>> setter : setters.entrySet()) {
+            Property property = new Property(setter.getKey());
+            ExecutableElement setterMethod = setter.getValue().get(0);
+            ExecutableType setterType = (ExecutableType) types.asMemberOf(beanType, setterMethod);
+            property.type = setterType.getParameterTypes().get(0);
+            if (isOverloaded(beanType, setter.getValue(), property.type)) {
+                continue;
+            }
+            property.setterName = setterMethod.getSimpleName().toString();
+            property.setterParameterType = property.type;
+            properties.add(property);
+        }
+        return properties;
+    }
+
+    private boolean isOverloaded(DeclaredType beanType, List<ExecutableElement> setters, TypeMirror parameterType) {
+        Types types = processingEnv.getTypeUtils();
+        for (ExecutableElement setter : setters) {
+            ExecutableType setterType = (ExecutableType) types.asMemberOf(beanType, setter);
+            if (!types.isSameType(setterType.getParameterTypes().get(0), parameterType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns java expression which creates {@code java.lang.reflect.Type} of given type, or null if not supported.
+     */
+    private String typeExpression(TypeMirror type) {
+        Types types = processingEnv.getTypeUtils();
+        switch (type.getKind()) {
+            case BOOLEAN:
+            case BYTE:
+            case SHORT:
+            case INT:
+            case LONG:
+            case CHAR:
+            case FLOAT:
+            case DOUBLE:
+                return type + ".class";
+            case DECLARED: {
+                DeclaredType declaredType = (DeclaredType) type;
+                String raw = types.erasure(type) + ".class";
+                if (declaredType.getTypeArguments().isEmpty()) {
+                    return raw;
+                }
+                StringBuilder builder = new StringBuilder(TYPES).append(".parameterizedType(").append(raw);
+                for (TypeMirror typeArgument : declaredType.getTypeArguments()) {
+                    String argument = typeExpression(typeArgument);
+                    if (argument == null) {
+                        return null;
+                    }
+                    builder.append(", ").append(argument);
+                }
+                return builder.append(")").toString();
+            }
+            case ARRAY: {
+                TypeMirror componentType = ((ArrayType) type).getComponentType();
+                String component = typeExpression(componentType);
+                if (component == null) {
+                    return null;
+                }
+                if (component.endsWith(".class") && !component.startsWith(TYPES)) {
+                    return types.erasure(type) + ".class";
+                }
+                return TYPES + ".genericArrayType(" + component + ")";
+            }
+            case WILDCARD: {
+                WildcardType wildcardType = (WildcardType) type;
+                TypeMirror extendsBound = wildcardType.getExtendsBound();
+                TypeMirror superBound = wildcardType.getSuperBound();
+                String upper = extendsBound == null ? "java.lang.Object.class" : typeExpression(extendsBound);
+                String lower = superBound == null ? null : typeExpression(superBound);
+                if (upper == null || (superBound != null && lower == null)) {
+                    return null;
+                }
+                return TYPES + ".wildcardType(new " + TYPE + "[]{" + upper + "}, "
+                        + (lower == null ? "null" : "new " + TYPE + "[]{" + lower + "}") + ")";
+            }
+            default:
+                return null;
+        }
+    }
+
+    private String generateSource(String packageName, String simpleName, TypeElement bean, List<Property> properties) {
+        Types types = processingEnv.getTypeUtils();
+        String beanName = types.erasure(bean.asType()).toString();
+        StringBuilder source = new StringBuilder();
+        if (!packageName.isEmpty()) {
+            source.append("package ").append(packageName).append(";\n\n");
+        }
+        source.append("/**\n * Generated by ").append(JavaBeanProcessor.class.getName()).append(".\n */\n");
+        source.append("public final class ").append(simpleName).append(" implements ").append(BEAN_DESCRIPTOR)
+                .append(" {\n\n");
+
+        source.append("    private static final String[] ACCESSOR_NAMES = {");
+        appendEach(source, properties, p -> "\"" + p.accessorName + "\"");
+        source.append("};\n");
+        source.append("    private static final String[] PROPERTY_NAMES = {");
+        appendEach(source, properties, p -> "\"" + propertyName(p.accessorName) + "\"");
+        source.append("};\n");
+        source.append("    private static final boolean[] READABLE = {");
+        appendEach(source, properties, p -> String.valueOf(p.getterName != null));
+        source.append("};\n");
+        source.append("    private static final boolean[] WRITEABLE = {");
+        appendEach(source, properties, p -> String.valueOf(p.setterName != null));
+        source.append("};\n");
+        source.append("    private static final ").append(TYPE).append("[] PROPERTY_TYPES = {");
+        appendEach(source, properties, p -> "\n            " + p.typeExpression);
+        source.append("\n    };\n\n");
+
+        source.append("    @Override\n    public Class<?> beanClass() {\n        return ")
+                .append(beanName).append(".class;\n    }\n\n");
+        source.append("    @Override\n    public int propertyCount() {\n        return ")
+                .append(properties.size()).append(";\n    }\n\n");
+        source.append("    @Override\n    public String accessorName(int index) {\n")
+                .append("        return ACCESSOR_NAMES[index];\n    }\n\n");
+        source.append("    @Override\n    public String propertyName(int index) {\n")
+                .append("        return PROPERTY_NAMES[index];\n    }\n\n");
+        source.append("    @Override\n    public ").append(TYPE).append(" propertyType(int index) {\n")
+                .append("        return PROPERTY_TYPES[index];\n    }\n\n");
+        source.append("    @Override\n    public boolean isReadable(int index) {\n")
+                .append("        return READABLE[index];\n    }\n\n");
+        source.append("    @Override\n    public boolean isWriteable(int index) {\n")
+                .append("        return WRITEABLE[index];\n    }\n\n");
+
+        source.append("    @Override\n    public Object getValue(Object bean, int index) {\n");
+        source.append("        ").append(beanName).append(" b = (").append(beanName).append(") bean;\n");
+        source.append("        switch (index) {\n");
+        for (int i = 0; i < properties.size(); i++) {
+            Property property = properties.get(i);
+            if (property.getterName != null) {
+                source.append("            case ").append(i).append(":\n                return b.")
+                        .append(property.getterName).append("();\n");
+            }
+        }
+        source.append("            default:\n                throw new UnsupportedOperationException(")
+                .append("\"This property is not readable: \" + index);\n        }\n    }\n\n");
+
+        source.append("    @SuppressWarnings({\"unchecked\", \"rawtypes\"})\n");
+        source.append("    @Override\n    public void setValue(Object bean, int index, Object value) {\n");
+        source.append("        ").append(beanName).append(" b = (").append(beanName).append(") bean;\n");
+        source.append("        switch (index) {\n");
+        for (int i = 0; i < properties.size(); i++) {
+            Property property = properties.get(i);
+            if (property.setterName != null) {
+                TypeMirror parameterType = property.setterParameterType;
+                String castType = parameterType.getKind().isPrimitive() ?
+                        types.boxedClass((PrimitiveType) parameterType).getQualifiedName().toString() :
+                        types.erasure(parameterType).toString();
+                source.append("            case ").append(i).append(":\n                b.")
+                        .append(property.setterName).append("((").append(castType).append(") value);\n")
+                        .append("                return;\n");
+            }
+        }
+        source.append("            default:\n                throw new UnsupportedOperationException(")
+                .append("\"This property is not writeable: \" + index);\n        }\n    }\n");
+
+        for (TypeKind kind : PRIMITIVE_KINDS) {
+            appendPrimitiveAccessors(source, beanName, properties, kind);
+        }
+        source.append("}\n");
+        return source.toString();
+    }
+
+    /**
+     * Appends primitive accessors of given kind if any property is of the kind, other indexes fall back to boxed
+     * {@code getValue} and {@code setValue}.
+     */
+    private void appendPrimitiveAccessors(
+            StringBuilder source, String beanName, List<Property> properties, TypeKind kind) {
+        Types types = processingEnv.getTypeUtils();
+        PrimitiveType primitiveType = types.getPrimitiveType(kind);
+        String boxedName = types.boxedClass(primitiveType).getQualifiedName().toString();
+        String primitiveName = primitiveType.toString();
+        String accessorSuffix = Character.toUpperCase(primitiveName.charAt(0)) + primitiveName.substring(1);
+        StringBuilder getterCases = new StringBuilder();
+        StringBuilder setterCases = new StringBuilder();
+        for (int i = 0; i < properties.size(); i++) {
+            Property property = properties.get(i);
+            if (property.getterName != null && property.type.getKind() == kind) {
+                getterCases.append("            case ").append(i).append(":\n                return ((")
+                        .append(beanName).append(") bean).").append(property.getterName).append("();\n");
+            }
+            if (property.setterName != null && property.setterParameterType.getKind() == kind) {
+                setterCases.append("            case ").append(i).append(":\n                ((")
+                        .append(beanName).append(") bean).").append(property.setterName).append("(value);\n")
+                        .append("                return;\n");
+            }
+        }
+        if (getterCases.length() > 0) {
+            source.append("\n    @Override\n    public ").append(primitiveName).append(" get").append(accessorSuffix)
+                    .append("(Object bean, int index) {\n        switch (index) {\n").append(getterCases)
+                    .append("            default:\n                return (").append(boxedName)
+                    .append(") getValue(bean, index);\n        }\n    }\n");
+        }
+        if (setterCases.length() > 0) {
+            source.append("\n    @Override\n    public void set").append(accessorSuffix)
+                    .append("(Object bean, int index, ").append(primitiveName)
+                    .append(" value) {\n        switch (index) {\n").append(setterCases)
+                    .append("            default:\n                setValue(bean, index, value);\n        }\n    }\n");
+        }
+    }
+
+    private void writeIndex() {
+        Filer filer = processingEnv.getFiler();
+        Set<String> names = new TreeSet<>(descriptorNames);
+        boolean hasExisting = false;
+        try {
+            //Keeps descriptors generated by previous (incremental) compilation, unless their beans are removed
+            FileObject existing = filer.getResource(StandardLocation.CLASS_OUTPUT, "", INDEX_RESOURCE);
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(existing.openInputStream(), StandardCharsets.UTF_8))) {
+                hasExisting = true;
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if (!line.isEmpty() && !line.startsWith("#") && isStillDescribed(line)) {
+                        names.add(line);
+                    }
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            //No existing index
+        }
+        if (names.isEmpty() && !hasExisting) {
+            return;
+        }
+        try {
+            FileObject index = filer.createResource(StandardLocation.CLASS_OUTPUT, "", INDEX_RESOURCE);
+            try (Writer writer = new OutputStreamWriter(index.openOutputStream(), StandardCharsets.UTF_8)) {
+                for (String name : names) {
+                    writer.write(name);
+                    writer.write('\n');
+                }
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(
+                    Diagnostic.Kind.WARNING, "Failed to write bean descriptor index: " + e);
+        }
+    }
+
+    private boolean isStillDescribed(String descriptorName) {
+        if (skippedNames.contains(descriptorName) || !descriptorName.endsWith(CLASS_NAME_SUFFIX)) {
+            return false;
+        }
+        String binaryName = descriptorName.substring(0, descriptorName.length() - CLASS_NAME_SUFFIX.length());
+        TypeElement bean = processingEnv.getElementUtils().getTypeElement(binaryName.replace('$', '.'));
+        if (bean == null) {
+            return false;
+        }
+        for (AnnotationMirror annotation : bean.getAnnotationMirrors()) {
+            TypeElement annotationType = (TypeElement) annotation.getAnnotationType().asElement();
+            if (annotationType.getQualifiedName().contentEquals(JAVA_BEAN)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void note(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, message, element);
+    }
+
+    /**
+     * Returns property name of given accessor name, same as
+     * {@code NamingCase.UPPER_CAMEL.convertTo(accessorName, NamingCase.LOWER_CAMEL)} which resolves bean style
+     * properties at runtime, except that case of letters is converted with root locale.
+     */
+    static String propertyName(String accessorName) {
+        List<String> words = camelWords(accessorName);
+        String first = words.get(0);
+        StringBuilder name = new StringBuilder();
+        if (first.length() > 1 && isAllUpperCase(first)) {
+            name.append(capitalize(first));
+        } else {
+            name.append(decapitalize(first));
+        }
+        for (int i = 1; i < words.size(); i++) {
+            name.append(capitalize(words.get(i)));
+        }
+        return name.toString();
+    }
+
+    private static List<String> camelWords(String name) {
+        if (name.length() <= 1) {
+            return Collections.singletonList(name);
+        }
+        List<String> words = new ArrayList<>();
+        StringBuilder buffer = new StringBuilder();
+        boolean lastLower = true;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            boolean lower = Character.isLowerCase(c) || (c >= '0' && c <= '9');
+            boolean upper = Character.isUpperCase(c);
+            if (buffer.length() == 0) {
+                lastLower = lower;
+                buffer.append(c);
+            } else if ((lastLower && lower) || (!lastLower && upper)) {
+                buffer.append(c);
+            } else if (lastLower && upper) {
+                words.add(buffer.toString());
+                buffer.setLength(0);
+                buffer.append(c);
+                lastLower = false;
+            } else if (!lastLower && lower) {
+                //Last upper letter starts a new word: URLName -> URL, Name
+                if (buffer.length() > 1) {
+                    words.add(buffer.substring(0, buffer.length() - 1));
+                    buffer.delete(0, buffer.length() - 1);
+                }
+                buffer.append(c);
+                lastLower = true;
+            }
+        }
+        if (buffer.length() > 0) {
+            words.add(buffer.toString());
+        }
+        return words;
+    }
+
+    private static boolean isAllUpperCase(String word) {
+        for (int i = 0; i < word.length(); i++) {
+            if (!Character.isUpperCase(word.charAt(i))) {
+                return false;
+            }
+        }
+        return !word.isEmpty();
+    }
+
+    private static String capitalize(String word) {
+        if (word.isEmpty() || !Character.isLowerCase(word.charAt(0))) {
+            return word;
+        }
+        char first = word.charAt(0);
+        char title = Character.toTitleCase(first);
+        String head = title != Character.toUpperCase(first) ?
+                String.valueOf(title) : word.substring(0, 1).toUpperCase(Locale.ROOT);
+        return head + word.substring(1);
+    }
+
+    private static String decapitalize(String word) {
+        if (word.isEmpty() || Character.isLowerCase(word.charAt(0))) {
+            return word;
+        }
+        return word.substring(0, 1).toLowerCase(Locale.ROOT) + word.substring(1);
+    }
+
+    private static void appendEach(
+            StringBuilder builder, List<Property> properties, java.util.function.Function<Property, String> mapper) {
+        for (int i = 0; i < properties.size(); i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(mapper.apply(properties.get(i)));
+        }
+    }
+
+    private static final class Property {
+
+        private final String accessorName;
+        private TypeMirror type;
+        private String typeExpression;
+        private String getterName;
+        private String setterName;
+        private TypeMirror setterParameterType;
+
+        private Property(String accessorName) {
+            this.accessorName = accessorName;
+        }
+    }
+}
\ No newline at end of file
@@ -100,6 +100,15 @@ fun <T> ByteArray.loadClass(offset: Int = 0, length: Int = this.size - offset):
     return BytesClassLoader.loadClass(this, offset, length).asAny()
 }
 
+/**
+ * Defines class from bytes by a new class loader of which parent is [parent], so that the class can see classes of
+ * [parent], and it can be unloaded once it and its instances are unreachable.
+ */
+@JvmOverloads
+fun <T> ByteArray.loadClass(parent: ClassLoader, offset: Int = 0, length: Int = this.size - offset): Class<T> {
+    return ChildBytesClassLoader(parent).loadClass(this, offset, length).asAny()
+}
+
 fun <T> InputStream.loadClass(): Class<T> {
     return BytesClassLoader.loadClass(this).asAny()
 }
@@ -128,6 +137,13 @@ object BytesClassLoader : ClassLoader() {
     }
 }
 
+private class ChildBytesClassLoader(parent: ClassLoader) : ClassLoader(parent) {
+
+    fun loadClass(bytes: ByteArray, offset: Int, length: Int): Class<*> {
+        return super.defineClass(null, bytes, offset, length)
+    }
+}
+
 open class ResourceNotFoundException : RuntimeException {
     constructor() : super()
     constructor(message: CharSequence?) : super(message?.toString())
@@ -0,0 +1,258 @@
+package xyz.srclab.common.bean
+
+import xyz.srclab.common.base.INAPPLICABLE_JVM_NAME
+import xyz.srclab.common.convert.NopConvertHandler
+import xyz.srclab.common.invoke.Invoker
+import xyz.srclab.common.reflect.rawClass
+import java.lang.reflect.Type
+import java.util.function.BiConsumer
+
+/**
+ * Compiled plan to copy properties from beans of [fromType] to beans of [toType], it is reusable and thread-safe.
+ *
+ * Properties are paired, and filters which don't depend on values are applied, only once when the copier is
+ * compiled, so copying only reads, filters (by value) and writes paired properties.
+ *
+ * Paired properties which need no conversion, and of which getters and setters are public methods of public classes,
+ * are copied by a generated class with direct calls of getters and setters (see [newBeanCopier]). Other paired
+ * properties of identical primitive types are copied by primitive accessors such as [PropertyType.getInt] and
+ * [PropertyType.setInt], without boxing. Other properties are copied by [Invoker]s.
+ *
+ * Properties are written in order of [BeanType.properties] of source type, except that properties copied by the
+ * generated class are written first (in that order too), then the others.
+ *
+ * @see BeanResolver.compileCopier
+ */
+interface BeanCopier {
+
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    val fromType: Type
+        @JvmName("fromType") get
+
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    val toType: Type
+        @JvmName("toType") get
+
+    /**
+     * Returns whether some properties are copied by a generated class.
+     */
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    @JvmDefault
+    val isGenerated: Boolean
+        @JvmName("isGenerated") get() = false
+
+    /**
+     * Copies properties from [from] to [to], and returns [to].
+     */
+    fun <T : Any> copy(from: Any, to: T): T
+
+    companion object {
+
+        /**
+         * Compiles a new copier, [BeanResolver.compileCopier] is preferred which may cache copiers.
+         *
+         * If [generateClass] is true, a class is generated to copy properties by direct calls of getters and setters
+         * if possible, only built-in filters of values are supported by generated class. Otherwise, or if the
+         * generation fails, properties are copied by [Invoker]s. Each generated class is defined by a new class loader,
+         * so it should be generated only for copiers which are kept and reused.
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun newBeanCopier(
+            beanResolver: BeanResolver,
+            fromType: Type,
+            toType: Type,
+            copyOptions: BeanResolver.CopyOptions,
+            generateClass: Boolean = true,
+        ): BeanCopier {
+            return BeanCopierImpl(beanResolver, fromType, toType, copyOptions, generateClass)
+        }
+
+        private class BeanCopierImpl(
+            beanResolver: BeanResolver,
+            override val fromType: Type,
+            override val toType: Type,
+            copyOptions: BeanResolver.CopyOptions,
+            generateClass: Boolean,
+        ) : BeanCopier {
+
+            //Properties copied by generated class
+            private val generatedCopier: BiConsumer<Any, Any>?
+
+            //Other properties in order: copied by primitive accessors if primitive class is not null, or by invokers
+            private val fromProperties: Array<PropertyType>
+            private val toProperties: Array<PropertyType>
+            private val primitiveClasses: Array<Class<*>?>
+            private val names: Array<String>
+            private val getters: Array<Invoker?>
+            private val setters: Array<Invoker?>
+            private val fromPropertyTypes: Array<Type>
+            private val toPropertyTypes: Array<Type>
+            private val needConversions: BooleanArray
+
+            private val converter = copyOptions.converter
+            private val fromValueFilter = copyOptions.fromValueFilter
+                .takeIf { it !== BeanResolver.CopyOptions.Companion.AllValues }
+            private val convertFilter = copyOptions.convertFilter
+                .takeIf { it !== BeanResolver.CopyOptions.Companion.AllConversions }
+
+            override val isGenerated: Boolean
+                get() = generatedCopier !== null
+
+            init {
+                val fromProperties = beanResolver.resolve(fromType).properties
+                val toProperties = beanResolver.resolve(toType).properties
+                val pairs = mutableListOf<Pair<PropertyType, PropertyType>>()
+                for ((name, fromProperty) in fromProperties) {
+                    if (!copyOptions.includeClassProperty && name == "class") {
+                        continue
+                    }
+                    if (!copyOptions.nameFilter(name)
+                        || !fromProperty.isReadable
+                        || !copyOptions.fromTypeFilter(name, String::class.java, fromProperty.type)
+                    ) {
+                        continue
+                    }
+                    val toProperty = toProperties[name]
+                    if (toProperty === null || !toProperty.isWriteable) {
+                        continue
+                    }
+                    pairs.add(fromProperty to toProperty)
+                }
+
+                //Converter returns value as it is for identical types only if nop handler goes first
+                val nopFirst = converter.convertHandlers.firstOrNull() === NopConvertHandler
+                val generatedPairs = if (generateClass && nopFirst && isBuiltInFilters()) {
+                    generatePairs(pairs)
+                } else {
+                    emptyList()
+                }
+                generatedCopier = if (generatedPairs.isEmpty()) {
+                    null
+                } else {
+                    val fromClass = fromType.rawClass
+                    val toClass = toType.rawClass
+                    BeanCopierGenerator.generate(
+                        BeanCopierGenerator.classLoaderOf(fromClass, toClass),
+                        fromClass,
+                        toClass,
+                        generatedPairs.map { it.first.getterMethod!! },
+                        generatedPairs.map { it.second.setterMethod!! },
+                        isIgnoreNull(copyOptions.fromValueFilter),
+                    )
+                }
+                if (generatedCopier !== null) {
+                    pairs.removeAll(generatedPairs)
+                }
+                val primitiveAccessors = nopFirst && isBuiltInFilters()
+                fromProperties = Array(pairs.size) { pairs[it].first }
+                toProperties = Array(pairs.size) { pairs[it].second }
+                primitiveClasses = Array(pairs.size) {
+                    val type = pairs[it].first.type
+                    if (primitiveAccessors && type is Class<*> && type.isPrimitive && type == pairs[it].second.type) {
+                        type
+                    } else {
+                        null
+                    }
+                }
+                names = Array(pairs.size) { pairs[it].first.name }
+                getters = Array(pairs.size) { if (primitiveClasses[it] === null) pairs[it].first.getter!! else null }
+                setters = Array(pairs.size) { if (primitiveClasses[it] === null) pairs[it].second.setter!! else null }
+                fromPropertyTypes = Array(pairs.size) { pairs[it].first.type }
+                toPropertyTypes = Array(pairs.size) { pairs[it].second.type }
+                needConversions = BooleanArray(pairs.size) { !nopFirst || fromPropertyTypes[it] != toPropertyTypes[it] }
+            }
+
+            /**
+             * Returns whether filters of values are built-in, which pass non-null values of identical types.
+             */
+            private fun isBuiltInFilters(): Boolean {
+                if (fromValueFilter !== null && !isIgnoreNull(fromValueFilter)) {
+                    return false
+                }
+                //Built-in filters of conversion pass identical types
+                return convertFilter === null || convertFilter === BeanResolver.CopyOptions.Companion.IdenticalTypes
+            }
+
+            /**
+             * Returns pairs which can be copied by generated class: their values need no conversion, and filters of
+             * values are built-in.
+             */
+            private fun generatePairs(
+                pairs: List<Pair<PropertyType, PropertyType>>
+            ): List<Pair<PropertyType, PropertyType>> {
+                val fromClass = fromType.rawClass
+                val toClass = toType.rawClass
+                val classLoader = BeanCopierGenerator.classLoaderOf(fromClass, toClass)
+                return pairs.filter {
+                    val getterMethod = it.first.getterMethod
+                    val setterMethod = it.second.setterMethod
+                    getterMethod !== null && setterMethod !== null
+                            && it.first.type == it.second.type
+                            && BeanCopierGenerator.isAccessible(
+                        classLoader, fromClass, toClass, getterMethod, setterMethod
+                    )
+                }
+            }
+
+            private fun isIgnoreNull(
+                fromValueFilter: (name: Any?, fromNameType: Type, fromValueType: Type, fromValue: Any?) -> Boolean,
+            ): Boolean {
+                return fromValueFilter === BeanResolver.CopyOptions.Companion.NonNullValues
+            }
+
+            override fun <T : Any> copy(from: Any, to: T): T {
+                generatedCopier?.accept(from, to)
+                val fromValueFilter = this.fromValueFilter
+                val convertFilter = this.convertFilter
+                for (i in names.indices) {
+                    val primitiveClass = primitiveClasses[i]
+                    if (primitiveClass !== null) {
+                        copyPrimitive(fromProperties[i], from, toProperties[i], to, primitiveClass)
+                        continue
+                    }
+                    val value = getters[i]!!.invoke<Any?>(from)
+                    if (fromValueFilter !== null
+                        && !fromValueFilter(names[i], String::class.java, fromPropertyTypes[i], value)
+                    ) {
+                        continue
+                    }
+                    if (convertFilter !== null
+                        && !convertFilter(
+                            names[i], String::class.java, fromPropertyTypes[i], value,
+                            String::class.java, toPropertyTypes[i]
+                        )
+                    ) {
+                        continue
+                    }
+                    val toValue = if (needConversions[i]) {
+                        converter.convert<Any?>(value, fromPropertyTypes[i], toPropertyTypes[i])
+                    } else {
+                        value
+                    }
+                    setters[i]!!.invoke<Any?>(to, toValue)
+                }
+                return to
+            }
+
+            private fun copyPrimitive(
+                fromProperty: PropertyType,
+                from: Any,
+                toProperty: PropertyType,
+                to: Any,
+                primitiveClass: Class<*>
+            ) {
+                when (primitiveClass) {
+                    Int::class.javaPrimitiveType -> toProperty.setInt(to, fromProperty.getInt(from))
+                    Long::class.javaPrimitiveType -> toProperty.setLong(to, fromProperty.getLong(from))
+                    Double::class.javaPrimitiveType -> toProperty.setDouble(to, fromProperty.getDouble(from))
+                    Boolean::class.javaPrimitiveType -> toProperty.setBoolean(to, fromProperty.getBoolean(from))
+                    Float::class.javaPrimitiveType -> toProperty.setFloat(to, fromProperty.getFloat(from))
+                    Short::class.javaPrimitiveType -> toProperty.setShort(to, fromProperty.getShort(from))
+                    Byte::class.javaPrimitiveType -> toProperty.setByte(to, fromProperty.getByte(from))
+                    Char::class.javaPrimitiveType -> toProperty.setChar(to, fromProperty.getChar(from))
+                }
+            }
+        }
+    }
+}
\ No newline at end of file
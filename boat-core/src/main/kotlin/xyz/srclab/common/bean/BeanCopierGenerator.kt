@@ -0,0 +1,372 @@
+package xyz.srclab.common.bean
+
+import xyz.srclab.common.base.loadClass
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+import java.lang.reflect.Method
+import java.lang.reflect.Modifier
+import java.util.concurrent.atomic.AtomicLong
+import java.util.function.BiConsumer
+
+/**
+ * Generates classes which copy properties by direct calls of getters and setters, values of primitive properties are
+ * kept primitive. Generated classes implement [BiConsumer] of which arguments are source bean and target bean, and
+ * each of them is defined by a new class loader of which parent is the class loader of beans (see [loadClass]), so
+ * it can be unloaded with its copier.
+ *
+ * Generated class files are of version 49, which are verified by type inference, so that branches don't need stack map
+ * frames.
+ */
+internal object BeanCopierGenerator {
+
+    private const val CLASS_NAME_PREFIX = "xyz/srclab/common/bean/GeneratedBeanCopier$"
+    private const val MAX_CODE_LENGTH = 65535
+
+    private val counter = AtomicLong()
+
+    /**
+     * Returns class loader to define the class generated for [fromClass] and [toClass].
+     */
+    fun classLoaderOf(fromClass: Class<*>, toClass: Class<*>): ClassLoader {
+        return fromClass.classLoader ?: toClass.classLoader ?: ClassLoader.getSystemClassLoader()
+    }
+
+    /**
+     * Returns whether [getter] of [fromClass] and [setter] of [toClass] can be called by generated class which is
+     * defined by a child of [classLoader].
+     */
+    fun isAccessible(
+        classLoader: ClassLoader,
+        fromClass: Class<*>,
+        toClass: Class<*>,
+        getter: Method,
+        setter: Method,
+    ): Boolean {
+        if (Modifier.isStatic(getter.modifiers) || !Modifier.isPublic(getter.modifiers)
+            || Modifier.isStatic(setter.modifiers) || !Modifier.isPublic(setter.modifiers)
+            || getter.parameterCount != 0 || setter.parameterCount != 1
+        ) {
+            return false
+        }
+        val valueClass = getter.returnType
+        val paramClass = setter.parameterTypes[0]
+        if (valueClass != paramClass && (valueClass.isPrimitive || paramClass.isPrimitive)) {
+            return false
+        }
+        return isVisible(classLoader, fromClass) && isVisible(classLoader, toClass)
+                && isVisible(classLoader, valueClass) && isVisible(classLoader, paramClass)
+                && isVisible(classLoader, setter.returnType)
+    }
+
+    /**
+     * Generates a class which copies properties by [getters] of [fromClass] and [setters] of [toClass] in pairs, and
+     * returns its instance. Null values are not copied if [ignoreNull] is true. Returns null if failed.
+     *
+     * All pairs must pass [isAccessible].
+     */
+    fun generate(
+        classLoader: ClassLoader,
+        fromClass: Class<*>,
+        toClass: Class<*>,
+        getters: List<Method>,
+        setters: List<Method>,
+        ignoreNull: Boolean,
+    ): BiConsumer<Any, Any>? {
+        return try {
+            val className = CLASS_NAME_PREFIX + counter.getAndIncrement()
+            val bytes = ClassWriter(className).write(fromClass, toClass, getters, setters, ignoreNull)
+            if (bytes === null) {
+                return null
+            }
+            bytes.loadClass<BiConsumer<Any, Any>>(classLoader).getConstructor().newInstance()
+        } catch (e: Throwable) {
+            if (e is VirtualMachineError) {
+                throw e
+            }
+            null
+        }
+    }
+
+    /**
+     * Returns whether [clazz] is public (or primitive) and visible from [classLoader].
+     */
+    fun isVisible(classLoader: ClassLoader, clazz: Class<*>): Boolean {
+        if (clazz.isPrimitive) {
+            return true
+        }
+        if (clazz.isArray) {
+            return isVisible(classLoader, clazz.componentType)
+        }
+        if (!Modifier.isPublic(clazz.modifiers)) {
+            return false
+        }
+        return try {
+            Class.forName(clazz.name, false, classLoader) === clazz
+        } catch (e: ClassNotFoundException) {
+            false
+        }
+    }
+
+    private class ClassWriter(private val className: String) {
+
+        private val constants = ByteArrayOutputStream()
+        private val constantOutput = DataOutputStream(constants)
+        private val constantIndexes = HashMap<String, Int>()
+        private var constantCount = 1
+
+        fun write(
+            fromClass: Class<*>,
+            toClass: Class<*>,
+            getters: List<Method>,
+            setters: List<Method>,
+            ignoreNull: Boolean,
+        ): ByteArray? {
+            val thisIndex = classConstant(className)
+            val objectIndex = classConstant("java/lang/Object")
+            val consumerIndex = classConstant("java/util/function/BiConsumer")
+            val objectInitIndex = methodConstant("java/lang/Object", "<init>", "()V", false)
+            val codeIndex = utf8Constant("Code")
+            val initNameIndex = utf8Constant("<init>")
+            val initDescIndex = utf8Constant("()V")
+            val acceptNameIndex = utf8Constant("accept")
+            val acceptDescIndex = utf8Constant("(Ljava/lang/Object;Ljava/lang/Object;)V")
+
+            //(from, to) -> { val f = from as From; val t = to as To; t.setX(f.getX()) ... }
+            val code = ByteArrayOutputStream()
+            val codeOutput = DataOutputStream(code)
+            //Offsets of branch instructions and their targets
+            val branches = mutableListOf<Pair<Int, Int>>()
+            codeOutput.writeByte(ALOAD_1)
+            codeOutput.writeByte(CHECKCAST)
+            codeOutput.writeShort(classConstant(internalName(fromClass)))
+            codeOutput.writeByte(ASTORE_3)
+            codeOutput.writeByte(ALOAD_2)
+            codeOutput.writeByte(CHECKCAST)
+            codeOutput.writeShort(classConstant(internalName(toClass)))
+            codeOutput.writeByte(ASTORE)
+            codeOutput.writeByte(4)
+            for (i in getters.indices) {
+                val getter = getters[i]
+                val setter = setters[i]
+                val valueClass = getter.returnType
+                val paramClass = setter.parameterTypes[0]
+                if (ignoreNull && !valueClass.isPrimitive) {
+                    codeOutput.writeByte(ALOAD_3)
+                    writeInvoke(codeOutput, fromClass, getter)
+                    writeCast(codeOutput, valueClass, paramClass)
+                    codeOutput.writeByte(ASTORE)
+                    codeOutput.writeByte(5)
+                    codeOutput.writeByte(ALOAD)
+                    codeOutput.writeByte(5)
+                    val branchOffset = code.size()
+                    codeOutput.writeByte(IFNULL)
+                    codeOutput.writeShort(0)
+                    codeOutput.writeByte(ALOAD)
+                    codeOutput.writeByte(4)
+                    codeOutput.writeByte(ALOAD)
+                    codeOutput.writeByte(5)
+                    writeInvoke(codeOutput, toClass, setter)
+                    writePop(codeOutput, setter.returnType)
+                    codeOutput.flush()
+                    branches.add(branchOffset to code.size())
+                } else {
+                    codeOutput.writeByte(ALOAD)
+                    codeOutput.writeByte(4)
+                    codeOutput.writeByte(ALOAD_3)
+                    writeInvoke(codeOutput, fromClass, getter)
+                    writeCast(codeOutput, valueClass, paramClass)
+                    writeInvoke(codeOutput, toClass, setter)
+                    writePop(codeOutput, setter.returnType)
+                }
+            }
+            codeOutput.writeByte(RETURN)
+            codeOutput.flush()
+            if (code.size() > MAX_CODE_LENGTH || constantCount > 0xffff) {
+                return null
+            }
+            val codeBytes = code.toByteArray()
+            for ((offset, target) in branches) {
+                val jump = target - offset
+                if (jump > Short.MAX_VALUE) {
+                    return null
+                }
+                codeBytes[offset + 1] = (jump shr 8).toByte()
+                codeBytes[offset + 2] = jump.toByte()
+            }
+
+            val bytes = ByteArrayOutputStream()
+            val output = DataOutputStream(bytes)
+            output.writeInt(0xcafebabe.toInt())
+            output.writeShort(0)
+            output.writeShort(CLASS_VERSION)
+            output.writeShort(constantCount)
+            constantOutput.flush()
+            constants.writeTo(output)
+            output.writeShort(ACC_PUBLIC or ACC_FINAL or ACC_SUPER)
+            output.writeShort(thisIndex)
+            output.writeShort(objectIndex)
+            output.writeShort(1)
+            output.writeShort(consumerIndex)
+            //Fields
+            output.writeShort(0)
+            //Methods
+            output.writeShort(2)
+            val initCode = byteArrayOf(
+                ALOAD_0.toByte(), INVOKESPECIAL.toByte(),
+                (objectInitIndex shr 8).toByte(), objectInitIndex.toByte(), RETURN.toByte()
+            )
+            writeMethod(output, initNameIndex, initDescIndex, codeIndex, 1, 1, initCode)
+            //Max stack: target, and a long or double value
+            writeMethod(output, acceptNameIndex, acceptDescIndex, codeIndex, 3, 6, codeBytes)
+            //Attributes
+            output.writeShort(0)
+            output.flush()
+            return bytes.toByteArray()
+        }
+
+        private fun writeMethod(
+            output: DataOutputStream,
+            nameIndex: Int,
+            descIndex: Int,
+            codeIndex: Int,
+            maxStack: Int,
+            maxLocals: Int,
+            code: ByteArray,
+        ) {
+            output.writeShort(ACC_PUBLIC)
+            output.writeShort(nameIndex)
+            output.writeShort(descIndex)
+            output.writeShort(1)
+            output.writeShort(codeIndex)
+            output.writeInt(12 + code.size)
+            output.writeShort(maxStack)
+            output.writeShort(maxLocals)
+            output.writeInt(code.size)
+            output.write(code)
+            //Exception table and attributes
+            output.writeShort(0)
+            output.writeShort(0)
+        }
+
+        private fun writeInvoke(output: DataOutputStream, owner: Class<*>, method: Method) {
+            val descriptor = methodDescriptor(method)
+            val index = methodConstant(internalName(owner), method.name, descriptor, owner.isInterface)
+            if (owner.isInterface) {
+                output.writeByte(INVOKEINTERFACE)
+                output.writeShort(index)
+                output.writeByte(1 + method.parameterTypes.sumBy { slotSize(it) })
+                output.writeByte(0)
+            } else {
+                output.writeByte(INVOKEVIRTUAL)
+                output.writeShort(index)
+            }
+        }
+
+        private fun writeCast(output: DataOutputStream, valueClass: Class<*>, paramClass: Class<*>) {
+            if (!paramClass.isPrimitive && !paramClass.isAssignableFrom(valueClass)) {
+                output.writeByte(CHECKCAST)
+                output.writeShort(classConstant(internalName(paramClass)))
+            }
+        }
+
+        private fun writePop(output: DataOutputStream, returnClass: Class<*>) {
+            when (slotSize(returnClass)) {
+                1 -> output.writeByte(POP)
+                2 -> output.writeByte(POP2)
+            }
+        }
+
+        private fun utf8Constant(value: String): Int {
+            return constantIndexes.getOrPut("U$value") {
+                constantOutput.writeByte(CONSTANT_UTF8)
+                constantOutput.writeUTF(value)
+                constantCount++
+            }
+        }
+
+        private fun classConstant(internalName: String): Int {
+            return constantIndexes.getOrPut("C$internalName") {
+                val nameIndex = utf8Constant(internalName)
+                constantOutput.writeByte(CONSTANT_CLASS)
+                constantOutput.writeShort(nameIndex)
+                constantCount++
+            }
+        }
+
+        private fun methodConstant(owner: String, name: String, descriptor: String, isInterface: Boolean): Int {
+            return constantIndexes.getOrPut("M$owner.$name$descriptor") {
+                val ownerIndex = classConstant(owner)
+                val nameIndex = utf8Constant(name)
+                val descIndex = utf8Constant(descriptor)
+                val nameAndTypeIndex = constantCount++
+                constantOutput.writeByte(CONSTANT_NAME_AND_TYPE)
+                constantOutput.writeShort(nameIndex)
+                constantOutput.writeShort(descIndex)
+                constantOutput.writeByte(if (isInterface) CONSTANT_INTERFACE_METHODREF else CONSTANT_METHODREF)
+                constantOutput.writeShort(ownerIndex)
+                constantOutput.writeShort(nameAndTypeIndex)
+                constantCount++
+            }
+        }
+    }
+
+    private fun internalName(clazz: Class<*>): String {
+        return if (clazz.isArray) descriptor(clazz) else clazz.name.replace('.', '/')
+    }
+
+    private fun methodDescriptor(method: Method): String {
+        return method.parameterTypes.joinToString("", "(", ")") { descriptor(it) } + descriptor(method.returnType)
+    }
+
+    private fun descriptor(clazz: Class<*>): String {
+        return when {
+            clazz === Void.TYPE -> "V"
+            clazz === Boolean::class.javaPrimitiveType -> "Z"
+            clazz === Byte::class.javaPrimitiveType -> "B"
+            clazz === Char::class.javaPrimitiveType -> "C"
+            clazz === Short::class.javaPrimitiveType -> "S"
+            clazz === Int::class.javaPrimitiveType -> "I"
+            clazz === Long::class.javaPrimitiveType -> "J"
+            clazz === Float::class.javaPrimitiveType -> "F"
+            clazz === Double::class.javaPrimitiveType -> "D"
+            clazz.isArray -> clazz.name.replace('.', '/')
+            else -> "L" + clazz.name.replace('.', '/') + ";"
+        }
+    }
+
+    private fun slotSize(clazz: Class<*>): Int {
+        return when {
+            clazz === Void.TYPE -> 0
+            clazz === Long::class.javaPrimitiveType || clazz === Double::class.javaPrimitiveType -> 2
+            else -> 1
+        }
+    }
+
+    private const val CLASS_VERSION = 49
+
+    private const val ACC_PUBLIC = 0x0001
+    private const val ACC_FINAL = 0x0010
+    private const val ACC_SUPER = 0x0020
+
+    private const val CONSTANT_UTF8 = 1
+    private const val CONSTANT_CLASS = 7
+    private const val CONSTANT_METHODREF = 10
+    private const val CONSTANT_INTERFACE_METHODREF = 11
+    private const val CONSTANT_NAME_AND_TYPE = 12
+
+    private const val ALOAD = 0x19
+    private const val ALOAD_0 = 0x2a
+    private const val ALOAD_1 = 0x2b
+    private const val ALOAD_2 = 0x2c
+    private const val ALOAD_3 = 0x2d
+    private const val ASTORE = 0x3a
+    private const val ASTORE_3 = 0x4e
+    private const val POP = 0x57
+    private const val POP2 = 0x58
+    private const val IFNULL = 0xc6
+    private const val RETURN = 0xb1
+    private const val INVOKEVIRTUAL = 0xb6
+    private const val INVOKESPECIAL = 0xb7
+    private const val INVOKEINTERFACE = 0xb9
+    private const val CHECKCAST = 0xc0
+}
\ No newline at end of file
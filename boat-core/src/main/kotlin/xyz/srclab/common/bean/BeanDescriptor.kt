@@ -0,0 +1,313 @@
+package xyz.srclab.common.bean
+
+import xyz.srclab.common.base.INAPPLICABLE_JVM_NAME
+import xyz.srclab.common.base.NamingCase
+import xyz.srclab.common.base.asAny
+import xyz.srclab.common.base.loadStringResources
+import xyz.srclab.common.invoke.Invoker
+import xyz.srclab.common.reflect.searchFieldOrNull
+import java.lang.reflect.Field
+import java.lang.reflect.Method
+import java.lang.reflect.Type
+import java.util.*
+
+/**
+ * Descriptor of bean style properties of [beanClass], generated at build time by
+ * [xyz.srclab.common.bean.processing.JavaBeanProcessor] for classes annotated by [xyz.srclab.annotations.JavaBean].
+ * Properties described by a descriptor are resolved and accessed without reflection. The processor is opt-in: it is
+ * not registered as a service and must be specified by `-processor` of javac.
+ *
+ * Properties are indexed from 0 until [propertyCount]. Generated descriptors are named as binary name of the bean
+ * class with suffix [CLASS_NAME_SUFFIX], and listed in index resource [INDEX_RESOURCE], see [forClass].
+ *
+ * @see BeanStyleBeanResolveHandler
+ */
+interface BeanDescriptor {
+
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    val beanClass: Class<*>
+        @JvmName("beanClass") get
+
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    val propertyCount: Int
+        @JvmName("propertyCount") get
+
+    /**
+     * Returns name of accessors of property at [index] without `get`/`set` prefix, such as `Name` of `getName`.
+     */
+    fun accessorName(index: Int): String
+
+    /**
+     * Returns name of property at [index], such as `name` of `getName`. Generated descriptors return names computed at
+     * build time, default implementation converts [accessorName] from `UpperCamel` to `lowerCamel` by [NamingCase].
+     */
+    @JvmDefault
+    fun propertyName(index: Int): String {
+        return NamingCase.UPPER_CAMEL.convertTo(accessorName(index), NamingCase.LOWER_CAMEL)
+    }
+
+    fun propertyType(index: Int): Type
+
+    fun isReadable(index: Int): Boolean
+
+    fun isWriteable(index: Int): Boolean
+
+    fun getValue(bean: Any, index: Int): Any?
+
+    fun setValue(bean: Any, index: Int, value: Any?)
+
+    //Primitive accessors: generated descriptors access properties of primitive types without boxing, default
+    //implementations box or unbox values by getValue and setValue.
+
+    @JvmDefault
+    fun getBoolean(bean: Any, index: Int): Boolean {
+        return getValue(bean, index) as Boolean
+    }
+
+    @JvmDefault
+    fun setBoolean(bean: Any, index: Int, value: Boolean) {
+        setValue(bean, index, value)
+    }
+
+    @JvmDefault
+    fun getByte(bean: Any, index: Int): Byte {
+        return getValue(bean, index) as Byte
+    }
+
+    @JvmDefault
+    fun setByte(bean: Any, index: Int, value: Byte) {
+        setValue(bean, index, value)
+    }
+
+    @JvmDefault
+    fun getShort(bean: Any, index: Int): Short {
+        return getValue(bean, index) as Short
+    }
+
+    @JvmDefault
+    fun setShort(bean: Any, index: Int, value: Short) {
+        setValue(bean, index, value)
+    }
+
+    @JvmDefault
+    fun getChar(bean: Any, index: Int): Char {
+        return getValue(bean, index) as Char
+    }
+
+    @JvmDefault
+    fun setChar(bean: Any, index: Int, value: Char) {
+        setValue(bean, index, value)
+    }
+
+    @JvmDefault
+    fun getInt(bean: Any, index: Int): Int {
+        return getValue(bean, index) as Int
+    }
+
+    @JvmDefault
+    fun setInt(bean: Any, index: Int, value: Int) {
+        setValue(bean, index, value)
+    }
+
+    @JvmDefault
+    fun getLong(bean: Any, index: Int): Long {
+        return getValue(bean, index) as Long
+    }
+
+    @JvmDefault
+    fun setLong(bean: Any, index: Int, value: Long) {
+        setValue(bean, index, value)
+    }
+
+    @JvmDefault
+    fun getFloat(bean: Any, index: Int): Float {
+        return getValue(bean, index) as Float
+    }
+
+    @JvmDefault
+    fun setFloat(bean: Any, index: Int, value: Float) {
+        setValue(bean, index, value)
+    }
+
+    @JvmDefault
+    fun getDouble(bean: Any, index: Int): Double {
+        return getValue(bean, index) as Double
+    }
+
+    @JvmDefault
+    fun setDouble(bean: Any, index: Int, value: Double) {
+        setValue(bean, index, value)
+    }
+
+    companion object {
+
+        const val CLASS_NAME_SUFFIX = "\$\$BeanDescriptor"
+        const val INDEX_RESOURCE = "META-INF/services/xyz.srclab.common.bean.BeanDescriptor"
+
+        //Names of listed descriptors of each class loader
+        private val indexes: MutableMap<ClassLoader, Set<String>> = Collections.synchronizedMap(WeakHashMap())
+
+        /**
+         * Returns generated descriptor of [beanClass], or null if the descriptor is not listed in [INDEX_RESOURCE] of
+         * class loader of [beanClass], or it fails to be loaded (such as a stale entry of the index, or a descriptor
+         * compiled against another version of the bean class). Index resources of a class loader are read only once.
+         */
+        @JvmStatic
+        fun forClass(beanClass: Class<*>): BeanDescriptor? {
+            val classLoader = beanClass.classLoader ?: return null
+            val descriptorName = beanClass.name + CLASS_NAME_SUFFIX
+            val index = indexes.getOrPut(classLoader) { readIndex(classLoader) }
+            if (!index.contains(descriptorName)) {
+                return null
+            }
+            val descriptor = try {
+                Class.forName(descriptorName, true, classLoader).getConstructor().newInstance()
+            } catch (e: ReflectiveOperationException) {
+                return null
+            } catch (e: LinkageError) {
+                return null
+            }
+            if (descriptor !is BeanDescriptor) {
+                return null
+            }
+            return if (descriptor.beanClass == beanClass) descriptor else null
+        }
+
+        private fun readIndex(classLoader: ClassLoader): Set<String> {
+            val names = HashSet<String>()
+            for (content in INDEX_RESOURCE.loadStringResources(classLoader)) {
+                for (line in content.lines()) {
+                    val name = line.substringBefore('#').trim()
+                    if (name.isNotEmpty()) {
+                        names.add(name)
+                    }
+                }
+            }
+            return names
+        }
+    }
+}
+
+internal class DescriptorPropertyType(
+    override val ownerType: BeanType,
+    override val name: String,
+    private val descriptor: BeanDescriptor,
+    private val index: Int,
+) : PropertyType {
+
+    override val type: Type = descriptor.propertyType(index)
+    override val getter: Invoker? = if (descriptor.isReadable(index)) GetterInvoker() else null
+    override val setter: Invoker? = if (descriptor.isWriteable(index)) SetterInvoker() else null
+    override val getterMethod: Method? by lazy {
+        if (getter === null) null else findMethod("get" + descriptor.accessorName(index))
+    }
+    override val setterMethod: Method? by lazy {
+        if (setter === null) null else findMethod("set" + descriptor.accessorName(index), rawClass)
+    }
+    override val backingField: Field? by lazy { ownerType.rawClass.searchFieldOrNull(name, deep = true) }
+    override val backingFieldAnnotations: List<Annotation> by lazy {
+        val f = backingField
+        if (f === null) emptyList() else f.annotations.asList()
+    }
+
+    override fun <T> getValue(bean: Any): T {
+        if (getter === null) {
+            throw UnsupportedOperationException("This property is not readable: $name")
+        }
+        return descriptor.getValue(bean, index).asAny()
+    }
+
+    override fun <T> setValue(bean: Any, value: Any?): T {
+        if (setter === null) {
+            throw UnsupportedOperationException("This property is not writeable: $name")
+        }
+        val old = if (getter === null) null else descriptor.getValue(bean, index)
+        descriptor.setValue(bean, index, value)
+        return old.asAny()
+    }
+
+    override fun getBoolean(bean: Any): Boolean = descriptor.getBoolean(bean, index)
+
+    override fun setBoolean(bean: Any, value: Boolean) = descriptor.setBoolean(bean, index, value)
+
+    override fun getByte(bean: Any): Byte = descriptor.getByte(bean, index)
+
+    override fun setByte(bean: Any, value: Byte) = descriptor.setByte(bean, index, value)
+
+    override fun getShort(bean: Any): Short = descriptor.getShort(bean, index)
+
+    override fun setShort(bean: Any, value: Short) = descriptor.setShort(bean, index, value)
+
+    override fun getChar(bean: Any): Char = descriptor.getChar(bean, index)
+
+    override fun setChar(bean: Any, value: Char) = descriptor.setChar(bean, index, value)
+
+    override fun getInt(bean: Any): Int = descriptor.getInt(bean, index)
+
+    override fun setInt(bean: Any, value: Int) = descriptor.setInt(bean, index, value)
+
+    override fun getLong(bean: Any): Long = descriptor.getLong(bean, index)
+
+    override fun setLong(bean: Any, value: Long) = descriptor.setLong(bean, index, value)
+
+    override fun getFloat(bean: Any): Float = descriptor.getFloat(bean, index)
+
+    override fun setFloat(bean: Any, value: Float) = descriptor.setFloat(bean, index, value)
+
+    override fun getDouble(bean: Any): Double = descriptor.getDouble(bean, index)
+
+    override fun setDouble(bean: Any, value: Double) = descriptor.setDouble(bean, index, value)
+
+    override fun equals(other: Any?): Boolean {
+        if (this === other) return true
+        if (other !is PropertyType) return false
+
+        if (ownerType != other.ownerType) return false
+        if (name != other.name) return false
+        if (type != other.type) return false
+
+        return true
+    }
+
+    override fun hashCode(): Int {
+        var result = ownerType.hashCode()
+        result = 31 * result + name.hashCode()
+        return result
+    }
+
+    override fun toString(): String {
+        return "$name: ${ownerType.type.typeName}.${type.typeName}"
+    }
+
+    //Methods are only needed by generated copiers, see BeanCopier
+    private fun findMethod(name: String, vararg parameterTypes: Class<*>): Method? {
+        return try {
+            ownerType.rawClass.getMethod(name, *parameterTypes)
+        } catch (e: NoSuchMethodException) {
+            null
+        }
+    }
+
+    private inner class GetterInvoker : Invoker {
+
+        override fun <T> invoke(`object`: Any?, vararg args: Any?): T {
+            return descriptor.getValue(`object`!!, index).asAny()
+        }
+
+        override fun <T> invokeForcibly(`object`: Any?, vararg args: Any?): T {
+            return invoke(`object`, *args)
+        }
+    }
+
+    private inner class SetterInvoker : Invoker {
+
+        override fun <T> invoke(`object`: Any?, vararg args: Any?): T {
+            descriptor.setValue(`object`!!, index, args[0])
+            return null.asAny()
+        }
+
+        override fun <T> invokeForcibly(`object`: Any?, vararg args: Any?): T {
+            return invoke(`object`, *args)
+        }
+    }
+}
\ No newline at end of file
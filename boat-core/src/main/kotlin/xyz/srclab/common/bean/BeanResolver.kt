@@ -1,10 +1,13 @@
 package xyz.srclab.common.bean
 
 import xyz.srclab.annotations.Written
+import xyz.srclab.common.base.Current
+import xyz.srclab.common.base.Environment
 import xyz.srclab.common.base.INAPPLICABLE_JVM_NAME
 import xyz.srclab.common.base.NamingCase
 import xyz.srclab.common.base.asAny
 import xyz.srclab.common.cache.Cache
+import xyz.srclab.common.cache.TinyLfuCache
 import xyz.srclab.common.collect.MapType
 import xyz.srclab.common.collect.MapType.Companion.toMapType
 import xyz.srclab.common.collect.asToList
@@ -13,7 +16,21 @@ import xyz.srclab.common.convert.Converter
 import xyz.srclab.common.invoke.Invoker
 import xyz.srclab.common.invoke.Invoker.Companion.toInvoker
 import xyz.srclab.common.reflect.*
+import xyz.srclab.common.run.Runner
+import xyz.srclab.common.run.Running
+import java.io.BufferedReader
+import java.io.Reader
+import java.io.Writer
+import java.lang.invoke.MethodHandle
+import java.lang.invoke.MethodHandles
+import java.lang.invoke.MethodType
 import java.lang.reflect.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.RecursiveAction
+import java.util.function.BiConsumer
+import java.util.function.Function
 
 /**
  * @author sunqian
@@ -38,9 +55,33 @@ interface BeanResolver {
         return asMap(bean, CopyOptions.DEFAULT)
     }
 
+    /**
+     * Returns a map view of [bean], which reads and writes properties on each access. Entries of the view are
+     * readable properties passing filters of [copyOptions], they are filtered once when the view is first used, and
+     * all methods (including `get` and `put`) only see these entries. Values are converted by converter of
+     * [copyOptions] both when read and written.
+     *
+     * To avoid allocation, iterator of entries returns a reused cursor as each entry, which is only valid until next
+     * call of `next()`; copy key and value out if the entry is retained.
+     */
     @JvmDefault
     fun asMap(bean: Any, copyOptions: CopyOptions): MutableMap<String, Any?> {
-        return BeanAsMap(bean, resolve(bean.javaClass).properties, copyOptions)
+        return BeanAsMap(bean, resolve(bean.javaClass).propertyIndex, copyOptions)
+    }
+
+    @JvmDefault
+    fun asSnapshotMap(bean: Any): Map<String, Any?> {
+        return asSnapshotMap(bean, CopyOptions.DEFAULT)
+    }
+
+    /**
+     * Returns a read-only map of which entries are readable properties of [bean] passing filters of [copyOptions].
+     * Unlike [asMap], which is a view reading properties on each access, values of all entries are read and
+     * converted at once into an array when this map is created.
+     */
+    @JvmDefault
+    fun asSnapshotMap(bean: Any, copyOptions: CopyOptions): Map<String, Any?> {
+        return newSnapshotMap(bean, resolve(bean.javaClass).propertyIndex, copyOptions)
     }
 
     @JvmDefault
@@ -178,47 +219,208 @@ interface BeanResolver {
                 to
             }
             from !is Map<*, *> && to !is Map<*, *> -> {
-                val fromType = resolve(copyOptions.fromType ?: from.javaClass)
-                val toType = resolve(copyOptions.toType ?: to.javaClass)
-                val fromProperties = fromType.properties
-                val toProperties = toType.properties
-                fromProperties.forEach { (name, fromProperty) ->
-                    if (!copyOptions.includeClassProperty && name == "class") {
-                        return@forEach
-                    }
-                    if (!copyOptions.nameFilter(name)
-                        || !fromProperty.isReadable
-                        || !copyOptions.fromTypeFilter(name, String::class.java, fromProperty.type)
-                    ) {
-                        return@forEach
-                    }
-                    val toProperty = toProperties[name]
-                    if (toProperty === null || !toProperty.isWriteable) {
-                        return@forEach
-                    }
-                    val value = fromProperty.getValue<Any?>(from)
-                    if (!copyOptions.fromValueFilter(name, String::class.java, fromProperty.type, value)
-                        || !copyOptions.convertFilter(
-                            name,
-                            String::class.java,
-                            fromProperty.type,
-                            value,
-                            String::class.java,
-                            toProperty.type
-                        )
-                    ) {
-                        return@forEach
-                    }
-                    toProperty.setValue<Any?>(
-                        to, copyOptions.converter.convert(value, fromProperty.type, toProperty.type)
-                    )
-                }
-                to
+                val fromType = copyOptions.fromType ?: from.javaClass
+                val toType = copyOptions.toType ?: to.javaClass
+                compileCopier(fromType, toType, copyOptions).copy(from, to)
             }
             else -> throw IllegalArgumentException("Copy failed from $from to $to.")
         }
     }
 
+    @JvmDefault
+    fun compileCopier(fromType: Type, toType: Type): BeanCopier {
+        return compileCopier(fromType, toType, CopyOptions.DEFAULT)
+    }
+
+    /**
+     * Returns a [BeanCopier] which copies properties from beans of [fromType] to beans of [toType] with
+     * [copyOptions] (its [CopyOptions.fromType] and [CopyOptions.toType] are ignored).
+     *
+     * Implementation may cache copiers for built-in options and options created by [CopyOptions.with]. Copiers are
+     * generated as classes (see [BeanCopier.newBeanCopier]) only if they are cached, so this default implementation,
+     * which doesn't cache, never generates.
+     */
+    @JvmDefault
+    fun compileCopier(fromType: Type, toType: Type, copyOptions: CopyOptions): BeanCopier {
+        return BeanCopier.newBeanCopier(this, fromType, toType, copyOptions, false)
+    }
+
+    @JvmDefault
+    fun <T : Any> copyAll(sources: List<*>, targetSupplier: () -> T): List<T> {
+        return copyAll(sources, targetSupplier, CopyOptions.DEFAULT)
+    }
+
+    @JvmDefault
+    fun <T : Any> copyAll(sources: List<*>, targetSupplier: () -> T, copyOptions: CopyOptions): List<T> {
+        return copyAll(sources, targetSupplier, copyOptions, null)
+    }
+
+    /**
+     * Copies properties of each of [sources] to a new target created by [targetSupplier], returns list of targets in
+     * order of [sources]. Sources must not be null.
+     *
+     * A copy plan (see [compileCopier]) is compiled once for each pair of source and target classes in this batch.
+     * Large batches (see [BATCH_CHUNK_SIZE]) are split into chunks, which are copied in parallel in
+     * [ForkJoinPool.commonPool] if [runner] is null, or by [runner]. So [targetSupplier] and filters of
+     * [copyOptions] must be thread-safe.
+     */
+    @JvmDefault
+    fun <T : Any> copyAll(
+        sources: List<*>,
+        targetSupplier: () -> T,
+        copyOptions: CopyOptions,
+        runner: Runner?
+    ): List<T> {
+        return copyAllInChunks(this, sources, targetSupplier, copyOptions, runner)
+    }
+
+    @JvmDefault
+    fun <T : Any> mapAll(sources: List<*>, targetType: Type): List<T> {
+        return mapAll(sources, targetType, CopyOptions.DEFAULT)
+    }
+
+    @JvmDefault
+    fun <T : Any> mapAll(sources: List<*>, targetType: Type, copyOptions: CopyOptions): List<T> {
+        return mapAll(sources, targetType, copyOptions, null)
+    }
+
+    /**
+     * Maps each of [sources] to a new instance of [targetType] (created by its public empty constructor) as
+     * [copyAll]. [targetType] is used as [CopyOptions.toType] if that is null.
+     */
+    @JvmDefault
+    fun <T : Any> mapAll(sources: List<*>, targetType: Type, copyOptions: CopyOptions, runner: Runner?): List<T> {
+        val constructor = targetType.rawClass.getConstructor()
+        val options = if (copyOptions.toType === null) copyOptions.withToType(targetType) else copyOptions
+        return copyAll(sources, { constructor.newInstance().asAny<T>() }, options, runner)
+    }
+
+    /**
+     * Returns a deep copy of [obj]: immutable values (such as [String], primitive wrappers, enums and `java.time`
+     * types) are returned as they are, arrays, [Collection]s and [Map]s are copied with their elements deeply
+     * copied, and beans are created by their public empty constructors with properties deeply copied.
+     *
+     * Copy plans of classes are compiled once and cached per resolver. Objects are tracked by identity (so cycles
+     * and shared references are preserved) only if the object graph may contain cycles.
+     *
+     * @throws IllegalArgumentException if a bean has no public empty constructor
+     */
+    @JvmDefault
+    fun <T> deepCopy(obj: T): T {
+        return DeepCopier.forResolver(this).copy(obj)
+    }
+
+    /**
+     * Returns snapshot of readable property values of [bean], as baseline of [copyChanged].
+     */
+    @JvmDefault
+    fun snapshot(bean: Any): BeanSnapshot {
+        return BeanSnapshot.newBeanSnapshot(resolve(bean.javaClass), bean)
+    }
+
+    @JvmDefault
+    fun copyChanged(from: Any, to: Any, baseline: BeanSnapshot): BeanSnapshot {
+        return copyChanged(from, to, baseline, Converter.DEFAULT)
+    }
+
+    /**
+     * Copies properties of [from] whose values differ from [baseline] (usually snapshot of [from] at last copying) to
+     * properties of same names of [to], converted by [converter] if their types differ. Returns snapshot of [from]
+     * taken while comparing, as baseline of next copying.
+     *
+     * Unchanged properties are read only once and are neither converted nor written, primitive properties are
+     * compared without boxing. If [baseline] is not a snapshot of the class of [from], it is compared by property
+     * names and values.
+     *
+     * @see BeanSnapshot
+     */
+    @JvmDefault
+    fun copyChanged(from: Any, to: Any, baseline: BeanSnapshot, converter: Converter): BeanSnapshot {
+        return SnapshotPlan.copyChanged(this, from, to, baseline, converter)
+    }
+
+    /**
+     * Resolves [types] in background on [runner], and returns progress of pre-resolving. It is used to warm up
+     * resolving at startup, types resolved by implementation with cache are not resolved again on first use.
+     *
+     * Types are taken one by one by a few tasks submitted to [runner], failure of one type doesn't stop others.
+     */
+    @JvmDefault
+    fun preResolve(types: Iterable<Type>, runner: Runner): PreResolving {
+        return PreResolving.start(this, types.toList(), Current.classLoader, runner)
+    }
+
+    /**
+     * Pre-resolves classes in [packageName] and its sub-packages, loaded by current class loader.
+     *
+     * @see preResolve
+     */
+    @JvmDefault
+    fun preResolve(packageName: String, runner: Runner): PreResolving {
+        return preResolve(packageName, Current.classLoader, runner)
+    }
+
+    /**
+     * Pre-resolves classes in [packageName] and its sub-packages, loaded by [classLoader]. Class names are scanned
+     * from directories and jars of [classLoader] in current thread, classes are loaded (without initializing) and
+     * resolved on [runner].
+     *
+     * @see preResolve
+     */
+    @JvmDefault
+    fun preResolve(packageName: String, classLoader: ClassLoader, runner: Runner): PreResolving {
+        return PreResolving.start(this, PreResolving.scanClassNames(packageName, classLoader), classLoader, runner)
+    }
+
+    /**
+     * Names of classes resolved by this resolver (raw classes of parameterized types), in order of name. Empty if
+     * implementation doesn't record resolved classes.
+     *
+     * @see writeResolvedClassNames
+     */
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    @JvmDefault
+    val resolvedClassNames: Set<String>
+        @JvmName("resolvedClassNames") get() = emptySet()
+
+    /**
+     * Writes [resolvedClassNames] into [output], one name per line. The record can be replayed by
+     * [preResolveRecorded] at next startup, to pre-resolve exactly the classes used last time.
+     */
+    @JvmDefault
+    fun writeResolvedClassNames(output: Writer) {
+        for (className in resolvedClassNames) {
+            output.write(className)
+            output.write(System.lineSeparator())
+        }
+        output.flush()
+    }
+
+    /**
+     * Pre-resolves classes recorded by [writeResolvedClassNames], loaded by current class loader.
+     *
+     * @see preResolve
+     */
+    @JvmDefault
+    fun preResolveRecorded(input: Reader, runner: Runner): PreResolving {
+        return preResolveRecorded(input, Current.classLoader, runner)
+    }
+
+    /**
+     * Pre-resolves classes recorded by [writeResolvedClassNames], loaded by [classLoader]. Blank lines and lines
+     * start with `#` are ignored, classes no longer exist are reported as failures.
+     *
+     * @see preResolve
+     */
+    @JvmDefault
+    fun preResolveRecorded(input: Reader, classLoader: ClassLoader, runner: Runner): PreResolving {
+        val classNames = BufferedReader(input).lineSequence()
+            .map { it.trim() }
+            .filter { it.isNotEmpty() && !it.startsWith("#") }
+            .toList()
+        return PreResolving.start(this, classNames, classLoader, runner)
+    }
+
     @JvmDefault
     fun withPreResolveHandler(preResolveHandler: BeanResolveHandler): BeanResolver {
         return newBeanResolver(listOf(preResolveHandler).plus(resolveHandlers))
@@ -270,7 +472,7 @@ interface BeanResolver {
         @Suppress(INAPPLICABLE_JVM_NAME)
         @JvmDefault
         val fromValueFilter: (name: Any?, fromNameType: Type, fromValueType: Type, fromValue: Any?) -> Boolean
-            @JvmName("fromValueFilter") get() = { _, _, _, _ -> true }
+            @JvmName("fromValueFilter") get() = AllValues
 
         @Suppress(INAPPLICABLE_JVM_NAME)
         @JvmDefault
@@ -282,7 +484,7 @@ interface BeanResolver {
             toNameType: Type,
             toValueType: Type,
         ) -> Boolean
-            @JvmName("convertFilter") get() = { _, _, _, _, _, _ -> true }
+            @JvmName("convertFilter") get() = AllConversions
 
         @JvmDefault
         fun withFromType(fromType: Type?): CopyOptions {
@@ -353,7 +555,7 @@ interface BeanResolver {
             val IGNORE_NULL = object : CopyOptions {
                 override val fromValueFilter:
                             (name: Any?, fromNameType: Type, fromValueType: Type, fromValue: Any?) -> Boolean =
-                    { _, _, _, fromValue -> fromValue !== null }
+                    NonNullValues
             }
 
             @JvmField
@@ -363,24 +565,20 @@ interface BeanResolver {
                     fromNameType: Type, fromValueType: Type, fromValue: Any?,
                     toNameType: Type, toValueType: Type
                 ) -> Boolean =
-                    { _, fromNameType, fromValueType, _, toNameType, toValueType ->
-                        fromNameType == toNameType && fromValueType == toValueType
-                    }
+                    IdenticalTypes
             }
 
             @JvmField
             val IGNORE_NULL_WITHOUT_CONVERSION = object : CopyOptions {
                 override val fromValueFilter:
                             (name: Any?, fromNameType: Type, fromValueType: Type, fromValue: Any?) -> Boolean =
-                    { _, _, _, fromValue -> fromValue !== null }
+                    NonNullValues
                 override val convertFilter: (
                     name: Any?,
                     fromNameType: Type, fromValueType: Type, fromValue: Any?,
                     toNameType: Type, toValueType: Type
                 ) -> Boolean =
-                    { _, fromNameType, fromValueType, _, toNameType, toValueType ->
-                        fromNameType == toNameType && fromValueType == toValueType
-                    }
+                    IdenticalTypes
             }
 
             @JvmStatic
@@ -400,28 +598,108 @@ interface BeanResolver {
                     toValueType: Type,
                 ) -> Boolean,
             ): CopyOptions {
-                return object : CopyOptions {
-                    override val fromType: Type? = fromType
-                    override val toType: Type? = toType
-                    override val converter: Converter = converter
-                    override val nameFilter: (name: Any?) -> Boolean = nameFilter
-                    override val fromTypeFilter: (
-                        name: Any?, fromNameType: Type, fromValueType: Type
-                    ) -> Boolean =
-                        fromTypeFilter
-                    override val fromValueFilter: (
-                        name: Any?, fromNameType: Type, fromValueType: Type, fromValue: Any?
-                    ) -> Boolean =
-                        fromValueFilter
-                    override val convertFilter: (
-                        name: Any?,
-                        fromNameType: Type,
-                        fromValueType: Type,
-                        value: Any?,
-                        toNameType: Type,
-                        toValueType: Type
-                    ) -> Boolean =
-                        convertFilter
+                return CopyOptionsImpl(
+                    fromType, toType, converter, nameFilter, fromTypeFilter, fromValueFilter, convertFilter
+                )
+            }
+
+            /**
+             * Returns whether [copyOptions] is built-in or created by [with], which equals by value.
+             */
+            internal fun isValueBased(copyOptions: CopyOptions): Boolean {
+                return copyOptions is CopyOptionsImpl || isBuiltIn(copyOptions)
+            }
+
+            //Built-in filters, which are recognized by identity (see BeanCopier)
+
+            internal object AllValues : (Any?, Type, Type, Any?) -> Boolean {
+                override fun invoke(name: Any?, fromNameType: Type, fromValueType: Type, fromValue: Any?): Boolean {
+                    return true
+                }
+            }
+
+            internal object NonNullValues : (Any?, Type, Type, Any?) -> Boolean {
+                override fun invoke(name: Any?, fromNameType: Type, fromValueType: Type, fromValue: Any?): Boolean {
+                    return fromValue !== null
+                }
+            }
+
+            internal object AllConversions : (Any?, Type, Type, Any?, Type, Type) -> Boolean {
+                override fun invoke(
+                    name: Any?,
+                    fromNameType: Type,
+                    fromValueType: Type,
+                    value: Any?,
+                    toNameType: Type,
+                    toValueType: Type
+                ): Boolean {
+                    return true
+                }
+            }
+
+            internal object IdenticalTypes : (Any?, Type, Type, Any?, Type, Type) -> Boolean {
+                override fun invoke(
+                    name: Any?,
+                    fromNameType: Type,
+                    fromValueType: Type,
+                    value: Any?,
+                    toNameType: Type,
+                    toValueType: Type
+                ): Boolean {
+                    return fromNameType == toNameType && fromValueType == toValueType
+                }
+            }
+
+            internal fun isBuiltIn(copyOptions: CopyOptions): Boolean {
+                return copyOptions === DEFAULT
+                        || copyOptions === IGNORE_NULL
+                        || copyOptions === DEFAULT_WITHOUT_CONVERSION
+                        || copyOptions === IGNORE_NULL_WITHOUT_CONVERSION
+            }
+
+            private class CopyOptionsImpl(
+                override val fromType: Type?,
+                override val toType: Type?,
+                override val converter: Converter,
+                override val nameFilter: (name: Any?) -> Boolean,
+                override val fromTypeFilter: (name: Any?, fromNameType: Type, fromValueType: Type) -> Boolean,
+                override val fromValueFilter: (
+                    name: Any?, fromNameType: Type, fromValueType: Type, fromValue: Any?
+                ) -> Boolean,
+                override val convertFilter: (
+                    name: Any?,
+                    fromNameType: Type,
+                    fromValueType: Type,
+                    value: Any?,
+                    toNameType: Type,
+                    toValueType: Type
+                ) -> Boolean,
+            ) : CopyOptions {
+
+                override fun equals(other: Any?): Boolean {
+                    if (this === other) return true
+                    if (other !is CopyOptionsImpl) return false
+
+                    if (fromType != other.fromType) return false
+                    if (toType != other.toType) return false
+                    if (converter != other.converter) return false
+                    if (nameFilter != other.nameFilter) return false
+                    if (fromTypeFilter != other.fromTypeFilter) return false
+                    if (fromValueFilter != other.fromValueFilter) return false
+                    if (convertFilter != other.convertFilter) return false
+
+                    return true
+                }
+
+                override fun hashCode(): Int {
+                    var result = fromType?.hashCode() ?: 0
+                    result = 31 * result + (toType?.hashCode() ?: 0)
+                    result = 31 * result + converter.hashCode()
+                    result = 31 * result + nameFilter.hashCode()
+                    result = 31 * result + fromTypeFilter.hashCode()
+                    result = 31 * result + fromValueFilter.hashCode()
+                    result = 31 * result + convertFilter.hashCode()
+                    return result
                 }
             }
         }
@@ -429,80 +707,158 @@ interface BeanResolver {
 
     companion object {
 
+        /**
+         * Default max count of cached [BeanType]s of non-[Class] types, such as [ParameterizedType], for each resolver.
+         */
+        @JvmField
+        val TYPE_CACHE_MAX_SIZE: Long = 1024L
+
         @JvmField
         val DEFAULT: BeanResolver = newBeanResolver(BeanResolveHandler.DEFAULTS)
 
+        /**
+         * Batches of [copyAll] and [mapAll] not larger than this are copied in current thread, larger ones are split
+         * into chunks not smaller than this.
+         */
+        @JvmField
+        val BATCH_CHUNK_SIZE: Int = 1024
+
+        /**
+         * Returns a new [BeanResolver] which caches resolved [BeanType]s in two tiers:
+         *
+         * * [Class]es: cached in a [ClassValue], so a [BeanType] lives as long as its class (and class loader), and no
+         * longer;
+         * * other types, such as [ParameterizedType]: cached in a bounded, strong-referenced cache of which max size is
+         * [typeCacheMaxSize].
+         */
         @JvmStatic
-        fun newBeanResolver(resolveHandlers: Iterable<BeanResolveHandler>): BeanResolver {
-            return BeanResolverImpl(resolveHandlers.asToList())
+        @JvmOverloads
+        fun newBeanResolver(
+            resolveHandlers: Iterable<BeanResolveHandler>,
+            typeCacheMaxSize: Long = TYPE_CACHE_MAX_SIZE
+        ): BeanResolver {
+            return BeanResolverImpl(resolveHandlers.asToList(), typeCacheMaxSize)
+        }
+
+        private fun <T : Any> copyAllInChunks(
+            beanResolver: BeanResolver,
+            sources: List<*>,
+            targetSupplier: () -> T,
+            copyOptions: CopyOptions,
+            runner: Runner?
+        ): List<T> {
+            val size = sources.size
+            val results = arrayOfNulls<Any>(size)
+            val batchCopy = BatchCopy(beanResolver, sources, results, targetSupplier, copyOptions)
+            if (size <= BATCH_CHUNK_SIZE) {
+                batchCopy.copyRange(0, size)
+                return results.asList().asAny()
+            }
+            val chunkSize = maxOf(BATCH_CHUNK_SIZE, size / (Environment.availableProcessors * 4) + 1)
+            if (runner === null) {
+                ForkJoinPool.commonPool().invoke(batchCopy.newTask(0, size, chunkSize))
+                return results.asList().asAny()
+            }
+            val runnings = ArrayList<Running<*>>(size / chunkSize + 1)
+            var start = 0
+            while (start < size) {
+                val chunkStart = start
+                val chunkEnd = minOf(start + chunkSize, size)
+                runnings.add(runner.run { batchCopy.copyRange(chunkStart, chunkEnd) })
+                start = chunkEnd
+            }
+            for (running in runnings) {
+                try {
+                    running.get()
+                } catch (e: ExecutionException) {
+                    throw e.cause ?: e
+                }
+            }
+            return results.asList().asAny()
+        }
+
+        private class BatchCopy(
+            private val beanResolver: BeanResolver,
+            private val sources: List<*>,
+            private val results: Array<Any?>,
+            private val targetSupplier: () -> Any,
+            private val copyOptions: CopyOptions,
+        ) {
+
+            private val copiers = ConcurrentHashMap<Pair<Type, Type>, BeanCopier>()
+
+            fun copyRange(start: Int, end: Int) {
+                var lastFromClass: Class<*>? = null
+                var lastToClass: Class<*>? = null
+                var copier: BeanCopier? = null
+                for (i in start until end) {
+                    val source = sources[i] ?: throw NullPointerException("Source at index $i is null.")
+                    val target = targetSupplier()
+                    if (source is Map<*, *> || target is Map<*, *>) {
+                        results[i] = beanResolver.copyProperties(source, target, copyOptions)
+                        continue
+                    }
+                    if (source.javaClass !== lastFromClass || target.javaClass !== lastToClass) {
+                        lastFromClass = source.javaClass
+                        lastToClass = target.javaClass
+                        val key = (copyOptions.fromType ?: lastFromClass) to (copyOptions.toType ?: lastToClass)
+                        copier = copiers.computeIfAbsent(key) {
+                            beanResolver.compileCopier(it.first, it.second, copyOptions)
+                        }
+                    }
+                    results[i] = copier!!.copy(source, target)
+                }
+            }
+
+            fun newTask(start: Int, end: Int, chunkSize: Int): RecursiveAction {
+                return object : RecursiveAction() {
+                    override fun compute() {
+                        if (end - start <= chunkSize) {
+                            copyRange(start, end)
+                            return
+                        }
+                        val middle = (start + end) ushr 1
+                        invokeAll(newTask(start, middle, chunkSize), newTask(middle, end, chunkSize))
+                    }
+                }
+            }
         }
 
         private class BeanAsMap(
             private val bean: Any,
-            private val properties: Map<String, PropertyType>,
+            private val index: PropertyIndex,
             private val copyOptions: CopyOptions
         ) : AbstractMutableMap<String, Any?>() {
 
             private val mapType = copyOptions.toType?.toMapType() ?: MapType.RAW
 
-            override val size: Int
-                get() = entries.size
-
-            override val entries: MutableSet<MutableMap.MutableEntry<String, Any?>> by lazy {
-                properties.entries
-                    .filter {
-                        val flag = it.value.isReadable
-                                && copyOptions.nameFilter(it.key)
-                                && copyOptions.fromTypeFilter(it.key, String::class.java, it.value.type)
-                        if (!flag) {
-                            return@filter false
-                        }
-                        val value = it.value.getValue<Any?>(bean)
-                        copyOptions.fromValueFilter(
-                            it.key,
-                            String::class.java,
-                            it.value.type,
-                            value
-                        )
-                                && copyOptions.convertFilter(
-                            it.key,
-                            String::class.java,
-                            it.value.type,
-                            value,
-                            mapType.keyType,
-                            mapType.valueType
-                        )
-                    }
-                    .mapTo(LinkedHashSet()) {
-                        object : MutableMap.MutableEntry<String, Any?> {
-                            override val key: String = it.key
-                            override val value: Any?
-                                get() = copyOptions.converter.convert(it.value.getValue(bean), mapType.valueType)
-
-                            override fun setValue(newValue: Any?): Any? {
-                                return it.value.setValue(
-                                    bean,
-                                    copyOptions.converter.convert(newValue, mapType.valueType)
-                                )
-                            }
-                        }
-                    }
+            //Indexes of properties which pass filters of copyOptions
+            private val entryIndexes: IntArray by lazy { filterIndexes(bean, index, copyOptions, mapType, null) }
+
+            //Whether property at each index passes filters
+            private val contained: BooleanArray by lazy {
+                BooleanArray(index.size).also { for (i in entryIndexes) it[i] = true }
             }
 
+            override val size: Int
+                get() = entryIndexes.size
+
+            override val entries: MutableSet<MutableMap.MutableEntry<String, Any?>> by lazy { EntrySet() }
+
             override fun containsKey(key: String): Boolean {
-                return properties.containsKey(key)
+                return indexOf(key) >= 0
             }
 
             override fun get(key: String): Any? {
-                val propertyType = properties[key]
-                if (propertyType === null) {
+                val i = indexOf(key)
+                if (i < 0) {
                     return null
                 }
-                return copyOptions.converter.convert(propertyType.getValue(bean), mapType.valueType)
+                return copyOptions.converter.convert(index.propertyAt(i).getValue(bean), mapType.valueType)
             }
 
             override fun isEmpty(): Boolean {
-                return properties.isEmpty()
+                return entryIndexes.isEmpty()
             }
 
             override fun clear() {
@@ -510,35 +866,365 @@ interface BeanResolver {
             }
 
             override fun put(key: String, value: Any?): Any? {
-                val propertyType = properties[key]
-                if (propertyType === null) {
+                val i = indexOf(key)
+                if (i < 0) {
                     throw UnsupportedOperationException("Property $key doesn't exist.")
                 }
-                return propertyType.setValue(bean, value)
+                return index.propertyAt(i).setValue(bean, copyOptions.converter.convert(value, mapType.valueType))
+            }
+
+            private fun indexOf(key: String): Int {
+                val i = index.indexOf(key)
+                return if (i >= 0 && contained[i]) i else -1
             }
 
             override fun remove(key: String): Any? {
                 throw UnsupportedOperationException()
             }
+
+            private inner class EntrySet : AbstractMutableSet<MutableMap.MutableEntry<String, Any?>>() {
+
+                override val size: Int
+                    get() = entryIndexes.size
+
+                override fun add(element: MutableMap.MutableEntry<String, Any?>): Boolean {
+                    throw UnsupportedOperationException()
+                }
+
+                override fun iterator(): MutableIterator<MutableMap.MutableEntry<String, Any?>> {
+                    return EntryCursor()
+                }
+            }
+
+            private inner class EntryCursor : EntryCursorBase(entryIndexes, index) {
+
+                override val value: Any?
+                    get() = copyOptions.converter.convert(property.getValue(bean), mapType.valueType)
+
+                override fun setValue(newValue: Any?): Any? {
+                    return property.setValue(bean, copyOptions.converter.convert(newValue, mapType.valueType))
+                }
+            }
+        }
+
+        private fun newSnapshotMap(bean: Any, index: PropertyIndex, copyOptions: CopyOptions): Map<String, Any?> {
+            val mapType = copyOptions.toType?.toMapType() ?: MapType.RAW
+            val values = arrayOfNulls<Any?>(index.size)
+            val entryIndexes = filterIndexes(bean, index, copyOptions, mapType, values)
+            return BeanSnapshotMap(index, entryIndexes, values)
+        }
+
+        /**
+         * Returns indexes of properties which pass filters of [copyOptions]. If [values] is not null, converted values
+         * of passed properties are stored in it.
+         */
+        private fun filterIndexes(
+            bean: Any,
+            index: PropertyIndex,
+            copyOptions: CopyOptions,
+            mapType: MapType,
+            values: Array<Any?>?
+        ): IntArray {
+            val result = IntArray(index.size)
+            var count = 0
+            for (i in 0 until index.size) {
+                val name = index.nameAt(i)
+                val property = index.propertyAt(i)
+                if (!property.isReadable
+                    || !copyOptions.nameFilter(name)
+                    || !copyOptions.fromTypeFilter(name, String::class.java, property.type)
+                ) {
+                    continue
+                }
+                val value = property.getValue<Any?>(bean)
+                if (!copyOptions.fromValueFilter(name, String::class.java, property.type, value)
+                    || !copyOptions.convertFilter(
+                        name,
+                        String::class.java,
+                        property.type,
+                        value,
+                        mapType.keyType,
+                        mapType.valueType
+                    )
+                ) {
+                    continue
+                }
+                if (values !== null) {
+                    values[i] = copyOptions.converter.convert(value, property.type, mapType.valueType)
+                }
+                result[count++] = i
+            }
+            return if (count == result.size) result else result.copyOf(count)
+        }
+
+        private class BeanSnapshotMap(
+            private val index: PropertyIndex,
+            private val entryIndexes: IntArray,
+            private val propertyValues: Array<Any?>
+        ) : AbstractMap<String, Any?>() {
+
+            //Whether property at each index is in this map
+            private val contained = BooleanArray(index.size).also { for (i in entryIndexes) it[i] = true }
+
+            override val size: Int
+                get() = entryIndexes.size
+
+            override val entries: Set<Map.Entry<String, Any?>> = object : AbstractSet<Map.Entry<String, Any?>>() {
+
+                override val size: Int
+                    get() = entryIndexes.size
+
+                //Values are read already, entries are not reused as cursors of asMap
+                override fun iterator(): Iterator<Map.Entry<String, Any?>> {
+                    return object : Iterator<Map.Entry<String, Any?>> {
+
+                        private var position = 0
+
+                        override fun hasNext(): Boolean {
+                            return position < entryIndexes.size
+                        }
+
+                        override fun next(): Map.Entry<String, Any?> {
+                            if (!hasNext()) {
+                                throw NoSuchElementException()
+                            }
+                            val i = entryIndexes[position++]
+                            return java.util.AbstractMap.SimpleImmutableEntry(index.nameAt(i), propertyValues[i])
+                        }
+                    }
+                }
+            }
+
+            override fun containsKey(key: String): Boolean {
+                val i = index.indexOf(key)
+                return i >= 0 && contained[i]
+            }
+
+            override fun get(key: String): Any? {
+                val i = index.indexOf(key)
+                return if (i >= 0 && contained[i]) propertyValues[i] else null
+            }
+        }
+
+        /**
+         * Iterator of entries which returns itself as the entry at current position, so no entry is allocated during
+         * iterating. Returned entry is only valid until next call of [next].
+         */
+        private abstract class EntryCursorBase(
+            private val entryIndexes: IntArray,
+            private val index: PropertyIndex
+        ) : MutableIterator<MutableMap.MutableEntry<String, Any?>>, MutableMap.MutableEntry<String, Any?> {
+
+            private var position = -1
+
+            protected val current: Int
+                get() = entryIndexes[position]
+
+            protected val property: PropertyType
+                get() = index.propertyAt(current)
+
+            override val key: String
+                get() = index.nameAt(current)
+
+            override fun hasNext(): Boolean {
+                return position + 1 < entryIndexes.size
+            }
+
+            override fun next(): MutableMap.MutableEntry<String, Any?> {
+                if (!hasNext()) {
+                    throw NoSuchElementException()
+                }
+                position++
+                return this
+            }
+
+            override fun remove() {
+                throw UnsupportedOperationException()
+            }
+
+            override fun equals(other: Any?): Boolean {
+                if (other !is Map.Entry<*, *>) return false
+                return key == other.key && value == other.value
+            }
+
+            override fun hashCode(): Int {
+                return key.hashCode() xor (value?.hashCode() ?: 0)
+            }
+
+            override fun toString(): String {
+                return "$key=$value"
+            }
         }
     }
 }
 
-private class BeanResolverImpl(override val resolveHandlers: List<BeanResolveHandler>) : BeanResolver {
+private class BeanResolverImpl(
+    override val resolveHandlers: List<BeanResolveHandler>,
+    typeCacheMaxSize: Long,
+) : BeanResolver {
 
-    private val cache = Cache.newFastCache<Type, BeanType>()
+    private val classCache = object : ClassValue<BeanType>() {
+        override fun computeValue(type: Class<*>): BeanType {
+            return doResolve(type)
+        }
+    }
+    private val typeCache = Cache.newFastCache<Type, BeanType>(typeCacheMaxSize)
+    private val classCopiers = object : ClassValue<ClassCopiers>() {
+        override fun computeValue(type: Class<*>): ClassCopiers {
+            return ClassCopiers()
+        }
+    }
+    private val copierCache = Cache.newFastCache<CopierKey, BeanCopier>()
+    private val seenCopierKeys = Cache.newFastCache<CopierKey, Boolean>()
+    private val deepCopier = DeepCopier(this)
+    private val resolvedClasses: MutableSet<String> = ConcurrentHashMap.newKeySet()
+    private val snapshotPlans = object : ClassValue<SnapshotPlan>() {
+        override fun computeValue(type: Class<*>): SnapshotPlan {
+            return SnapshotPlan(resolve(type))
+        }
+    }
+
+    override val resolvedClassNames: Set<String>
+        get() = resolvedClasses.toSortedSet()
 
     override fun resolve(type: Type): BeanType {
-        return cache.getOrLoad(type) {
-            val beanType = BeanTypeImpl(it, emptyMap())
-            val context = BeanResolveHandler.newContext(beanType, it.typeArguments())
-            for (handler in resolveHandlers) {
-                handler.resolve(context)
+        if (type is Class<*>) {
+            return classCache.get(type)
+        }
+        return typeCache.getOrLoad(type) { doResolve(it) }
+    }
+
+    private fun doResolve(type: Type): BeanType {
+        val beanType = BeanTypeImpl(type, emptyMap())
+        val context = BeanResolveHandler.newContext(beanType, type.typeArguments())
+        for (handler in resolveHandlers) {
+            handler.resolve(context)
+        }
+        beanType.properties = context.properties.toImmutableMap()
+        //Only names are recorded, resolved classes are not held
+        val rawClass = type.rawClassOrNull
+        if (rawClass !== null && !rawClass.isPrimitive) {
+            resolvedClasses.add(rawClass.name)
+        }
+        return beanType
+    }
+
+    /**
+     * Bean-to-bean copies use cached copiers. Options which are not built-in are compiled and cached only since they
+     * are seen the second time, because options created by [BeanResolver.CopyOptions.with] with capturing lambdas
+     * differ for each copy; options compared by identity are never cached. Copies with uncached options use a one-off
+     * copier.
+     *
+     * Copiers between classes, and options seen once, are kept in a [ClassValue] of source class, at most
+     * [MAX_CLASS_COPIERS] of each per source class, evicted by frequency and recency respectively. They hold target
+     * classes and copy options strongly, so target classes (and their class loaders) and state captured by options stay
+     * reachable while they are kept. Copiers between other types are kept in bounded caches.
+     */
+    override fun <T : Any> copyProperties(from: Any, to: T, copyOptions: BeanResolver.CopyOptions): T {
+        if (from is Map<*, *> || to is Map<*, *>) {
+            return super.copyProperties(from, to, copyOptions)
+        }
+        val fromType = copyOptions.fromType ?: from.javaClass
+        val toType = copyOptions.toType ?: to.javaClass
+        if (BeanResolver.CopyOptions.isBuiltIn(copyOptions)) {
+            return compileCopier(fromType, toType, copyOptions).copy(from, to)
+        }
+        if (!BeanResolver.CopyOptions.isValueBased(copyOptions)) {
+            return newOneOffCopier(fromType, toType, copyOptions).copy(from, to)
+        }
+        if (fromType is Class<*> && toType is Class<*>) {
+            val copiers = classCopiers.get(fromType)
+            val classKey = ClassCopierKey(toType, copyOptions)
+            val classCopier = copiers.copiers[classKey]
+            if (classCopier !== null) {
+                return classCopier.copy(from, to)
+            }
+            if (copiers.seeAgain(classKey)) {
+                return compileCopier(fromType, toType, copyOptions).copy(from, to)
+            }
+            return newOneOffCopier(fromType, toType, copyOptions).copy(from, to)
+        }
+        val key = CopierKey(fromType, toType, copyOptions)
+        val copier = copierCache.getOrNull(key)
+        if (copier !== null) {
+            return copier.copy(from, to)
+        }
+        if (seenCopierKeys.getOrNull(key) !== null) {
+            return compileCopier(fromType, toType, copyOptions).copy(from, to)
+        }
+        seenCopierKeys.put(key, true)
+        return newOneOffCopier(fromType, toType, copyOptions).copy(from, to)
+    }
+
+    //Generating a class costs much more than one copy and defines a class loader, so one-off copier doesn't generate
+    private fun newOneOffCopier(fromType: Type, toType: Type, copyOptions: BeanResolver.CopyOptions): BeanCopier {
+        return BeanCopier.newBeanCopier(this, fromType, toType, copyOptions, false)
+    }
+
+    override fun compileCopier(fromType: Type, toType: Type, copyOptions: BeanResolver.CopyOptions): BeanCopier {
+        if (!BeanResolver.CopyOptions.isValueBased(copyOptions)) {
+            return newOneOffCopier(fromType, toType, copyOptions)
+        }
+        if (fromType is Class<*> && toType is Class<*>) {
+            val copiers = classCopiers.get(fromType).copiers
+            val classKey = ClassCopierKey(toType, copyOptions)
+            val copier = copiers.getOrNull(classKey)
+            if (copier !== null) {
+                return copier
+            }
+            //Not generated in a load of the cache, generating may compile copiers of property types
+            val newCopier = BeanCopier.newBeanCopier(this, fromType, toType, copyOptions)
+            copiers.put(classKey, newCopier)
+            return newCopier
+        }
+        return copierCache.getOrLoad(CopierKey(fromType, toType, copyOptions)) {
+            BeanCopier.newBeanCopier(this, fromType, toType, copyOptions)
+        }
+    }
+
+    override fun <T> deepCopy(obj: T): T {
+        return deepCopier.copy(obj)
+    }
+
+    override fun snapshot(bean: Any): BeanSnapshot {
+        return snapshotPlans.get(bean.javaClass).snapshot(bean)
+    }
+
+    private data class CopierKey(
+        val fromType: Type,
+        val toType: Type,
+        val copyOptions: BeanResolver.CopyOptions,
+    )
+
+    private data class ClassCopierKey(
+        val toType: Class<*>,
+        val copyOptions: BeanResolver.CopyOptions,
+    )
+
+    private class ClassCopiers {
+
+        val copiers = TinyLfuCache<ClassCopierKey, BeanCopier>(MAX_CLASS_COPIERS.toLong())
+
+        //Least recently seen key is evicted, so that options seen once don't keep later options from being cached
+        private val seenKeys = object : LinkedHashMap<ClassCopierKey, Boolean>(16, 0.75f, true) {
+            override fun removeEldestEntry(eldest: MutableMap.MutableEntry<ClassCopierKey, Boolean>): Boolean {
+                return size > MAX_CLASS_COPIERS
+            }
+        }
+
+        /**
+         * Returns whether [key] has been seen, and records it as seen.
+         */
+        fun seeAgain(key: ClassCopierKey): Boolean {
+            synchronized(seenKeys) {
+                return seenKeys.put(key, true) !== null
             }
-            beanType.properties = context.properties.toImmutableMap()
-            beanType
         }
     }
+
+    companion object {
+        private const val MAX_CLASS_COPIERS = 64
+    }
 }
 
 private class BeanTypeImpl(
@@ -546,6 +1232,8 @@ private class BeanTypeImpl(
     override var properties: Map<String, PropertyType>
 ) : BeanType {
 
+    override val propertyIndex: PropertyIndex by lazy { PropertyIndex.newPropertyIndex(properties) }
+
     override fun equals(other: Any?): Boolean {
         if (this === other) return true
         if (other !is BeanType) return false
@@ -627,37 +1315,112 @@ interface BeanResolveHandler {
  * Bean style:
  * * getter: getXxx()
  * * setter: setXxx(Xxx)
+ *
+ * If setter is overloaded, the one of which parameter type is same as return type of getter is chosen, and overloaded
+ * setters without getter are not a property, as the generated [BeanDescriptor]s do.
+ *
+ * Properties of classes which have generated [BeanDescriptor] (see [BeanDescriptor.forClass]) are resolved by the
+ * descriptors without reflection.
  */
 object BeanStyleBeanResolveHandler : AbstractBeanResolveHandler() {
 
+    override fun resolve(context: BeanResolveHandler.Context) {
+        if (!resolveByDescriptor(context)) {
+            super.resolve(context)
+        }
+    }
+
     override fun resolveAccessors(
         context: BeanResolveHandler.Context,
         getters: MutableMap<String, Method>,
         setters: MutableMap<String, Method>
     ) {
-        val methods = context.methods
-        for (method in methods) {
-            if (method.isBridge) {
-                continue
-            }
-            val name = method.name
-            if (name.length <= 3) {
-                continue
-            }
-            if (name.startsWith("get") && method.parameterCount == 0) {
-                val propertyName =
-                    NamingCase.UPPER_CAMEL.convertTo(name.substring(3, name.length), NamingCase.LOWER_CAMEL)
-                getters[propertyName] = method
+        resolveBeanStyleAccessors(context, getters, setters)
+    }
+}
+
+/**
+ * Bean style as [BeanStyleBeanResolveHandler], and properties are accessed by lambdas created by
+ * [java.lang.invoke.LambdaMetafactory] if possible (public methods of public classes), which are faster than
+ * [xyz.srclab.common.invoke.Invoker]s on hot paths, but each of them defines a class.
+ *
+ * Lambdas are only created for beans visible from class loader of this library. Properties of beans which are only
+ * visible from other class loaders, such as child class loaders of applications in a container, are accessed by
+ * [xyz.srclab.common.invoke.Invoker]s as [BeanStyleBeanResolveHandler].
+ */
+object LambdaBeanStyleBeanResolveHandler : AbstractBeanResolveHandler(true) {
+
+    override fun resolve(context: BeanResolveHandler.Context) {
+        if (!resolveByDescriptor(context)) {
+            super.resolve(context)
+        }
+    }
+
+    override fun resolveAccessors(
+        context: BeanResolveHandler.Context,
+        getters: MutableMap<String, Method>,
+        setters: MutableMap<String, Method>
+    ) {
+        resolveBeanStyleAccessors(context, getters, setters)
+    }
+}
+
+/**
+ * Resolves properties by generated [BeanDescriptor] of the bean class, returns false if there is no descriptor.
+ */
+private fun resolveByDescriptor(context: BeanResolveHandler.Context): Boolean {
+    val type = context.type.type
+    if (type !is Class<*>) {
+        return false
+    }
+    val descriptor = BeanDescriptor.forClass(type) ?: return false
+    val properties = context.properties
+    for (i in 0 until descriptor.propertyCount) {
+        val name = descriptor.propertyName(i)
+        properties[name] = DescriptorPropertyType(context.type, name, descriptor, i)
+    }
+    return true
+}
+
+private fun resolveBeanStyleAccessors(
+    context: BeanResolveHandler.Context,
+    getters: MutableMap<String, Method>,
+    setters: MutableMap<String, Method>
+) {
+    val methods = context.methods.filter { !it.isBridge && it.name.length > 3 }
+    for (method in methods) {
+        val name = method.name
+        if (name.startsWith("get") && method.parameterCount == 0) {
+            val propertyName =
+                NamingCase.UPPER_CAMEL.convertTo(name.substring(3, name.length), NamingCase.LOWER_CAMEL)
+            getters[propertyName] = method
+        }
+    }
+    //Order of methods is unspecified, so overloaded setters are chosen by type of getter rather than order
+    val overloaded = HashSet<String>()
+    for (method in methods) {
+        val name = method.name
+        if (name.startsWith("set") && method.parameterCount == 1) {
+            val propertyName =
+                NamingCase.UPPER_CAMEL.convertTo(name.substring(3, name.length), NamingCase.LOWER_CAMEL)
+            val chosen = setters[propertyName]
+            if (chosen === null) {
+                setters[propertyName] = method
                 continue
             }
-            if (name.startsWith("set") && method.parameterCount == 1) {
-                val propertyName =
-                    NamingCase.UPPER_CAMEL.convertTo(name.substring(3, name.length), NamingCase.LOWER_CAMEL)
+            val getter = getters[propertyName]
+            if (getter === null) {
+                if (chosen.genericParameterTypes[0] != method.genericParameterTypes[0]) {
+                    overloaded.add(propertyName)
+                }
+            } else if (method.genericParameterTypes[0] == getter.genericReturnType) {
                 setters[propertyName] = method
-                continue
             }
         }
     }
+    for (propertyName in overloaded) {
+        setters.remove(propertyName)
+    }
 }
 
 /**
@@ -690,9 +1453,13 @@ object NamingStyleBeanResolveHandler : AbstractBeanResolveHandler() {
     }
 }
 
-abstract class AbstractBeanResolveHandler : BeanResolveHandler {
-
-    private val cache = Cache.newFastCache<Pair<BeanType, String>, PropertyType>()
+/**
+ * @param lambdaAccessors whether properties are accessed by lambdas created by [java.lang.invoke.LambdaMetafactory]
+ * if possible, rather than [xyz.srclab.common.invoke.Invoker]s
+ */
+abstract class AbstractBeanResolveHandler @JvmOverloads constructor(
+    private val lambdaAccessors: Boolean = false
+) : BeanResolveHandler {
 
     protected abstract fun resolveAccessors(
         @Written context: BeanResolveHandler.Context,
@@ -715,6 +1482,7 @@ abstract class AbstractBeanResolveHandler : BeanResolveHandler {
             }
             if (getterMethod.genericReturnType == setterMethod.genericParameterTypes[0]) {
                 properties[propertyName] = createProperty(context, propertyName, getterMethod, setterMethod)
+                setters.remove(propertyName)
                 continue
             }
             setters.remove(propertyName)
@@ -732,26 +1500,31 @@ abstract class AbstractBeanResolveHandler : BeanResolveHandler {
         getterMethod: Method?,
         setterMethod: Method?
     ): PropertyType {
-        return cache.getOrLoad(context.type to name) {
-            PropertyTypeImpl(context.type, name, getterMethod, setterMethod, context.typeArguments)
-        }
+        return PropertyTypeImpl(context.type, name, getterMethod, setterMethod, context.typeArguments, lambdaAccessors)
     }
 }
 
 private class PropertyTypeImpl(
     override val ownerType: BeanType,
     override val name: String,
-    private val getterMethod: Method?,
-    private val setterMethod: Method?,
+    override val getterMethod: Method?,
+    override val setterMethod: Method?,
     private val typeArguments: Map<TypeVariable<*>, Type>,
+    private val lambdaAccessors: Boolean,
 ) : PropertyType {
 
     override val type: Type by lazy { tryType() }
     override val getter: Invoker? by lazy { tryGetter() }
     override val setter: Invoker? by lazy { trySetter() }
+    private val getterFunction: Function<Any, Any?>? by lazy { tryGetterFunction() }
+    private val setterConsumer: BiConsumer<Any, Any?>? by lazy { trySetterConsumer() }
     override val backingField: Field? by lazy { tryBackingField() }
     override val backingFieldAnnotations: List<Annotation> by lazy { tryBackingFieldAnnotations() }
 
+    //Handles of accessors of primitive property, typed as (Object)P and (Object, P)void
+    private val primitiveGetter: MethodHandle? by lazy { tryPrimitiveGetter() }
+    private val primitiveSetter: MethodHandle? by lazy { tryPrimitiveSetter() }
+
     private fun tryType(): Type {
         val type = if (getterMethod !== null) {
             getterMethod.genericReturnType
@@ -762,13 +1535,53 @@ private class PropertyTypeImpl(
     }
 
     private fun tryGetter(): Invoker? {
+        val function = getterFunction
+        if (function !== null) {
+            return FunctionInvoker(function)
+        }
         return if (getterMethod === null) null else getterMethod.toInvoker()
     }
 
     private fun trySetter(): Invoker? {
+        val consumer = setterConsumer
+        if (consumer !== null) {
+            return ConsumerInvoker(consumer)
+        }
         return if (setterMethod === null) null else setterMethod.toInvoker()
     }
 
+    private fun tryGetterFunction(): Function<Any, Any?>? {
+        return if (!lambdaAccessors || getterMethod === null) null else LambdaAccessors.newGetterOrNull(getterMethod)
+    }
+
+    private fun trySetterConsumer(): BiConsumer<Any, Any?>? {
+        return if (!lambdaAccessors || setterMethod === null) null else LambdaAccessors.newSetterOrNull(setterMethod)
+    }
+
+    private fun tryPrimitiveGetter(): MethodHandle? {
+        if (getterMethod === null || !getterMethod.returnType.isPrimitive) {
+            return null
+        }
+        return try {
+            MethodHandles.publicLookup().unreflect(getterMethod)
+                .asType(MethodType.methodType(getterMethod.returnType, Any::class.java))
+        } catch (e: IllegalAccessException) {
+            null
+        }
+    }
+
+    private fun tryPrimitiveSetter(): MethodHandle? {
+        if (setterMethod === null || !setterMethod.parameterTypes[0].isPrimitive) {
+            return null
+        }
+        return try {
+            MethodHandles.publicLookup().unreflect(setterMethod)
+                .asType(MethodType.methodType(Void.TYPE, Any::class.java, setterMethod.parameterTypes[0]))
+        } catch (e: IllegalAccessException) {
+            null
+        }
+    }
+
     private fun tryBackingField(): Field? {
         return ownerType.rawClass.searchFieldOrNull(name, deep = true)
     }
@@ -779,6 +1592,10 @@ private class PropertyTypeImpl(
     }
 
     override fun <T> getValue(bean: Any): T {
+        val f = getterFunction
+        if (f !== null) {
+            return f.apply(bean).asAny()
+        }
         val g = getter
         return if (g !== null) {
             g.invoke(bean)
@@ -788,19 +1605,159 @@ private class PropertyTypeImpl(
     }
 
     override fun <T> setValue(bean: Any, value: Any?): T {
+        val c = setterConsumer
         val s = setter
         if (s === null) {
             throw UnsupportedOperationException("This property is not writeable: $name")
         }
         var old: T? = null
-        val g = getter
-        if (g !== null) {
-            old = g.invoke(bean)
+        if (isReadable) {
+            old = getValue(bean)
+        }
+        if (c !== null) {
+            c.accept(bean, value)
+        } else {
+            s.invoke<Any?>(bean, value)
         }
-        s.invoke<Any?>(bean, value)
         return old.asAny()
     }
 
+    override fun getBoolean(bean: Any): Boolean {
+        val h = primitiveGetter
+        if (h === null || h.type().returnType() !== Boolean::class.javaPrimitiveType) {
+            return super.getBoolean(bean)
+        }
+        return h.invokeExact(bean) as Boolean
+    }
+
+    override fun setBoolean(bean: Any, value: Boolean) {
+        val h = primitiveSetter
+        if (h === null || h.type().parameterType(1) !== Boolean::class.javaPrimitiveType) {
+            super.setBoolean(bean, value)
+            return
+        }
+        h.invokeExact(bean, value)
+    }
+
+    override fun getByte(bean: Any): Byte {
+        val h = primitiveGetter
+        if (h === null || h.type().returnType() !== Byte::class.javaPrimitiveType) {
+            return super.getByte(bean)
+        }
+        return h.invokeExact(bean) as Byte
+    }
+
+    override fun setByte(bean: Any, value: Byte) {
+        val h = primitiveSetter
+        if (h === null || h.type().parameterType(1) !== Byte::class.javaPrimitiveType) {
+            super.setByte(bean, value)
+            return
+        }
+        h.invokeExact(bean, value)
+    }
+
+    override fun getShort(bean: Any): Short {
+        val h = primitiveGetter
+        if (h === null || h.type().returnType() !== Short::class.javaPrimitiveType) {
+            return super.getShort(bean)
+        }
+        return h.invokeExact(bean) as Short
+    }
+
+    override fun setShort(bean: Any, value: Short) {
+        val h = primitiveSetter
+        if (h === null || h.type().parameterType(1) !== Short::class.javaPrimitiveType) {
+            super.setShort(bean, value)
+            return
+        }
+        h.invokeExact(bean, value)
+    }
+
+    override fun getChar(bean: Any): Char {
+        val h = primitiveGetter
+        if (h === null || h.type().returnType() !== Char::class.javaPrimitiveType) {
+            return super.getChar(bean)
+        }
+        return h.invokeExact(bean) as Char
+    }
+
+    override fun setChar(bean: Any, value: Char) {
+        val h = primitiveSetter
+        if (h === null || h.type().parameterType(1) !== Char::class.javaPrimitiveType) {
+            super.setChar(bean, value)
+            return
+        }
+        h.invokeExact(bean, value)
+    }
+
+    override fun getInt(bean: Any): Int {
+        val h = primitiveGetter
+        if (h === null || h.type().returnType() !== Int::class.javaPrimitiveType) {
+            return super.getInt(bean)
+        }
+        return h.invokeExact(bean) as Int
+    }
+
+    override fun setInt(bean: Any, value: Int) {
+        val h = primitiveSetter
+        if (h === null || h.type().parameterType(1) !== Int::class.javaPrimitiveType) {
+            super.setInt(bean, value)
+            return
+        }
+        h.invokeExact(bean, value)
+    }
+
+    override fun getLong(bean: Any): Long {
+        val h = primitiveGetter
+        if (h === null || h.type().returnType() !== Long::class.javaPrimitiveType) {
+            return super.getLong(bean)
+        }
+        return h.invokeExact(bean) as Long
+    }
+
+    override fun setLong(bean: Any, value: Long) {
+        val h = primitiveSetter
+        if (h === null || h.type().parameterType(1) !== Long::class.javaPrimitiveType) {
+            super.setLong(bean, value)
+            return
+        }
+        h.invokeExact(bean, value)
+    }
+
+    override fun getFloat(bean: Any): Float {
+        val h = primitiveGetter
+        if (h === null || h.type().returnType() !== Float::class.javaPrimitiveType) {
+            return super.getFloat(bean)
+        }
+        return h.invokeExact(bean) as Float
+    }
+
+    override fun setFloat(bean: Any, value: Float) {
+        val h = primitiveSetter
+        if (h === null || h.type().parameterType(1) !== Float::class.javaPrimitiveType) {
+            super.setFloat(bean, value)
+            return
+        }
+        h.invokeExact(bean, value)
+    }
+
+    override fun getDouble(bean: Any): Double {
+        val h = primitiveGetter
+        if (h === null || h.type().returnType() !== Double::class.javaPrimitiveType) {
+            return super.getDouble(bean)
+        }
+        return h.invokeExact(bean) as Double
+    }
+
+    override fun setDouble(bean: Any, value: Double) {
+        val h = primitiveSetter
+        if (h === null || h.type().parameterType(1) !== Double::class.javaPrimitiveType) {
+            super.setDouble(bean, value)
+            return
+        }
+        h.invokeExact(bean, value)
+    }
+
     override fun equals(other: Any?): Boolean {
         if (this === other) return true
         if (other !is PropertyType) return false
@@ -821,4 +1778,27 @@ private class PropertyTypeImpl(
     override fun toString(): String {
         return "$name: ${ownerType.type.typeName}.${type.typeName}"
     }
+}
+
+private class FunctionInvoker(private val function: Function<Any, Any?>) : Invoker {
+
+    override fun <T> invoke(`object`: Any?, vararg args: Any?): T {
+        return function.apply(`object`!!).asAny()
+    }
+
+    override fun <T> invokeForcibly(`object`: Any?, vararg args: Any?): T {
+        return invoke(`object`, *args)
+    }
+}
+
+private class ConsumerInvoker(private val consumer: BiConsumer<Any, Any?>) : Invoker {
+
+    override fun <T> invoke(`object`: Any?, vararg args: Any?): T {
+        consumer.accept(`object`!!, args[0])
+        return null.asAny()
+    }
+
+    override fun <T> invokeForcibly(`object`: Any?, vararg args: Any?): T {
+        return invoke(`object`, *args)
+    }
 }
\ No newline at end of file
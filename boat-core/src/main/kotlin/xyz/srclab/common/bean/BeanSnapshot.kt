@@ -0,0 +1,329 @@
+package xyz.srclab.common.bean
+
+import xyz.srclab.common.base.INAPPLICABLE_JVM_NAME
+import xyz.srclab.common.base.checkArgument
+import xyz.srclab.common.convert.Converter
+import java.util.*
+
+/**
+ * Snapshot of readable property values of a bean, see [BeanResolver.snapshot] and [BeanResolver.copyChanged].
+ *
+ * Values are stored in order of [propertyIndex]: primitive properties are read by primitive accessors of
+ * [PropertyType] and stored as bits in a `long` array, others are stored as references. A property is changed if its
+ * primitive bits differ, or its reference differs and is not [equals] to the stored one. Note a nested object changed
+ * in place is not a change of its owner.
+ */
+interface BeanSnapshot {
+
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    val beanType: BeanType
+        @JvmName("beanType") get
+
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    val propertyIndex: PropertyIndex
+        @JvmName("propertyIndex") get
+
+    /**
+     * Returns value of property at [index] of [propertyIndex], primitive values are boxed. Unreadable property has
+     * null value.
+     */
+    fun valueAt(index: Int): Any?
+
+    @JvmDefault
+    fun getValue(name: String): Any? {
+        val index = propertyIndex.indexOf(name)
+        checkArgument(index >= 0, "Property not found: {}", name)
+        return valueAt(index)
+    }
+
+    /**
+     * Returns bitmap of properties of [bean] which differ from this snapshot, bits are indexes of [propertyIndex].
+     */
+    fun changedProperties(bean: Any): BitSet
+
+    companion object {
+
+        @JvmStatic
+        fun newBeanSnapshot(beanType: BeanType, bean: Any): BeanSnapshot {
+            return SnapshotPlan(beanType).snapshot(bean)
+        }
+    }
+}
+
+/**
+ * Per-type plan of [BeanSnapshot]: kind of each property and its slot in primitive or reference values.
+ */
+internal class SnapshotPlan(val beanType: BeanType) {
+
+    val propertyIndex: PropertyIndex = beanType.propertyIndex
+    private val kinds = IntArray(propertyIndex.size)
+    private val slots = IntArray(propertyIndex.size)
+    private val primitiveCount: Int
+    private val referenceCount: Int
+
+    init {
+        var primitives = 0
+        var references = 0
+        for (i in 0 until propertyIndex.size) {
+            val property = propertyIndex.propertyAt(i)
+            val kind = if (property.isReadable) kindOf(property.rawClass) else NONE
+            kinds[i] = kind
+            slots[i] = when (kind) {
+                NONE -> -1
+                REFERENCE -> references++
+                else -> primitives++
+            }
+        }
+        primitiveCount = primitives
+        referenceCount = references
+    }
+
+    fun snapshot(bean: Any): BeanSnapshot {
+        checkBean(bean)
+        val primitives = LongArray(primitiveCount)
+        val references = arrayOfNulls<Any?>(referenceCount)
+        for (i in kinds.indices) {
+            val kind = kinds[i]
+            when (kind) {
+                NONE -> continue
+                REFERENCE -> references[slots[i]] = propertyIndex.propertyAt(i).getValue(bean)
+                else -> primitives[slots[i]] = readBits(propertyIndex.propertyAt(i), bean, kind)
+            }
+        }
+        return BeanSnapshotImpl(this, primitives, references)
+    }
+
+    /**
+     * Copies properties of [from] which differ from [baseline] to [to], returns snapshot of [from].
+     */
+    fun copyChanged(
+        from: Any,
+        to: Any,
+        toType: BeanType,
+        baseline: BeanSnapshotImpl,
+        converter: Converter
+    ): BeanSnapshot {
+        checkBean(from)
+        val toIndex = toType.propertyIndex
+        val primitives = LongArray(primitiveCount)
+        val references = arrayOfNulls<Any?>(referenceCount)
+        for (i in kinds.indices) {
+            val kind = kinds[i]
+            if (kind == NONE) {
+                continue
+            }
+            val slot = slots[i]
+            val fromProperty = propertyIndex.propertyAt(i)
+            if (kind == REFERENCE) {
+                val value = fromProperty.getValue<Any?>(from)
+                references[slot] = value
+                val old = baseline.references[slot]
+                if (value === old || value == old) {
+                    continue
+                }
+                val toProperty = writeableProperty(toIndex, i) ?: continue
+                val toValue = if (fromProperty.type == toProperty.type) {
+                    value
+                } else {
+                    converter.convert<Any?>(value, fromProperty.type, toProperty.type)
+                }
+                toProperty.setValue<Any?>(to, toValue)
+            } else {
+                val bits = readBits(fromProperty, from, kind)
+                primitives[slot] = bits
+                if (bits == baseline.primitives[slot]) {
+                    continue
+                }
+                val toProperty = writeableProperty(toIndex, i) ?: continue
+                if (kindOf(toProperty.rawClass) == kind) {
+                    writeBits(toProperty, to, kind, bits)
+                } else {
+                    toProperty.setValue<Any?>(
+                        to, converter.convert<Any?>(box(kind, bits), fromProperty.type, toProperty.type)
+                    )
+                }
+            }
+        }
+        return BeanSnapshotImpl(this, primitives, references)
+    }
+
+    private fun writeableProperty(toIndex: PropertyIndex, fromIndex: Int): PropertyType? {
+        val index = toIndex.indexOf(propertyIndex.nameAt(fromIndex))
+        if (index < 0) {
+            return null
+        }
+        val property = toIndex.propertyAt(index)
+        return if (property.isWriteable) property else null
+    }
+
+    private fun checkBean(bean: Any) {
+        checkArgument(
+            beanType.rawClass.isInstance(bean),
+            "Bean is not instance of {}: {}", beanType.type, bean.javaClass
+        )
+    }
+
+    internal class BeanSnapshotImpl(
+        val plan: SnapshotPlan,
+        val primitives: LongArray,
+        val references: Array<Any?>
+    ) : BeanSnapshot {
+
+        override val beanType: BeanType = plan.beanType
+
+        override val propertyIndex: PropertyIndex = plan.propertyIndex
+
+        override fun valueAt(index: Int): Any? {
+            val kind = plan.kinds[index]
+            val slot = plan.slots[index]
+            return when (kind) {
+                NONE -> null
+                REFERENCE -> references[slot]
+                else -> box(kind, primitives[slot])
+            }
+        }
+
+        override fun changedProperties(bean: Any): BitSet {
+            plan.checkBean(bean)
+            val changed = BitSet(plan.kinds.size)
+            for (i in plan.kinds.indices) {
+                val kind = plan.kinds[i]
+                val slot = plan.slots[i]
+                val isChanged = when (kind) {
+                    NONE -> false
+                    REFERENCE -> {
+                        val value = propertyIndex.propertyAt(i).getValue<Any?>(bean)
+                        val old = references[slot]
+                        value !== old && value != old
+                    }
+                    else -> readBits(propertyIndex.propertyAt(i), bean, kind) != primitives[slot]
+                }
+                if (isChanged) {
+                    changed.set(i)
+                }
+            }
+            return changed
+        }
+
+        override fun toString(): String {
+            val builder = StringBuilder(beanType.type.typeName).append('{')
+            for (i in 0 until propertyIndex.size) {
+                if (i > 0) {
+                    builder.append(", ")
+                }
+                builder.append(propertyIndex.nameAt(i)).append('=').append(valueAt(i))
+            }
+            return builder.append('}').toString()
+        }
+    }
+
+    companion object {
+
+        private const val NONE = 0
+        private const val REFERENCE = 1
+        private const val BOOLEAN = 2
+        private const val BYTE = 3
+        private const val SHORT = 4
+        private const val CHAR = 5
+        private const val INT = 6
+        private const val LONG = 7
+        private const val FLOAT = 8
+        private const val DOUBLE = 9
+
+        /**
+         * Copies changed properties by plan of [baseline] if it is a snapshot of [from]'s class, otherwise compares
+         * and copies by values of [baseline].
+         */
+        fun copyChanged(
+            beanResolver: BeanResolver,
+            from: Any,
+            to: Any,
+            baseline: BeanSnapshot,
+            converter: Converter
+        ): BeanSnapshot {
+            val toType = beanResolver.resolve(to.javaClass)
+            if (baseline is BeanSnapshotImpl && baseline.beanType.type === from.javaClass) {
+                return baseline.plan.copyChanged(from, to, toType, baseline, converter)
+            }
+            val plan = SnapshotPlan(beanResolver.resolve(from.javaClass))
+            val toIndex = toType.propertyIndex
+            val baselineIndex = baseline.propertyIndex
+            for (i in 0 until plan.propertyIndex.size) {
+                if (plan.kinds[i] == NONE) {
+                    continue
+                }
+                val fromProperty = plan.propertyIndex.propertyAt(i)
+                val value = fromProperty.getValue<Any?>(from)
+                val baselineSlot = baselineIndex.indexOf(plan.propertyIndex.nameAt(i))
+                if (baselineSlot >= 0) {
+                    val old = baseline.valueAt(baselineSlot)
+                    if (value === old || value == old) {
+                        continue
+                    }
+                }
+                val toProperty = plan.writeableProperty(toIndex, i) ?: continue
+                val toValue = if (fromProperty.type == toProperty.type) {
+                    value
+                } else {
+                    converter.convert<Any?>(value, fromProperty.type, toProperty.type)
+                }
+                toProperty.setValue<Any?>(to, toValue)
+            }
+            return plan.snapshot(from)
+        }
+
+        private fun kindOf(type: Class<*>): Int {
+            return when (type) {
+                Boolean::class.javaPrimitiveType -> BOOLEAN
+                Byte::class.javaPrimitiveType -> BYTE
+                Short::class.javaPrimitiveType -> SHORT
+                Char::class.javaPrimitiveType -> CHAR
+                Int::class.javaPrimitiveType -> INT
+                Long::class.javaPrimitiveType -> LONG
+                Float::class.javaPrimitiveType -> FLOAT
+                Double::class.javaPrimitiveType -> DOUBLE
+                else -> REFERENCE
+            }
+        }
+
+        //Float and double are stored as bits of floatToIntBits/doubleToLongBits, so NaN equals NaN like boxed equals
+        private fun readBits(property: PropertyType, bean: Any, kind: Int): Long {
+            return when (kind) {
+                BOOLEAN -> if (property.getBoolean(bean)) 1L else 0L
+                BYTE -> property.getByte(bean).toLong()
+                SHORT -> property.getShort(bean).toLong()
+                CHAR -> property.getChar(bean).toLong()
+                INT -> property.getInt(bean).toLong()
+                LONG -> property.getLong(bean)
+                FLOAT -> java.lang.Float.floatToIntBits(property.getFloat(bean)).toLong()
+                else -> java.lang.Double.doubleToLongBits(property.getDouble(bean))
+            }
+        }
+
+        private fun writeBits(property: PropertyType, bean: Any, kind: Int, bits: Long) {
+            when (kind) {
+                BOOLEAN -> property.setBoolean(bean, bits != 0L)
+                BYTE -> property.setByte(bean, bits.toByte())
+                SHORT -> property.setShort(bean, bits.toShort())
+                CHAR -> property.setChar(bean, bits.toChar())
+                INT -> property.setInt(bean, bits.toInt())
+                LONG -> property.setLong(bean, bits)
+                FLOAT -> property.setFloat(bean, java.lang.Float.intBitsToFloat(bits.toInt()))
+                else -> property.setDouble(bean, java.lang.Double.longBitsToDouble(bits))
+            }
+        }
+
+        private fun box(kind: Int, bits: Long): Any {
+            return when (kind) {
+                BOOLEAN -> bits != 0L
+                BYTE -> bits.toByte()
+                SHORT -> bits.toShort()
+                CHAR -> bits.toChar()
+                INT -> bits.toInt()
+                LONG -> bits
+                FLOAT -> java.lang.Float.intBitsToFloat(bits.toInt())
+                else -> java.lang.Double.longBitsToDouble(bits)
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -22,6 +22,15 @@ interface BeanType {
     val properties: Map<String, PropertyType>
         @JvmName("properties") get
 
+    /**
+     * Returns [PropertyIndex] of [properties]. Default implementation creates a new index for each call, while
+     * implementations usually create it once.
+     */
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    @JvmDefault
+    val propertyIndex: PropertyIndex
+        @JvmName("propertyIndex") get() = PropertyIndex.newPropertyIndex(properties)
+
     @JvmDefault
     fun getProperty(name: String): PropertyType? {
         return properties[name]
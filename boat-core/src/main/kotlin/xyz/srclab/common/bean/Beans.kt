@@ -4,6 +4,9 @@
 package xyz.srclab.common.bean
 
 import xyz.srclab.common.convert.Converter
+import xyz.srclab.common.run.Runner
+import java.io.Reader
+import java.io.Writer
 import java.lang.reflect.Type
 
 private val defaultResolver = BeanResolver.DEFAULT
@@ -20,6 +23,14 @@ fun Any.asMap(copyOptions: BeanResolver.CopyOptions): MutableMap<String, Any?> {
     return defaultResolver.asMap(this, copyOptions)
 }
 
+fun Any.asSnapshotMap(): Map<String, Any?> {
+    return defaultResolver.asSnapshotMap(this)
+}
+
+fun Any.asSnapshotMap(copyOptions: BeanResolver.CopyOptions): Map<String, Any?> {
+    return defaultResolver.asSnapshotMap(this, copyOptions)
+}
+
 fun <T : Any> Any.copyProperties(to: T): T {
     return defaultResolver.copyProperties(this, to)
 }
@@ -46,4 +57,72 @@ fun <T : Any> Any.copyPropertiesIgnoreNull(to: T, fromType: Type, toType: Type,
 
 fun <T : Any> Any.copyProperties(to: T, copyOptions: BeanResolver.CopyOptions): T {
     return defaultResolver.copyProperties(this, to, copyOptions)
+}
+
+fun <T> T.deepCopy(): T {
+    return defaultResolver.deepCopy(this)
+}
+
+fun Any.snapshot(): BeanSnapshot {
+    return defaultResolver.snapshot(this)
+}
+
+fun Any.copyChanged(to: Any, baseline: BeanSnapshot): BeanSnapshot {
+    return defaultResolver.copyChanged(this, to, baseline)
+}
+
+fun Any.copyChanged(to: Any, baseline: BeanSnapshot, converter: Converter): BeanSnapshot {
+    return defaultResolver.copyChanged(this, to, baseline, converter)
+}
+
+fun preResolve(types: Iterable<Type>, runner: Runner): PreResolving {
+    return defaultResolver.preResolve(types, runner)
+}
+
+fun preResolve(packageName: String, runner: Runner): PreResolving {
+    return defaultResolver.preResolve(packageName, runner)
+}
+
+fun writeResolvedClassNames(output: Writer) {
+    defaultResolver.writeResolvedClassNames(output)
+}
+
+fun preResolveRecorded(input: Reader, runner: Runner): PreResolving {
+    return defaultResolver.preResolveRecorded(input, runner)
+}
+
+fun compileCopier(fromType: Type, toType: Type): BeanCopier {
+    return defaultResolver.compileCopier(fromType, toType)
+}
+
+fun compileCopier(fromType: Type, toType: Type, copyOptions: BeanResolver.CopyOptions): BeanCopier {
+    return defaultResolver.compileCopier(fromType, toType, copyOptions)
+}
+
+fun <T : Any> List<*>.copyAll(targetSupplier: () -> T): List<T> {
+    return defaultResolver.copyAll(this, targetSupplier)
+}
+
+fun <T : Any> List<*>.copyAll(targetSupplier: () -> T, copyOptions: BeanResolver.CopyOptions): List<T> {
+    return defaultResolver.copyAll(this, targetSupplier, copyOptions)
+}
+
+fun <T : Any> List<*>.copyAll(
+    targetSupplier: () -> T,
+    copyOptions: BeanResolver.CopyOptions,
+    runner: Runner?
+): List<T> {
+    return defaultResolver.copyAll(this, targetSupplier, copyOptions, runner)
+}
+
+fun <T : Any> List<*>.mapAll(targetType: Type): List<T> {
+    return defaultResolver.mapAll(this, targetType)
+}
+
+fun <T : Any> List<*>.mapAll(targetType: Type, copyOptions: BeanResolver.CopyOptions): List<T> {
+    return defaultResolver.mapAll(this, targetType, copyOptions)
+}
+
+fun <T : Any> List<*>.mapAll(targetType: Type, copyOptions: BeanResolver.CopyOptions, runner: Runner?): List<T> {
+    return defaultResolver.mapAll(this, targetType, copyOptions, runner)
 }
\ No newline at end of file
@@ -0,0 +1,509 @@
+package xyz.srclab.common.bean
+
+import xyz.srclab.common.base.asAny
+import xyz.srclab.common.reflect.rawOrUpperClass
+import xyz.srclab.common.reflect.typeArguments
+import java.lang.ref.WeakReference
+import java.lang.reflect.Constructor
+import java.lang.reflect.GenericArrayType
+import java.lang.reflect.Modifier
+import java.lang.reflect.ParameterizedType
+import java.lang.reflect.Type
+import java.math.BigDecimal
+import java.math.BigInteger
+import java.net.URI
+import java.nio.charset.Charset
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.PriorityBlockingQueue
+import java.util.regex.Pattern
+
+/**
+ * Deep copy engine of [BeanResolver.deepCopy].
+ *
+ * Each class has a plan compiled once:
+ *
+ * * immutable types (primitives and their wrappers, [String], enums, [BigDecimal], [BigInteger], `java.time` and
+ * some other value types) are passed through as they are;
+ * * arrays, [Collection]s and [Map]s are copied into presized new ones (sorted ones and priority queues with their
+ * comparators), with elements deeply copied;
+ * * beans are created by public empty constructors, properties of immutable declared types are copied by a
+ * [BeanCopier], others are deeply copied one by one.
+ *
+ * Tracking copied objects by identity is needed only if the graph may contain cycles, so whether each class may
+ * reach itself through declared types of its properties (and type arguments of containers) is decided when its plan
+ * is compiled. If a copied value is not of its declared type (so the decision doesn't cover it), tracking starts at
+ * that point, seeded with objects being copied on current path. Shared references are preserved only when tracking.
+ */
+internal class DeepCopier(beanResolver: BeanResolver) {
+
+    //Weak, so that copiers cached by forResolver don't keep their resolvers reachable
+    private val resolverRef = WeakReference(beanResolver)
+
+    private val plans = object : ClassValue<Plan>() {
+        override fun computeValue(type: Class<*>): Plan {
+            return newPlan(type)
+        }
+    }
+
+    //Nodes of other types are held by nodes and plans declaring them
+    private val classNodes = object : ClassValue<TypeNode>() {
+        override fun computeValue(type: Class<*>): TypeNode {
+            return TypeNode(type)
+        }
+    }
+    private val objectNode = node(Any::class.java)
+
+    fun <T> copy(obj: T): T {
+        if (obj === null) {
+            return obj
+        }
+        val plan = plans.get(obj.javaClass)
+        if (plan === ImmutablePlan) {
+            return obj
+        }
+        val copying = Copying()
+        if (plan.mayCycle) {
+            copying.startTracking()
+        }
+        return plan.copy(obj, node(obj.javaClass), copying).asAny()
+    }
+
+    private fun copyValue(value: Any?, node: TypeNode, copying: Copying): Any? {
+        if (value === null) {
+            return null
+        }
+        val plan = plans.get(value.javaClass)
+        if (plan === ImmutablePlan) {
+            return value
+        }
+        val copies = copying.copies
+        if (copies !== null) {
+            val copied = copies[value]
+            if (copied !== null) {
+                return copied
+            }
+        } else if (!plan.conforms(value.javaClass, node)) {
+            copying.startTracking()
+        }
+        return plan.copy(value, node, copying)
+    }
+
+    private fun node(type: Type): TypeNode {
+        return if (type is Class<*>) classNodes.get(type) else TypeNode(type)
+    }
+
+    private fun newPlan(type: Class<*>): Plan {
+        if (isImmutable(type)) {
+            return ImmutablePlan
+        }
+        if (type.isArray) {
+            return ArrayPlan(type)
+        }
+        if (EnumSet::class.java.isAssignableFrom(type)) {
+            return EnumSetPlan
+        }
+        if (Collection::class.java.isAssignableFrom(type)) {
+            return CollectionPlan(type)
+        }
+        if (Map::class.java.isAssignableFrom(type)) {
+            return MapPlan(type)
+        }
+        return BeanPlan(type)
+    }
+
+    /**
+     * Returns whether [type] may reach itself through declared types, [acyclic] records types known not to.
+     */
+    private fun mayCycle(node: TypeNode, path: MutableSet<Class<*>>, acyclic: MutableSet<Class<*>>): Boolean {
+        val rawClass = node.rawClass
+        if (rawClass in acyclic) {
+            return false
+        }
+        val plan = plans.get(rawClass)
+        val result = when {
+            plan === ImmutablePlan || plan === EnumSetPlan -> false
+            rawClass.isArray -> mayCycle(node.componentNode, path, acyclic)
+            Collection::class.java.isAssignableFrom(rawClass) -> mayCycle(node.elementNode, path, acyclic)
+            Map::class.java.isAssignableFrom(rawClass) ->
+                mayCycle(node.keyNode, path, acyclic) || mayCycle(node.valueNode, path, acyclic)
+            //Values of these are not of their declared types, tracking starts when copying them
+            plan !is BeanPlan || rawClass == Any::class.java || rawClass.isInterface
+                    || Modifier.isAbstract(rawClass.modifiers) -> false
+            !path.add(rawClass) -> return true
+            else -> {
+                val cycle = plan.propertyNodes.any { mayCycle(it, path, acyclic) }
+                path.remove(rawClass)
+                cycle
+            }
+        }
+        if (!result) {
+            acyclic.add(rawClass)
+        }
+        return result
+    }
+
+    private class Copying {
+
+        var copies: IdentityHashMap<Any, Any>? = null
+
+        //Sources and copies on current path, used before tracking starts
+        private val path = ArrayList<Any>()
+
+        fun startTracking() {
+            val map = IdentityHashMap<Any, Any>()
+            var i = 0
+            while (i < path.size) {
+                map[path[i]] = path[i + 1]
+                i += 2
+            }
+            path.clear()
+            copies = map
+        }
+
+        fun enter(source: Any, copy: Any) {
+            val copies = this.copies
+            if (copies !== null) {
+                copies[source] = copy
+                return
+            }
+            path.add(source)
+            path.add(copy)
+        }
+
+        fun exit() {
+            if (copies === null) {
+                path.removeAt(path.size - 1)
+                path.removeAt(path.size - 1)
+            }
+        }
+    }
+
+    /**
+     * Declared type with type nodes of its components, elements, keys and values.
+     */
+    private inner class TypeNode(type: Type) {
+
+        val rawClass: Class<*> = type.rawOrUpperClass
+
+        val componentNode: TypeNode by lazy {
+            when {
+                type is GenericArrayType -> node(type.genericComponentType)
+                rawClass.isArray -> node(rawClass.componentType)
+                else -> objectNode
+            }
+        }
+
+        val elementNode: TypeNode by lazy { typeArgumentNode(type, Collection::class.java, 0) }
+        val keyNode: TypeNode by lazy { typeArgumentNode(type, Map::class.java, 0) }
+        val valueNode: TypeNode by lazy { typeArgumentNode(type, Map::class.java, 1) }
+
+        private fun typeArgumentNode(type: Type, baseClass: Class<*>, index: Int): TypeNode {
+            if (!baseClass.isAssignableFrom(rawClass)) {
+                return objectNode
+            }
+            //Type variables and wildcards are replaced by their upper classes
+            val declaredType = if (type is Class<*> || type is ParameterizedType) type else rawClass
+            val typeArgument = declaredType.typeArguments()[baseClass.typeParameters[index]] ?: return objectNode
+            return node(typeArgument)
+        }
+    }
+
+    private abstract class Plan {
+
+        open val mayCycle: Boolean
+            get() = false
+
+        /**
+         * Returns whether values of [type] are covered by the plan of their declared [node].
+         */
+        abstract fun conforms(type: Class<*>, node: TypeNode): Boolean
+
+        abstract fun copy(value: Any, node: TypeNode, copying: Copying): Any
+    }
+
+    private object ImmutablePlan : Plan() {
+
+        override fun conforms(type: Class<*>, node: TypeNode): Boolean = true
+
+        override fun copy(value: Any, node: TypeNode, copying: Copying): Any = value
+    }
+
+    private object EnumSetPlan : Plan() {
+
+        override fun conforms(type: Class<*>, node: TypeNode): Boolean = true
+
+        override fun copy(value: Any, node: TypeNode, copying: Copying): Any {
+            return value.asAny<EnumSet<*>>().clone()
+        }
+    }
+
+    private inner class ArrayPlan(type: Class<*>) : Plan() {
+
+        private val componentType = type.componentType
+        private val componentImmutable = isImmutable(componentType)
+        override val mayCycle: Boolean by lazy { mayCycle(node(type), HashSet(), HashSet()) }
+
+        override fun conforms(type: Class<*>, node: TypeNode): Boolean = type == node.rawClass
+
+        override fun copy(value: Any, node: TypeNode, copying: Copying): Any {
+            if (componentImmutable) {
+                return when (value) {
+                    is BooleanArray -> value.clone()
+                    is ByteArray -> value.clone()
+                    is ShortArray -> value.clone()
+                    is CharArray -> value.clone()
+                    is IntArray -> value.clone()
+                    is LongArray -> value.clone()
+                    is FloatArray -> value.clone()
+                    is DoubleArray -> value.clone()
+                    else -> value.asAny<Array<Any?>>().clone()
+                }
+            }
+            val source = value.asAny<Array<Any?>>()
+            val target = java.lang.reflect.Array.newInstance(componentType, source.size).asAny<Array<Any?>>()
+            val componentNode = node.componentNode
+            copying.enter(value, target)
+            for (i in source.indices) {
+                target[i] = copyValue(source[i], componentNode, copying)
+            }
+            copying.exit()
+            return target
+        }
+    }
+
+    private inner class CollectionPlan(private val type: Class<*>) : Plan() {
+
+        private val constructor: Constructor<*>? = type.publicEmptyConstructor()
+        private val comparatorConstructor: Constructor<*>? = type.publicComparatorConstructor()
+        override val mayCycle: Boolean by lazy { mayCycle(node(type), HashSet(), HashSet()) }
+
+        override fun conforms(type: Class<*>, node: TypeNode): Boolean {
+            return Collection::class.java.isAssignableFrom(node.rawClass) && node.rawClass.isAssignableFrom(type)
+        }
+
+        override fun copy(value: Any, node: TypeNode, copying: Copying): Any {
+            val source = value.asAny<Collection<Any?>>()
+            val target = newCollection(source)
+            val elementNode = node.elementNode
+            copying.enter(value, target)
+            for (element in source) {
+                target.add(copyValue(element, elementNode, copying))
+            }
+            copying.exit()
+            return target
+        }
+
+        //Comparators of sorted sets and priority queues (and their subclasses) are kept
+        private fun newCollection(source: Collection<Any?>): MutableCollection<Any?> {
+            val comparator: Comparator<Any?>? = when (source) {
+                is SortedSet<*> -> source.comparator().asAny()
+                is PriorityQueue<*> -> source.comparator().asAny()
+                is PriorityBlockingQueue<*> -> source.comparator().asAny()
+                else -> null
+            }
+            return when {
+                type == ArrayList::class.java -> ArrayList(source.size)
+                type == HashSet::class.java -> HashSet(capacityOf(source.size))
+                type == LinkedHashSet::class.java -> LinkedHashSet(capacityOf(source.size))
+                type == ArrayDeque::class.java -> ArrayDeque(source.size)
+                comparator !== null && comparatorConstructor !== null ->
+                    comparatorConstructor.newWithComparator(comparator, source.size)
+                constructor !== null -> constructor.newInstance().asAny()
+                source is SortedSet<*> -> TreeSet(comparator)
+                source is PriorityQueue<*> -> PriorityQueue(maxOf(source.size, 1), comparator)
+                source is PriorityBlockingQueue<*> -> PriorityBlockingQueue(maxOf(source.size, 1), comparator)
+                source is Set<*> -> LinkedHashSet(capacityOf(source.size))
+                else -> ArrayList(source.size)
+            }
+        }
+    }
+
+    private inner class MapPlan(private val type: Class<*>) : Plan() {
+
+        private val constructor: Constructor<*>? = type.publicEmptyConstructor()
+        private val comparatorConstructor: Constructor<*>? = type.publicComparatorConstructor()
+        override val mayCycle: Boolean by lazy { mayCycle(node(type), HashSet(), HashSet()) }
+
+        override fun conforms(type: Class<*>, node: TypeNode): Boolean {
+            return Map::class.java.isAssignableFrom(node.rawClass) && node.rawClass.isAssignableFrom(type)
+        }
+
+        override fun copy(value: Any, node: TypeNode, copying: Copying): Any {
+            val source = value.asAny<Map<Any?, Any?>>()
+            val target = newMap(source)
+            val keyNode = node.keyNode
+            val valueNode = node.valueNode
+            copying.enter(value, target)
+            for ((k, v) in source) {
+                target[copyValue(k, keyNode, copying)] = copyValue(v, valueNode, copying)
+            }
+            copying.exit()
+            return target
+        }
+
+        //Comparators of sorted maps (and their subclasses) are kept
+        private fun newMap(source: Map<Any?, Any?>): MutableMap<Any?, Any?> {
+            val comparator: Comparator<Any?>? = if (source is SortedMap<*, *>) source.comparator().asAny() else null
+            return when {
+                type == HashMap::class.java -> HashMap(capacityOf(source.size))
+                type == LinkedHashMap::class.java -> LinkedHashMap(capacityOf(source.size))
+                type == ConcurrentHashMap::class.java -> ConcurrentHashMap(capacityOf(source.size))
+                //Enum keys are immutable, values are replaced when copying
+                source is EnumMap<*, *> -> EnumMap(source.asAny<EnumMap<*, Any?>>()).asAny()
+                comparator !== null && comparatorConstructor !== null ->
+                    comparatorConstructor.newWithComparator(comparator, source.size)
+                constructor !== null -> constructor.newInstance().asAny()
+                source is SortedMap<*, *> -> TreeMap(comparator)
+                else -> LinkedHashMap(capacityOf(source.size))
+            }
+        }
+    }
+
+    private inner class BeanPlan(private val type: Class<*>) : Plan() {
+
+        private val constructor: Constructor<*>? = type.publicEmptyConstructor()
+
+        //Copies properties of immutable declared types
+        private val immutablePropertiesCopier: BeanCopier?
+
+        //Properties deeply copied one by one
+        private val mutableProperties: Array<PropertyType>
+        val propertyNodes: Array<TypeNode>
+
+        override val mayCycle: Boolean by lazy { mayCycle(node(type), HashSet(), HashSet()) }
+
+        init {
+            val immutableNames = HashSet<String>()
+            val mutables = ArrayList<PropertyType>()
+            val beanResolver = resolverRef.get() ?: throw IllegalStateException("Bean resolver has been collected.")
+            if (constructor !== null) {
+                for ((name, property) in beanResolver.resolve(type).properties) {
+                    if (name == "class" || !property.isReadable || !property.isWriteable) {
+                        continue
+                    }
+                    if (isImmutable(property.type.rawOrUpperClass)) {
+                        immutableNames.add(name)
+                    } else {
+                        mutables.add(property)
+                    }
+                }
+            }
+            immutablePropertiesCopier = if (immutableNames.isEmpty()) null else BeanCopier.newBeanCopier(
+                beanResolver,
+                type,
+                type,
+                BeanResolver.CopyOptions.DEFAULT_WITHOUT_CONVERSION.withNameFilter { immutableNames.contains(it) }
+            )
+            mutableProperties = mutables.toTypedArray()
+            propertyNodes = Array(mutableProperties.size) { node(mutableProperties[it].type) }
+        }
+
+        override fun conforms(type: Class<*>, node: TypeNode): Boolean = type == node.rawClass
+
+        override fun copy(value: Any, node: TypeNode, copying: Copying): Any {
+            if (constructor === null) {
+                throw IllegalArgumentException("Cannot deep copy $type: it has no public empty constructor.")
+            }
+            val target = constructor.newInstance()
+            immutablePropertiesCopier?.copy(value, target)
+            copying.enter(value, target)
+            for (i in mutableProperties.indices) {
+                val property = mutableProperties[i]
+                property.setValue<Any?>(target, copyValue(property.getValue(value), propertyNodes[i], copying))
+            }
+            copying.exit()
+            return target
+        }
+    }
+
+    companion object {
+
+        private val copiers: MutableMap<BeanResolver, DeepCopier> = Collections.synchronizedMap(WeakHashMap())
+
+        /**
+         * Returns deep copier of [beanResolver], cached until the resolver is no longer reachable.
+         */
+        fun forResolver(beanResolver: BeanResolver): DeepCopier {
+            val copier = copiers[beanResolver]
+            if (copier !== null) {
+                return copier
+            }
+            return DeepCopier(beanResolver).also { copiers.putIfAbsent(beanResolver, it) }
+        }
+
+        private val IMMUTABLE_CLASSES: Set<Class<*>> = setOf(
+            String::class.java,
+            Boolean::class.javaObjectType,
+            Byte::class.javaObjectType,
+            Short::class.javaObjectType,
+            Char::class.javaObjectType,
+            Int::class.javaObjectType,
+            Long::class.javaObjectType,
+            Float::class.javaObjectType,
+            Double::class.javaObjectType,
+            Void::class.javaObjectType,
+            BigInteger::class.java,
+            BigDecimal::class.java,
+            UUID::class.java,
+            Locale::class.java,
+            Currency::class.java,
+            URI::class.java,
+            Pattern::class.java,
+            Class::class.java,
+            Unit::class.java,
+        )
+
+        private fun isImmutable(type: Class<*>): Boolean {
+            return type.isPrimitive
+                    || type in IMMUTABLE_CLASSES
+                    || type.isEnum
+                    || type.superclass?.isEnum == true
+                    || type.name.startsWith("java.time.")
+                    || Charset::class.java.isAssignableFrom(type)
+        }
+
+        private fun capacityOf(size: Int): Int {
+            return if (size < 3) size + 1 else (size / 0.75f + 1f).toInt()
+        }
+
+        private fun Class<*>.publicEmptyConstructor(): Constructor<*>? {
+            if (!Modifier.isPublic(this.modifiers) || Modifier.isAbstract(this.modifiers)) {
+                return null
+            }
+            return try {
+                this.getConstructor()
+            } catch (e: NoSuchMethodException) {
+                null
+            }
+        }
+
+        /**
+         * Returns public constructor of sorted collection or map which accepts a [Comparator], such as
+         * `TreeSet(Comparator)` or `PriorityBlockingQueue(int, Comparator)`.
+         */
+        private fun Class<*>.publicComparatorConstructor(): Constructor<*>? {
+            if (!Modifier.isPublic(this.modifiers) || Modifier.isAbstract(this.modifiers)) {
+                return null
+            }
+            return try {
+                this.getConstructor(Comparator::class.java)
+            } catch (e: NoSuchMethodException) {
+                try {
+                    this.getConstructor(Int::class.javaPrimitiveType, Comparator::class.java)
+                } catch (e: NoSuchMethodException) {
+                    null
+                }
+            }
+        }
+
+        private fun <T> Constructor<*>.newWithComparator(comparator: Comparator<Any?>, size: Int): T {
+            val instance = if (this.parameterCount == 1) {
+                this.newInstance(comparator)
+            } else {
+                this.newInstance(maxOf(size, 1), comparator)
+            }
+            return instance.asAny()
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,86 @@
+package xyz.srclab.common.bean
+
+import xyz.srclab.common.base.asAny
+import java.lang.invoke.LambdaMetafactory
+import java.lang.invoke.MethodHandles
+import java.lang.invoke.MethodType
+import java.lang.reflect.Method
+import java.lang.reflect.Modifier
+import java.util.function.BiConsumer
+import java.util.function.Function
+
+/**
+ * Creates accessors of properties by [LambdaMetafactory], so that calling an accessor is a plain interface call,
+ * which can be inlined by JIT. Values of primitive properties are boxed or unboxed by the accessors.
+ *
+ * Lambda classes are defined with this class as their host, so only public methods of public classes, which are
+ * visible from class loader of this class, are supported. Methods of beans loaded by other class loaders (such as
+ * child class loaders of web containers or plugins) are not supported, for them the `OrNull` methods return null and
+ * callers fall back to reflection.
+ */
+internal object LambdaAccessors {
+
+    private val lookup = MethodHandles.lookup()
+
+    /**
+     * Returns getter function of [method], or null if it is not supported.
+     */
+    fun newGetterOrNull(method: Method): Function<Any, Any?>? {
+        if (method.parameterCount != 0 || !isSupported(method)) {
+            return null
+        }
+        return try {
+            val callSite = LambdaMetafactory.metafactory(
+                lookup,
+                "apply",
+                MethodType.methodType(Function::class.java),
+                MethodType.methodType(Any::class.java, Any::class.java),
+                lookup.unreflect(method),
+                MethodType.methodType(method.returnType.kotlin.javaObjectType, method.declaringClass)
+            )
+            callSite.target.invoke().asAny()
+        } catch (e: Throwable) {
+            if (e is VirtualMachineError) {
+                throw e
+            }
+            null
+        }
+    }
+
+    /**
+     * Returns setter consumer of [method], or null if it is not supported.
+     */
+    fun newSetterOrNull(method: Method): BiConsumer<Any, Any?>? {
+        if (method.parameterCount != 1 || !isSupported(method)) {
+            return null
+        }
+        return try {
+            val callSite = LambdaMetafactory.metafactory(
+                lookup,
+                "accept",
+                MethodType.methodType(BiConsumer::class.java),
+                MethodType.methodType(Void.TYPE, Any::class.java, Any::class.java),
+                lookup.unreflect(method),
+                MethodType.methodType(
+                    Void.TYPE, method.declaringClass, method.parameterTypes[0].kotlin.javaObjectType
+                )
+            )
+            callSite.target.invoke().asAny()
+        } catch (e: Throwable) {
+            if (e is VirtualMachineError) {
+                throw e
+            }
+            null
+        }
+    }
+
+    private fun isSupported(method: Method): Boolean {
+        if (Modifier.isStatic(method.modifiers) || !Modifier.isPublic(method.modifiers)) {
+            return false
+        }
+        val classLoader = LambdaAccessors::class.java.classLoader
+        return BeanCopierGenerator.isVisible(classLoader, method.declaringClass)
+                && BeanCopierGenerator.isVisible(classLoader, method.returnType)
+                && method.parameterTypes.all { BeanCopierGenerator.isVisible(classLoader, it) }
+    }
+}
\ No newline at end of file
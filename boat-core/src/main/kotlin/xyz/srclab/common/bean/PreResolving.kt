@@ -0,0 +1,252 @@
+package xyz.srclab.common.bean
+
+import xyz.srclab.common.base.Environment
+import xyz.srclab.common.base.INAPPLICABLE_JVM_NAME
+import xyz.srclab.common.run.Runner
+import java.io.File
+import java.lang.reflect.Type
+import java.net.JarURLConnection
+import java.net.URL
+import java.time.Duration
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Progress of pre-resolving of bean types in background, see [BeanResolver.preResolve].
+ */
+interface PreResolving {
+
+    /**
+     * Count of types to pre-resolve.
+     */
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    val total: Int
+        @JvmName("total") get
+
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    val resolvedCount: Int
+        @JvmName("resolvedCount") get
+
+    /**
+     * Names of types failed to load or resolve, and their causes. A name listed more than once has one entry.
+     */
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    val failures: Map<String, Throwable>
+        @JvmName("failures") get
+
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    @JvmDefault
+    val failedCount: Int
+        @JvmName("failedCount") get() = failures.size
+
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    @JvmDefault
+    val isDone: Boolean
+        @JvmName("isDone") get() = resolvedCount + failedCount >= total
+
+    /**
+     * Time cost until now, or until done if [isDone].
+     */
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    val cost: Duration
+        @JvmName("cost") get
+
+    /**
+     * Waits until done.
+     */
+    fun await(): PreResolving
+
+    /**
+     * Waits until done or [timeout] elapses, returns whether it is done.
+     */
+    fun await(timeout: Duration): Boolean
+
+    companion object {
+
+        /**
+         * Pre-resolves [types] (each of which is a [Type], or a class name loaded by [classLoader]) by [beanResolver].
+         * Types are resolved by a few tasks running on [runner], each of them takes next type until all are taken.
+         * If [runner] rejects all tasks, all types are failed with the rejection. If a task meets a
+         * [VirtualMachineError], the type and all types not taken yet are failed with it, and the error is rethrown.
+         */
+        @JvmStatic
+        fun start(
+            beanResolver: BeanResolver,
+            types: List<Any>,
+            classLoader: ClassLoader,
+            runner: Runner
+        ): PreResolving {
+            val preResolving = PreResolvingImpl(beanResolver, types, classLoader)
+            val taskCount = minOf(types.size, Environment.availableProcessors)
+            var accepted = 0
+            var rejection: Throwable? = null
+            for (i in 0 until taskCount) {
+                try {
+                    runner.run { preResolving.resolveAll() }
+                    accepted++
+                } catch (e: Exception) {
+                    rejection = e
+                }
+            }
+            if (accepted == 0 && rejection !== null) {
+                preResolving.failAll(rejection)
+            }
+            return preResolving
+        }
+
+        /**
+         * Returns names of classes in [packageName] and its sub-packages, found from directories and jars of
+         * [classLoader]. Anonymous and local classes are excluded.
+         */
+        @JvmStatic
+        fun scanClassNames(packageName: String, classLoader: ClassLoader): List<String> {
+            val path = packageName.replace('.', '/')
+            val names = TreeSet<String>()
+            for (url in classLoader.getResources(path)) {
+                when (url.protocol) {
+                    "file" -> scanDirectory(File(url.toURI()), packageName, names)
+                    "jar" -> scanJar(url, path, names)
+                }
+            }
+            return names.filter { isScannedClassName(it) }
+        }
+
+        private fun scanDirectory(directory: File, packageName: String, names: MutableSet<String>) {
+            val files = directory.listFiles() ?: return
+            for (file in files) {
+                if (file.isDirectory) {
+                    scanDirectory(file, "$packageName.${file.name}", names)
+                } else if (file.name.endsWith(".class")) {
+                    names.add("$packageName.${file.name.removeSuffix(".class")}")
+                }
+            }
+        }
+
+        private fun scanJar(url: URL, path: String, names: MutableSet<String>) {
+            val connection = url.openConnection() as JarURLConnection
+            connection.useCaches = false
+            connection.jarFile.use { jarFile ->
+                for (entry in jarFile.entries()) {
+                    val name = entry.name
+                    if (name.startsWith("$path/") && name.endsWith(".class")) {
+                        names.add(name.removeSuffix(".class").replace('/', '.'))
+                    }
+                }
+            }
+        }
+
+        private fun isScannedClassName(name: String): Boolean {
+            val simpleName = name.substringAfterLast('.')
+            if (simpleName == "package-info" || simpleName == "module-info") {
+                return false
+            }
+            //Anonymous and local classes: Outer$1, Outer$1Local
+            return simpleName.split('$').drop(1).none { it.isEmpty() || it[0].isDigit() }
+        }
+
+        private class PreResolvingImpl(
+            private val beanResolver: BeanResolver,
+            private val types: List<Any>,
+            private val classLoader: ClassLoader
+        ) : PreResolving {
+
+            private val cursor = AtomicInteger()
+            private val resolved = AtomicInteger()
+            private val failedCounter = AtomicInteger()
+            private val remaining = AtomicInteger(types.size)
+            private val failed = ConcurrentHashMap<String, Throwable>()
+            private val latch = CountDownLatch(types.size)
+            private val startNanos = System.nanoTime()
+
+            @Volatile
+            private var endNanos = if (types.isEmpty()) startNanos else -1L
+
+            override val total: Int = types.size
+
+            override val resolvedCount: Int
+                get() = resolved.get()
+
+            override val failures: Map<String, Throwable>
+                get() = Collections.unmodifiableMap(failed)
+
+            override val failedCount: Int
+                get() = failedCounter.get()
+
+            override val isDone: Boolean
+                get() = latch.count == 0L
+
+            override val cost: Duration
+                get() {
+                    val end = endNanos
+                    return Duration.ofNanos((if (end < 0) System.nanoTime() else end) - startNanos)
+                }
+
+            fun resolveAll() {
+                while (true) {
+                    val i = cursor.getAndIncrement()
+                    if (i >= types.size) {
+                        return
+                    }
+                    val type = types[i]
+                    var error: VirtualMachineError? = null
+                    try {
+                        val resolving = if (type is Type) type else Class.forName(type.toString(), false, classLoader)
+                        beanResolver.resolve(resolving)
+                        resolved.incrementAndGet()
+                    } catch (e: Throwable) {
+                        if (e is VirtualMachineError) {
+                            error = e
+                        }
+                        fail(type, e)
+                    } finally {
+                        complete()
+                    }
+                    if (error !== null) {
+                        //Gives up types not taken yet, so that waiting doesn't depend on a dying task
+                        failAll(error)
+                        throw error
+                    }
+                }
+            }
+
+            fun failAll(cause: Throwable) {
+                while (true) {
+                    val i = cursor.getAndIncrement()
+                    if (i >= types.size) {
+                        return
+                    }
+                    fail(types[i], cause)
+                    complete()
+                }
+            }
+
+            private fun fail(type: Any, cause: Throwable) {
+                failed[if (type is Type) type.typeName else type.toString()] = cause
+                failedCounter.incrementAndGet()
+            }
+
+            private fun complete() {
+                if (remaining.decrementAndGet() == 0) {
+                    endNanos = System.nanoTime()
+                }
+                latch.countDown()
+            }
+
+            override fun await(): PreResolving {
+                latch.await()
+                return this
+            }
+
+            override fun await(timeout: Duration): Boolean {
+                return latch.await(timeout.toNanos(), TimeUnit.NANOSECONDS)
+            }
+
+            override fun toString(): String {
+                return "pre-resolved $resolvedCount/$total types, $failedCount failed, cost ${cost.toMillis()}ms"
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,95 @@
+package xyz.srclab.common.bean
+
+import xyz.srclab.common.base.INAPPLICABLE_JVM_NAME
+
+/**
+ * Compact index of properties of a bean type, properties are stored in an array in order of
+ * [BeanType.properties], and looked up by name through an open-addressing hash table of array indexes.
+ *
+ * Looking up is faster than a [LinkedHashMap] for small tables: most lookups take one probe, and keys are compared
+ * by reference first (property names are usually literal or interned strings).
+ *
+ * @see BeanType.propertyIndex
+ */
+interface PropertyIndex {
+
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    val size: Int
+        @JvmName("size") get
+
+    /**
+     * Returns index of property of [name], or -1 if it doesn't exist.
+     */
+    fun indexOf(name: Any?): Int
+
+    fun nameAt(index: Int): String
+
+    fun propertyAt(index: Int): PropertyType
+
+    companion object {
+
+        @JvmStatic
+        fun newPropertyIndex(properties: Map<String, PropertyType>): PropertyIndex {
+            return PropertyIndexImpl(properties)
+        }
+
+        private class PropertyIndexImpl(properties: Map<String, PropertyType>) : PropertyIndex {
+
+            private val names: Array<String> = properties.keys.toTypedArray()
+            private val propertyTypes: Array<PropertyType> = properties.values.toTypedArray()
+
+            //Index + 1 of each slot, 0 means empty slot
+            private val table: IntArray
+            private val mask: Int
+
+            init {
+                var capacity = 2
+                while (capacity < names.size * 2) {
+                    capacity = capacity shl 1
+                }
+                table = IntArray(capacity)
+                mask = capacity - 1
+                for (i in names.indices) {
+                    var slot = slotOf(names[i])
+                    while (table[slot] != 0) {
+                        slot = (slot + 1) and mask
+                    }
+                    table[slot] = i + 1
+                }
+            }
+
+            override val size: Int = names.size
+
+            override fun indexOf(name: Any?): Int {
+                if (name !is String) {
+                    return -1
+                }
+                var slot = slotOf(name)
+                while (true) {
+                    val i = table[slot] - 1
+                    if (i < 0) {
+                        return -1
+                    }
+                    val n = names[i]
+                    if (n === name || n == name) {
+                        return i
+                    }
+                    slot = (slot + 1) and mask
+                }
+            }
+
+            override fun nameAt(index: Int): String {
+                return names[index]
+            }
+
+            override fun propertyAt(index: Int): PropertyType {
+                return propertyTypes[index]
+            }
+
+            private fun slotOf(name: String): Int {
+                val h = name.hashCode() * -0x61c88647
+                return (h xor (h ushr 16)) and mask
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -4,6 +4,7 @@ import xyz.srclab.common.base.INAPPLICABLE_JVM_NAME
 import xyz.srclab.common.invoke.Invoker
 import xyz.srclab.common.reflect.rawClass
 import java.lang.reflect.Field
+import java.lang.reflect.Method
 import java.lang.reflect.Type
 
 interface PropertyType {
@@ -48,6 +49,22 @@ interface PropertyType {
     val setter: Invoker?
         @JvmName("setter") get
 
+    /**
+     * Method of [getter], or null if the getter is not backed by a method.
+     */
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    @JvmDefault
+    val getterMethod: Method?
+        @JvmName("getterMethod") get() = null
+
+    /**
+     * Method of [setter], or null if the setter is not backed by a method.
+     */
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    @JvmDefault
+    val setterMethod: Method?
+        @JvmName("setterMethod") get() = null
+
     @Suppress(INAPPLICABLE_JVM_NAME)
     @JvmDefault
     val hasBackingField: Boolean
@@ -66,4 +83,87 @@ interface PropertyType {
     fun <T> getValue(bean: Any): T
 
     fun <T> setValue(bean: Any, value: Any?): T
+
+    //Primitive accessors: implementation may access the property without boxing if its type is the primitive type,
+    //default implementations box or unbox values by getValue and setValue.
+
+    @JvmDefault
+    fun getBoolean(bean: Any): Boolean {
+        return getValue(bean)
+    }
+
+    @JvmDefault
+    fun setBoolean(bean: Any, value: Boolean) {
+        setValue<Any?>(bean, value)
+    }
+
+    @JvmDefault
+    fun getByte(bean: Any): Byte {
+        return getValue(bean)
+    }
+
+    @JvmDefault
+    fun setByte(bean: Any, value: Byte) {
+        setValue<Any?>(bean, value)
+    }
+
+    @JvmDefault
+    fun getShort(bean: Any): Short {
+        return getValue(bean)
+    }
+
+    @JvmDefault
+    fun setShort(bean: Any, value: Short) {
+        setValue<Any?>(bean, value)
+    }
+
+    @JvmDefault
+    fun getChar(bean: Any): Char {
+        return getValue(bean)
+    }
+
+    @JvmDefault
+    fun setChar(bean: Any, value: Char) {
+        setValue<Any?>(bean, value)
+    }
+
+    @JvmDefault
+    fun getInt(bean: Any): Int {
+        return getValue(bean)
+    }
+
+    @JvmDefault
+    fun setInt(bean: Any, value: Int) {
+        setValue<Any?>(bean, value)
+    }
+
+    @JvmDefault
+    fun getLong(bean: Any): Long {
+        return getValue(bean)
+    }
+
+    @JvmDefault
+    fun setLong(bean: Any, value: Long) {
+        setValue<Any?>(bean, value)
+    }
+
+    @JvmDefault
+    fun getFloat(bean: Any): Float {
+        return getValue(bean)
+    }
+
+    @JvmDefault
+    fun setFloat(bean: Any, value: Float) {
+        setValue<Any?>(bean, value)
+    }
+
+    @JvmDefault
+    fun getDouble(bean: Any): Double {
+        return getValue(bean)
+    }
+
+    @JvmDefault
+    fun setDouble(bean: Any, value: Double) {
+        setValue<Any?>(bean, value)
+    }
 }
\ No newline at end of file
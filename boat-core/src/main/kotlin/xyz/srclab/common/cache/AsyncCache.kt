@@ -0,0 +1,77 @@
+package xyz.srclab.common.cache
+
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.Executor
+
+/**
+ * Non-blocking cache, values are loaded asynchronously and returned as [CompletableFuture].
+ *
+ * @see Cache.Builder.buildAsync
+ * @see CaffeineAsyncCache
+ */
+interface AsyncCache<K : Any, V> {
+
+    /**
+     * Returns future of value of [key]. If this cache has a loader, absent value will be loaded, or else the future
+     * completes exceptionally with [NoSuchElementException].
+     */
+    fun getAsync(key: K): CompletableFuture<V>
+
+    /**
+     * Returns future of value of [key], or null if the value is absent and not being loaded.
+     */
+    fun getIfPresentAsync(key: K): CompletableFuture<V>?
+
+    /**
+     * Returns future of value of [key], absent value will be loaded by [loader] on the runner of this cache.
+     */
+    fun getOrLoadAsync(key: K, loader: (K) -> V): CompletableFuture<V>
+
+    /**
+     * Returns future of value of [key], absent value will be loaded by [loader], which accepts the runner of this
+     * cache as [Executor].
+     */
+    fun getOrLoadAsync(key: K, loader: (K, Executor) -> CompletableFuture<V>): CompletableFuture<V>
+
+    /**
+     * Returns future of values of [keys], absent values will be loaded in bulk by [loader] on the runner of this
+     * cache. Keys absent in result of [loader] are also absent in result map.
+     */
+    fun getAllAsync(keys: Iterable<K>, loader: (Iterable<K>) -> Map<K, V>): CompletableFuture<Map<K, V>>
+
+    fun put(key: K, value: V)
+
+    /**
+     * Puts a future value, the entry will be removed if the future completes exceptionally or with null.
+     */
+    fun putAsync(key: K, value: CompletableFuture<V>)
+
+    /**
+     * Reloads value of [key] in background, the old value (if any) is still returned until reloading completes.
+     *
+     * @throws UnsupportedOperationException if this cache has no loader
+     */
+    @Throws(UnsupportedOperationException::class)
+    fun refresh(key: K)
+
+    fun invalidate(key: K)
+
+    fun invalidateAll(keys: Iterable<K>)
+
+    fun invalidateAll()
+
+    fun cleanUp()
+
+    /**
+     * Returns statistics snapshot of this cache, or [CacheStats.EMPTY] if this cache doesn't record statistics.
+     */
+    @JvmDefault
+    fun stats(): CacheStats {
+        return CacheStats.EMPTY
+    }
+
+    /**
+     * Returns a blocking [Cache] view of this cache, operations of either one are visible to the other.
+     */
+    fun synchronous(): Cache<K, V>
+}
\ No newline at end of file
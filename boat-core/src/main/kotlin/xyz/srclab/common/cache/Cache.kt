@@ -1,12 +1,25 @@
 package xyz.srclab.common.cache
 
 import com.github.benmanes.caffeine.cache.Caffeine
+import com.github.benmanes.caffeine.cache.Expiry
 import com.google.common.cache.RemovalListener
-import com.google.common.collect.MapMaker
+import com.google.common.cache.Weigher
 import xyz.srclab.common.base.CachingProductBuilder
 import xyz.srclab.common.base.Default
 import xyz.srclab.common.base.asAny
+import xyz.srclab.common.base.checkArgument
+import xyz.srclab.common.run.Runner
+import java.io.InputStream
+import java.io.OutputStream
+import java.nio.channels.Channels
+import java.nio.channels.ReadableByteChannel
+import java.nio.channels.WritableByteChannel
 import java.time.Duration
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executor
+import kotlin.math.max
+import kotlin.math.min
 import com.github.benmanes.caffeine.cache.RemovalCause as caffeineRemovalCause
 import com.google.common.cache.RemovalCause as guavaRemovalCause
 
@@ -16,7 +29,14 @@ import com.google.common.cache.RemovalCause as guavaRemovalCause
  * @see CaffeineCache
  * @see CaffeineLoadingCache
  * @see MapCache
+ * @see TinyLfuCache
  * @see ThreadLocalCache
+ * @see StripedCache
+ * @see InvalidatingCache
+ * @see OffHeapCache
+ * @see DiskCache
+ * @see TieredCache
+ * @see AsyncCache
  */
 interface Cache<K : Any, V> {
 
@@ -84,22 +104,54 @@ interface Cache<K : Any, V> {
 
     fun put(key: K, value: V)
 
+    /**
+     * Puts with per-entry expiry. If this cache doesn't support per-entry expiry, expiry is ignored and the entry
+     * follows expiry policy of this cache.
+     */
     fun put(key: K, value: V, expirySeconds: Long)
 
+    /**
+     * Puts with per-entry expiry. If this cache doesn't support per-entry expiry, expiry is ignored and the entry
+     * follows expiry policy of this cache.
+     */
     fun put(key: K, value: V, expiry: Duration)
 
     fun putAll(entries: Map<out K, V>)
 
+    /**
+     * Puts all with per-entry expiry. If this cache doesn't support per-entry expiry, expiry is ignored and the
+     * entries follow expiry policy of this cache.
+     */
     fun putAll(entries: Map<out K, V>, expirySeconds: Long)
 
+    /**
+     * Puts all with per-entry expiry. If this cache doesn't support per-entry expiry, expiry is ignored and the
+     * entries follow expiry policy of this cache.
+     */
     fun putAll(entries: Map<out K, V>, expiry: Duration)
 
+    /**
+     * Resets expiry of given entry, does nothing if the entry is absent or this cache doesn't support per-entry
+     * expiry.
+     */
     fun expiry(key: K, expirySeconds: Long)
 
+    /**
+     * Resets expiry of given entry, does nothing if the entry is absent or this cache doesn't support per-entry
+     * expiry.
+     */
     fun expiry(key: K, expirySeconds: Duration)
 
+    /**
+     * Resets expiry of given entries, absent entries are ignored. Does nothing if this cache doesn't support
+     * per-entry expiry.
+     */
     fun expiryAll(keys: Iterable<K>, expirySeconds: Long)
 
+    /**
+     * Resets expiry of given entries, absent entries are ignored. Does nothing if this cache doesn't support
+     * per-entry expiry.
+     */
     fun expiryAll(keys: Iterable<K>, expirySeconds: Duration)
 
     fun invalidate(key: K)
@@ -110,20 +162,92 @@ interface Cache<K : Any, V> {
 
     fun cleanUp()
 
+    /**
+     * Writes entries of this cache with their remaining expiry into [output] in format of [CacheSnapshotWriter], and
+     * returns count of written entries. [output] is flushed but not closed.
+     *
+     * Snapshot is weakly consistent: it doesn't block other operations on this cache, and may or may not reflect
+     * writes during snapshot.
+     *
+     * @throws UnsupportedOperationException if this cache doesn't support snapshot
+     * @see restore
+     */
+    @Throws(UnsupportedOperationException::class)
+    @JvmDefault
+    fun snapshot(output: OutputStream, keyCodec: CacheCodec<K>, valueCodec: CacheCodec<V>): Long {
+        throw UnsupportedOperationException("Snapshot is not supported.")
+    }
+
+    /**
+     * Writes entries of this cache into [channel], see [snapshot]. [channel] is not closed.
+     */
+    @Throws(UnsupportedOperationException::class)
+    @JvmDefault
+    fun snapshot(channel: WritableByteChannel, keyCodec: CacheCodec<K>, valueCodec: CacheCodec<V>): Long {
+        return snapshot(Channels.newOutputStream(channel), keyCodec, valueCodec)
+    }
+
+    /**
+     * Puts entries of snapshot written by [snapshot] from [input], and returns count of restored entries.
+     * [input] is not closed.
+     *
+     * Expired entries are skipped. Remaining expiry of entries is kept if this cache supports per-entry expiry,
+     * see [put].
+     */
+    @JvmDefault
+    fun restore(input: InputStream, keyCodec: CacheCodec<K>, valueCodec: CacheCodec<V>): Long {
+        return CacheSnapshotReader(input, keyCodec, valueCodec).read { key, value, expiry ->
+            if (expiry === null) {
+                put(key, value)
+            } else {
+                put(key, value, expiry)
+            }
+        }
+    }
+
+    /**
+     * Puts entries of snapshot from [channel], see [restore]. [channel] is not closed.
+     */
+    @JvmDefault
+    fun restore(channel: ReadableByteChannel, keyCodec: CacheCodec<K>, valueCodec: CacheCodec<V>): Long {
+        return restore(Channels.newInputStream(channel), keyCodec, valueCodec)
+    }
+
+    /**
+     * Returns statistics snapshot of this cache, or [CacheStats.EMPTY] if this cache doesn't record statistics.
+     *
+     * @see Builder.recordStats
+     */
+    @JvmDefault
+    fun stats(): CacheStats {
+        return CacheStats.EMPTY
+    }
+
     class Builder<K : Any, V> : CachingProductBuilder<Cache<K, V>>() {
 
         private var initialCapacity: Int? = null
         private var maxSize: Long? = null
+        private var maxWeight: Long? = null
+        private var weigher: ((K, V) -> Int)? = null
         private var concurrencyLevel: Int? = null
         private var expireAfterAccess: Duration? = null
         private var expireAfterWrite: Duration? = null
         private var refreshAfterWrite: Duration? = null
         private var loader: ((K) -> V)? = null
+        private var asyncLoader: ((K, Executor) -> CompletableFuture<V>)? = null
         private var createListener: CacheCreateListener<in K, in V>? = null
         private var readListener: CacheReadListener<in K, in V>? = null
         private var updateListener: CacheUpdateListener<in K, in V>? = null
         private var removeListener: CacheRemoveListener<in K, in V>? = null
+        private var listenerExecutor: Executor? = null
+        private var loadBatchWindow: Duration? = null
+        private var expireVariably = false
+        private var recordStats = false
         private var useGuava = false
+        private var secondLevelCache: Cache<K, V>? = null
+        private var offHeapMaxBytes: Long? = null
+        private var offHeapKeyCodec: CacheCodec<K>? = null
+        private var offHeapValueCodec: CacheCodec<V>? = null
 
         fun initialCapacity(initialCapacity: Int): Builder<K, V> {
             this.initialCapacity = initialCapacity
@@ -137,6 +261,27 @@ interface Cache<K : Any, V> {
             return this
         }
 
+        /**
+         * Sets max total weight of entries, weight of each entry is computed by [weigher], or estimated heap size of
+         * key and value by [HeapSizeEstimator.DEFAULT] if [weigher] is not set. This option can't be combined with
+         * [maxSize].
+         */
+        fun maxWeight(maxWeight: Long): Builder<K, V> {
+            this.maxWeight = maxWeight
+            this.commitChange()
+            return this
+        }
+
+        /**
+         * Sets weigher which computes weight of each entry for [maxWeight]. Weights are computed once when entries are
+         * put or updated.
+         */
+        fun weigher(weigher: (K, V) -> Int): Builder<K, V> {
+            this.weigher = weigher
+            this.commitChange()
+            return this
+        }
+
         fun concurrencyLevel(concurrencyLevel: Int): Builder<K, V> {
             this.concurrencyLevel = concurrencyLevel
             this.commitChange()
@@ -167,6 +312,16 @@ interface Cache<K : Any, V> {
             return this
         }
 
+        /**
+         * Sets loader which loads values asynchronously, it is only used by cache built by [buildAsync] and takes
+         * precedence over [loader].
+         */
+        fun asyncLoader(asyncLoader: (K, Executor) -> CompletableFuture<V>): Builder<K, V> {
+            this.asyncLoader = asyncLoader
+            this.commitChange()
+            return this
+        }
+
         fun createListener(createListener: CacheCreateListener<in K, in V>): Builder<K, V> {
             this.createListener = createListener
             this.commitChange()
@@ -191,16 +346,148 @@ interface Cache<K : Any, V> {
             return this
         }
 
+        /**
+         * Sets executor to call [CacheCreateListener], [CacheReadListener] and [CacheUpdateListener], default is
+         * [CacheListenerDispatcher.DEFAULT_EXECUTOR].
+         *
+         * These listeners are called through a [CacheListenerDispatcher], which buffers events and delivers them in
+         * batch on this executor. Read events are delivered with next write, or once a batch of them is buffered, so
+         * even with [Runner.SYNC_RUNNER] they are delivered later, by the thread which triggers the batch, rather than
+         * in the thread of each read. With [Runner.SYNC_RUNNER], listeners block cache operations of that thread.
+         */
+        fun listenerExecutor(listenerExecutor: Executor): Builder<K, V> {
+            this.listenerExecutor = listenerExecutor
+            this.commitChange()
+            return this
+        }
+
+        /**
+         * Sets time window to batch missed keys of concurrent [Cache.getAll] into one bulk load, default is no batch.
+         *
+         * Concurrent loads of same keys are always coalesced into one load, see [CacheLoadCoalescer].
+         */
+        fun loadBatchWindow(loadBatchWindow: Duration): Builder<K, V> {
+            this.loadBatchWindow = loadBatchWindow
+            this.commitChange()
+            return this
+        }
+
+        /**
+         * Enables per-entry expiry, such as [Cache.put] with expiry and [Cache.expiry].
+         *
+         * Expiration is held in Caffeine's timer wheel, so it costs O(1) per operation and needs no extra thread.
+         * [expireAfterWrite] and [expireAfterAccess] still take effect as default expiry of each entry: new and
+         * updated entries use the shorter one, and a read resets entry to [expireAfterAccess] if it is set.
+         *
+         * Guava cache doesn't support this option.
+         */
+        fun expireVariably(expireVariably: Boolean): Builder<K, V> {
+            this.expireVariably = expireVariably
+            this.commitChange()
+            return this
+        }
+
+        /**
+         * Enables statistics recording, see [Cache.stats].
+         */
+        fun recordStats(recordStats: Boolean): Builder<K, V> {
+            this.recordStats = recordStats
+            this.commitChange()
+            return this
+        }
+
         fun useGuava(useGuava: Boolean): Builder<K, V> {
             this.useGuava = useGuava
             this.commitChange()
             return this
         }
 
+        /**
+         * Sets second level cache, such as a [DiskCache], and the built cache becomes the first level of a
+         * [TieredCache]. If [loader] is set, loaded values are also put into second level cache.
+         */
+        fun secondLevelCache(secondLevelCache: Cache<K, V>): Builder<K, V> {
+            this.secondLevelCache = secondLevelCache
+            this.commitChange()
+            return this
+        }
+
+        /**
+         * Uses [OffHeapCache], which stores entries encoded by given codecs out of java heap, with [maxBytes] as its
+         * byte budget. This option takes precedence over [useGuava].
+         *
+         * Off-heap cache doesn't support expiry and listeners, [maxSize], [maxWeight] and [initialCapacity] are
+         * ignored.
+         */
+        fun useOffHeap(maxBytes: Long, keyCodec: CacheCodec<K>, valueCodec: CacheCodec<V>): Builder<K, V> {
+            this.offHeapMaxBytes = maxBytes
+            this.offHeapKeyCodec = keyCodec
+            this.offHeapValueCodec = valueCodec
+            this.commitChange()
+            return this
+        }
+
         override fun buildNew(): Cache<K, V> {
-            val params = Params(
+            val secondLevelCache = this.secondLevelCache
+            if (secondLevelCache === null) {
+                return buildFirstLevel(newParams())
+            }
+            val params = newParams()
+            val loader = params.loader
+            val firstLevel = buildFirstLevel(
+                if (loader === null) params else params.copy(loader = { k -> secondLevelCache.getOrLoad(k, loader) })
+            )
+            return TieredCache(firstLevel, secondLevelCache)
+        }
+
+        private fun buildFirstLevel(params: Params<K, V>): Cache<K, V> {
+            val offHeapMaxBytes = this.offHeapMaxBytes
+            return if (offHeapMaxBytes !== null) {
+                buildOffHeapCache(params, offHeapMaxBytes, offHeapKeyCodec!!, offHeapValueCodec!!)
+            } else if (useGuava) {
+                buildGuavaCache(params)
+            } else {
+                buildCaffeineCache(params)
+            }
+        }
+
+        /**
+         * Builds a new [AsyncCache] implemented by Caffeine, loads and refreshes run on given [runner].
+         *
+         * If [refreshAfterWrite] and a loader are set, stale values are reloaded in background and old values are
+         * returned until reloading completes. [useGuava], [useOffHeap] and listeners except remove listener are not
+         * supported.
+         */
+        @JvmOverloads
+        fun buildAsync(runner: Runner = Runner.ASYNC_RUNNER): AsyncCache<K, V> {
+            checkArgument(!useGuava && offHeapMaxBytes === null, "Async cache only supports Caffeine.")
+            checkArgument(
+                createListener === null && readListener === null && updateListener === null,
+                "Async cache doesn't support create, read and update listeners."
+            )
+            val params = newParams()
+            val statsCounter = if (params.recordStats) CacheStatsCounter() else null
+            val caffeineBuilder = newCaffeineBuilder(params, statsCounter).executor(runner)
+            val asyncLoader = this.asyncLoader
+            if (asyncLoader !== null) {
+                return CaffeineAsyncLoadingCache(
+                    caffeineBuilder.buildAsync<K, V> { k, executor -> asyncLoader(k, executor) },
+                    statsCounter
+                )
+            }
+            val loader = params.loader
+            if (loader !== null) {
+                return CaffeineAsyncLoadingCache(caffeineBuilder.buildAsync<K, V> { k -> loader(k) }, statsCounter)
+            }
+            return CaffeineAsyncCache(caffeineBuilder.buildAsync(), statsCounter)
+        }
+
+        private fun newParams(): Params<K, V> {
+            return Params(
                 initialCapacity,
                 maxSize,
+                maxWeight,
+                weigher,
                 concurrencyLevel,
                 expireAfterAccess,
                 expireAfterWrite,
@@ -210,15 +497,51 @@ interface Cache<K : Any, V> {
                 readListener,
                 updateListener,
                 removeListener,
+                listenerExecutor,
+                loadBatchWindow,
+                expireVariably,
+                recordStats,
             )
-            return if (useGuava) {
-                buildGuavaCache(params)
+        }
+
+        private fun buildOffHeapCache(
+            params: Params<K, V>,
+            maxBytes: Long,
+            keyCodec: CacheCodec<K>,
+            valueCodec: CacheCodec<V>,
+        ): Cache<K, V> {
+            checkArgument(
+                params.expireAfterAccess === null
+                        && params.expireAfterWrite === null
+                        && params.refreshAfterWrite === null
+                        && !params.expireVariably,
+                "Off-heap cache doesn't support expiry."
+            )
+            checkArgument(
+                params.createListener === null
+                        && params.readListener === null
+                        && params.updateListener === null
+                        && params.removeListener === null,
+                "Off-heap cache doesn't support listeners."
+            )
+            val concurrencyLevel = params.concurrencyLevel ?: Default.concurrencyLevel
+            val statsCounter = if (params.recordStats) CacheStatsCounter() else null
+            val loader = params.loader
+            return if (loader === null) {
+                OffHeapCache(
+                    maxBytes, keyCodec, valueCodec, concurrencyLevel,
+                    statsCounter = statsCounter, loadCoalescer = params.newLoadCoalescer()
+                )
             } else {
-                buildCaffeineCache(params)
+                OffHeapLoadingCache(
+                    maxBytes, keyCodec, valueCodec, loader, concurrencyLevel,
+                    statsCounter = statsCounter, loadCoalescer = params.newLoadCoalescer()
+                )
             }
         }
 
         private fun buildGuavaCache(params: Params<K, V>): Cache<K, V> {
+            checkArgument(!params.expireVariably, "Guava cache doesn't support per-entry expiry.")
             val guavaBuilder = com.google.common.cache.CacheBuilder.newBuilder()
             if (params.initialCapacity !== null) {
                 guavaBuilder.initialCapacity(params.initialCapacity)
@@ -226,6 +549,11 @@ interface Cache<K : Any, V> {
             if (params.maxSize !== null) {
                 guavaBuilder.maximumSize(params.maxSize)
             }
+            if (params.maxWeight !== null) {
+                val weigher = params.newWeigher()
+                guavaBuilder.maximumWeight(params.maxWeight)
+                guavaBuilder.weigher(Weigher<K, V> { k, v -> weigher(k, v) })
+            }
             if (params.concurrencyLevel !== null) {
                 guavaBuilder.concurrencyLevel(params.concurrencyLevel)
             }
@@ -238,8 +566,15 @@ interface Cache<K : Any, V> {
             if (params.refreshAfterWrite !== null) {
                 guavaBuilder.refreshAfterWrite(params.refreshAfterWrite)
             }
-            if (params.removeListener !== null) {
+            val statsCounter = if (params.recordStats) CacheStatsCounter() else null
+            if (params.removeListener !== null || statsCounter !== null) {
                 guavaBuilder.removalListener(RemovalListener<K, V> { notification ->
+                    if (statsCounter !== null && notification.wasEvicted()) {
+                        statsCounter.recordEviction()
+                    }
+                    if (params.removeListener === null) {
+                        return@RemovalListener
+                    }
                     val removeCause: CacheRemoveListener.Cause = when (notification.cause) {
                         guavaRemovalCause.EXPLICIT -> CacheRemoveListener.Cause.EXPLICIT
                         guavaRemovalCause.REPLACED -> CacheRemoveListener.Cause.REPLACED
@@ -250,22 +585,55 @@ interface Cache<K : Any, V> {
                     params.removeListener.afterRemove(notification.key, notification.value, removeCause)
                 })
             }
+            val dispatcher = params.newDispatcher()
             val loader = params.loader
             return if (loader === null) {
                 val guavaCache = guavaBuilder.build<K, V>()
-                GuavaCache(guavaCache)
+                GuavaCache(guavaCache, statsCounter, dispatcher, params.newLoadCoalescer())
             } else {
                 val loadingGuavaCache =
                     guavaBuilder.build(object : com.google.common.cache.CacheLoader<K, V>() {
                         override fun load(key: K): V {
-                            return loader(key)
+                            val value = if (statsCounter === null) {
+                                loader(key)
+                            } else {
+                                statsCounter.recordMisses(1)
+                                statsCounter.recordLoad(key, loader)
+                            }
+                            if (dispatcher !== null) {
+                                dispatcher.miss(key)
+                                dispatcher.create(key, value)
+                            }
+                            return value
                         }
                     })
-                GuavaLoadingCache(loadingGuavaCache)
+                GuavaLoadingCache(loadingGuavaCache, statsCounter, dispatcher, params.newLoadCoalescer())
             }
         }
 
         private fun buildCaffeineCache(params: Params<K, V>): Cache<K, V> {
+            val statsCounter = if (params.recordStats) CacheStatsCounter() else null
+            val caffeineBuilder = newCaffeineBuilder(params, statsCounter)
+            val dispatcher = params.newDispatcher()
+            val loader = params.loader
+            return if (loader === null) {
+                val guavaCache = caffeineBuilder.build<K, V>()
+                CaffeineCache(guavaCache, statsCounter, dispatcher, params.newLoadCoalescer())
+            } else if (dispatcher === null) {
+                val loadingGuavaCache = caffeineBuilder.build<K, V> { k -> loader(k) }
+                CaffeineLoadingCache(loadingGuavaCache, statsCounter, null, params.newLoadCoalescer())
+            } else {
+                val loadingGuavaCache = caffeineBuilder.build<K, V> { k ->
+                    val value = loader(k)
+                    dispatcher.miss(k)
+                    dispatcher.create(k, value)
+                    value
+                }
+                CaffeineLoadingCache(loadingGuavaCache, statsCounter, dispatcher, params.newLoadCoalescer())
+            }
+        }
+
+        private fun newCaffeineBuilder(params: Params<K, V>, statsCounter: CacheStatsCounter?): Caffeine<Any, Any> {
             val caffeineBuilder = Caffeine.newBuilder()
             if (params.initialCapacity !== null) {
                 caffeineBuilder.initialCapacity(params.initialCapacity)
@@ -273,17 +641,37 @@ interface Cache<K : Any, V> {
             if (params.maxSize !== null) {
                 caffeineBuilder.maximumSize(params.maxSize)
             }
-            if (params.expireAfterAccess !== null) {
-                caffeineBuilder.expireAfterAccess(params.expireAfterAccess)
+            if (params.maxWeight !== null) {
+                val weigher = params.newWeigher()
+                caffeineBuilder.maximumWeight(params.maxWeight)
+                caffeineBuilder.weigher<Any, Any> { k, v -> weigher(k.asAny(), v.asAny()) }
             }
-            if (params.expireAfterWrite !== null) {
-                caffeineBuilder.expireAfterWrite(params.expireAfterWrite)
+            val variableExpiry = if (params.expireVariably) {
+                CaffeineVariableExpiry<K, V>(params.expireAfterAccess, params.expireAfterWrite)
+            } else {
+                null
+            }
+            if (variableExpiry !== null) {
+                caffeineBuilder.expireAfter(variableExpiry)
+            } else {
+                if (params.expireAfterAccess !== null) {
+                    caffeineBuilder.expireAfterAccess(params.expireAfterAccess)
+                }
+                if (params.expireAfterWrite !== null) {
+                    caffeineBuilder.expireAfterWrite(params.expireAfterWrite)
+                }
             }
             if (params.refreshAfterWrite !== null) {
                 caffeineBuilder.refreshAfterWrite(params.refreshAfterWrite)
             }
-            if (params.removeListener !== null) {
+            if (params.removeListener !== null || variableExpiry?.isTrackingWrites == true) {
                 caffeineBuilder.removalListener<K, V> { key, value, cause ->
+                    if (variableExpiry !== null && key !== null) {
+                        variableExpiry.onRemoval(key, value)
+                    }
+                    if (params.removeListener === null) {
+                        return@removalListener
+                    }
                     val removeCause: CacheRemoveListener.Cause = when (cause) {
                         caffeineRemovalCause.EXPLICIT -> CacheRemoveListener.Cause.EXPLICIT
                         caffeineRemovalCause.REPLACED -> CacheRemoveListener.Cause.REPLACED
@@ -294,19 +682,17 @@ interface Cache<K : Any, V> {
                     params.removeListener.afterRemove(key.asAny(), value.asAny(), removeCause)
                 }
             }
-            val loader = params.loader
-            return if (loader === null) {
-                val guavaCache = caffeineBuilder.build<K, V>()
-                CaffeineCache(guavaCache)
-            } else {
-                val loadingGuavaCache = caffeineBuilder.build<K, V> { k -> loader(k) }
-                CaffeineLoadingCache(loadingGuavaCache)
+            if (statsCounter !== null) {
+                caffeineBuilder.recordStats { CaffeineStatsCounter(statsCounter) }
             }
+            return caffeineBuilder
         }
 
-        private data class Params<K, V>(
+        private data class Params<K : Any, V>(
             val initialCapacity: Int? = null,
             val maxSize: Long? = null,
+            val maxWeight: Long? = null,
+            val weigher: ((K, V) -> Int)? = null,
             val concurrencyLevel: Int? = null,
             val expireAfterAccess: Duration? = null,
             val expireAfterWrite: Duration? = null,
@@ -316,7 +702,129 @@ interface Cache<K : Any, V> {
             val readListener: CacheReadListener<in K, in V>? = null,
             val updateListener: CacheUpdateListener<in K, in V>? = null,
             val removeListener: CacheRemoveListener<in K, in V>? = null,
-        )
+            val listenerExecutor: Executor? = null,
+            val loadBatchWindow: Duration? = null,
+            val expireVariably: Boolean = false,
+            val recordStats: Boolean = false,
+        ) {
+
+            fun newDispatcher(): CacheListenerDispatcher<K, V>? {
+                if (createListener === null && readListener === null && updateListener === null) {
+                    return null
+                }
+                return CacheListenerDispatcher(
+                    createListener,
+                    readListener,
+                    updateListener,
+                    listenerExecutor ?: CacheListenerDispatcher.DEFAULT_EXECUTOR,
+                )
+            }
+
+            fun newWeigher(): (K, V) -> Int {
+                return weigher ?: { k, v ->
+                    val size = HeapSizeEstimator.DEFAULT.estimate(k) + HeapSizeEstimator.DEFAULT.estimate(v)
+                    if (size > Int.MAX_VALUE) Int.MAX_VALUE else size.toInt()
+                }
+            }
+
+            fun newLoadCoalescer(): CacheLoadCoalescer<K, V> {
+                return CacheLoadCoalescer(loadBatchWindow ?: Duration.ZERO)
+            }
+        }
+
+        private class CaffeineStatsCounter(
+            private val statsCounter: CacheStatsCounter
+        ) : com.github.benmanes.caffeine.cache.stats.StatsCounter {
+
+            override fun recordHits(count: Int) {
+                statsCounter.recordHits(count)
+            }
+
+            override fun recordMisses(count: Int) {
+                statsCounter.recordMisses(count)
+            }
+
+            override fun recordLoadSuccess(loadTime: Long) {
+                statsCounter.recordLoadSuccess(loadTime)
+            }
+
+            override fun recordLoadFailure(loadTime: Long) {
+                statsCounter.recordLoadFailure(loadTime)
+            }
+
+            override fun recordEviction() {
+                statsCounter.recordEviction()
+            }
+
+            override fun snapshot(): com.github.benmanes.caffeine.cache.stats.CacheStats {
+                val stats = statsCounter.snapshot(0)
+                return com.github.benmanes.caffeine.cache.stats.CacheStats.of(
+                    stats.hitCount,
+                    stats.missCount,
+                    stats.loadSuccessCount,
+                    stats.loadFailureCount,
+                    stats.totalLoadTime.toNanos(),
+                    stats.evictionCount,
+                    0,
+                )
+            }
+        }
+
+        private class CaffeineVariableExpiry<K, V>(
+            expireAfterAccess: Duration?,
+            expireAfterWrite: Duration?,
+        ) : Expiry<K, V> {
+
+            private val afterAccessNanos: Long = expireAfterAccess?.toNanos() ?: -1
+            private val afterWriteNanos: Long = expireAfterWrite?.toNanos() ?: -1
+            private val afterCreateNanos: Long = when {
+                afterAccessNanos < 0 && afterWriteNanos < 0 -> Long.MAX_VALUE
+                afterAccessNanos < 0 -> afterWriteNanos
+                afterWriteNanos < 0 -> afterAccessNanos
+                else -> min(afterAccessNanos, afterWriteNanos)
+            }
+
+            //Expiry doesn't know when an entry was written, so if both are set, write deadlines are tracked to keep
+            //reads from extending entries beyond expireAfterWrite. Deadlines are matched by value identity: entries
+            //put with explicit expiry (which bypasses this expiry) are not capped.
+            private val writeDeadlines: ConcurrentHashMap<K, WriteDeadline<V>>? =
+                if (afterAccessNanos >= 0 && afterWriteNanos >= 0) ConcurrentHashMap() else null
+
+            val isTrackingWrites: Boolean
+                get() = writeDeadlines !== null
+
+            override fun expireAfterCreate(key: K, value: V, currentTime: Long): Long {
+                writeDeadlines?.put(key, WriteDeadline(value, currentTime + afterWriteNanos))
+                return afterCreateNanos
+            }
+
+            override fun expireAfterUpdate(key: K, value: V, currentTime: Long, currentDuration: Long): Long {
+                writeDeadlines?.put(key, WriteDeadline(value, currentTime + afterWriteNanos))
+                return if (afterCreateNanos == Long.MAX_VALUE) currentDuration else afterCreateNanos
+            }
+
+            override fun expireAfterRead(key: K, value: V, currentTime: Long, currentDuration: Long): Long {
+                if (afterAccessNanos < 0) {
+                    return currentDuration
+                }
+                val deadline = writeDeadlines?.get(key)
+                if (deadline === null || deadline.value !== value) {
+                    return afterAccessNanos
+                }
+                return max(0L, min(afterAccessNanos, deadline.nanos - currentTime))
+            }
+
+            fun onRemoval(key: K, value: V?) {
+                val writeDeadlines = this.writeDeadlines ?: return
+                val deadline = writeDeadlines[key]
+                //Replaced value may be removed after new value was written
+                if (deadline !== null && deadline.value === value) {
+                    writeDeadlines.remove(key, deadline)
+                }
+            }
+
+            private class WriteDeadline<V>(val value: V, val nanos: Long)
+        }
     }
 
     companion object {
@@ -326,14 +834,26 @@ interface Cache<K : Any, V> {
             return Builder()
         }
 
+        const val FAST_CACHE_MAX_SIZE = 10000L
+
         /**
-         * Return a new fast Cache.
+         * Return a new fast Cache, which is a [TinyLfuCache] bounded by [FAST_CACHE_MAX_SIZE].
          *
-         * Does not support to set expiry time, and if the value has been created, cannot update (put) it.
+         * Does not support to set expiry time.
          */
         @JvmStatic
         fun <K : Any, V> newFastCache(): Cache<K, V> {
-            return MapCache(MapMaker().concurrencyLevel(Default.concurrencyLevel).weakValues().makeMap())
+            return newFastCache(FAST_CACHE_MAX_SIZE)
+        }
+
+        /**
+         * Return a new fast Cache, which is a [TinyLfuCache] bounded by [maxSize].
+         *
+         * Does not support to set expiry time.
+         */
+        @JvmStatic
+        fun <K : Any, V> newFastCache(maxSize: Long): Cache<K, V> {
+            return TinyLfuCache(maxSize)
         }
     }
 }
@@ -0,0 +1,82 @@
+package xyz.srclab.common.cache
+
+import xyz.srclab.common.base.asAny
+import xyz.srclab.common.base.toBytes
+import xyz.srclab.common.base.toChars
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.ObjectInputStream
+import java.io.ObjectOutputStream
+import java.io.Serializable
+import java.nio.ByteBuffer
+
+/**
+ * Codec to encode and decode keys or values of caches which store entries out of java heap, such as [OffHeapCache].
+ *
+ * To use json serializer of boat-serialize:
+ *
+ * ```
+ * CacheCodec.of(
+ *     { it.toJsonBytes() },
+ *     { it.toJson().toObject(type) }
+ * )
+ * ```
+ */
+interface CacheCodec<T> {
+
+    fun encode(value: T): ByteArray
+
+    fun decode(bytes: ByteArray): T
+
+    companion object {
+
+        @JvmField
+        val STRING: CacheCodec<String> = of({ it.toBytes() }, { it.toChars() })
+
+        @JvmField
+        val LONG: CacheCodec<Long> = of(
+            { ByteBuffer.allocate(8).putLong(it).array() },
+            { ByteBuffer.wrap(it).long }
+        )
+
+        @JvmField
+        val INT: CacheCodec<Int> = of(
+            { ByteBuffer.allocate(4).putInt(it).array() },
+            { ByteBuffer.wrap(it).int }
+        )
+
+        @JvmField
+        val BYTES: CacheCodec<ByteArray> = of({ it }, { it })
+
+        /**
+         * Codec uses java serialization.
+         *
+         * Never decode untrusted bytes (such as messages from network) by this codec: java deserialization of
+         * crafted bytes may execute arbitrary code. [InvalidatingCache] refuses it for remote transports.
+         */
+        @JvmField
+        val SERIALIZABLE: CacheCodec<Serializable> = of(
+            {
+                val output = ByteArrayOutputStream()
+                ObjectOutputStream(output).use { out -> out.writeObject(it) }
+                output.toByteArray()
+            },
+            {
+                ObjectInputStream(ByteArrayInputStream(it)).use { input -> input.readObject().asAny() }
+            }
+        )
+
+        @JvmStatic
+        fun <T> of(encoder: (T) -> ByteArray, decoder: (ByteArray) -> T): CacheCodec<T> {
+            return object : CacheCodec<T> {
+                override fun encode(value: T): ByteArray {
+                    return encoder(value)
+                }
+
+                override fun decode(bytes: ByteArray): T {
+                    return decoder(bytes)
+                }
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,266 @@
+package xyz.srclab.common.cache
+
+import xyz.srclab.common.base.Environment
+import xyz.srclab.common.base.INAPPLICABLE_JVM_NAME
+import xyz.srclab.common.base.asAny
+import xyz.srclab.common.base.checkArgument
+import xyz.srclab.common.run.Runner
+import java.time.Duration
+import java.util.concurrent.Executor
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+import java.util.concurrent.atomic.LongAdder
+
+/**
+ * Dispatches events of [CacheCreateListener], [CacheReadListener] and [CacheUpdateListener] asynchronously.
+ *
+ * Events are written into a bounded ring buffer without lock or allocation, then drained in batch on [executor]. Only
+ * one drain runs at a time, so listeners are called in event order on one thread at a time. If the buffer is full,
+ * new events are dropped rather than blocking the cache, see [droppedCount].
+ *
+ * A drain is scheduled by each create and update event, but by read events only once per [readBatchSize] of buffered
+ * events, so that reads don't submit to [executor] on their path. Buffered read events are therefore dispatched with
+ * next write, next full batch, or [flush].
+ *
+ * Listeners run in the thread which runs the drain. With a synchronous executor such as [Runner.SYNC_RUNNER], that is
+ * the thread of the write (or of the read filling a batch, or of [flush]) which schedules the drain, and it also
+ * delivers read events buffered before; if a drain is running in another thread, events are delivered by that thread.
+ *
+ * Default [executor] is [DEFAULT_EXECUTOR], which is shared and bounded. If [executor] rejects a drain, events stay in
+ * the buffer until next drain is scheduled.
+ *
+ * Because of asynchronous, `before` methods of listeners are called just before their `after` methods.
+ */
+class CacheListenerDispatcher<K, V> @JvmOverloads constructor(
+    private val createListener: CacheCreateListener<in K, in V>?,
+    private val readListener: CacheReadListener<in K, in V>?,
+    private val updateListener: CacheUpdateListener<in K, in V>?,
+    private val executor: Executor = DEFAULT_EXECUTOR,
+    bufferSize: Int = DEFAULT_BUFFER_SIZE,
+) : Runnable {
+
+    private val capacity: Int
+    private val mask: Long
+    private val readBatchMask: Long
+    private val sequences: AtomicLongArray
+    private val types: IntArray
+    private val keys: Array<Any?>
+    private val values: Array<Any?>
+    private val oldValues: Array<Any?>
+
+    private val tail = AtomicLong()
+    private var head = 0L
+    private val drainStatus = AtomicInteger(IDLE)
+    private val dropped = LongAdder()
+
+    init {
+        checkArgument(bufferSize > 0, "Buffer size must be positive: $bufferSize")
+        capacity = Integer.highestOneBit(maxOf(bufferSize, 2) - 1) shl 1
+        mask = capacity - 1L
+        readBatchMask = maxOf(capacity shr 2, 1) - 1L
+        sequences = AtomicLongArray(capacity)
+        for (i in 0 until capacity) {
+            sequences.set(i, i.toLong())
+        }
+        types = IntArray(capacity)
+        keys = arrayOfNulls(capacity)
+        values = arrayOfNulls(capacity)
+        oldValues = arrayOfNulls(capacity)
+    }
+
+    /**
+     * Count of events dropped because the buffer was full.
+     */
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    val droppedCount: Long
+        @JvmName("droppedCount") get() = dropped.sum()
+
+    /**
+     * Count of buffered events which trigger a drain by read events, a quarter of buffer capacity.
+     */
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    val readBatchSize: Int
+        @JvmName("readBatchSize") get() = (readBatchMask + 1).toInt()
+
+    fun hit(key: K, value: V) {
+        if (readListener !== null) {
+            offer(HIT, key, value, null, false)
+        }
+    }
+
+    fun miss(key: K) {
+        if (readListener !== null) {
+            offer(MISS, key, null, null, false)
+        }
+    }
+
+    fun create(key: K, value: V) {
+        if (createListener !== null) {
+            offer(CREATE, key, value, null, true)
+        }
+    }
+
+    fun update(key: K, oldValue: V, newValue: V) {
+        if (updateListener !== null) {
+            offer(UPDATE, key, newValue, oldValue, true)
+        }
+    }
+
+    /**
+     * Dispatches [create] if [oldValue] is null, or else [update].
+     */
+    fun put(key: K, oldValue: V?, newValue: V) {
+        if (oldValue === null) {
+            create(key, newValue)
+        } else {
+            update(key, oldValue, newValue)
+        }
+    }
+
+    /**
+     * Schedules a drain of buffered events on [executor], including read events not reaching [readBatchSize].
+     */
+    fun flush() {
+        scheduleDrain()
+    }
+
+    /**
+     * Drains buffered events, this method is submitted to [executor] and usually needn't be called directly.
+     */
+    override fun run() {
+        do {
+            drainStatus.set(PROCESSING)
+            drainEvents()
+        } while (!drainStatus.compareAndSet(PROCESSING, IDLE))
+    }
+
+    private fun offer(type: Int, key: Any?, value: Any?, oldValue: Any?, isWrite: Boolean) {
+        var position = tail.get()
+        while (true) {
+            val index = (position and mask).toInt()
+            val difference = sequences.get(index) - position
+            if (difference == 0L) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    types[index] = type
+                    keys[index] = key
+                    values[index] = value
+                    oldValues[index] = oldValue
+                    sequences.lazySet(index, position + 1)
+                    if (isWrite || (position + 1) and readBatchMask == 0L) {
+                        scheduleDrain()
+                    }
+                    return
+                }
+                position = tail.get()
+            } else if (difference < 0) {
+                dropped.increment()
+                scheduleDrain()
+                return
+            } else {
+                position = tail.get()
+            }
+        }
+    }
+
+    private fun scheduleDrain() {
+        while (true) {
+            when (drainStatus.get()) {
+                IDLE -> if (drainStatus.compareAndSet(IDLE, REQUIRED)) {
+                    try {
+                        executor.execute(this)
+                    } catch (e: RejectedExecutionException) {
+                        drainStatus.set(IDLE)
+                    }
+                    return
+                }
+                PROCESSING -> if (drainStatus.compareAndSet(PROCESSING, REQUIRED)) {
+                    return
+                }
+                else -> return
+            }
+        }
+    }
+
+    private fun drainEvents() {
+        while (true) {
+            val index = (head and mask).toInt()
+            if (sequences.get(index) != head + 1) {
+                return
+            }
+            val type = types[index]
+            val key = keys[index]
+            val value = values[index]
+            val oldValue = oldValues[index]
+            keys[index] = null
+            values[index] = null
+            oldValues[index] = null
+            sequences.lazySet(index, head + capacity)
+            head++
+            try {
+                dispatch(type, key, value, oldValue)
+            } catch (e: Throwable) {
+                //Listener's exception should not stop the dispatching
+            }
+        }
+    }
+
+    private fun dispatch(type: Int, key: Any?, value: Any?, oldValue: Any?) {
+        when (type) {
+            HIT -> {
+                val listener = readListener.asAny<CacheReadListener<Any?, Any?>>()
+                listener.beforeRead(key)
+                listener.onHit(key, value)
+            }
+            MISS -> {
+                val listener = readListener.asAny<CacheReadListener<Any?, Any?>>()
+                listener.beforeRead(key)
+                listener.onMiss(key)
+            }
+            CREATE -> {
+                val listener = createListener.asAny<CacheCreateListener<Any?, Any?>>()
+                listener.beforeCreate(key)
+                listener.afterCreate(key, value)
+            }
+            UPDATE -> {
+                val listener = updateListener.asAny<CacheUpdateListener<Any?, Any?>>()
+                listener.beforeUpdate(key, oldValue)
+                listener.afterUpdate(key, oldValue, value)
+            }
+        }
+    }
+
+    companion object {
+
+        const val DEFAULT_BUFFER_SIZE = 1024
+
+        /**
+         * Default executor of drains, a shared pool of daemon threads as many as processors, idle threads are
+         * released after 60 seconds. A drain of each dispatcher runs on one thread at a time, so its queue holds at
+         * most one task of each dispatcher.
+         */
+        @JvmField
+        val DEFAULT_EXECUTOR: Executor = Runner.newThreadPoolRunnerBuilder()
+            .corePoolSize(Environment.availableProcessors)
+            .maximumPoolSize(Environment.availableProcessors)
+            .workQueueCapacity(DEFAULT_BUFFER_SIZE)
+            .keepAliveTime(Duration.ofSeconds(60))
+            .allowCoreThreadTimeOut(true)
+            .threadFactory {
+                val thread = Thread(it, "cache-listener-dispatcher")
+                thread.isDaemon = true
+                thread
+            }
+            .build()
+
+        private const val HIT = 0
+        private const val MISS = 1
+        private const val CREATE = 2
+        private const val UPDATE = 3
+
+        private const val IDLE = 0
+        private const val REQUIRED = 1
+        private const val PROCESSING = 2
+    }
+}
\ No newline at end of file
@@ -0,0 +1,219 @@
+package xyz.srclab.common.cache
+
+import xyz.srclab.common.base.Default
+import xyz.srclab.common.base.asAny
+import java.time.Duration
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CompletionException
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.locks.LockSupport
+
+/**
+ * Coalesces concurrent loads of caches: a key which is being loaded is waited for rather than loaded again.
+ *
+ * A caller which takes over loading of a key looks the key up again by given `lookup` before loading, because another
+ * load of the key may have been completed and stored between the caller's miss and its taking over. `lookup` should
+ * read the backing store quietly, without recording statistics or dispatching events.
+ *
+ * If [batchWindow] is positive, missed keys of [loadAll] from different callers are collected for [batchWindow] and
+ * loaded by one bulk load. The bulk load uses loader of the caller which starts the batch, so callers sharing a
+ * coalescer should use equivalent loaders.
+ *
+ * A key absent in result of a bulk load is not a value: callers of [load] waiting for it load it again by their own
+ * loaders. A loader must not load its own key again through the same coalescer, [load] and [loadAll] fail fast with
+ * [IllegalStateException] if a key is being loaded by current thread ([loadAll] checks before taking over any key); a
+ * loader of batched [loadAll] must not load any key of the batch either, which is not detected.
+ */
+class CacheLoadCoalescer<K : Any, V> @JvmOverloads constructor(
+    private val batchWindow: Duration = Duration.ZERO,
+) {
+
+    private val inFlight = ConcurrentHashMap<K, LoadingFuture>()
+    private val batchLock = Any()
+    private var currentBatch: Batch<K, V>? = null
+
+    /**
+     * Loads value of [key], or waits for the loading of [key] if it is being loaded by another caller.
+     *
+     * [store] is called with loaded value before waiting callers are released, so the value should be found in cache
+     * once this load completed.
+     */
+    fun load(key: K, lookup: (K) -> V?, loader: (K) -> V, store: (K, V) -> Unit): V {
+        val future = LoadingFuture()
+        while (true) {
+            val existing = inFlight.putIfAbsent(key, future) ?: break
+            if (existing.owner === Thread.currentThread()) {
+                throw IllegalStateException("Recursive load of key: $key")
+            }
+            val value = await(existing)
+            if (value !== Default.ABSENT) {
+                return value.asAny()
+            }
+            //Absent in result of a bulk load, loads it again
+        }
+        try {
+            val present = lookup(key)
+            if (present !== null) {
+                inFlight.remove(key, future)
+                future.complete(present)
+                return present
+            }
+            val value = loader(key)
+            store(key, value)
+            inFlight.remove(key, future)
+            future.complete(value)
+            return value
+        } catch (e: Throwable) {
+            inFlight.remove(key, future)
+            future.completeExceptionally(e)
+            throw e
+        }
+    }
+
+    /**
+     * Loads values of [keys] in bulk, keys being loaded by other callers are waited for.
+     *
+     * [store] is called with loaded values before waiting callers are released. Keys absent in result of [loader] are
+     * also absent in returned map.
+     */
+    fun loadAll(
+        keys: Iterable<K>,
+        lookup: (K) -> V?,
+        loader: (Iterable<K>) -> Map<K, V>,
+        store: (Map<K, V>) -> Unit
+    ): Map<K, V> {
+        //Checks all keys before registering any, only current thread registers futures owned by itself
+        for (key in keys) {
+            if (inFlight[key]?.owner === Thread.currentThread()) {
+                throw IllegalStateException("Recursive load of key: $key")
+            }
+        }
+        val awaiting = LinkedHashMap<K, LoadingFuture>()
+        var owned: MutableMap<K, LoadingFuture>? = null
+        for (key in keys) {
+            if (awaiting.containsKey(key)) {
+                continue
+            }
+            val future = LoadingFuture()
+            val existing = inFlight.putIfAbsent(key, future)
+            if (existing === null) {
+                if (owned === null) {
+                    owned = LinkedHashMap()
+                }
+                owned[key] = future
+                awaiting[key] = future
+            } else {
+                awaiting[key] = existing
+            }
+        }
+        if (owned !== null) {
+            if (batchWindow.isZero || batchWindow.isNegative) {
+                loadBatch(owned, lookup, loader, store)
+            } else {
+                joinBatch(owned, lookup, loader, store)
+            }
+        }
+        val resultMap = LinkedHashMap<K, V>()
+        for (entry in awaiting) {
+            val value = await(entry.value)
+            if (value !== Default.ABSENT) {
+                resultMap[entry.key] = value.asAny()
+            }
+        }
+        return resultMap
+    }
+
+    private fun joinBatch(
+        keys: Map<K, LoadingFuture>,
+        lookup: (K) -> V?,
+        loader: (Iterable<K>) -> Map<K, V>,
+        store: (Map<K, V>) -> Unit
+    ) {
+        val batch: Batch<K, V>
+        val leader: Boolean
+        synchronized(batchLock) {
+            val current = currentBatch
+            if (current === null) {
+                batch = Batch(lookup, loader, store)
+                currentBatch = batch
+                leader = true
+            } else {
+                batch = current
+                leader = false
+            }
+            batch.keys.putAll(keys)
+        }
+        if (!leader) {
+            return
+        }
+        LockSupport.parkNanos(batchWindow.toNanos())
+        synchronized(batchLock) {
+            currentBatch = null
+        }
+        loadBatch(batch.keys, batch.lookup, batch.loader, batch.store)
+    }
+
+    private fun loadBatch(
+        keys: Map<K, LoadingFuture>,
+        lookup: (K) -> V?,
+        loader: (Iterable<K>) -> Map<K, V>,
+        store: (Map<K, V>) -> Unit
+    ) {
+        try {
+            var absentKeys: MutableList<K>? = null
+            for (entry in keys) {
+                val present = lookup(entry.key)
+                if (present !== null) {
+                    inFlight.remove(entry.key, entry.value)
+                    entry.value.complete(present)
+                } else {
+                    if (absentKeys === null) {
+                        absentKeys = ArrayList(keys.size)
+                    }
+                    absentKeys.add(entry.key)
+                }
+            }
+            if (absentKeys === null) {
+                return
+            }
+            val loaded = loader(absentKeys)
+            store(loaded)
+            for (entry in keys) {
+                if (entry.value.isDone) {
+                    continue
+                }
+                inFlight.remove(entry.key, entry.value)
+                val value = loaded[entry.key]
+                entry.value.complete(if (value === null && !loaded.containsKey(entry.key)) Default.ABSENT else value)
+            }
+        } catch (e: Throwable) {
+            for (entry in keys) {
+                if (entry.value.isDone) {
+                    continue
+                }
+                inFlight.remove(entry.key, entry.value)
+                entry.value.completeExceptionally(e)
+            }
+        }
+    }
+
+    private fun await(future: LoadingFuture): Any? {
+        try {
+            return future.join()
+        } catch (e: CompletionException) {
+            throw e.cause ?: e
+        }
+    }
+
+    private class LoadingFuture : CompletableFuture<Any?>() {
+        val owner: Thread = Thread.currentThread()
+    }
+
+    private class Batch<K, V>(
+        val lookup: (K) -> V?,
+        val loader: (Iterable<K>) -> Map<K, V>,
+        val store: (Map<K, V>) -> Unit,
+    ) {
+        val keys: MutableMap<K, LoadingFuture> = LinkedHashMap()
+    }
+}
\ No newline at end of file
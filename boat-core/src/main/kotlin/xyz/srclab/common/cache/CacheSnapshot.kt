@@ -0,0 +1,130 @@
+package xyz.srclab.common.cache
+
+import java.io.*
+import java.time.Duration
+
+/**
+ * Writes cache snapshot, see [Cache.snapshot].
+ *
+ * Format of snapshot:
+ *
+ * ```
+ * [magic: int][version: byte][snapshot time in millis: long]
+ * ([1: byte][key length: int][key][value length: int][value][remaining expiry in nanos, -1 if none: long])*
+ * [0: byte]
+ * ```
+ *
+ * Length of encoded key or value must not exceed [MAX_LENGTH]. Given [output] is buffered by this writer, and it is
+ * flushed but not closed by [finish].
+ */
+class CacheSnapshotWriter<K, V>(
+    output: OutputStream,
+    private val keyCodec: CacheCodec<K>,
+    private val valueCodec: CacheCodec<V>,
+) {
+
+    private val output = DataOutputStream(BufferedOutputStream(output))
+    private var count = 0L
+
+    init {
+        this.output.writeInt(MAGIC)
+        this.output.writeByte(VERSION)
+        this.output.writeLong(System.currentTimeMillis())
+    }
+
+    /**
+     * Writes an entry, [expiry] is remaining expiry of the entry, or null if the entry never expires.
+     */
+    @Throws(IOException::class)
+    fun write(key: K, value: V, expiry: Duration?) {
+        val keyBytes = keyCodec.encode(key)
+        val valueBytes = valueCodec.encode(value)
+        if (keyBytes.size > MAX_LENGTH || valueBytes.size > MAX_LENGTH) {
+            throw IOException("Entry is too large for cache snapshot: key ${keyBytes.size}, value ${valueBytes.size}")
+        }
+        output.writeByte(1)
+        output.writeInt(keyBytes.size)
+        output.write(keyBytes)
+        output.writeInt(valueBytes.size)
+        output.write(valueBytes)
+        output.writeLong(if (expiry === null) -1 else maxOf(expiry.toNanos(), 0))
+        count++
+    }
+
+    /**
+     * Writes end of snapshot and flushes, returns count of written entries.
+     */
+    fun finish(): Long {
+        output.writeByte(0)
+        output.flush()
+        return count
+    }
+
+    companion object {
+
+        /**
+         * Max length in bytes of an encoded key or value in snapshot.
+         */
+        const val MAX_LENGTH = 64 * 1024 * 1024
+
+        internal const val MAGIC = 0x43534e50
+        internal const val VERSION = 1
+    }
+}
+
+/**
+ * Reads cache snapshot written by [CacheSnapshotWriter], see [Cache.restore].
+ *
+ * Snapshot may be untrusted input, so lengths of keys and values are checked (see [CacheSnapshotWriter.MAX_LENGTH])
+ * before they are read, an invalid snapshot is rejected by [IOException].
+ *
+ * Given [input] is buffered by this reader and not closed.
+ */
+class CacheSnapshotReader<K, V>(
+    input: InputStream,
+    private val keyCodec: CacheCodec<K>,
+    private val valueCodec: CacheCodec<V>,
+) {
+
+    private val input = DataInputStream(BufferedInputStream(input))
+
+    /**
+     * Reads all entries and passes them to [action] with their remaining expiry (null if the entry never expires),
+     * time elapsed since the snapshot was written is deducted from remaining expiry, and expired entries are skipped.
+     * Returns count of entries passed to [action].
+     */
+    @Throws(IOException::class)
+    fun read(action: (K, V, Duration?) -> Unit): Long {
+        if (input.readInt() != CacheSnapshotWriter.MAGIC) {
+            throw IOException("Not a cache snapshot.")
+        }
+        val version = input.readByte().toInt()
+        if (version != CacheSnapshotWriter.VERSION) {
+            throw IOException("Unsupported cache snapshot version: $version")
+        }
+        val elapsedNanos = maxOf(System.currentTimeMillis() - input.readLong(), 0) * 1_000_000
+        var count = 0L
+        while (input.readByte().toInt() != 0) {
+            val keyBytes = readBytes()
+            val valueBytes = readBytes()
+            val expiryNanos = input.readLong()
+            if (expiryNanos >= 0 && expiryNanos <= elapsedNanos) {
+                continue
+            }
+            val expiry = if (expiryNanos < 0) null else Duration.ofNanos(expiryNanos - elapsedNanos)
+            action(keyCodec.decode(keyBytes), valueCodec.decode(valueBytes), expiry)
+            count++
+        }
+        return count
+    }
+
+    private fun readBytes(): ByteArray {
+        val length = input.readInt()
+        if (length < 0 || length > CacheSnapshotWriter.MAX_LENGTH) {
+            throw IOException("Invalid length in cache snapshot: $length")
+        }
+        val bytes = ByteArray(length)
+        input.readFully(bytes)
+        return bytes
+    }
+}
\ No newline at end of file
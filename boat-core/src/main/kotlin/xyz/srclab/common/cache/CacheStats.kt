@@ -0,0 +1,246 @@
+package xyz.srclab.common.cache
+
+import xyz.srclab.common.base.INAPPLICABLE_JVM_NAME
+import xyz.srclab.common.base.checkArgument
+import java.time.Duration
+import java.util.concurrent.atomic.AtomicLongArray
+import java.util.concurrent.atomic.LongAdder
+
+/**
+ * Statistics snapshot of a [Cache].
+ *
+ * @see Cache.stats
+ * @see CacheStatsCounter
+ */
+interface CacheStats {
+
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    val hitCount: Long
+        @JvmName("hitCount") get
+
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    val missCount: Long
+        @JvmName("missCount") get
+
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    val loadSuccessCount: Long
+        @JvmName("loadSuccessCount") get
+
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    val loadFailureCount: Long
+        @JvmName("loadFailureCount") get
+
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    val totalLoadTime: Duration
+        @JvmName("totalLoadTime") get
+
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    val evictionCount: Long
+        @JvmName("evictionCount") get
+
+    /**
+     * Estimated entry count of the cache when this snapshot was taken.
+     */
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    val size: Long
+        @JvmName("size") get
+
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    @JvmDefault
+    val requestCount: Long
+        @JvmName("requestCount") get() = hitCount + missCount
+
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    @JvmDefault
+    val hitRate: Double
+        @JvmName("hitRate") get() {
+            val requestCount = requestCount
+            return if (requestCount == 0L) 1.0 else hitCount.toDouble() / requestCount
+        }
+
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    @JvmDefault
+    val missRate: Double
+        @JvmName("missRate") get() {
+            val requestCount = requestCount
+            return if (requestCount == 0L) 0.0 else missCount.toDouble() / requestCount
+        }
+
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    @JvmDefault
+    val loadCount: Long
+        @JvmName("loadCount") get() = loadSuccessCount + loadFailureCount
+
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    @JvmDefault
+    val averageLoadPenalty: Duration
+        @JvmName("averageLoadPenalty") get() {
+            val loadCount = loadCount
+            return if (loadCount == 0L) Duration.ZERO else totalLoadTime.dividedBy(loadCount)
+        }
+
+    /**
+     * Returns approximate load latency at given [percentile] (0.0 to 1.0), for example, 0.99 for p99.
+     *
+     * Latencies are recorded in log-linear buckets, so the result is the upper bound of the bucket and its relative
+     * error is no more than 25%.
+     */
+    fun loadLatency(percentile: Double): Duration
+
+    companion object {
+
+        @JvmField
+        val EMPTY: CacheStats = CacheStatsCounter().snapshot(0)
+    }
+}
+
+/**
+ * Lock-free statistics counter for [Cache] implementations.
+ *
+ * @see CacheStats
+ */
+open class CacheStatsCounter {
+
+    private val hitCount = LongAdder()
+    private val missCount = LongAdder()
+    private val loadSuccessCount = LongAdder()
+    private val loadFailureCount = LongAdder()
+    private val totalLoadTime = LongAdder()
+    private val evictionCount = LongAdder()
+    private val loadLatencies = AtomicLongArray(BUCKET_COUNT)
+
+    fun recordHits(count: Int) {
+        hitCount.add(count.toLong())
+    }
+
+    fun recordMisses(count: Int) {
+        missCount.add(count.toLong())
+    }
+
+    fun recordLoadSuccess(loadTimeNanos: Long) {
+        loadSuccessCount.increment()
+        totalLoadTime.add(loadTimeNanos)
+        loadLatencies.incrementAndGet(bucketIndex(loadTimeNanos))
+    }
+
+    fun recordLoadFailure(loadTimeNanos: Long) {
+        loadFailureCount.increment()
+        totalLoadTime.add(loadTimeNanos)
+        loadLatencies.incrementAndGet(bucketIndex(loadTimeNanos))
+    }
+
+    fun recordEviction() {
+        evictionCount.increment()
+    }
+
+    /**
+     * Loads value of [key] and records the load.
+     */
+    fun <K, V> recordLoad(key: K, loader: (K) -> V): V {
+        val startTime = System.nanoTime()
+        val value = try {
+            loader(key)
+        } catch (e: Throwable) {
+            recordLoadFailure(System.nanoTime() - startTime)
+            throw e
+        }
+        recordLoadSuccess(System.nanoTime() - startTime)
+        return value
+    }
+
+    /**
+     * Loads values of [keys] and records the load as one load.
+     */
+    fun <K, V> recordLoadAll(keys: Iterable<K>, loader: (Iterable<K>) -> Map<K, V>): Map<K, V> {
+        val startTime = System.nanoTime()
+        val values = try {
+            loader(keys)
+        } catch (e: Throwable) {
+            recordLoadFailure(System.nanoTime() - startTime)
+            throw e
+        }
+        recordLoadSuccess(System.nanoTime() - startTime)
+        return values
+    }
+
+    fun snapshot(size: Long): CacheStats {
+        val latencies = LongArray(BUCKET_COUNT)
+        for (i in latencies.indices) {
+            latencies[i] = loadLatencies.get(i)
+        }
+        return CacheStatsImpl(
+            hitCount.sum(),
+            missCount.sum(),
+            loadSuccessCount.sum(),
+            loadFailureCount.sum(),
+            Duration.ofNanos(totalLoadTime.sum()),
+            evictionCount.sum(),
+            size,
+            latencies,
+        )
+    }
+
+    private class CacheStatsImpl(
+        override val hitCount: Long,
+        override val missCount: Long,
+        override val loadSuccessCount: Long,
+        override val loadFailureCount: Long,
+        override val totalLoadTime: Duration,
+        override val evictionCount: Long,
+        override val size: Long,
+        private val loadLatencies: LongArray,
+    ) : CacheStats {
+
+        override fun loadLatency(percentile: Double): Duration {
+            checkArgument(percentile in 0.0..1.0, "Percentile should be in [0.0, 1.0]: $percentile")
+            val total = loadLatencies.sum()
+            if (total == 0L) {
+                return Duration.ZERO
+            }
+            val rank = maxOf(1L, Math.ceil(total * percentile).toLong())
+            var count = 0L
+            for (i in loadLatencies.indices) {
+                count += loadLatencies[i]
+                if (count >= rank) {
+                    return Duration.ofNanos(bucketUpperBound(i))
+                }
+            }
+            return Duration.ofNanos(bucketUpperBound(BUCKET_COUNT - 1))
+        }
+
+        override fun toString(): String {
+            return "CacheStats(hitCount=$hitCount, missCount=$missCount, loadSuccessCount=$loadSuccessCount, " +
+                    "loadFailureCount=$loadFailureCount, totalLoadTime=$totalLoadTime, " +
+                    "evictionCount=$evictionCount, size=$size)"
+        }
+    }
+
+    private companion object {
+
+        //4 sub-buckets for each power of 2
+        private const val SUB_BUCKET_BITS = 2
+        private const val SUB_BUCKET_COUNT = 1 shl SUB_BUCKET_BITS
+        private const val BUCKET_COUNT = 64 * SUB_BUCKET_COUNT
+
+        private fun bucketIndex(nanos: Long): Int {
+            if (nanos < SUB_BUCKET_COUNT) {
+                return if (nanos < 0) 0 else nanos.toInt()
+            }
+            val exponent = 63 - java.lang.Long.numberOfLeadingZeros(nanos)
+            val subBucket = (nanos ushr (exponent - SUB_BUCKET_BITS)).toInt() and (SUB_BUCKET_COUNT - 1)
+            return exponent * SUB_BUCKET_COUNT + subBucket
+        }
+
+        private fun bucketUpperBound(index: Int): Long {
+            if (index < SUB_BUCKET_COUNT) {
+                return index.toLong()
+            }
+            val exponent = index / SUB_BUCKET_COUNT
+            val subBucket = index % SUB_BUCKET_COUNT
+            val shift = exponent - SUB_BUCKET_BITS
+            val lowerBound = (SUB_BUCKET_COUNT + subBucket).toLong() shl shift
+            val upperBound = lowerBound + (1L shl shift) - 1
+            return if (upperBound < 0) Long.MAX_VALUE else upperBound
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,111 @@
+package xyz.srclab.common.cache
+
+import xyz.srclab.common.base.asAny
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.Executor
+
+/**
+ * [AsyncCache] implemented by Caffeine.
+ *
+ * Loads run on the executor of given caffeine cache, see [Cache.Builder.buildAsync]. If statistics is recorded,
+ * [statsCounter] should be the counter which given caffeine cache records to.
+ */
+open class CaffeineAsyncCache<K : Any, V> @JvmOverloads constructor(
+    private val caffeine: com.github.benmanes.caffeine.cache.AsyncCache<K, V>,
+    private val statsCounter: CacheStatsCounter? = null,
+) : AsyncCache<K, V> {
+
+    private val synchronousCache: Cache<K, V> by lazy { createSynchronous() }
+
+    override fun getAsync(key: K): CompletableFuture<V> {
+        val future = caffeine.getIfPresent(key)
+        if (future !== null) {
+            return future
+        }
+        val result = CompletableFuture<V>()
+        result.completeExceptionally(NoSuchElementException(key.toString()))
+        return result
+    }
+
+    override fun getIfPresentAsync(key: K): CompletableFuture<V>? {
+        return caffeine.getIfPresent(key)
+    }
+
+    override fun getOrLoadAsync(key: K, loader: (K) -> V): CompletableFuture<V> {
+        return caffeine.get(key) { k -> loader(k) }
+    }
+
+    override fun getOrLoadAsync(key: K, loader: (K, Executor) -> CompletableFuture<V>): CompletableFuture<V> {
+        return caffeine.get(key) { k, executor -> loader(k, executor) }
+    }
+
+    override fun getAllAsync(keys: Iterable<K>, loader: (Iterable<K>) -> Map<K, V>): CompletableFuture<Map<K, V>> {
+        return caffeine.getAll(keys) { absentKeys -> loader(absentKeys.asAny()) }
+    }
+
+    override fun put(key: K, value: V) {
+        caffeine.put(key, CompletableFuture.completedFuture(value))
+    }
+
+    override fun putAsync(key: K, value: CompletableFuture<V>) {
+        caffeine.put(key, value)
+    }
+
+    override fun refresh(key: K) {
+        throw UnsupportedOperationException("This cache has no loader.")
+    }
+
+    override fun invalidate(key: K) {
+        caffeine.synchronous().invalidate(key)
+    }
+
+    override fun invalidateAll(keys: Iterable<K>) {
+        caffeine.synchronous().invalidateAll(keys)
+    }
+
+    override fun invalidateAll() {
+        caffeine.synchronous().invalidateAll()
+    }
+
+    override fun cleanUp() {
+        caffeine.synchronous().cleanUp()
+    }
+
+    override fun stats(): CacheStats {
+        val counter = statsCounter ?: return CacheStats.EMPTY
+        return counter.snapshot(caffeine.synchronous().estimatedSize())
+    }
+
+    override fun synchronous(): Cache<K, V> {
+        return synchronousCache
+    }
+
+    protected open fun createSynchronous(): Cache<K, V> {
+        return CaffeineCache(caffeine.synchronous(), statsCounter)
+    }
+}
+
+/**
+ * Loading version of [CaffeineAsyncCache].
+ *
+ * If refresh is enabled (see [Cache.Builder.refreshAfterWrite]), stale values are reloaded in background on first
+ * read after the refresh time, and old values are returned until reloading completes, so callers never block on
+ * reloads.
+ */
+class CaffeineAsyncLoadingCache<K : Any, V> @JvmOverloads constructor(
+    private val caffeine: com.github.benmanes.caffeine.cache.AsyncLoadingCache<K, V>,
+    private val statsCounter: CacheStatsCounter? = null,
+) : CaffeineAsyncCache<K, V>(caffeine, statsCounter) {
+
+    override fun getAsync(key: K): CompletableFuture<V> {
+        return caffeine.get(key)
+    }
+
+    override fun refresh(key: K) {
+        caffeine.synchronous().refresh(key)
+    }
+
+    override fun createSynchronous(): Cache<K, V> {
+        return CaffeineLoadingCache(caffeine.synchronous(), statsCounter)
+    }
+}
\ No newline at end of file
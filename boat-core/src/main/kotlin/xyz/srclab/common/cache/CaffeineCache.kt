@@ -1,13 +1,38 @@
 package xyz.srclab.common.cache
 
+import com.github.benmanes.caffeine.cache.Policy
 import xyz.srclab.common.base.asAny
+import java.io.OutputStream
 import java.time.Duration
-
-open class CaffeineCache<K : Any, V>(private val caffeine: com.github.benmanes.caffeine.cache.Cache<K, V>) :
-    Cache<K, V> {
+import java.util.concurrent.TimeUnit
+
+/**
+ * [Cache] implemented by Caffeine.
+ *
+ * Per-entry expiry is supported if given caffeine cache was built with variable expiration
+ * (see [Cache.Builder.expireVariably]), or else expiry of [put] and [putAll] is ignored and [expiry] does nothing.
+ *
+ * If statistics is recorded, [statsCounter] should be the counter which given caffeine cache records to.
+ *
+ * Read, create and update events are dispatched to [dispatcher] if it is not null.
+ *
+ * Bulk loads of [getAll] are coalesced by [loadCoalescer].
+ */
+open class CaffeineCache<K : Any, V> @JvmOverloads constructor(
+    private val caffeine: com.github.benmanes.caffeine.cache.Cache<K, V>,
+    private val statsCounter: CacheStatsCounter? = null,
+    private val dispatcher: CacheListenerDispatcher<K, V>? = null,
+    private val loadCoalescer: CacheLoadCoalescer<K, V> = CacheLoadCoalescer(),
+) : Cache<K, V> {
+
+    private val varExpiration: Policy.VarExpiration<K, V>? = caffeine.policy().expireVariably().orElse(null)
 
     override fun getOrNull(key: K): V? {
-        return caffeine.getIfPresent(key)
+        val value = caffeine.getIfPresent(key)
+        if (dispatcher !== null) {
+            if (value === null) dispatcher.miss(key) else dispatcher.hit(key, value)
+        }
+        return value
     }
 
     override fun getOrElse(key: K, defaultValue: V): V {
@@ -16,51 +41,120 @@ open class CaffeineCache<K : Any, V>(private val caffeine: com.github.benmanes.c
     }
 
     override fun getOrLoad(key: K, loader: (K) -> V): V {
-        return caffeine.get(key, loader).asAny()
+        val dispatcher = this.dispatcher ?: return caffeine.get(key, loader).asAny()
+        if (caffeine.policy().getIfPresentQuietly(key) !== null) {
+            val value = caffeine.getIfPresent(key)
+            if (value !== null) {
+                dispatcher.hit(key, value)
+                return value
+            }
+        }
+        val trackingLoader = TrackingLoader(loader)
+        val value: V = caffeine.get(key, trackingLoader).asAny()
+        if (trackingLoader.loaded) {
+            dispatcher.miss(key)
+            dispatcher.create(key, value)
+        } else {
+            dispatcher.hit(key, value)
+        }
+        return value
     }
 
     override fun getPresent(keys: Iterable<K>): Map<K, V> {
-        return caffeine.getAllPresent(keys)
+        val resultMap = caffeine.getAllPresent(keys)
+        if (dispatcher !== null) {
+            for (key in keys) {
+                val value = resultMap[key]
+                if (value === null) dispatcher.miss(key) else dispatcher.hit(key, value)
+            }
+        }
+        return resultMap
     }
 
     override fun getAll(keys: Iterable<K>, loader: (Iterable<K>) -> Map<K, V>): Map<K, V> {
-        return caffeine.getAll(keys, loader)
+        val resultMap = LinkedHashMap(getPresent(keys))
+        val absentKeys = keys.filter { !resultMap.containsKey(it) }
+        if (absentKeys.isEmpty()) {
+            return resultMap
+        }
+        resultMap.putAll(loadCoalescer.loadAll(
+            absentKeys,
+            { caffeine.policy().getIfPresentQuietly(it) },
+            { if (statsCounter === null) loader(it) else statsCounter.recordLoadAll(it, loader) },
+            { putAll(it) }
+        ))
+        return resultMap
     }
 
     override fun put(key: K, value: V) {
-        caffeine.put(key, value)
+        if (dispatcher === null) {
+            caffeine.put(key, value!!)
+            return
+        }
+        val oldValue = caffeine.asMap().put(key, value!!)
+        dispatcher.put(key, oldValue, value)
     }
 
     override fun put(key: K, value: V, expirySeconds: Long) {
-        put(key, value)
+        put(key, value, Duration.ofSeconds(expirySeconds))
     }
 
     override fun put(key: K, value: V, expiry: Duration) {
-        put(key, value)
+        val varExpiration = this.varExpiration
+        if (varExpiration === null) {
+            put(key, value)
+            return
+        }
+        if (dispatcher === null) {
+            varExpiration.put(key, value!!, expiry)
+            return
+        }
+        val oldValue = caffeine.policy().getIfPresentQuietly(key)
+        varExpiration.put(key, value!!, expiry)
+        dispatcher.put(key, oldValue, value)
     }
 
     override fun putAll(entries: Map<out K, V>) {
-        caffeine.putAll(entries)
+        if (dispatcher === null) {
+            caffeine.putAll(entries)
+            return
+        }
+        for (entry in entries) {
+            put(entry.key, entry.value)
+        }
     }
 
     override fun putAll(entries: Map<out K, V>, expirySeconds: Long) {
-        putAll(entries)
+        putAll(entries, Duration.ofSeconds(expirySeconds))
     }
 
     override fun putAll(entries: Map<out K, V>, expiry: Duration) {
-        putAll(entries)
+        if (varExpiration === null) {
+            putAll(entries)
+            return
+        }
+        for (entry in entries) {
+            put(entry.key, entry.value, expiry)
+        }
     }
 
     override fun expiry(key: K, expirySeconds: Long) {
+        expiry(key, Duration.ofSeconds(expirySeconds))
     }
 
     override fun expiry(key: K, expirySeconds: Duration) {
+        varExpiration?.setExpiresAfter(key, expirySeconds)
     }
 
     override fun expiryAll(keys: Iterable<K>, expirySeconds: Long) {
+        expiryAll(keys, Duration.ofSeconds(expirySeconds))
     }
 
     override fun expiryAll(keys: Iterable<K>, expirySeconds: Duration) {
+        val varExpiration = this.varExpiration ?: return
+        for (key in keys) {
+            varExpiration.setExpiresAfter(key, expirySeconds)
+        }
     }
 
     override fun invalidate(key: K) {
@@ -77,13 +171,84 @@ open class CaffeineCache<K : Any, V>(private val caffeine: com.github.benmanes.c
 
     override fun cleanUp() {
         caffeine.cleanUp()
+        dispatcher?.flush()
+    }
+
+    /**
+     * Remaining expiry of entries is computed from variable expiration, expire-after-write and expire-after-access
+     * policies of given caffeine cache.
+     */
+    override fun snapshot(output: OutputStream, keyCodec: CacheCodec<K>, valueCodec: CacheCodec<V>): Long {
+        val writer = CacheSnapshotWriter(output, keyCodec, valueCodec)
+        val policy = caffeine.policy()
+        val expirations = listOfNotNull(policy.expireAfterWrite().orElse(null), policy.expireAfterAccess().orElse(null))
+        for (entry in caffeine.asMap().entries) {
+            writer.write(entry.key, entry.value, remainingExpiry(entry.key, expirations))
+        }
+        return writer.finish()
+    }
+
+    override fun stats(): CacheStats {
+        val counter = statsCounter ?: return CacheStats.EMPTY
+        return counter.snapshot(caffeine.estimatedSize())
+    }
+
+    private fun remainingExpiry(key: K, expirations: List<Policy.Expiration<K, V>>): Duration? {
+        var remaining = Long.MAX_VALUE
+        if (varExpiration !== null) {
+            val expiresAfter = varExpiration.getExpiresAfter(key, TimeUnit.NANOSECONDS)
+            if (expiresAfter.isPresent) {
+                remaining = minOf(remaining, expiresAfter.asLong)
+            }
+        }
+        for (expiration in expirations) {
+            val age = expiration.ageOf(key, TimeUnit.NANOSECONDS)
+            if (age.isPresent) {
+                remaining = minOf(remaining, expiration.getExpiresAfter(TimeUnit.NANOSECONDS) - age.asLong)
+            }
+        }
+        //Variable expiration of entries never expire is about Long.MAX_VALUE
+        return if (remaining >= NEVER_EXPIRES_NANOS) null else Duration.ofNanos(remaining)
+    }
+
+    /**
+     * Loader which records whether it is called, allocated only if value is absent.
+     */
+    private class TrackingLoader<K, V>(
+        private val loader: (K) -> V
+    ) : java.util.function.Function<K, V> {
+
+        var loaded = false
+
+        override fun apply(t: K): V {
+            loaded = true
+            return loader(t)
+        }
     }
 }
 
-class CaffeineLoadingCache<K : Any, V>(private val caffeine: com.github.benmanes.caffeine.cache.LoadingCache<K, V>) :
-    CaffeineCache<K, V>(caffeine) {
+/**
+ * Loading version of [CaffeineCache].
+ *
+ * If [dispatcher] is not null, the loader of given caffeine cache should dispatch its loads to [dispatcher].
+ */
+class CaffeineLoadingCache<K : Any, V> @JvmOverloads constructor(
+    private val caffeine: com.github.benmanes.caffeine.cache.LoadingCache<K, V>,
+    statsCounter: CacheStatsCounter? = null,
+    private val dispatcher: CacheListenerDispatcher<K, V>? = null,
+    loadCoalescer: CacheLoadCoalescer<K, V> = CacheLoadCoalescer(),
+) : CaffeineCache<K, V>(caffeine, statsCounter, dispatcher, loadCoalescer) {
 
     override fun get(key: K): V {
+        if (dispatcher !== null && caffeine.policy().getIfPresentQuietly(key) !== null) {
+            val value = caffeine.getIfPresent(key)
+            if (value !== null) {
+                dispatcher.hit(key, value)
+                return value
+            }
+        }
         return caffeine.get(key)!!
     }
-}
\ No newline at end of file
+}
+
+private const val NEVER_EXPIRES_NANOS = Long.MAX_VALUE / 2
\ No newline at end of file
@@ -0,0 +1,396 @@
+package xyz.srclab.common.cache
+
+import xyz.srclab.common.base.Default
+import xyz.srclab.common.base.asAny
+import xyz.srclab.common.base.checkArgument
+import xyz.srclab.common.base.checkNull
+import java.util.concurrent.locks.StampedLock
+import java.util.function.IntFunction
+import java.util.function.LongFunction
+
+/**
+ * [LongKeyCache] backed by primitive open-addressing hash tables, bounded by [maxSize] with clock (second-chance)
+ * eviction.
+ *
+ * Entries are split into segments by hash of key. Each segment keeps keys in a `long[]`, values in an `Object[]` and
+ * reference bits in a `byte[]`, so an entry costs about 13 bytes per slot (17 to 26 bytes with load factor) instead
+ * of a node and a boxed key. Reads are lock-free in most cases: they are optimistic reads of a [StampedLock] and only
+ * fall back to read lock if a write happened concurrently.
+ *
+ * When a segment is full, its clock hand sweeps slots: entries read since last sweep get a second chance, the first
+ * one not read is evicted.
+ *
+ * @param maxSize          max count of entries
+ * @param concurrencyLevel count of segments, rounded up to power of 2
+ * @param statsCounter     statistics is recorded into it if not null
+ */
+open class ClockLongKeyCache<V : Any> @JvmOverloads constructor(
+    maxSize: Long,
+    concurrencyLevel: Int = Default.concurrencyLevel,
+    private val statsCounter: CacheStatsCounter? = null,
+) : LongKeyCache<V> {
+
+    private val segments: Array<Segment>
+    private val segmentShift: Int
+
+    init {
+        checkArgument(maxSize > 0, "Max size must be positive: $maxSize")
+        checkArgument(concurrencyLevel > 0, "Concurrency level must be positive: $concurrencyLevel")
+        var segmentCount = 1
+        while (segmentCount < concurrencyLevel && maxSize / (segmentCount shl 1) >= MIN_SEGMENT_SIZE) {
+            segmentCount = segmentCount shl 1
+        }
+        segmentShift = 64 - Integer.numberOfTrailingZeros(segmentCount)
+        val segmentSize = minOf((maxSize + segmentCount - 1) / segmentCount, MAX_SEGMENT_SIZE.toLong()).toInt()
+        segments = Array(segmentCount) { Segment(segmentSize, statsCounter) }
+    }
+
+    override fun getOrNull(key: Long): V? {
+        val hash = hash(key)
+        val value = segmentFor(hash).get(key, hash.toInt())
+        if (value === null) {
+            statsCounter?.recordMisses(1)
+            return null
+        }
+        statsCounter?.recordHits(1)
+        return value.asAny()
+    }
+
+    override fun getOrLoad(key: Long, loader: LongFunction<out V>): V {
+        val value = getOrNull(key)
+        if (value !== null) {
+            return value
+        }
+        return loadMissed(key, loader)
+    }
+
+    //Loads after a miss recorded by getOrNull
+    internal fun loadMissed(key: Long, loader: LongFunction<out V>): V {
+        val startTime = if (statsCounter === null) 0 else System.nanoTime()
+        val newValue = try {
+            loader.apply(key)
+        } catch (e: Throwable) {
+            statsCounter?.recordLoadFailure(System.nanoTime() - startTime)
+            throw e
+        }
+        statsCounter?.recordLoadSuccess(System.nanoTime() - startTime)
+        checkNull(newValue !== null, "Loaded value must not be null.")
+        val hash = hash(key)
+        val oldValue = segmentFor(hash).put(key, hash.toInt(), newValue, true)
+        return oldValue?.asAny() ?: newValue
+    }
+
+    override fun put(key: Long, value: V) {
+        val hash = hash(key)
+        segmentFor(hash).put(key, hash.toInt(), value, false)
+    }
+
+    override fun invalidate(key: Long) {
+        val hash = hash(key)
+        segmentFor(hash).remove(key, hash.toInt())
+    }
+
+    override fun invalidateAll() {
+        for (segment in segments) {
+            segment.clear()
+        }
+    }
+
+    override fun size(): Long {
+        var size = 0L
+        for (segment in segments) {
+            size += segment.count
+        }
+        return size
+    }
+
+    override fun stats(): CacheStats {
+        val counter = statsCounter ?: return CacheStats.EMPTY
+        return counter.snapshot(size())
+    }
+
+    private fun segmentFor(hash: Long): Segment {
+        return segments[if (segmentShift == 64) 0 else (hash ushr segmentShift).toInt()]
+    }
+
+    private class Segment(
+        private val maxSize: Int,
+        private val statsCounter: CacheStatsCounter?,
+    ) {
+
+        private val lock = StampedLock()
+        private val maxCapacity = tableCapacity(maxSize)
+
+        private var keys = LongArray(minOf(INITIAL_CAPACITY, maxCapacity))
+        private var values = arrayOfNulls<Any>(keys.size)
+        private var refs = ByteArray(keys.size)
+        private var hand = 0
+
+        @Volatile
+        var count = 0
+
+        fun get(key: Long, hash: Int): Any? {
+            val optimisticStamp = lock.tryOptimisticRead()
+            if (optimisticStamp != 0L) {
+                try {
+                    val value = find(key, hash)
+                    if (lock.validate(optimisticStamp)) {
+                        return value
+                    }
+                } catch (e: RuntimeException) {
+                    //Inconsistent state caused by concurrent write, retry with read lock
+                }
+            }
+            val stamp = lock.readLock()
+            try {
+                return find(key, hash)
+            } finally {
+                lock.unlockRead(stamp)
+            }
+        }
+
+        /**
+         * Puts [value] and returns old value. If [onlyIfAbsent] is true, existing value is kept.
+         */
+        fun put(key: Long, hash: Int, value: Any, onlyIfAbsent: Boolean): Any? {
+            val stamp = lock.writeLock()
+            try {
+                val slot = slotOf(key, hash)
+                if (slot >= 0) {
+                    val oldValue = values[slot]
+                    if (!onlyIfAbsent) {
+                        values[slot] = value
+                    }
+                    return oldValue
+                }
+                if (count >= maxSize) {
+                    evict()
+                }
+                if ((count + 1) * 4L > keys.size * 3L && keys.size < maxCapacity) {
+                    resize()
+                }
+                insert(key, hash, value)
+                return null
+            } finally {
+                lock.unlockWrite(stamp)
+            }
+        }
+
+        fun remove(key: Long, hash: Int) {
+            val stamp = lock.writeLock()
+            try {
+                val slot = slotOf(key, hash)
+                if (slot >= 0) {
+                    removeAt(slot)
+                }
+            } finally {
+                lock.unlockWrite(stamp)
+            }
+        }
+
+        fun clear() {
+            val stamp = lock.writeLock()
+            try {
+                keys = LongArray(minOf(INITIAL_CAPACITY, maxCapacity))
+                values = arrayOfNulls(keys.size)
+                refs = ByteArray(keys.size)
+                hand = 0
+                count = 0
+            } finally {
+                lock.unlockWrite(stamp)
+            }
+        }
+
+        private fun find(key: Long, hash: Int): Any? {
+            val keys = this.keys
+            val values = this.values
+            val mask = values.size - 1
+            var slot = hash and mask
+            for (i in 0..mask) {
+                val value = values[slot]
+                if (value === null) {
+                    return null
+                }
+                if (keys[slot] == key) {
+                    refs[slot] = 1
+                    return value
+                }
+                slot = (slot + 1) and mask
+            }
+            return null
+        }
+
+        private fun slotOf(key: Long, hash: Int): Int {
+            val mask = values.size - 1
+            var slot = hash and mask
+            while (true) {
+                if (values[slot] === null) {
+                    return -1
+                }
+                if (keys[slot] == key) {
+                    return slot
+                }
+                slot = (slot + 1) and mask
+            }
+        }
+
+        private fun insert(key: Long, hash: Int, value: Any) {
+            val mask = values.size - 1
+            var slot = hash and mask
+            while (values[slot] !== null) {
+                slot = (slot + 1) and mask
+            }
+            keys[slot] = key
+            values[slot] = value
+            refs[slot] = 0
+            count++
+        }
+
+        /**
+         * Removes entry at [slot] with backward-shift deletion, so no tombstone is needed.
+         */
+        private fun removeAt(slot: Int) {
+            val mask = values.size - 1
+            var hole = slot
+            var next = slot
+            while (true) {
+                next = (next + 1) and mask
+                if (values[next] === null) {
+                    break
+                }
+                val home = hash(keys[next]).toInt() and mask
+                val stays = if (hole <= next) home in (hole + 1)..next else home > hole || home <= next
+                if (stays) {
+                    continue
+                }
+                keys[hole] = keys[next]
+                values[hole] = values[next]
+                refs[hole] = refs[next]
+                hole = next
+            }
+            keys[hole] = 0
+            values[hole] = null
+            refs[hole] = 0
+            count--
+        }
+
+        private fun evict() {
+            val mask = values.size - 1
+            while (true) {
+                val slot = hand and mask
+                if (values[slot] === null) {
+                    hand = slot + 1
+                    continue
+                }
+                if (refs[slot].toInt() != 0) {
+                    refs[slot] = 0
+                    hand = slot + 1
+                    continue
+                }
+                //Entry shifted into this slot will be checked by next sweep
+                hand = slot
+                removeAt(slot)
+                statsCounter?.recordEviction()
+                return
+            }
+        }
+
+        private fun resize() {
+            val oldKeys = keys
+            val oldValues = values
+            val oldRefs = refs
+            val newCapacity = oldKeys.size shl 1
+            keys = LongArray(newCapacity)
+            values = arrayOfNulls(newCapacity)
+            refs = ByteArray(newCapacity)
+            count = 0
+            for (i in oldValues.indices) {
+                val value = oldValues[i] ?: continue
+                val key = oldKeys[i]
+                insert(key, hash(key).toInt(), value)
+                if (oldRefs[i].toInt() != 0) {
+                    refs[slotOf(key, hash(key).toInt())] = 1
+                }
+            }
+            hand = 0
+        }
+    }
+
+    companion object {
+
+        private const val INITIAL_CAPACITY = 16
+        private const val MIN_SEGMENT_SIZE = 16
+        private const val MAX_SEGMENT_SIZE = 1 shl 29
+
+        private fun tableCapacity(maxSize: Int): Int {
+            val minCapacity = maxSize.toLong() * 4 / 3 + 1
+            var capacity = INITIAL_CAPACITY
+            while (capacity < minCapacity) {
+                capacity = capacity shl 1
+            }
+            return capacity
+        }
+
+        /**
+         * Finalizer of MurmurHash3, high bits select segment and low bits select slot.
+         */
+        private fun hash(key: Long): Long {
+            var h = key
+            h = h xor (h ushr 33)
+            h *= -0xae502812aa7333L
+            h = h xor (h ushr 33)
+            h *= -0x3b314601e57a13adL
+            h = h xor (h ushr 33)
+            return h
+        }
+    }
+}
+
+/**
+ * [IntKeyCache] backed by [ClockLongKeyCache], keys are widened to `long` without boxing.
+ *
+ * @param maxSize          max count of entries
+ * @param concurrencyLevel count of segments, rounded up to power of 2
+ * @param statsCounter     statistics is recorded into it if not null
+ */
+open class ClockIntKeyCache<V : Any> @JvmOverloads constructor(
+    maxSize: Long,
+    concurrencyLevel: Int = Default.concurrencyLevel,
+    statsCounter: CacheStatsCounter? = null,
+) : IntKeyCache<V> {
+
+    private val longKeyCache = ClockLongKeyCache<V>(maxSize, concurrencyLevel, statsCounter)
+
+    override fun getOrNull(key: Int): V? {
+        return longKeyCache.getOrNull(key.toLong())
+    }
+
+    override fun getOrLoad(key: Int, loader: IntFunction<out V>): V {
+        val value = longKeyCache.getOrNull(key.toLong())
+        if (value !== null) {
+            return value
+        }
+        //Adapter of loader is only created on miss, so hits don't allocate
+        return longKeyCache.loadMissed(key.toLong()) { loader.apply(it.toInt()) }
+    }
+
+    override fun put(key: Int, value: V) {
+        longKeyCache.put(key.toLong(), value)
+    }
+
+    override fun invalidate(key: Int) {
+        longKeyCache.invalidate(key.toLong())
+    }
+
+    override fun invalidateAll() {
+        longKeyCache.invalidateAll()
+    }
+
+    override fun size(): Long {
+        return longKeyCache.size()
+    }
+
+    override fun stats(): CacheStats {
+        return longKeyCache.stats()
+    }
+}
\ No newline at end of file
@@ -0,0 +1,660 @@
+package xyz.srclab.common.cache
+
+import xyz.srclab.common.base.checkArgument
+import xyz.srclab.common.base.checkNull
+import xyz.srclab.common.base.checkState
+import xyz.srclab.common.run.Runner
+import java.io.Closeable
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.time.Duration
+import java.util.*
+import java.util.concurrent.Executor
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.locks.ReentrantReadWriteLock
+import java.util.zip.CRC32
+import kotlin.concurrent.read
+import kotlin.concurrent.write
+
+/**
+ * [Cache] persists entries into memory-mapped segment files under [directory], so entries survive process restart.
+ *
+ * Segment files are append-only logs: puts and invalidations append records, each record has a CRC so torn writes
+ * are detected and dropped. Keys are indexed in memory, the index is rebuilt by scanning segment files when the cache
+ * is created. Segments whose most records are overwritten or removed are compacted in background on
+ * [compactionExecutor]. If count of segments exceeds limit of [maxBytes], the oldest segment is evicted as a whole.
+ *
+ * Compaction is started after the write which fills up a segment has released the lock, it reads records of a
+ * segment without the lock and only holds the lock to move a batch of live records, so writers are not blocked for
+ * the whole segment (with a synchronous executor, it still runs in the writing thread). Segments are unmapped when
+ * they are deleted or the cache is closed, if the JVM allows it; otherwise mapped memory is released by GC.
+ *
+ * Values must not be null, and an entry larger than [segmentSize] is not cached. This cache doesn't support expiry.
+ * Loads of [getOrLoad] and [getAll] are coalesced by [loadCoalescer]. Call [close] to flush and release the files, a
+ * closed cache can not be used anymore.
+ *
+ * @param directory  directory of segment files, created if absent
+ * @param keyCodec   codec of keys
+ * @param valueCodec codec of values
+ * @param maxBytes   max bytes of all segment files
+ * @param segmentSize size of each segment file, default is 64M, and it will be reduced to fit [maxBytes]
+ * @param compactionExecutor executor to run background compaction
+ * @param statsCounter statistics is recorded into it if not null
+ * @param loadCoalescer coalescer of loads
+ */
+open class DiskCache<K : Any, V> @JvmOverloads constructor(
+    private val directory: File,
+    private val keyCodec: CacheCodec<K>,
+    private val valueCodec: CacheCodec<V>,
+    maxBytes: Long,
+    segmentSize: Int = DEFAULT_SEGMENT_SIZE,
+    private val compactionExecutor: Executor = Runner.ASYNC_RUNNER,
+    private val statsCounter: CacheStatsCounter? = null,
+    private val loadCoalescer: CacheLoadCoalescer<K, V> = CacheLoadCoalescer(),
+) : Cache<K, V>, Closeable {
+
+    private val segmentSize: Int
+    private val maxSegmentCount: Int
+
+    private val lock = ReentrantReadWriteLock()
+    private val index = HashMap<BytesKey, Long>()
+    private val segments = TreeMap<Int, Segment>()
+    private lateinit var activeSegment: Segment
+    private val compacting = AtomicBoolean(false)
+    private var closed = false
+
+    //Whether a segment is filled up since last compaction is started, guarded by lock
+    private var rolled = false
+
+    init {
+        checkArgument(maxBytes > 0, "Max bytes must be positive: $maxBytes")
+        checkArgument(segmentSize > RECORD_HEADER_SIZE, "Segment size is too small: $segmentSize")
+        this.segmentSize = minOf(segmentSize.toLong(), maxOf(maxBytes / 2, RECORD_HEADER_SIZE + 1L)).toInt()
+        this.maxSegmentCount = maxOf(2L, minOf(maxBytes / this.segmentSize, Int.MAX_VALUE.toLong())).toInt()
+        directory.mkdirs()
+        checkArgument(directory.isDirectory, "Not a directory: $directory")
+        recover()
+    }
+
+    override fun getOrNull(key: K): V? {
+        val value = getQuietly(key)
+        if (value === null) {
+            statsCounter?.recordMisses(1)
+            return null
+        }
+        statsCounter?.recordHits(1)
+        return value
+    }
+
+    override fun getOrElse(key: K, defaultValue: V): V {
+        val value = getOrNull(key)
+        return value ?: defaultValue
+    }
+
+    override fun getOrLoad(key: K, loader: (K) -> V): V {
+        val value = getOrNull(key)
+        if (value !== null) {
+            return value
+        }
+        return loadCoalescer.load(
+            key,
+            { getQuietly(it) },
+            { if (statsCounter === null) loader(it) else statsCounter.recordLoad(it, loader) },
+            { k, v -> put(k, v) }
+        )
+    }
+
+    override fun getAll(keys: Iterable<K>, loader: (Iterable<K>) -> Map<K, V>): Map<K, V> {
+        val resultMap = LinkedHashMap(getPresent(keys))
+        val absentKeys = keys.filter { !resultMap.containsKey(it) }
+        if (absentKeys.isEmpty()) {
+            return resultMap
+        }
+        resultMap.putAll(loadCoalescer.loadAll(
+            absentKeys,
+            { getQuietly(it) },
+            { if (statsCounter === null) loader(it) else statsCounter.recordLoadAll(it, loader) },
+            { putAll(it) }
+        ))
+        return resultMap
+    }
+
+    override fun put(key: K, value: V) {
+        checkNull(value !== null, "Value must not be null.")
+        val keyBytes = keyCodec.encode(key)
+        val valueBytes = valueCodec.encode(value)
+        writing {
+            checkOpen()
+            val indexKey = BytesKey(keyBytes)
+            if (RECORD_HEADER_SIZE + keyBytes.size + valueBytes.size > segmentSize) {
+                if (index.containsKey(indexKey)) {
+                    append(keyBytes, null)
+                    removeKey(indexKey)
+                }
+            } else {
+                replaceLocation(indexKey, append(keyBytes, valueBytes))
+            }
+        }
+    }
+
+    override fun put(key: K, value: V, expirySeconds: Long) {
+        put(key, value)
+    }
+
+    override fun put(key: K, value: V, expiry: Duration) {
+        put(key, value)
+    }
+
+    override fun putAll(entries: Map<out K, V>) {
+        for (entry in entries) {
+            put(entry.key, entry.value)
+        }
+    }
+
+    override fun putAll(entries: Map<out K, V>, expirySeconds: Long) {
+        putAll(entries)
+    }
+
+    override fun putAll(entries: Map<out K, V>, expiry: Duration) {
+        putAll(entries)
+    }
+
+    override fun expiry(key: K, expirySeconds: Long) {
+    }
+
+    override fun expiry(key: K, expirySeconds: Duration) {
+    }
+
+    override fun expiryAll(keys: Iterable<K>, expirySeconds: Long) {
+    }
+
+    override fun expiryAll(keys: Iterable<K>, expirySeconds: Duration) {
+    }
+
+    override fun invalidate(key: K) {
+        val keyBytes = keyCodec.encode(key)
+        writing {
+            checkOpen()
+            val indexKey = BytesKey(keyBytes)
+            if (index.containsKey(indexKey)) {
+                append(keyBytes, null)
+                removeKey(indexKey)
+            }
+        }
+    }
+
+    override fun invalidateAll(keys: Iterable<K>) {
+        for (key in keys) {
+            invalidate(key)
+        }
+    }
+
+    override fun invalidateAll() {
+        lock.write {
+            checkOpen()
+            index.clear()
+            for (segment in segments.values) {
+                segment.delete()
+            }
+            segments.clear()
+            activeSegment = newSegment(0)
+        }
+    }
+
+    /**
+     * Flushes written records to disk.
+     */
+    override fun cleanUp() {
+        lock.read {
+            checkOpen()
+            for (segment in segments.values) {
+                segment.buffer.force()
+            }
+        }
+    }
+
+    override fun stats(): CacheStats {
+        val counter = statsCounter ?: return CacheStats.EMPTY
+        return counter.snapshot(size())
+    }
+
+    /**
+     * Returns count of entries.
+     */
+    fun size(): Long {
+        return lock.read { index.size.toLong() }
+    }
+
+    /**
+     * Compacts segments of which more than half of bytes are garbage, by copying live records to the active segment.
+     * It is called in background automatically when a segment is filled up.
+     */
+    fun compact() {
+        if (!compacting.compareAndSet(false, true)) {
+            return
+        }
+        try {
+            val candidates = lock.read {
+                if (closed) {
+                    return
+                }
+                segments.values
+                    .filter { it !== activeSegment && it.liveBytes * 2 < it.writeOffset }
+                    .map { it to it.writeOffset }
+            }
+            for ((segment, end) in candidates) {
+                compactSegment(segment, end)
+            }
+        } finally {
+            compacting.set(false)
+        }
+    }
+
+    /**
+     * Flushes and closes this cache.
+     */
+    override fun close() {
+        lock.write {
+            if (closed) {
+                return
+            }
+            closed = true
+            for (segment in segments.values) {
+                segment.buffer.force()
+                segment.close()
+            }
+            segments.clear()
+            index.clear()
+        }
+    }
+
+    private fun recover() {
+        val segmentFiles = directory.listFiles { _, name -> SEGMENT_FILE_PATTERN.matches(name) }
+        val ids = segmentFiles?.map { it.name.substring(8, it.name.length - 4).toInt() }?.sorted() ?: emptyList()
+        for (id in ids) {
+            val segment = openSegment(id)
+            segments[id] = segment
+            scan(segment)
+        }
+        activeSegment = if (segments.isEmpty()) newSegment(0) else segments.lastEntry().value
+        evictSegments()
+    }
+
+    /**
+     * Scans records of given segment into index, stops at first invalid record.
+     */
+    private fun scan(segment: Segment) {
+        val buffer = segment.buffer
+        var offset = 0
+        while (offset + RECORD_HEADER_SIZE <= buffer.capacity()) {
+            if (buffer.get(offset) != RECORD_MARKER) {
+                break
+            }
+            val crc = buffer.getInt(offset + 1)
+            val keyLength = buffer.getInt(offset + 5)
+            val valueLength = buffer.getInt(offset + 9)
+            val recordSize = RECORD_HEADER_SIZE + keyLength + maxOf(valueLength, 0)
+            if (keyLength < 0 || valueLength < -1 || offset + recordSize > buffer.capacity()) {
+                break
+            }
+            val record = ByteArray(recordSize - RECORD_HEADER_SIZE)
+            buffer.duplicate().apply { position(offset + RECORD_HEADER_SIZE) }.get(record)
+            if (crc(keyLength, valueLength, record) != crc) {
+                break
+            }
+            val indexKey = BytesKey(record.copyOf(keyLength))
+            if (valueLength < 0) {
+                removeKey(indexKey)
+            } else {
+                segment.liveBytes += recordSize
+                replaceLocation(indexKey, location(segment.id, offset))
+            }
+            offset += recordSize
+        }
+        segment.writeOffset = offset
+    }
+
+    private fun append(keyBytes: ByteArray, valueBytes: ByteArray?): Long {
+        val recordSize = RECORD_HEADER_SIZE + keyBytes.size + (valueBytes?.size ?: 0)
+        if (activeSegment.writeOffset + recordSize > segmentSize) {
+            activeSegment.buffer.force()
+            activeSegment = newSegment(activeSegment.id + 1)
+            evictSegments()
+            rolled = true
+        }
+        val segment = activeSegment
+        val offset = segment.writeOffset
+        val valueLength = valueBytes?.size ?: -1
+        val buffer = segment.buffer.duplicate()
+        buffer.position(offset + 1)
+        buffer.putInt(crc(keyBytes.size, valueLength, keyBytes, valueBytes))
+        buffer.putInt(keyBytes.size)
+        buffer.putInt(valueLength)
+        buffer.put(keyBytes)
+        if (valueBytes !== null) {
+            buffer.put(valueBytes)
+        }
+        //Marker is written last so a torn record is never recognized
+        segment.buffer.put(offset, RECORD_MARKER)
+        segment.writeOffset = offset + recordSize
+        if (valueBytes !== null) {
+            segment.liveBytes += recordSize
+        }
+        return location(segment.id, offset)
+    }
+
+    /**
+     * Writes under the lock, then starts compaction if a segment has been filled up, so that compaction (which may run
+     * in current thread) is not started with the lock held.
+     */
+    private inline fun writing(crossinline action: () -> Unit) {
+        val needCompaction = lock.write {
+            action()
+            val result = rolled
+            rolled = false
+            result
+        }
+        if (needCompaction) {
+            compactionExecutor.execute { compact() }
+        }
+    }
+
+    private fun replaceLocation(indexKey: BytesKey, location: Long) {
+        val oldLocation = index.put(indexKey, location)
+        if (oldLocation !== null) {
+            releaseLocation(oldLocation)
+        }
+    }
+
+    private fun removeKey(indexKey: BytesKey) {
+        val oldLocation = index.remove(indexKey)
+        if (oldLocation !== null) {
+            releaseLocation(oldLocation)
+        }
+    }
+
+    private fun releaseLocation(location: Long) {
+        val segment = segments[segmentId(location)] ?: return
+        segment.liveBytes -= recordSize(segment, offset(location))
+    }
+
+    private fun getQuietly(key: K): V? {
+        val valueBytes = lock.read {
+            checkOpen()
+            val location = index[BytesKey(keyCodec.encode(key))]
+            if (location === null) null else readValue(location)
+        } ?: return null
+        return valueCodec.decode(valueBytes)
+    }
+
+    private fun readValue(location: Long): ByteArray {
+        val segment = segments[segmentId(location)]!!
+        val offset = offset(location)
+        val keyLength = segment.buffer.getInt(offset + 5)
+        val valueLength = segment.buffer.getInt(offset + 9)
+        val valueBytes = ByteArray(valueLength)
+        segment.buffer.duplicate().apply { position(offset + RECORD_HEADER_SIZE + keyLength) }.get(valueBytes)
+        return valueBytes
+    }
+
+    private fun recordSize(segment: Segment, offset: Int): Int {
+        val keyLength = segment.buffer.getInt(offset + 5)
+        val valueLength = segment.buffer.getInt(offset + 9)
+        return RECORD_HEADER_SIZE + keyLength + maxOf(valueLength, 0)
+    }
+
+    /**
+     * Moves live records of [segment] until [end] to the active segment, then deletes [segment]. Records are read in
+     * batches without the lock (the segment is not written anymore), and each batch is moved with the lock held; it
+     * stops if the segment is evicted meanwhile.
+     */
+    private fun compactSegment(segment: Segment, end: Int) {
+        var offset = 0
+        while (offset < end) {
+            val batch = ArrayList<CompactedRecord>()
+            val read = segment.reading {
+                var batchBytes = 0
+                while (offset < end && batchBytes < COMPACTION_BATCH_SIZE) {
+                    val record = readRecord(segment.buffer, offset)
+                    batch.add(record)
+                    offset += record.size
+                    batchBytes += record.size
+                }
+            }
+            if (!read) {
+                return
+            }
+            val moved = lock.write {
+                if (closed || segments[segment.id] !== segment) {
+                    return@write false
+                }
+                val hasOlderSegment = segments.firstKey() < segment.id
+                for (record in batch) {
+                    val indexKey = BytesKey(record.keyBytes)
+                    if (record.valueBytes === null) {
+                        //Tombstone is only needed to shadow records in older segments
+                        if (hasOlderSegment && !index.containsKey(indexKey)) {
+                            append(record.keyBytes, null)
+                        }
+                    } else if (index[indexKey] == location(segment.id, record.offset)) {
+                        index[indexKey] = append(record.keyBytes, record.valueBytes)
+                    }
+                }
+                true
+            }
+            if (!moved) {
+                return
+            }
+        }
+        lock.write {
+            if (!closed && segments[segment.id] === segment) {
+                segments.remove(segment.id)
+                segment.delete()
+            }
+        }
+    }
+
+    private fun readRecord(buffer: ByteBuffer, offset: Int): CompactedRecord {
+        val keyLength = buffer.getInt(offset + 5)
+        val valueLength = buffer.getInt(offset + 9)
+        val keyBytes = ByteArray(keyLength)
+        buffer.duplicate().apply { position(offset + RECORD_HEADER_SIZE) }.get(keyBytes)
+        val valueBytes = if (valueLength < 0) {
+            null
+        } else {
+            ByteArray(valueLength).also {
+                buffer.duplicate().apply { position(offset + RECORD_HEADER_SIZE + keyLength) }.get(it)
+            }
+        }
+        return CompactedRecord(offset, RECORD_HEADER_SIZE + keyLength + maxOf(valueLength, 0), keyBytes, valueBytes)
+    }
+
+    private fun evictSegments() {
+        while (segments.size > maxSegmentCount) {
+            val oldest = segments.pollFirstEntry().value
+            val iterator = index.values.iterator()
+            while (iterator.hasNext()) {
+                if (segmentId(iterator.next()) == oldest.id) {
+                    iterator.remove()
+                    statsCounter?.recordEviction()
+                }
+            }
+            oldest.delete()
+        }
+    }
+
+    private fun newSegment(id: Int): Segment {
+        val segment = openSegment(id)
+        segments[id] = segment
+        return segment
+    }
+
+    private fun openSegment(id: Int): Segment {
+        val file = File(directory, "segment-$id.dat")
+        val channel = RandomAccessFile(file, "rw").channel
+        val size = maxOf(channel.size(), segmentSize.toLong())
+        val buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size)
+        return Segment(id, file, channel, buffer)
+    }
+
+    private fun checkOpen() {
+        checkState(!closed, "This cache has been closed.")
+    }
+
+    private fun crc(keyLength: Int, valueLength: Int, keyBytes: ByteArray, valueBytes: ByteArray?): Int {
+        val crc = CRC32()
+        updateInt(crc, keyLength)
+        updateInt(crc, valueLength)
+        crc.update(keyBytes)
+        if (valueBytes !== null) {
+            crc.update(valueBytes)
+        }
+        return crc.value.toInt()
+    }
+
+    private fun crc(keyLength: Int, valueLength: Int, record: ByteArray): Int {
+        val crc = CRC32()
+        updateInt(crc, keyLength)
+        updateInt(crc, valueLength)
+        crc.update(record)
+        return crc.value.toInt()
+    }
+
+    private fun updateInt(crc: CRC32, value: Int) {
+        crc.update(value ushr 24)
+        crc.update(value ushr 16)
+        crc.update(value ushr 8)
+        crc.update(value)
+    }
+
+    private fun location(segmentId: Int, offset: Int): Long {
+        return (segmentId.toLong() shl 32) or offset.toLong()
+    }
+
+    private fun segmentId(location: Long): Int {
+        return (location ushr 32).toInt()
+    }
+
+    private fun offset(location: Long): Int {
+        return location.toInt()
+    }
+
+    private class Segment(
+        val id: Int,
+        val file: File,
+        val channel: FileChannel,
+        val buffer: MappedByteBuffer,
+    ) {
+        var writeOffset = 0
+        var liveBytes = 0L
+
+        //Guards buffer against unmapping while compaction reads it without lock of the cache
+        private val useLock = ReentrantReadWriteLock()
+        private var released = false
+
+        /**
+         * Runs [action] on the buffer if it is not released, returns whether it is run.
+         */
+        fun reading(action: () -> Unit): Boolean {
+            return useLock.read {
+                if (released) {
+                    return@read false
+                }
+                action()
+                true
+            }
+        }
+
+        fun close() {
+            useLock.write {
+                if (released) {
+                    return
+                }
+                released = true
+                channel.close()
+                unmap(buffer)
+            }
+        }
+
+        fun delete() {
+            close()
+            if (file.delete() || !file.exists()) {
+                return
+            }
+            //Truncated file is recovered as an empty segment rather than stale records
+            try {
+                RandomAccessFile(file, "rw").use { it.setLength(0) }
+            } catch (e: Exception) {
+                throw IllegalStateException("Failed to delete segment file: $file", e)
+            }
+        }
+    }
+
+    private class CompactedRecord(
+        val offset: Int,
+        val size: Int,
+        val keyBytes: ByteArray,
+        val valueBytes: ByteArray?,
+    )
+
+    private class BytesKey(val bytes: ByteArray) {
+
+        private val hash = Arrays.hashCode(bytes)
+
+        override fun equals(other: Any?): Boolean {
+            return other is BytesKey && Arrays.equals(bytes, other.bytes)
+        }
+
+        override fun hashCode(): Int {
+            return hash
+        }
+    }
+
+    companion object {
+
+        const val DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024
+
+        //[marker: byte][crc: int][key length: int][value length: int, -1 for tombstone]
+        private const val RECORD_HEADER_SIZE = 13
+        private const val RECORD_MARKER: Byte = 1
+        private val SEGMENT_FILE_PATTERN = Regex("segment-\\d+\\.dat")
+        private const val COMPACTION_BATCH_SIZE = 1024 * 1024
+
+        private val UNMAPPER: ((ByteBuffer) -> Unit)? = newUnmapper()
+
+        private fun newUnmapper(): ((ByteBuffer) -> Unit)? {
+            //Java 9+
+            try {
+                val unsafeClass = Class.forName("sun.misc.Unsafe")
+                val invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer::class.java)
+                val theUnsafe = unsafeClass.getDeclaredField("theUnsafe")
+                theUnsafe.isAccessible = true
+                val unsafe = theUnsafe.get(null)
+                return { invokeCleaner.invoke(unsafe, it) }
+            } catch (e: Exception) {
+                //Try cleaner of Java 8
+            }
+            try {
+                val cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner")
+                val clean = Class.forName("sun.misc.Cleaner").getMethod("clean")
+                return { clean.invoke(cleaner.invoke(it)) }
+            } catch (e: Exception) {
+                return null
+            }
+        }
+
+        /**
+         * Unmaps [buffer] if possible, the buffer must not be accessed after that.
+         */
+        private fun unmap(buffer: MappedByteBuffer) {
+            try {
+                UNMAPPER?.invoke(buffer)
+            } catch (e: Exception) {
+                //Released by GC
+            }
+        }
+    }
+}
\ No newline at end of file
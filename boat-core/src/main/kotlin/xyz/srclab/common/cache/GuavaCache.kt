@@ -1,11 +1,33 @@
 package xyz.srclab.common.cache
 
+import java.io.OutputStream
 import java.time.Duration
 
-open class GuavaCache<K : Any, V>(private val guava: com.google.common.cache.Cache<K, V>) : Cache<K, V> {
+/**
+ * [Cache] implemented by Guava.
+ *
+ * Statistics is recorded into [statsCounter] if it is not null.
+ *
+ * Read, create and update events are dispatched to [dispatcher] if it is not null.
+ *
+ * Bulk loads of [getAll] are coalesced by [loadCoalescer].
+ */
+open class GuavaCache<K : Any, V> @JvmOverloads constructor(
+    private val guava: com.google.common.cache.Cache<K, V>,
+    private val statsCounter: CacheStatsCounter? = null,
+    private val dispatcher: CacheListenerDispatcher<K, V>? = null,
+    private val loadCoalescer: CacheLoadCoalescer<K, V> = CacheLoadCoalescer(),
+) : Cache<K, V> {
 
     override fun getOrNull(key: K): V? {
-        return guava.getIfPresent(key)
+        val value = guava.getIfPresent(key)
+        if (statsCounter !== null) {
+            if (value === null) statsCounter.recordMisses(1) else statsCounter.recordHits(1)
+        }
+        if (dispatcher !== null) {
+            if (value === null) dispatcher.miss(key) else dispatcher.hit(key, value)
+        }
+        return value
     }
 
     override fun getOrElse(key: K, defaultValue: V): V {
@@ -14,21 +36,68 @@ open class GuavaCache<K : Any, V>(private val guava: com.google.common.cache.Cac
     }
 
     override fun getOrLoad(key: K, loader: (K) -> V): V {
-        return guava.get(key, { loader(key) })
+        if (statsCounter === null && dispatcher === null) {
+            return guava.get(key, { loader(key) })
+        }
+        var loaded = false
+        val value = guava.get(key, {
+            loaded = true
+            if (statsCounter === null) {
+                loader(key)
+            } else {
+                statsCounter.recordMisses(1)
+                statsCounter.recordLoad(key, loader)
+            }
+        })
+        if (loaded) {
+            if (dispatcher !== null) {
+                dispatcher.miss(key)
+                dispatcher.create(key, value)
+            }
+        } else {
+            statsCounter?.recordHits(1)
+            dispatcher?.hit(key, value)
+        }
+        return value
     }
 
     override fun getPresent(keys: Iterable<K>): Map<K, V> {
-        return guava.getAllPresent(keys)
+        val resultMap = guava.getAllPresent(keys)
+        if (statsCounter !== null) {
+            statsCounter.recordHits(resultMap.size)
+            statsCounter.recordMisses(keys.count() - resultMap.size)
+        }
+        if (dispatcher !== null) {
+            for (key in keys) {
+                val value = resultMap[key]
+                if (value === null) dispatcher.miss(key) else dispatcher.hit(key, value)
+            }
+        }
+        return resultMap
     }
 
     override fun getAll(keys: Iterable<K>, loader: (Iterable<K>) -> Map<K, V>): Map<K, V> {
-        val resultMap = guava.getAllPresent(keys).toMutableMap()
-        resultMap.putAll(loader(keys.minus(resultMap.keys)))
-        return resultMap.toMap()
+        val resultMap = LinkedHashMap(getPresent(keys))
+        val absentKeys = keys.filter { !resultMap.containsKey(it) }
+        if (absentKeys.isEmpty()) {
+            return resultMap
+        }
+        resultMap.putAll(loadCoalescer.loadAll(
+            absentKeys,
+            { guava.asMap()[it] },
+            { if (statsCounter === null) loader(it) else statsCounter.recordLoadAll(it, loader) },
+            { putAll(it) }
+        ))
+        return resultMap
     }
 
     override fun put(key: K, value: V) {
-        guava.put(key, value)
+        if (dispatcher === null) {
+            guava.put(key, value)
+            return
+        }
+        val oldValue = guava.asMap().put(key, value)
+        dispatcher.put(key, oldValue, value)
     }
 
     override fun put(key: K, value: V, expirySeconds: Long) {
@@ -40,7 +109,13 @@ open class GuavaCache<K : Any, V>(private val guava: com.google.common.cache.Cac
     }
 
     override fun putAll(entries: Map<out K, V>) {
-        guava.putAll(entries)
+        if (dispatcher === null) {
+            guava.putAll(entries)
+            return
+        }
+        for (entry in entries) {
+            put(entry.key, entry.value)
+        }
     }
 
     override fun putAll(entries: Map<out K, V>, expirySeconds: Long) {
@@ -77,13 +152,49 @@ open class GuavaCache<K : Any, V>(private val guava: com.google.common.cache.Cac
 
     override fun cleanUp() {
         guava.cleanUp()
+        dispatcher?.flush()
+    }
+
+    /**
+     * Remaining expiry of entries is not available, entries are written as never expire.
+     */
+    override fun snapshot(output: OutputStream, keyCodec: CacheCodec<K>, valueCodec: CacheCodec<V>): Long {
+        val writer = CacheSnapshotWriter(output, keyCodec, valueCodec)
+        for (entry in guava.asMap().entries) {
+            writer.write(entry.key, entry.value, null)
+        }
+        return writer.finish()
+    }
+
+    override fun stats(): CacheStats {
+        val counter = statsCounter ?: return CacheStats.EMPTY
+        return counter.snapshot(guava.size())
     }
 }
 
-class GuavaLoadingCache<K : Any, V>(private val guava: com.google.common.cache.LoadingCache<K, V>) :
-    GuavaCache<K, V>(guava) {
+/**
+ * Loading version of [GuavaCache].
+ *
+ * If [statsCounter] is not null, the loader of given guava cache should record its loads into [statsCounter]. So as
+ * [dispatcher].
+ */
+class GuavaLoadingCache<K : Any, V> @JvmOverloads constructor(
+    private val guava: com.google.common.cache.LoadingCache<K, V>,
+    private val statsCounter: CacheStatsCounter? = null,
+    private val dispatcher: CacheListenerDispatcher<K, V>? = null,
+    loadCoalescer: CacheLoadCoalescer<K, V> = CacheLoadCoalescer(),
+) : GuavaCache<K, V>(guava, statsCounter, dispatcher, loadCoalescer) {
 
     override fun get(key: K): V {
+        if (statsCounter === null && dispatcher === null) {
+            return guava.get(key)
+        }
+        val value = guava.getIfPresent(key)
+        if (value !== null) {
+            statsCounter?.recordHits(1)
+            dispatcher?.hit(key, value)
+            return value
+        }
         return guava.get(key)
     }
 }
\ No newline at end of file
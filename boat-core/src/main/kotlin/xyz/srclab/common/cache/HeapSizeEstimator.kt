@@ -0,0 +1,153 @@
+package xyz.srclab.common.cache
+
+import xyz.srclab.common.bean.BeanResolver
+import xyz.srclab.common.bean.PropertyType
+import java.lang.reflect.Modifier
+import java.util.*
+
+/**
+ * Estimates heap size of objects, it is the default weigher of [Cache.Builder.maxWeight].
+ *
+ * Estimation assumes a 64-bit JVM with compressed oops: 12 bytes object header, 4 bytes reference and 8 bytes
+ * alignment. Shallow size of a class is computed from its instance fields; referenced objects are walked through
+ * readable properties with backing fields resolved by [beanResolver], and strings, arrays, collections and maps are
+ * walked directly. Layout of each class is computed once and kept in a [ClassValue], which doesn't pin the class.
+ * Objects referenced more than once are counted once, and objects deeper than [maxDepth] are ignored.
+ */
+open class HeapSizeEstimator @JvmOverloads constructor(
+    private val beanResolver: BeanResolver = BeanResolver.DEFAULT,
+    private val maxDepth: Int = DEFAULT_MAX_DEPTH,
+) {
+
+    private val layoutCache = object : ClassValue<ClassLayout>() {
+        override fun computeValue(type: Class<*>): ClassLayout {
+            return resolveLayout(type)
+        }
+    }
+
+    /**
+     * Returns estimated size in bytes of [any] and objects referenced by it.
+     */
+    fun estimate(any: Any?): Long {
+        if (any === null) {
+            return 0
+        }
+        return estimate(any, Collections.newSetFromMap(IdentityHashMap()), 0)
+    }
+
+    private fun estimate(any: Any?, visited: MutableSet<Any>, depth: Int): Long {
+        if (any === null || depth > maxDepth || !visited.add(any)) {
+            return 0
+        }
+        return when (any) {
+            is String -> align(layoutOf(String::class.java).shallowSize + ARRAY_HEADER_SIZE + any.length * 2L)
+            is Enum<*>, is Class<*> -> 0
+            is BooleanArray -> align(ARRAY_HEADER_SIZE + any.size.toLong())
+            is ByteArray -> align(ARRAY_HEADER_SIZE + any.size.toLong())
+            is CharArray -> align(ARRAY_HEADER_SIZE + any.size * 2L)
+            is ShortArray -> align(ARRAY_HEADER_SIZE + any.size * 2L)
+            is IntArray -> align(ARRAY_HEADER_SIZE + any.size * 4L)
+            is FloatArray -> align(ARRAY_HEADER_SIZE + any.size * 4L)
+            is LongArray -> align(ARRAY_HEADER_SIZE + any.size * 8L)
+            is DoubleArray -> align(ARRAY_HEADER_SIZE + any.size * 8L)
+            is Array<*> -> {
+                var size = align(ARRAY_HEADER_SIZE + any.size.toLong() * REFERENCE_SIZE)
+                for (element in any) {
+                    size += estimate(element, visited, depth + 1)
+                }
+                size
+            }
+            is Collection<*> -> {
+                var size = layoutOf(any.javaClass).shallowSize + any.size.toLong() * NODE_SIZE
+                for (element in any) {
+                    size += estimate(element, visited, depth + 1)
+                }
+                size
+            }
+            is Map<*, *> -> {
+                var size = layoutOf(any.javaClass).shallowSize + any.size.toLong() * NODE_SIZE
+                for (entry in any) {
+                    size += estimate(entry.key, visited, depth + 1)
+                    size += estimate(entry.value, visited, depth + 1)
+                }
+                size
+            }
+            else -> {
+                val layout = layoutOf(any.javaClass)
+                var size = layout.shallowSize
+                for (property in layout.referenceProperties) {
+                    val value = try {
+                        property.getValue<Any?>(any)
+                    } catch (e: Exception) {
+                        null
+                    }
+                    size += estimate(value, visited, depth + 1)
+                }
+                size
+            }
+        }
+    }
+
+    private fun layoutOf(type: Class<*>): ClassLayout {
+        return layoutCache.get(type)
+    }
+
+    private fun resolveLayout(type: Class<*>): ClassLayout {
+        var fieldsSize = 0L
+        var current: Class<*>? = type
+        while (current !== null) {
+            for (field in current.declaredFields) {
+                if (!Modifier.isStatic(field.modifiers)) {
+                    fieldsSize += fieldSize(field.type)
+                }
+            }
+            current = current.superclass
+        }
+        val shallowSize = align(OBJECT_HEADER_SIZE + fieldsSize)
+        if (type.name.startsWith("java.")) {
+            return ClassLayout(shallowSize, emptyList())
+        }
+        val referenceProperties = try {
+            beanResolver.resolve(type).properties.values.filter {
+                it.name != "class" && it.isReadable && it.hasBackingField && !it.rawClass.isPrimitive
+            }
+        } catch (e: Exception) {
+            emptyList<PropertyType>()
+        }
+        return ClassLayout(shallowSize, referenceProperties)
+    }
+
+    private fun fieldSize(type: Class<*>): Int {
+        return when (type) {
+            Long::class.javaPrimitiveType, Double::class.javaPrimitiveType -> 8
+            Int::class.javaPrimitiveType, Float::class.javaPrimitiveType -> 4
+            Short::class.javaPrimitiveType, Char::class.javaPrimitiveType -> 2
+            Byte::class.javaPrimitiveType, Boolean::class.javaPrimitiveType -> 1
+            else -> REFERENCE_SIZE
+        }
+    }
+
+    private fun align(size: Long): Long {
+        return (size + 7) and 7L.inv()
+    }
+
+    private class ClassLayout(
+        val shallowSize: Long,
+        val referenceProperties: List<PropertyType>,
+    )
+
+    companion object {
+
+        const val DEFAULT_MAX_DEPTH = 16
+
+        private const val OBJECT_HEADER_SIZE = 12L
+        private const val ARRAY_HEADER_SIZE = 16L
+        private const val REFERENCE_SIZE = 4
+
+        //Approximate size of a node of collections or an entry of maps
+        private const val NODE_SIZE = 32L
+
+        @JvmField
+        val DEFAULT: HeapSizeEstimator = HeapSizeEstimator()
+    }
+}
\ No newline at end of file
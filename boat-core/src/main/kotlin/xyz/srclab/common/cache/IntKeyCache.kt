@@ -0,0 +1,69 @@
+package xyz.srclab.common.cache
+
+import xyz.srclab.common.base.Default
+import java.util.function.IntFunction
+
+/**
+ * Cache specialized for `int` keys, keys are never boxed and point lookups allocate nothing.
+ *
+ * Values must not be null.
+ *
+ * @see ClockIntKeyCache
+ * @see LongKeyCache
+ */
+interface IntKeyCache<V : Any> {
+
+    @Throws(NoSuchElementException::class)
+    @JvmDefault
+    fun get(key: Int): V {
+        return getOrNull(key) ?: throw NoSuchElementException(key.toString())
+    }
+
+    fun getOrNull(key: Int): V?
+
+    @JvmDefault
+    fun getOrElse(key: Int, defaultValue: V): V {
+        return getOrNull(key) ?: defaultValue
+    }
+
+    /**
+     * Returns value of [key], absent value will be loaded by [loader] and put into this cache. If another value of
+     * [key] is put while loading, that value is returned.
+     */
+    fun getOrLoad(key: Int, loader: IntFunction<out V>): V
+
+    fun put(key: Int, value: V)
+
+    fun invalidate(key: Int)
+
+    fun invalidateAll()
+
+    /**
+     * Returns count of entries.
+     */
+    fun size(): Long
+
+    /**
+     * Returns statistics snapshot of this cache, or [CacheStats.EMPTY] if this cache doesn't record statistics.
+     */
+    @JvmDefault
+    fun stats(): CacheStats {
+        return CacheStats.EMPTY
+    }
+
+    companion object {
+
+        /**
+         * Returns a [ClockIntKeyCache] bounded by [maxSize].
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun <V : Any> newCache(
+            maxSize: Long,
+            concurrencyLevel: Int = Default.concurrencyLevel,
+            recordStats: Boolean = false,
+        ): IntKeyCache<V> {
+            return ClockIntKeyCache(maxSize, concurrencyLevel, if (recordStats) CacheStatsCounter() else null)
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,306 @@
+package xyz.srclab.common.cache
+
+import xyz.srclab.common.base.checkArgument
+import xyz.srclab.common.run.Scheduler
+import java.io.*
+import java.nio.ByteBuffer
+import java.time.Duration
+import java.util.*
+
+/**
+ * [Cache] which publishes its invalidations through [transport], and applies invalidations published by other
+ * caches (usually near caches of the same data in other processes) to [cache].
+ *
+ * Invalidations are applied to [cache] immediately, and published in batch after [batchWindow]: keys invalidated in
+ * the window are coalesced, and all of them are dropped if [invalidateAll] is called in the window. A batch is split
+ * into several messages if it exceeds [InvalidationTransport.maxMessageSize].
+ *
+ * Messages received are checked before decoding keys, malformed ones are rejected by [IllegalArgumentException].
+ * Keys of messages from a remote transport ([InvalidationTransport.isRemote]) are untrusted input, so
+ * [CacheCodec.SERIALIZABLE] (java deserialization) is refused for remote transports.
+ *
+ * @param cache       near cache
+ * @param transport   transport of invalidations
+ * @param keyCodec    codec of keys in messages
+ * @param batchWindow window of batching, default is 10 milliseconds
+ * @param scheduler   scheduler to publish batches
+ */
+open class InvalidatingCache<K : Any, V> @JvmOverloads constructor(
+    private val cache: Cache<K, V>,
+    private val transport: InvalidationTransport,
+    private val keyCodec: CacheCodec<K>,
+    private val batchWindow: Duration = DEFAULT_BATCH_WINDOW,
+    private val scheduler: Scheduler = Scheduler.DEFAULT_THREAD_SCHEDULER,
+) : Cache<K, V>, Closeable {
+
+    private val senderId = UUID.randomUUID().mostSignificantBits
+
+    //Guarded by this
+    private var pendingKeys = LinkedHashSet<K>()
+    private var pendingAll = false
+    private var flushScheduled = false
+
+    init {
+        checkArgument(
+            !transport.isRemote() || keyCodec as Any !== CacheCodec.SERIALIZABLE,
+            "CacheCodec.SERIALIZABLE is refused for remote transport, it deserializes untrusted messages."
+        )
+        transport.subscribe { receive(it) }
+    }
+
+    override fun get(key: K): V {
+        return cache.get(key)
+    }
+
+    override fun getOrNull(key: K): V? {
+        return cache.getOrNull(key)
+    }
+
+    override fun getOrElse(key: K, defaultValue: V): V {
+        return cache.getOrElse(key, defaultValue)
+    }
+
+    override fun getOrElse(key: K, defaultValue: (K) -> V): V {
+        return cache.getOrElse(key, defaultValue)
+    }
+
+    override fun getOrLoad(key: K, loader: (K) -> V): V {
+        return cache.getOrLoad(key, loader)
+    }
+
+    override fun getPresent(keys: Iterable<K>): Map<K, V> {
+        return cache.getPresent(keys)
+    }
+
+    override fun getAll(keys: Iterable<K>, loader: (Iterable<K>) -> Map<K, V>): Map<K, V> {
+        return cache.getAll(keys, loader)
+    }
+
+    override fun put(key: K, value: V) {
+        cache.put(key, value)
+    }
+
+    override fun put(key: K, value: V, expirySeconds: Long) {
+        cache.put(key, value, expirySeconds)
+    }
+
+    override fun put(key: K, value: V, expiry: Duration) {
+        cache.put(key, value, expiry)
+    }
+
+    override fun putAll(entries: Map<out K, V>) {
+        cache.putAll(entries)
+    }
+
+    override fun putAll(entries: Map<out K, V>, expirySeconds: Long) {
+        cache.putAll(entries, expirySeconds)
+    }
+
+    override fun putAll(entries: Map<out K, V>, expiry: Duration) {
+        cache.putAll(entries, expiry)
+    }
+
+    override fun expiry(key: K, expirySeconds: Long) {
+        cache.expiry(key, expirySeconds)
+    }
+
+    override fun expiry(key: K, expirySeconds: Duration) {
+        cache.expiry(key, expirySeconds)
+    }
+
+    override fun expiryAll(keys: Iterable<K>, expirySeconds: Long) {
+        cache.expiryAll(keys, expirySeconds)
+    }
+
+    override fun expiryAll(keys: Iterable<K>, expirySeconds: Duration) {
+        cache.expiryAll(keys, expirySeconds)
+    }
+
+    override fun invalidate(key: K) {
+        cache.invalidate(key)
+        synchronized(this) {
+            if (!pendingAll) {
+                pendingKeys.add(key)
+            }
+            scheduleFlush()
+        }
+    }
+
+    override fun invalidateAll(keys: Iterable<K>) {
+        cache.invalidateAll(keys)
+        synchronized(this) {
+            if (!pendingAll) {
+                pendingKeys.addAll(keys)
+            }
+            scheduleFlush()
+        }
+    }
+
+    override fun invalidateAll() {
+        cache.invalidateAll()
+        synchronized(this) {
+            pendingAll = true
+            pendingKeys.clear()
+            scheduleFlush()
+        }
+    }
+
+    override fun cleanUp() {
+        cache.cleanUp()
+    }
+
+    override fun stats(): CacheStats {
+        return cache.stats()
+    }
+
+    override fun snapshot(output: OutputStream, keyCodec: CacheCodec<K>, valueCodec: CacheCodec<V>): Long {
+        return cache.snapshot(output, keyCodec, valueCodec)
+    }
+
+    override fun restore(input: InputStream, keyCodec: CacheCodec<K>, valueCodec: CacheCodec<V>): Long {
+        return cache.restore(input, keyCodec, valueCodec)
+    }
+
+    /**
+     * Publishes pending invalidations immediately. If [transport] fails, invalidations not published are kept pending
+     * to be published by next flush, and the exception is thrown.
+     */
+    fun flush() {
+        val keys: Set<K>
+        val all: Boolean
+        synchronized(this) {
+            keys = pendingKeys
+            all = pendingAll
+            pendingKeys = LinkedHashSet()
+            pendingAll = false
+        }
+        if (all) {
+            try {
+                transport.publish(newMessage(TYPE_ALL, emptyList()))
+            } catch (e: Throwable) {
+                restorePending(emptyList(), true)
+                throw e
+            }
+            return
+        }
+        if (keys.isEmpty()) {
+            return
+        }
+        val maxSize = transport.maxMessageSize()
+        val batch = mutableListOf<ByteArray>()
+        var batchSize = HEADER_SIZE
+        var published = 0
+        try {
+            for (key in keys) {
+                val keyBytes = keyCodec.encode(key)
+                if (HEADER_SIZE + 4 + keyBytes.size > maxSize) {
+                    //The key can't be sent, invalidates all instead
+                    transport.publish(newMessage(TYPE_ALL, emptyList()))
+                    return
+                }
+                if (batchSize + 4 + keyBytes.size > maxSize) {
+                    transport.publish(newMessage(TYPE_KEYS, batch))
+                    published += batch.size
+                    batch.clear()
+                    batchSize = HEADER_SIZE
+                }
+                batch.add(keyBytes)
+                batchSize += 4 + keyBytes.size
+            }
+            transport.publish(newMessage(TYPE_KEYS, batch))
+        } catch (e: Throwable) {
+            restorePending(keys.drop(published), false)
+            throw e
+        }
+    }
+
+    /**
+     * Publishes pending invalidations and closes [transport].
+     */
+    override fun close() {
+        flush()
+        transport.close()
+    }
+
+    private fun restorePending(keys: Collection<K>, all: Boolean) {
+        synchronized(this) {
+            if (all) {
+                pendingAll = true
+                pendingKeys.clear()
+            } else if (!pendingAll) {
+                //Keys not published go before keys invalidated meanwhile
+                val restored = LinkedHashSet(keys)
+                restored.addAll(pendingKeys)
+                pendingKeys = restored
+            }
+        }
+    }
+
+    private fun scheduleFlush() {
+        if (flushScheduled) {
+            return
+        }
+        flushScheduled = true
+        scheduler.schedule(batchWindow) {
+            synchronized(this) {
+                flushScheduled = false
+            }
+            flush()
+        }
+    }
+
+    /**
+     * Message format: [sender id: long][type: byte][count: int]([key length: int][key])*
+     */
+    private fun newMessage(type: Int, keys: List<ByteArray>): ByteArray {
+        val bytes = ByteArrayOutputStream()
+        val output = DataOutputStream(bytes)
+        output.writeLong(senderId)
+        output.writeByte(type)
+        output.writeInt(keys.size)
+        for (key in keys) {
+            output.writeInt(key.size)
+            output.write(key)
+        }
+        return bytes.toByteArray()
+    }
+
+    private fun receive(message: ByteArray) {
+        checkArgument(message.size >= HEADER_SIZE, "Invalid invalidation message: size {}.", message.size)
+        val input = ByteBuffer.wrap(message)
+        if (input.long == senderId) {
+            return
+        }
+        if (input.get().toInt() == TYPE_ALL) {
+            cache.invalidateAll()
+            return
+        }
+        val count = input.int
+        //Each key takes at least 4 bytes of its length
+        checkArgument(
+            count >= 0 && count <= input.remaining() / 4, "Invalid invalidation message: key count {}.", count
+        )
+        val keys = ArrayList<K>(count)
+        for (i in 0 until count) {
+            checkArgument(input.remaining() >= 4, "Invalid invalidation message: truncated.")
+            val length = input.int
+            checkArgument(
+                length >= 0 && length <= input.remaining(), "Invalid invalidation message: key length {}.", length
+            )
+            val keyBytes = ByteArray(length)
+            input.get(keyBytes)
+            keys.add(keyCodec.decode(keyBytes))
+        }
+        cache.invalidateAll(keys)
+    }
+
+    companion object {
+
+        @JvmField
+        val DEFAULT_BATCH_WINDOW: Duration = Duration.ofMillis(10)
+
+        private const val HEADER_SIZE = 13
+        private const val TYPE_KEYS = 0
+        private const val TYPE_ALL = 1
+    }
+}
\ No newline at end of file
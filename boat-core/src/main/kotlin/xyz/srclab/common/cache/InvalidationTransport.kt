@@ -0,0 +1,95 @@
+package xyz.srclab.common.cache
+
+import java.io.Closeable
+import java.util.concurrent.CopyOnWriteArrayList
+
+/**
+ * Transport of invalidation messages between [InvalidatingCache]s, which may be in different processes.
+ *
+ * A message published by a transport is delivered to subscribers of other transports in the same group (what is a
+ * group depends on implementation), delivery is at-most-once and unordered between publishers.
+ *
+ * @see InProcessInvalidationTransport
+ * @see UdpInvalidationTransport
+ */
+interface InvalidationTransport : Closeable {
+
+    fun publish(message: ByteArray)
+
+    /**
+     * Adds [subscriber] which receives messages published by other transports, it may be called in any thread.
+     */
+    fun subscribe(subscriber: (ByteArray) -> Unit)
+
+    /**
+     * Returns max size in bytes of a message.
+     */
+    @JvmDefault
+    fun maxMessageSize(): Int {
+        return Int.MAX_VALUE
+    }
+
+    /**
+     * Returns whether messages may come from other processes (so they are untrusted input), default is true.
+     */
+    @JvmDefault
+    fun isRemote(): Boolean {
+        return true
+    }
+
+    @JvmDefault
+    override fun close() {
+    }
+}
+
+/**
+ * [InvalidationTransport] delivers messages to other transports of the same [group] in current process. Messages are
+ * delivered synchronously in publishing thread, it is mainly used for tests.
+ */
+class InProcessInvalidationTransport @JvmOverloads constructor(
+    private val group: Group = Group(),
+) : InvalidationTransport {
+
+    private val subscribers = CopyOnWriteArrayList<(ByteArray) -> Unit>()
+
+    init {
+        group.members.add(this)
+    }
+
+    override fun publish(message: ByteArray) {
+        for (member in group.members) {
+            if (member !== this) {
+                member.deliver(message)
+            }
+        }
+    }
+
+    override fun subscribe(subscriber: (ByteArray) -> Unit) {
+        subscribers.add(subscriber)
+    }
+
+    override fun isRemote(): Boolean {
+        return false
+    }
+
+    override fun close() {
+        group.members.remove(this)
+    }
+
+    /**
+     * Returns a new transport in the same group with this one.
+     */
+    fun newPeer(): InProcessInvalidationTransport {
+        return InProcessInvalidationTransport(group)
+    }
+
+    private fun deliver(message: ByteArray) {
+        for (subscriber in subscribers) {
+            subscriber(message)
+        }
+    }
+
+    class Group {
+        internal val members = CopyOnWriteArrayList<InProcessInvalidationTransport>()
+    }
+}
\ No newline at end of file
@@ -0,0 +1,69 @@
+package xyz.srclab.common.cache
+
+import xyz.srclab.common.base.Default
+import java.util.function.LongFunction
+
+/**
+ * Cache specialized for `long` keys, keys are never boxed and point lookups allocate nothing.
+ *
+ * Values must not be null.
+ *
+ * @see ClockLongKeyCache
+ * @see IntKeyCache
+ */
+interface LongKeyCache<V : Any> {
+
+    @Throws(NoSuchElementException::class)
+    @JvmDefault
+    fun get(key: Long): V {
+        return getOrNull(key) ?: throw NoSuchElementException(key.toString())
+    }
+
+    fun getOrNull(key: Long): V?
+
+    @JvmDefault
+    fun getOrElse(key: Long, defaultValue: V): V {
+        return getOrNull(key) ?: defaultValue
+    }
+
+    /**
+     * Returns value of [key], absent value will be loaded by [loader] and put into this cache. If another value of
+     * [key] is put while loading, that value is returned.
+     */
+    fun getOrLoad(key: Long, loader: LongFunction<out V>): V
+
+    fun put(key: Long, value: V)
+
+    fun invalidate(key: Long)
+
+    fun invalidateAll()
+
+    /**
+     * Returns count of entries.
+     */
+    fun size(): Long
+
+    /**
+     * Returns statistics snapshot of this cache, or [CacheStats.EMPTY] if this cache doesn't record statistics.
+     */
+    @JvmDefault
+    fun stats(): CacheStats {
+        return CacheStats.EMPTY
+    }
+
+    companion object {
+
+        /**
+         * Returns a [ClockLongKeyCache] bounded by [maxSize].
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun <V : Any> newCache(
+            maxSize: Long,
+            concurrencyLevel: Int = Default.concurrencyLevel,
+            recordStats: Boolean = false,
+        ): LongKeyCache<V> {
+            return ClockLongKeyCache(maxSize, concurrencyLevel, if (recordStats) CacheStatsCounter() else null)
+        }
+    }
+}
\ No newline at end of file
@@ -1,20 +1,89 @@
 package xyz.srclab.common.cache
 
+import xyz.srclab.common.base.asAny
 import xyz.srclab.common.collect.removeAll
+import java.io.OutputStream
 import java.time.Duration
-
-class MapCache<K : Any, V>(private val map: MutableMap<K, V>) : Cache<K, V> {
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * [Map] as [Cache].
+ *
+ * Statistics is recorded if [recordStats] is true.
+ *
+ * Loads of [getAll] are coalesced by [loadCoalescer], so are loads of [getOrLoad] if [map] is not a
+ * [ConcurrentHashMap], of which `computeIfAbsent` is not atomic.
+ */
+class MapCache<K : Any, V> @JvmOverloads constructor(
+    private val map: MutableMap<K, V>,
+    recordStats: Boolean = false,
+    private val loadCoalescer: CacheLoadCoalescer<K, V> = CacheLoadCoalescer(),
+) : Cache<K, V> {
+
+    private val statsCounter: CacheStatsCounter? = if (recordStats) CacheStatsCounter() else null
 
     override fun getOrNull(key: K): V? {
-        return map[key]
+        val value = map[key]
+        if (statsCounter !== null) {
+            if (value === null) statsCounter.recordMisses(1) else statsCounter.recordHits(1)
+        }
+        return value
     }
 
     override fun getOrElse(key: K, defaultValue: V): V {
-        return map.getOrDefault(key, defaultValue)
+        if (statsCounter === null) {
+            return map.getOrDefault(key, defaultValue)
+        }
+        val value = map[key]
+        if (value === null && !map.containsKey(key)) {
+            statsCounter.recordMisses(1)
+            return defaultValue
+        }
+        statsCounter.recordHits(1)
+        return value.asAny()
     }
 
     override fun getOrLoad(key: K, loader: (K) -> V): V {
-        return map.computeIfAbsent(key, loader)
+        if (map !is ConcurrentHashMap) {
+            val value = map[key]
+            if (value !== null || map.containsKey(key)) {
+                statsCounter?.recordHits(1)
+                return value.asAny()
+            }
+            statsCounter?.recordMisses(1)
+            return loadCoalescer.load(
+                key,
+                { map[it] },
+                { if (statsCounter === null) loader(it) else statsCounter.recordLoad(it, loader) },
+                { k, v -> map[k] = v }
+            )
+        }
+        val counter = statsCounter ?: return map.computeIfAbsent(key, loader)
+        var loaded = false
+        val value = map.computeIfAbsent(key) {
+            loaded = true
+            counter.recordMisses(1)
+            counter.recordLoad(it, loader)
+        }
+        if (!loaded) {
+            counter.recordHits(1)
+        }
+        return value
+    }
+
+    override fun getAll(keys: Iterable<K>, loader: (Iterable<K>) -> Map<K, V>): Map<K, V> {
+        val resultMap = LinkedHashMap(getPresent(keys))
+        val absentKeys = keys.filter { !resultMap.containsKey(it) }
+        if (absentKeys.isEmpty()) {
+            return resultMap
+        }
+        resultMap.putAll(loadCoalescer.loadAll(
+            absentKeys,
+            { map[it] },
+            { if (statsCounter === null) loader(it) else statsCounter.recordLoadAll(it, loader) },
+            { map.putAll(it) }
+        ))
+        return resultMap
     }
 
     override fun put(key: K, value: V) {
@@ -67,4 +136,20 @@ class MapCache<K : Any, V>(private val map: MutableMap<K, V>) : Cache<K, V> {
 
     override fun cleanUp() {
     }
+
+    /**
+     * Entries are written as never expire. Snapshot doesn't block readers only if [map] is a concurrent map.
+     */
+    override fun snapshot(output: OutputStream, keyCodec: CacheCodec<K>, valueCodec: CacheCodec<V>): Long {
+        val writer = CacheSnapshotWriter(output, keyCodec, valueCodec)
+        for (entry in map.entries) {
+            writer.write(entry.key, entry.value, null)
+        }
+        return writer.finish()
+    }
+
+    override fun stats(): CacheStats {
+        val counter = statsCounter ?: return CacheStats.EMPTY
+        return counter.snapshot(map.size.toLong())
+    }
 }
\ No newline at end of file
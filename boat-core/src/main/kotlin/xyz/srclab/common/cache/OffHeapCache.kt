@@ -0,0 +1,576 @@
+package xyz.srclab.common.cache
+
+import xyz.srclab.common.base.Default
+import xyz.srclab.common.base.checkArgument
+import xyz.srclab.common.base.checkNull
+import java.nio.ByteBuffer
+import java.time.Duration
+import java.util.*
+import java.util.concurrent.locks.StampedLock
+
+/**
+ * [Cache] stores encoded keys and values out of java heap, in direct [ByteBuffer] slabs.
+ *
+ * Entries are split into segments by hash of encoded key. Each segment has a primitive open-addressing index and a
+ * ring of slabs which records are appended into, so java heap only holds a few arrays per segment no matter how many
+ * entries are cached. Reads are lock-free in most cases: they are optimistic reads of a [StampedLock] and only fall
+ * back to read lock if a write happened concurrently.
+ *
+ * When a segment exceeds its share of [maxBytes], the oldest slab is reclaimed with second-chance (clock) policy:
+ * entries read since last reclaim are moved to the head of the slab, others are evicted.
+ *
+ * Values must not be null, and an entry larger than slab size is not cached. This cache doesn't support expiry.
+ * Loads of [getOrLoad] and [getAll] are coalesced by [loadCoalescer].
+ *
+ * @param maxBytes    max bytes of all slabs
+ * @param keyCodec    codec of keys
+ * @param valueCodec  codec of values
+ * @param concurrencyLevel count of segments, rounded up to power of 2
+ * @param slabSize    max bytes of each slab, default is 1M, and it will be reduced to fit budget of each segment
+ * @param statsCounter statistics is recorded into it if not null
+ * @param loadCoalescer coalescer of loads
+ */
+open class OffHeapCache<K : Any, V> @JvmOverloads constructor(
+    maxBytes: Long,
+    private val keyCodec: CacheCodec<K>,
+    private val valueCodec: CacheCodec<V>,
+    concurrencyLevel: Int = Default.concurrencyLevel,
+    slabSize: Int = DEFAULT_SLAB_SIZE,
+    private val statsCounter: CacheStatsCounter? = null,
+    private val loadCoalescer: CacheLoadCoalescer<K, V> = CacheLoadCoalescer(),
+) : Cache<K, V> {
+
+    private val segments: Array<Segment>
+    private val segmentShift: Int
+
+    init {
+        checkArgument(maxBytes > 0, "Max bytes must be positive: $maxBytes")
+        checkArgument(concurrencyLevel > 0, "Concurrency level must be positive: $concurrencyLevel")
+        checkArgument(slabSize > RECORD_HEADER_SIZE, "Slab size is too small: $slabSize")
+        var segmentCount = 1
+        while (segmentCount < concurrencyLevel && maxBytes / (segmentCount shl 1) > RECORD_HEADER_SIZE) {
+            segmentCount = segmentCount shl 1
+        }
+        segmentShift = 32 - Integer.numberOfTrailingZeros(segmentCount)
+        val segmentBytes = maxBytes / segmentCount
+        val segmentSlabSize = minOf(slabSize.toLong(), segmentBytes).toInt()
+        val slabCount = maxOf(1L, minOf(segmentBytes / segmentSlabSize, Int.MAX_VALUE.toLong())).toInt()
+        segments = Array(segmentCount) { Segment(segmentSlabSize, slabCount, statsCounter) }
+    }
+
+    override fun getOrNull(key: K): V? {
+        val value = getQuietly(key)
+        if (value === null) {
+            statsCounter?.recordMisses(1)
+            return null
+        }
+        statsCounter?.recordHits(1)
+        return value
+    }
+
+    override fun getOrElse(key: K, defaultValue: V): V {
+        val value = getOrNull(key)
+        return value ?: defaultValue
+    }
+
+    override fun getOrLoad(key: K, loader: (K) -> V): V {
+        val value = getOrNull(key)
+        if (value !== null) {
+            return value
+        }
+        return loadCoalescer.load(
+            key,
+            { getQuietly(it) },
+            { if (statsCounter === null) loader(it) else statsCounter.recordLoad(it, loader) },
+            { k, v -> put(k, v) }
+        )
+    }
+
+    override fun getAll(keys: Iterable<K>, loader: (Iterable<K>) -> Map<K, V>): Map<K, V> {
+        val resultMap = LinkedHashMap(getPresent(keys))
+        val absentKeys = keys.filter { !resultMap.containsKey(it) }
+        if (absentKeys.isEmpty()) {
+            return resultMap
+        }
+        resultMap.putAll(loadCoalescer.loadAll(
+            absentKeys,
+            { getQuietly(it) },
+            { if (statsCounter === null) loader(it) else statsCounter.recordLoadAll(it, loader) },
+            { putAll(it) }
+        ))
+        return resultMap
+    }
+
+    override fun put(key: K, value: V) {
+        checkNull(value !== null, "Value must not be null.")
+        val keyBytes = keyCodec.encode(key)
+        val hash = hash(keyBytes)
+        segmentFor(hash).put(keyBytes, hash, valueCodec.encode(value))
+    }
+
+    override fun put(key: K, value: V, expirySeconds: Long) {
+        put(key, value)
+    }
+
+    override fun put(key: K, value: V, expiry: Duration) {
+        put(key, value)
+    }
+
+    override fun putAll(entries: Map<out K, V>) {
+        for (entry in entries) {
+            put(entry.key, entry.value)
+        }
+    }
+
+    override fun putAll(entries: Map<out K, V>, expirySeconds: Long) {
+        putAll(entries)
+    }
+
+    override fun putAll(entries: Map<out K, V>, expiry: Duration) {
+        putAll(entries)
+    }
+
+    override fun expiry(key: K, expirySeconds: Long) {
+    }
+
+    override fun expiry(key: K, expirySeconds: Duration) {
+    }
+
+    override fun expiryAll(keys: Iterable<K>, expirySeconds: Long) {
+    }
+
+    override fun expiryAll(keys: Iterable<K>, expirySeconds: Duration) {
+    }
+
+    override fun invalidate(key: K) {
+        val keyBytes = keyCodec.encode(key)
+        val hash = hash(keyBytes)
+        segmentFor(hash).remove(keyBytes, hash)
+    }
+
+    override fun invalidateAll(keys: Iterable<K>) {
+        for (key in keys) {
+            invalidate(key)
+        }
+    }
+
+    override fun invalidateAll() {
+        for (segment in segments) {
+            segment.clear()
+        }
+    }
+
+    override fun cleanUp() {
+    }
+
+    override fun stats(): CacheStats {
+        val counter = statsCounter ?: return CacheStats.EMPTY
+        return counter.snapshot(size())
+    }
+
+    /**
+     * Returns count of entries.
+     */
+    fun size(): Long {
+        var size = 0L
+        for (segment in segments) {
+            size += segment.count
+        }
+        return size
+    }
+
+    /**
+     * Returns bytes of live entries, not including reclaimable space of updated or removed entries.
+     */
+    fun usedBytes(): Long {
+        var usedBytes = 0L
+        for (segment in segments) {
+            usedBytes += segment.liveBytes
+        }
+        return usedBytes
+    }
+
+    private fun getQuietly(key: K): V? {
+        val keyBytes = keyCodec.encode(key)
+        val hash = hash(keyBytes)
+        val valueBytes = segmentFor(hash).get(keyBytes, hash) ?: return null
+        return valueCodec.decode(valueBytes)
+    }
+
+    private fun segmentFor(hash: Int): Segment {
+        return segments[if (segmentShift == 32) 0 else hash ushr segmentShift]
+    }
+
+    private fun hash(bytes: ByteArray): Int {
+        val h = Arrays.hashCode(bytes) * -0x61c88647
+        return h xor (h ushr 16)
+    }
+
+    /**
+     * Record layout: [hash: int][key length: int][value length: int][key bytes][value bytes].
+     *
+     * Address of a record in index is `(slab index + 1) << 32 | offset`, 0 means empty slot.
+     */
+    private class Segment(
+        private val slabSize: Int,
+        slabCount: Int,
+        private val statsCounter: CacheStatsCounter?,
+    ) {
+
+        private val lock = StampedLock()
+        private val slabs = arrayOfNulls<ByteBuffer>(slabCount)
+        private val slabEnds = IntArray(slabCount)
+        private var writeSlab = 0
+
+        private var hashes = IntArray(INITIAL_INDEX_CAPACITY)
+        private var addresses = LongArray(INITIAL_INDEX_CAPACITY)
+        private var refs = ByteArray(INITIAL_INDEX_CAPACITY)
+
+        @Volatile
+        var count = 0
+
+        @Volatile
+        var liveBytes = 0L
+
+        fun get(keyBytes: ByteArray, hash: Int): ByteArray? {
+            val optimisticStamp = lock.tryOptimisticRead()
+            if (optimisticStamp != 0L) {
+                try {
+                    val value = find(keyBytes, hash)
+                    if (lock.validate(optimisticStamp)) {
+                        return value
+                    }
+                } catch (e: RuntimeException) {
+                    //Inconsistent state caused by concurrent write, retry with read lock
+                }
+            }
+            val stamp = lock.readLock()
+            try {
+                return find(keyBytes, hash)
+            } finally {
+                lock.unlockRead(stamp)
+            }
+        }
+
+        fun put(keyBytes: ByteArray, hash: Int, valueBytes: ByteArray) {
+            val recordSize = RECORD_HEADER_SIZE + keyBytes.size + valueBytes.size
+            val stamp = lock.writeLock()
+            try {
+                if (recordSize < 0 || recordSize > slabSize) {
+                    removeKey(keyBytes, hash)
+                    return
+                }
+                val address = append(hash, keyBytes, valueBytes, recordSize)
+                val slot = slotOfKey(keyBytes, hash)
+                if (slot >= 0) {
+                    liveBytes -= recordSize(addresses[slot])
+                    addresses[slot] = address
+                    refs[slot] = 0
+                } else {
+                    if ((count + 1) * 4L > addresses.size * 3L) {
+                        resize()
+                    }
+                    insert(hash, address)
+                }
+                liveBytes += recordSize
+            } finally {
+                lock.unlockWrite(stamp)
+            }
+        }
+
+        fun remove(keyBytes: ByteArray, hash: Int) {
+            val stamp = lock.writeLock()
+            try {
+                removeKey(keyBytes, hash)
+            } finally {
+                lock.unlockWrite(stamp)
+            }
+        }
+
+        fun clear() {
+            val stamp = lock.writeLock()
+            try {
+                hashes = IntArray(INITIAL_INDEX_CAPACITY)
+                addresses = LongArray(INITIAL_INDEX_CAPACITY)
+                refs = ByteArray(INITIAL_INDEX_CAPACITY)
+                slabEnds.fill(0)
+                writeSlab = 0
+                count = 0
+                liveBytes = 0
+            } finally {
+                lock.unlockWrite(stamp)
+            }
+        }
+
+        private fun find(keyBytes: ByteArray, hash: Int): ByteArray? {
+            val hashes = this.hashes
+            val addresses = this.addresses
+            val refs = this.refs
+            val mask = addresses.size - 1
+            var slot = hash and mask
+            for (i in 0..mask) {
+                val address = addresses[slot]
+                if (address == 0L) {
+                    return null
+                }
+                if (hashes[slot] == hash && keyEquals(address, keyBytes)) {
+                    refs[slot] = 1
+                    return readValue(address)
+                }
+                slot = (slot + 1) and mask
+            }
+            return null
+        }
+
+        private fun keyEquals(address: Long, keyBytes: ByteArray): Boolean {
+            val slab = slabs[slabIndex(address)]!!
+            val offset = offset(address)
+            if (slab.getInt(offset + 4) != keyBytes.size) {
+                return false
+            }
+            val keyOffset = offset + RECORD_HEADER_SIZE
+            for (i in keyBytes.indices) {
+                if (slab.get(keyOffset + i) != keyBytes[i]) {
+                    return false
+                }
+            }
+            return true
+        }
+
+        private fun readValue(address: Long): ByteArray {
+            val slab = slabs[slabIndex(address)]!!
+            val offset = offset(address)
+            val keyLength = slab.getInt(offset + 4)
+            val valueLength = slab.getInt(offset + 8)
+            if (keyLength < 0 || valueLength < 0 || valueLength > slabSize) {
+                throw IllegalStateException("Inconsistent record.")
+            }
+            val valueOffset = offset + RECORD_HEADER_SIZE + keyLength
+            val valueBytes = ByteArray(valueLength)
+            for (i in 0 until valueLength) {
+                valueBytes[i] = slab.get(valueOffset + i)
+            }
+            return valueBytes
+        }
+
+        private fun recordSize(address: Long): Int {
+            val slab = slabs[slabIndex(address)]!!
+            val offset = offset(address)
+            return RECORD_HEADER_SIZE + slab.getInt(offset + 4) + slab.getInt(offset + 8)
+        }
+
+        private fun slotOfKey(keyBytes: ByteArray, hash: Int): Int {
+            val mask = addresses.size - 1
+            var slot = hash and mask
+            while (true) {
+                val address = addresses[slot]
+                if (address == 0L) {
+                    return -1
+                }
+                if (hashes[slot] == hash && keyEquals(address, keyBytes)) {
+                    return slot
+                }
+                slot = (slot + 1) and mask
+            }
+        }
+
+        private fun slotOfAddress(hash: Int, address: Long): Int {
+            val mask = addresses.size - 1
+            var slot = hash and mask
+            while (true) {
+                val slotAddress = addresses[slot]
+                if (slotAddress == 0L) {
+                    return -1
+                }
+                if (slotAddress == address) {
+                    return slot
+                }
+                slot = (slot + 1) and mask
+            }
+        }
+
+        private fun insert(hash: Int, address: Long) {
+            val mask = addresses.size - 1
+            var slot = hash and mask
+            while (addresses[slot] != 0L) {
+                slot = (slot + 1) and mask
+            }
+            hashes[slot] = hash
+            addresses[slot] = address
+            refs[slot] = 0
+            count++
+        }
+
+        private fun removeKey(keyBytes: ByteArray, hash: Int) {
+            val slot = slotOfKey(keyBytes, hash)
+            if (slot >= 0) {
+                liveBytes -= recordSize(addresses[slot])
+                removeSlot(slot)
+            }
+        }
+
+        /**
+         * Removes with backward shift deletion, so no tombstone is needed.
+         */
+        private fun removeSlot(slot: Int) {
+            val mask = addresses.size - 1
+            var hole = slot
+            var next = (hole + 1) and mask
+            while (addresses[next] != 0L) {
+                val ideal = hashes[next] and mask
+                if (((next - ideal) and mask) >= ((next - hole) and mask)) {
+                    hashes[hole] = hashes[next]
+                    addresses[hole] = addresses[next]
+                    refs[hole] = refs[next]
+                    hole = next
+                }
+                next = (next + 1) and mask
+            }
+            hashes[hole] = 0
+            addresses[hole] = 0
+            refs[hole] = 0
+            count--
+        }
+
+        private fun resize() {
+            val oldHashes = hashes
+            val oldAddresses = addresses
+            val oldRefs = refs
+            val newCapacity = oldAddresses.size shl 1
+            hashes = IntArray(newCapacity)
+            addresses = LongArray(newCapacity)
+            refs = ByteArray(newCapacity)
+            count = 0
+            for (i in oldAddresses.indices) {
+                if (oldAddresses[i] != 0L) {
+                    insert(oldHashes[i], oldAddresses[i])
+                }
+            }
+            //Keep reference bits
+            val mask = newCapacity - 1
+            for (i in oldAddresses.indices) {
+                if (oldAddresses[i] != 0L && oldRefs[i] != 0.toByte()) {
+                    var slot = oldHashes[i] and mask
+                    while (addresses[slot] != oldAddresses[i]) {
+                        slot = (slot + 1) and mask
+                    }
+                    refs[slot] = 1
+                }
+            }
+        }
+
+        private fun append(hash: Int, keyBytes: ByteArray, valueBytes: ByteArray, recordSize: Int): Long {
+            var secondChance = true
+            while (true) {
+                val slab = slab(writeSlab)
+                val offset = slabEnds[writeSlab]
+                if (offset + recordSize <= slabSize) {
+                    slab.putInt(offset, hash)
+                    slab.putInt(offset + 4, keyBytes.size)
+                    slab.putInt(offset + 8, valueBytes.size)
+                    var position = offset + RECORD_HEADER_SIZE
+                    for (b in keyBytes) {
+                        slab.put(position++, b)
+                    }
+                    for (b in valueBytes) {
+                        slab.put(position++, b)
+                    }
+                    slabEnds[writeSlab] = offset + recordSize
+                    return address(writeSlab, offset)
+                }
+                writeSlab = (writeSlab + 1) % slabs.size
+                reclaim(writeSlab, secondChance)
+                secondChance = false
+            }
+        }
+
+        /**
+         * Evicts entries of given slab which are not referenced, and compacts the referenced entries to the head of
+         * the slab. If [secondChance] is false, all entries are evicted.
+         */
+        private fun reclaim(slabIndex: Int, secondChance: Boolean) {
+            val end = slabEnds[slabIndex]
+            if (end == 0) {
+                return
+            }
+            val slab = slabs[slabIndex]!!
+            var offset = 0
+            while (offset < end) {
+                val size = RECORD_HEADER_SIZE + slab.getInt(offset + 4) + slab.getInt(offset + 8)
+                val slot = slotOfAddress(slab.getInt(offset), address(slabIndex, offset))
+                if (slot >= 0 && (!secondChance || refs[slot] == 0.toByte())) {
+                    liveBytes -= size
+                    removeSlot(slot)
+                    statsCounter?.recordEviction()
+                }
+                offset += size
+            }
+            var writeOffset = 0
+            offset = 0
+            while (offset < end) {
+                val size = RECORD_HEADER_SIZE + slab.getInt(offset + 4) + slab.getInt(offset + 8)
+                val slot = slotOfAddress(slab.getInt(offset), address(slabIndex, offset))
+                if (slot >= 0) {
+                    if (writeOffset != offset) {
+                        for (i in 0 until size) {
+                            slab.put(writeOffset + i, slab.get(offset + i))
+                        }
+                        addresses[slot] = address(slabIndex, writeOffset)
+                    }
+                    refs[slot] = 0
+                    writeOffset += size
+                }
+                offset += size
+            }
+            slabEnds[slabIndex] = writeOffset
+        }
+
+        private fun slab(index: Int): ByteBuffer {
+            var slab = slabs[index]
+            if (slab === null) {
+                slab = ByteBuffer.allocateDirect(slabSize)
+                slabs[index] = slab
+            }
+            return slab!!
+        }
+
+        private fun address(slabIndex: Int, offset: Int): Long {
+            return ((slabIndex + 1).toLong() shl 32) or offset.toLong()
+        }
+
+        private fun slabIndex(address: Long): Int {
+            return (address ushr 32).toInt() - 1
+        }
+
+        private fun offset(address: Long): Int {
+            return address.toInt()
+        }
+    }
+
+    companion object {
+
+        const val DEFAULT_SLAB_SIZE = 1024 * 1024
+
+        private const val RECORD_HEADER_SIZE = 12
+        private const val INITIAL_INDEX_CAPACITY = 16
+    }
+}
+
+/**
+ * Loading version of [OffHeapCache], [get] loads value by [loader] if the key is absent.
+ */
+class OffHeapLoadingCache<K : Any, V> @JvmOverloads constructor(
+    maxBytes: Long,
+    keyCodec: CacheCodec<K>,
+    valueCodec: CacheCodec<V>,
+    private val loader: (K) -> V,
+    concurrencyLevel: Int = Default.concurrencyLevel,
+    slabSize: Int = OffHeapCache.DEFAULT_SLAB_SIZE,
+    statsCounter: CacheStatsCounter? = null,
+    loadCoalescer: CacheLoadCoalescer<K, V> = CacheLoadCoalescer(),
+) : OffHeapCache<K, V>(maxBytes, keyCodec, valueCodec, concurrencyLevel, slabSize, statsCounter, loadCoalescer) {
+
+    override fun get(key: K): V {
+        return getOrLoad(key, loader)
+    }
+}
\ No newline at end of file
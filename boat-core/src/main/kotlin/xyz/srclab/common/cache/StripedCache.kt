@@ -0,0 +1,234 @@
+package xyz.srclab.common.cache
+
+import xyz.srclab.common.base.Default
+import xyz.srclab.common.base.asAny
+import xyz.srclab.common.base.checkArgument
+import java.time.Duration
+
+/**
+ * [Cache] made of a fixed count of shards, each key belongs to one shard selected by spread hash of the key.
+ *
+ * Unlike [ThreadLocalCache], of which each thread holds a full copy, a value is cached only once no matter how many
+ * threads (or virtual threads) read it, and total size is bounded by the sum of bounds of shards. Operations on
+ * different shards never contend with each other. Caches created by [cacheSupplier] must be thread-safe.
+ *
+ * Statistics of all shards is recorded if [recordStats] is true, note [CacheStats.size] is the sum of sizes of
+ * shards, and it is only available if shards also record statistics.
+ *
+ * @param cacheSupplier supplier of shards
+ * @param shardCount    count of shards, rounded up to power of 2
+ * @param recordStats   whether to record statistics
+ * @see newBounded
+ */
+open class StripedCache<K : Any, V> @JvmOverloads constructor(
+    cacheSupplier: () -> Cache<K, V>,
+    shardCount: Int = Default.concurrencyLevel,
+    recordStats: Boolean = false,
+) : Cache<K, V> {
+
+    private val shards: Array<Cache<K, V>>
+    private val statsCounter: CacheStatsCounter? = if (recordStats) CacheStatsCounter() else null
+
+    init {
+        checkArgument(shardCount > 0, "Shard count must be positive: $shardCount")
+        val count = if (shardCount == 1) 1 else Integer.highestOneBit(shardCount - 1) shl 1
+        shards = Array<Cache<*, *>>(count) { cacheSupplier() }.asAny()
+    }
+
+    /**
+     * Returns value of shard of [key] by its [Cache.get], which may load the value if it is a loading cache.
+     */
+    override fun get(key: K): V {
+        val shard = shardOf(key)
+        val counter = statsCounter ?: return shard.get(key)
+        val value = shard.getOrNull(key)
+        if (value !== null) {
+            counter.recordHits(1)
+            return value
+        }
+        counter.recordMisses(1)
+        return shard.get(key)
+    }
+
+    override fun getOrNull(key: K): V? {
+        val value = shardOf(key).getOrNull(key)
+        if (statsCounter !== null) {
+            if (value === null) statsCounter.recordMisses(1) else statsCounter.recordHits(1)
+        }
+        return value
+    }
+
+    override fun getOrElse(key: K, defaultValue: V): V {
+        val counter = statsCounter ?: return shardOf(key).getOrElse(key, defaultValue)
+        val value = getOrAbsent(counter, key)
+        return if (value === Default.ABSENT) defaultValue else value.asAny()
+    }
+
+    override fun getOrElse(key: K, defaultValue: (K) -> V): V {
+        val counter = statsCounter ?: return shardOf(key).getOrElse(key, defaultValue)
+        val value = getOrAbsent(counter, key)
+        return if (value === Default.ABSENT) defaultValue(key) else value.asAny()
+    }
+
+    override fun getOrLoad(key: K, loader: (K) -> V): V {
+        val counter = statsCounter ?: return shardOf(key).getOrLoad(key, loader)
+        var loaded = false
+        val value = shardOf(key).getOrLoad(key) {
+            loaded = true
+            counter.recordMisses(1)
+            counter.recordLoad(it, loader)
+        }
+        if (!loaded) {
+            counter.recordHits(1)
+        }
+        return value
+    }
+
+    override fun getPresent(keys: Iterable<K>): Map<K, V> {
+        val resultMap = LinkedHashMap<K, V>()
+        for (key in keys) {
+            val value = shardOf(key).asAny<Cache<K, Any?>>().getOrElse(key, Default.ABSENT)
+            if (value !== Default.ABSENT) {
+                resultMap[key] = value.asAny()
+            }
+        }
+        if (statsCounter !== null) {
+            statsCounter.recordHits(resultMap.size)
+            statsCounter.recordMisses(keys.count() - resultMap.size)
+        }
+        return resultMap
+    }
+
+    /**
+     * Absent values of all shards are loaded by one call of [loader].
+     */
+    override fun getAll(keys: Iterable<K>, loader: (Iterable<K>) -> Map<K, V>): Map<K, V> {
+        val resultMap = LinkedHashMap(getPresent(keys))
+        val absentKeys = keys.filter { !resultMap.containsKey(it) }
+        if (absentKeys.isEmpty()) {
+            return resultMap
+        }
+        val loadedMap =
+            if (statsCounter === null) loader(absentKeys) else statsCounter.recordLoadAll(absentKeys, loader)
+        putAll(loadedMap)
+        resultMap.putAll(loadedMap)
+        return resultMap
+    }
+
+    override fun put(key: K, value: V) {
+        shardOf(key).put(key, value)
+    }
+
+    override fun put(key: K, value: V, expirySeconds: Long) {
+        shardOf(key).put(key, value, expirySeconds)
+    }
+
+    override fun put(key: K, value: V, expiry: Duration) {
+        shardOf(key).put(key, value, expiry)
+    }
+
+    override fun putAll(entries: Map<out K, V>) {
+        for (entry in entries) {
+            shardOf(entry.key).put(entry.key, entry.value)
+        }
+    }
+
+    override fun putAll(entries: Map<out K, V>, expirySeconds: Long) {
+        for (entry in entries) {
+            shardOf(entry.key).put(entry.key, entry.value, expirySeconds)
+        }
+    }
+
+    override fun putAll(entries: Map<out K, V>, expiry: Duration) {
+        for (entry in entries) {
+            shardOf(entry.key).put(entry.key, entry.value, expiry)
+        }
+    }
+
+    override fun expiry(key: K, expirySeconds: Long) {
+        shardOf(key).expiry(key, expirySeconds)
+    }
+
+    override fun expiry(key: K, expirySeconds: Duration) {
+        shardOf(key).expiry(key, expirySeconds)
+    }
+
+    override fun expiryAll(keys: Iterable<K>, expirySeconds: Long) {
+        for (key in keys) {
+            shardOf(key).expiry(key, expirySeconds)
+        }
+    }
+
+    override fun expiryAll(keys: Iterable<K>, expirySeconds: Duration) {
+        for (key in keys) {
+            shardOf(key).expiry(key, expirySeconds)
+        }
+    }
+
+    override fun invalidate(key: K) {
+        shardOf(key).invalidate(key)
+    }
+
+    override fun invalidateAll(keys: Iterable<K>) {
+        for (key in keys) {
+            shardOf(key).invalidate(key)
+        }
+    }
+
+    override fun invalidateAll() {
+        for (shard in shards) {
+            shard.invalidateAll()
+        }
+    }
+
+    override fun cleanUp() {
+        for (shard in shards) {
+            shard.cleanUp()
+        }
+    }
+
+    override fun stats(): CacheStats {
+        val counter = statsCounter ?: return CacheStats.EMPTY
+        var size = 0L
+        for (shard in shards) {
+            size += shard.stats().size
+        }
+        return counter.snapshot(size)
+    }
+
+    private fun shardOf(key: K): Cache<K, V> {
+        val h = key.hashCode() * -0x61c88647
+        return shards[(h xor (h ushr 16)) and (shards.size - 1)]
+    }
+
+    private fun getOrAbsent(counter: CacheStatsCounter, key: K): Any? {
+        val value = shardOf(key).asAny<Cache<K, Any?>>().getOrElse(key, Default.ABSENT)
+        if (value === Default.ABSENT) counter.recordMisses(1) else counter.recordHits(1)
+        return value
+    }
+
+    companion object {
+
+        /**
+         * Returns a [StripedCache] of which shards are [TinyLfuCache], total size is bounded by [maxSize].
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun <K : Any, V> newBounded(
+            maxSize: Long,
+            shardCount: Int = Default.concurrencyLevel,
+            recordStats: Boolean = false,
+        ): StripedCache<K, V> {
+            checkArgument(maxSize > 0, "Max size must be positive: $maxSize")
+            checkArgument(shardCount > 0, "Shard count must be positive: $shardCount")
+            //Round down so that sum of bounds of shards doesn't exceed maxSize
+            val count = Integer.highestOneBit(minOf(shardCount.toLong(), maxSize).toInt())
+            val shardMaxSize = maxSize / count
+            return StripedCache(
+                { TinyLfuCache(shardMaxSize, if (recordStats) CacheStatsCounter() else null) },
+                count,
+                recordStats
+            )
+        }
+    }
+}
\ No newline at end of file
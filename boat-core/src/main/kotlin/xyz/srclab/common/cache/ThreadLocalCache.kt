@@ -1,37 +1,93 @@
 package xyz.srclab.common.cache
 
+import xyz.srclab.common.base.Default
+import xyz.srclab.common.base.asAny
 import java.time.Duration
 
-class ThreadLocalCache<K : Any, V>(cacheSupplier: () -> Cache<K, V>) : Cache<K, V> {
+/**
+ * [Cache] which holds a cache for each thread.
+ *
+ * Statistics of all threads is recorded if [recordStats] is true, note [CacheStats.size] is the size of current
+ * thread's cache, and it is only available if current thread's cache also records statistics.
+ *
+ * Each thread holds a full copy, consider [StripedCache] if there are many threads or virtual threads.
+ */
+class ThreadLocalCache<K : Any, V> @JvmOverloads constructor(
+    cacheSupplier: () -> Cache<K, V>,
+    recordStats: Boolean = false,
+) : Cache<K, V> {
 
     private val threadLocal: ThreadLocal<Cache<K, V>> = ThreadLocal.withInitial(cacheSupplier)
+    private val statsCounter: CacheStatsCounter? = if (recordStats) CacheStatsCounter() else null
 
+    /**
+     * Returns value of current thread's cache by its [Cache.get], which may load the value if it is a loading cache.
+     */
     override fun get(key: K): V {
-        return threadLocal.get().get(key)
+        val cache = threadLocal.get()
+        val counter = statsCounter ?: return cache.get(key)
+        val value = cache.getOrNull(key)
+        if (value !== null) {
+            counter.recordHits(1)
+            return value
+        }
+        counter.recordMisses(1)
+        return cache.get(key)
     }
 
     override fun getOrNull(key: K): V? {
-        return threadLocal.get().getOrNull(key)
+        val value = threadLocal.get().getOrNull(key)
+        if (statsCounter !== null) {
+            if (value === null) statsCounter.recordMisses(1) else statsCounter.recordHits(1)
+        }
+        return value
     }
 
     override fun getOrElse(key: K, defaultValue: (K) -> V): V {
-        return threadLocal.get().getOrElse(key, defaultValue)
+        val counter = statsCounter ?: return threadLocal.get().getOrElse(key, defaultValue)
+        val value = getOrAbsent(counter, key)
+        return if (value === Default.ABSENT) defaultValue(key) else value.asAny()
     }
 
     override fun getPresent(keys: Iterable<K>): Map<K, V> {
-        return threadLocal.get().getPresent(keys)
+        val resultMap = threadLocal.get().getPresent(keys)
+        if (statsCounter !== null) {
+            statsCounter.recordHits(resultMap.size)
+            statsCounter.recordMisses(keys.count() - resultMap.size)
+        }
+        return resultMap
     }
 
     override fun getAll(keys: Iterable<K>, loader: (Iterable<K>) -> Map<K, V>): Map<K, V> {
-        return threadLocal.get().getAll(keys, loader)
+        val counter = statsCounter ?: return threadLocal.get().getAll(keys, loader)
+        var loadCount = 0
+        val resultMap = threadLocal.get().getAll(keys) {
+            loadCount = it.count()
+            counter.recordLoadAll(it, loader)
+        }
+        counter.recordHits(keys.count() - loadCount)
+        counter.recordMisses(loadCount)
+        return resultMap
     }
 
     override fun getOrElse(key: K, defaultValue: V): V {
-        return threadLocal.get().getOrElse(key, defaultValue)
+        val counter = statsCounter ?: return threadLocal.get().getOrElse(key, defaultValue)
+        val value = getOrAbsent(counter, key)
+        return if (value === Default.ABSENT) defaultValue else value.asAny()
     }
 
     override fun getOrLoad(key: K, loader: (K) -> V): V {
-        return threadLocal.get().getOrLoad(key, loader)
+        val counter = statsCounter ?: return threadLocal.get().getOrLoad(key, loader)
+        var loaded = false
+        val value = threadLocal.get().getOrLoad(key) {
+            loaded = true
+            counter.recordMisses(1)
+            counter.recordLoad(it, loader)
+        }
+        if (!loaded) {
+            counter.recordHits(1)
+        }
+        return value
     }
 
     override fun put(key: K, value: V) {
@@ -89,4 +145,15 @@ class ThreadLocalCache<K : Any, V>(cacheSupplier: () -> Cache<K, V>) : Cache<K,
     override fun cleanUp() {
         threadLocal.get().cleanUp()
     }
+
+    override fun stats(): CacheStats {
+        val counter = statsCounter ?: return CacheStats.EMPTY
+        return counter.snapshot(threadLocal.get().stats().size)
+    }
+
+    private fun getOrAbsent(counter: CacheStatsCounter, key: K): Any? {
+        val value = threadLocal.get().asAny<Cache<K, Any?>>().getOrElse(key, Default.ABSENT)
+        if (value === Default.ABSENT) counter.recordMisses(1) else counter.recordHits(1)
+        return value
+    }
 }
\ No newline at end of file
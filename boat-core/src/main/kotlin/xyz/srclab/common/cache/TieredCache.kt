@@ -0,0 +1,210 @@
+package xyz.srclab.common.cache
+
+import java.time.Duration
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Two-level [Cache]: reads [firstLevel] first, then [secondLevel], values found in [secondLevel] are promoted into
+ * [firstLevel]. Writes and invalidations are applied to both levels.
+ *
+ * Usually [firstLevel] is a fast in-heap cache and [secondLevel] is a larger persistent one such as [DiskCache], see
+ * [Cache.Builder.secondLevelCache]. Entries with per-entry expiry are only put into [firstLevel], and removed from
+ * [secondLevel], so that they are not promoted back after expired.
+ *
+ * Writes are applied to [firstLevel] first, then [secondLevel]. If a write fails, written keys are invalidated in both
+ * levels, so that no level is left with a partial write. A promotion is skipped if a write is in progress, and undone
+ * if a write starts during it, so a value which is being overwritten or invalidated is not promoted.
+ */
+open class TieredCache<K : Any, V>(
+    private val firstLevel: Cache<K, V>,
+    private val secondLevel: Cache<K, V>,
+) : Cache<K, V> {
+
+    private val writesStarted = AtomicLong()
+    private val writesFinished = AtomicLong()
+
+    /**
+     * Returns value from either level, or else returns [Cache.get] of [firstLevel], which may load the value if
+     * [firstLevel] is a loading cache.
+     */
+    override fun get(key: K): V {
+        val value = getOrNull(key)
+        if (value !== null) {
+            return value
+        }
+        return firstLevel.get(key)
+    }
+
+    override fun getOrNull(key: K): V? {
+        val value = firstLevel.getOrNull(key)
+        if (value !== null) {
+            return value
+        }
+        //Reads finished count first: equal counts mean no write was in progress
+        val finished = writesFinished.get()
+        val started = writesStarted.get()
+        val secondValue = secondLevel.getOrNull(key)
+        if (secondValue === null || started != finished) {
+            return secondValue
+        }
+        firstLevel.put(key, secondValue)
+        if (writesStarted.get() != started) {
+            firstLevel.invalidate(key)
+        }
+        return secondValue
+    }
+
+    override fun getOrElse(key: K, defaultValue: V): V {
+        val value = getOrNull(key)
+        return value ?: defaultValue
+    }
+
+    override fun getOrLoad(key: K, loader: (K) -> V): V {
+        return firstLevel.getOrLoad(key) { k -> secondLevel.getOrLoad(k, loader) }
+    }
+
+    override fun getAll(keys: Iterable<K>, loader: (Iterable<K>) -> Map<K, V>): Map<K, V> {
+        return firstLevel.getAll(keys) { absentKeys -> secondLevel.getAll(absentKeys, loader) }
+    }
+
+    override fun put(key: K, value: V) {
+        writeBoth({ listOf(key) }) {
+            firstLevel.put(key, value)
+            secondLevel.put(key, value)
+        }
+    }
+
+    override fun put(key: K, value: V, expirySeconds: Long) {
+        writeBoth({ listOf(key) }) {
+            firstLevel.put(key, value, expirySeconds)
+            secondLevel.invalidate(key)
+        }
+    }
+
+    override fun put(key: K, value: V, expiry: Duration) {
+        writeBoth({ listOf(key) }) {
+            firstLevel.put(key, value, expiry)
+            secondLevel.invalidate(key)
+        }
+    }
+
+    override fun putAll(entries: Map<out K, V>) {
+        writeBoth({ entries.keys }) {
+            firstLevel.putAll(entries)
+            secondLevel.putAll(entries)
+        }
+    }
+
+    override fun putAll(entries: Map<out K, V>, expirySeconds: Long) {
+        writeBoth({ entries.keys }) {
+            firstLevel.putAll(entries, expirySeconds)
+            secondLevel.invalidateAll(entries.keys)
+        }
+    }
+
+    override fun putAll(entries: Map<out K, V>, expiry: Duration) {
+        writeBoth({ entries.keys }) {
+            firstLevel.putAll(entries, expiry)
+            secondLevel.invalidateAll(entries.keys)
+        }
+    }
+
+    /**
+     * Resets expiry in [firstLevel], and removes the entry from [secondLevel].
+     */
+    override fun expiry(key: K, expirySeconds: Long) {
+        writing {
+            firstLevel.expiry(key, expirySeconds)
+            secondLevel.invalidate(key)
+        }
+    }
+
+    /**
+     * Resets expiry in [firstLevel], and removes the entry from [secondLevel].
+     */
+    override fun expiry(key: K, expirySeconds: Duration) {
+        writing {
+            firstLevel.expiry(key, expirySeconds)
+            secondLevel.invalidate(key)
+        }
+    }
+
+    /**
+     * Resets expiry in [firstLevel], and removes the entries from [secondLevel].
+     */
+    override fun expiryAll(keys: Iterable<K>, expirySeconds: Long) {
+        writing {
+            firstLevel.expiryAll(keys, expirySeconds)
+            secondLevel.invalidateAll(keys)
+        }
+    }
+
+    /**
+     * Resets expiry in [firstLevel], and removes the entries from [secondLevel].
+     */
+    override fun expiryAll(keys: Iterable<K>, expirySeconds: Duration) {
+        writing {
+            firstLevel.expiryAll(keys, expirySeconds)
+            secondLevel.invalidateAll(keys)
+        }
+    }
+
+    override fun invalidate(key: K) {
+        writing {
+            secondLevel.invalidate(key)
+            firstLevel.invalidate(key)
+        }
+    }
+
+    override fun invalidateAll(keys: Iterable<K>) {
+        writing {
+            secondLevel.invalidateAll(keys)
+            firstLevel.invalidateAll(keys)
+        }
+    }
+
+    override fun invalidateAll() {
+        writing {
+            secondLevel.invalidateAll()
+            firstLevel.invalidateAll()
+        }
+    }
+
+    override fun cleanUp() {
+        firstLevel.cleanUp()
+        secondLevel.cleanUp()
+    }
+
+    private inline fun writeBoth(keys: () -> Iterable<K>, write: () -> Unit) {
+        writing {
+            try {
+                write()
+            } catch (e: Throwable) {
+                try {
+                    val writtenKeys = keys()
+                    firstLevel.invalidateAll(writtenKeys)
+                    secondLevel.invalidateAll(writtenKeys)
+                } catch (invalidateError: Throwable) {
+                    e.addSuppressed(invalidateError)
+                }
+                throw e
+            }
+        }
+    }
+
+    private inline fun writing(write: () -> Unit) {
+        writesStarted.incrementAndGet()
+        try {
+            write()
+        } finally {
+            writesFinished.incrementAndGet()
+        }
+    }
+
+    /**
+     * Returns statistics of first level.
+     */
+    override fun stats(): CacheStats {
+        return firstLevel.stats()
+    }
+}
\ No newline at end of file
@@ -0,0 +1,502 @@
+package xyz.srclab.common.cache
+
+import xyz.srclab.common.base.Default
+import xyz.srclab.common.base.asAny
+import xyz.srclab.common.base.checkArgument
+import xyz.srclab.common.base.checkNull
+import java.io.OutputStream
+import java.time.Duration
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicReferenceArray
+import java.util.concurrent.locks.ReentrantLock
+
+/**
+ * Bounded [Cache] with W-TinyLFU eviction policy, it doesn't depend on Caffeine or Guava.
+ *
+ * Entries are stored in a [ConcurrentHashMap], and a policy made of three LRU queues decides which entry to evict:
+ *
+ * * window: about 1% of [maxSize], new entries are admitted here;
+ * * probation and protected: the main space, protected takes 80% of it and holds entries read again in probation.
+ *
+ * When window overflows, its oldest entry competes with the oldest entry of probation, the one with lower frequency
+ * estimated by a count-min sketch (4-bit counters, halved periodically) is evicted. So one-hit wonders never flush
+ * frequently-read entries out.
+ *
+ * Reads are lock-free: they only record the read into a striped lossy ring buffer, which is drained into the policy
+ * when it is full. Writes apply the policy under a lock immediately, so count of entries never exceeds [maxSize]
+ * after a write returns.
+ *
+ * Values must not be null. This cache doesn't support expiry. Loads of [getOrLoad] and [getAll] are coalesced by
+ * [loadCoalescer].
+ *
+ * @param maxSize       max count of entries
+ * @param statsCounter  statistics is recorded into it if not null
+ * @param loadCoalescer coalescer of loads
+ */
+open class TinyLfuCache<K : Any, V> @JvmOverloads constructor(
+    maxSize: Long,
+    private val statsCounter: CacheStatsCounter? = null,
+    private val loadCoalescer: CacheLoadCoalescer<K, V> = CacheLoadCoalescer(),
+) : Cache<K, V> {
+
+    private val data: ConcurrentHashMap<K, Node<K, V>>
+    private val readBuffers: Array<ReadBuffer>
+    private val evictionLock = ReentrantLock()
+
+    private val sketch: FrequencySketch
+    private val windowQueue = AccessOrderQueue()
+    private val probationQueue = AccessOrderQueue()
+    private val protectedQueue = AccessOrderQueue()
+    private val windowMaxSize: Long
+    private val mainMaxSize: Long
+    private val protectedMaxSize: Long
+
+    init {
+        checkArgument(maxSize > 0, "Max size must be positive: $maxSize")
+        data = ConcurrentHashMap(minOf(maxSize, INITIAL_CAPACITY.toLong()).toInt())
+        readBuffers = Array(Integer.highestOneBit(Default.concurrencyLevel - 1) shl 1) { ReadBuffer() }
+        sketch = FrequencySketch(maxSize)
+        windowMaxSize = maxOf(1, maxSize / 100)
+        mainMaxSize = maxSize - windowMaxSize
+        protectedMaxSize = mainMaxSize * 8 / 10
+    }
+
+    override fun getOrNull(key: K): V? {
+        val node = data[key]
+        if (node === null) {
+            statsCounter?.recordMisses(1)
+            return null
+        }
+        afterRead(node)
+        statsCounter?.recordHits(1)
+        return node.value
+    }
+
+    override fun getOrElse(key: K, defaultValue: V): V {
+        val value = getOrNull(key)
+        return value ?: defaultValue
+    }
+
+    override fun getOrLoad(key: K, loader: (K) -> V): V {
+        val value = getOrNull(key)
+        if (value !== null) {
+            return value
+        }
+        return loadCoalescer.load(
+            key,
+            { data[it]?.value },
+            { if (statsCounter === null) loader(it) else statsCounter.recordLoad(it, loader) },
+            { k, v -> put(k, v) }
+        )
+    }
+
+    override fun getAll(keys: Iterable<K>, loader: (Iterable<K>) -> Map<K, V>): Map<K, V> {
+        val resultMap = LinkedHashMap(getPresent(keys))
+        val absentKeys = keys.filter { !resultMap.containsKey(it) }
+        if (absentKeys.isEmpty()) {
+            return resultMap
+        }
+        resultMap.putAll(loadCoalescer.loadAll(
+            absentKeys,
+            { data[it]?.value },
+            { if (statsCounter === null) loader(it) else statsCounter.recordLoadAll(it, loader) },
+            { putAll(it) }
+        ))
+        return resultMap
+    }
+
+    override fun put(key: K, value: V) {
+        checkNull(value !== null, "Value must not be null.")
+        var newNode: Node<K, V>? = null
+        val node = data.compute(key) { k, old ->
+            if (old === null) {
+                Node(k, value).also { newNode = it }
+            } else {
+                old.value = value
+                old
+            }
+        }!!
+        val addedNode = newNode
+        if (addedNode === null) {
+            afterRead(node)
+            return
+        }
+        evictionLock.lock()
+        try {
+            drainReadBuffers()
+            onAdd(addedNode)
+        } finally {
+            evictionLock.unlock()
+        }
+    }
+
+    override fun put(key: K, value: V, expirySeconds: Long) {
+        put(key, value)
+    }
+
+    override fun put(key: K, value: V, expiry: Duration) {
+        put(key, value)
+    }
+
+    override fun putAll(entries: Map<out K, V>) {
+        for (entry in entries) {
+            put(entry.key, entry.value)
+        }
+    }
+
+    override fun putAll(entries: Map<out K, V>, expirySeconds: Long) {
+        putAll(entries)
+    }
+
+    override fun putAll(entries: Map<out K, V>, expiry: Duration) {
+        putAll(entries)
+    }
+
+    override fun expiry(key: K, expirySeconds: Long) {
+    }
+
+    override fun expiry(key: K, expirySeconds: Duration) {
+    }
+
+    override fun expiryAll(keys: Iterable<K>, expirySeconds: Long) {
+    }
+
+    override fun expiryAll(keys: Iterable<K>, expirySeconds: Duration) {
+    }
+
+    override fun invalidate(key: K) {
+        val node = data.remove(key) ?: return
+        evictionLock.lock()
+        try {
+            onRemove(node)
+        } finally {
+            evictionLock.unlock()
+        }
+    }
+
+    override fun invalidateAll(keys: Iterable<K>) {
+        for (key in keys) {
+            invalidate(key)
+        }
+    }
+
+    override fun invalidateAll() {
+        evictionLock.lock()
+        try {
+            drainReadBuffers()
+            for (node in data.values) {
+                if (data.remove(node.key, node)) {
+                    onRemove(node)
+                }
+            }
+        } finally {
+            evictionLock.unlock()
+        }
+    }
+
+    /**
+     * Drains recorded reads into eviction policy.
+     */
+    override fun cleanUp() {
+        evictionLock.lock()
+        try {
+            drainReadBuffers()
+        } finally {
+            evictionLock.unlock()
+        }
+    }
+
+    /**
+     * Entries are written as never expire.
+     */
+    override fun snapshot(output: OutputStream, keyCodec: CacheCodec<K>, valueCodec: CacheCodec<V>): Long {
+        val writer = CacheSnapshotWriter(output, keyCodec, valueCodec)
+        for (node in data.values) {
+            writer.write(node.key, node.value, null)
+        }
+        return writer.finish()
+    }
+
+    override fun stats(): CacheStats {
+        val counter = statsCounter ?: return CacheStats.EMPTY
+        return counter.snapshot(size())
+    }
+
+    /**
+     * Returns count of entries.
+     */
+    fun size(): Long {
+        return data.mappingCount()
+    }
+
+    private fun afterRead(node: Node<K, V>) {
+        val buffer = readBuffers[Thread.currentThread().id.toInt() and (readBuffers.size - 1)]
+        if (!buffer.offer(node) && evictionLock.tryLock()) {
+            try {
+                drainReadBuffers()
+            } finally {
+                evictionLock.unlock()
+            }
+        }
+    }
+
+    private fun drainReadBuffers() {
+        for (buffer in readBuffers) {
+            buffer.drain { onAccess(it.asAny()) }
+        }
+    }
+
+    private fun onAccess(node: Node<K, V>) {
+        sketch.increment(node.key.hashCode())
+        when (node.queue) {
+            WINDOW -> windowQueue.moveToBack(node)
+            PROBATION -> {
+                probationQueue.remove(node)
+                node.queue = PROTECTED
+                protectedQueue.add(node)
+                while (protectedQueue.size > protectedMaxSize) {
+                    val demoted = protectedQueue.poll()!!
+                    demoted.queue = PROBATION
+                    probationQueue.add(demoted)
+                }
+            }
+            PROTECTED -> protectedQueue.moveToBack(node)
+        }
+    }
+
+    private fun onAdd(node: Node<K, V>) {
+        //Node removed before being added
+        if (node.queue == DEAD) {
+            return
+        }
+        sketch.increment(node.key.hashCode())
+        node.queue = WINDOW
+        windowQueue.add(node)
+        while (windowQueue.size > windowMaxSize) {
+            val candidate: Node<K, V> = windowQueue.poll()!!.asAny()
+            candidate.queue = UNLINKED
+            admit(candidate)
+        }
+    }
+
+    private fun admit(candidate: Node<K, V>) {
+        if (probationQueue.size + protectedQueue.size < mainMaxSize) {
+            candidate.queue = PROBATION
+            probationQueue.add(candidate)
+            return
+        }
+        val victim: Node<K, V>? = (probationQueue.peek() ?: protectedQueue.peek())?.asAny()
+        if (victim !== null && sketch.frequency(candidate.key.hashCode()) > sketch.frequency(victim.key.hashCode())) {
+            evict(victim)
+            candidate.queue = PROBATION
+            probationQueue.add(candidate)
+        } else {
+            evict(candidate)
+        }
+    }
+
+    private fun evict(node: Node<K, V>) {
+        onRemove(node)
+        if (data.remove(node.key, node)) {
+            statsCounter?.recordEviction()
+        }
+    }
+
+    private fun onRemove(node: Node<*, *>) {
+        when (node.queue) {
+            WINDOW -> windowQueue.remove(node)
+            PROBATION -> probationQueue.remove(node)
+            PROTECTED -> protectedQueue.remove(node)
+        }
+        node.queue = DEAD
+    }
+
+    private class Node<K, V>(
+        val key: K,
+        @Volatile var value: V,
+    ) {
+        //Following fields are guarded by eviction lock
+        var queue = UNLINKED
+        var prev: Node<*, *>? = null
+        var next: Node<*, *>? = null
+    }
+
+    /**
+     * Intrusive LRU queue, head is the least recently used one.
+     */
+    private class AccessOrderQueue {
+
+        private var head: Node<*, *>? = null
+        private var tail: Node<*, *>? = null
+        var size = 0L
+
+        fun peek(): Node<*, *>? {
+            return head
+        }
+
+        fun poll(): Node<*, *>? {
+            val node = head ?: return null
+            remove(node)
+            return node
+        }
+
+        fun add(node: Node<*, *>) {
+            val last = tail
+            node.prev = last
+            node.next = null
+            if (last === null) head = node else last.next = node
+            tail = node
+            size++
+        }
+
+        fun remove(node: Node<*, *>) {
+            val prev = node.prev
+            val next = node.next
+            if (prev === null) head = next else prev.next = next
+            if (next === null) tail = prev else next.prev = prev
+            node.prev = null
+            node.next = null
+            size--
+        }
+
+        fun moveToBack(node: Node<*, *>) {
+            if (node !== tail) {
+                remove(node)
+                add(node)
+            }
+        }
+    }
+
+    /**
+     * Lossy MPSC ring buffer of reads, reads are dropped if it is full.
+     */
+    private class ReadBuffer {
+
+        private val buffer = AtomicReferenceArray<Node<*, *>?>(READ_BUFFER_SIZE)
+        private val writeCounter = AtomicLong()
+
+        @Volatile
+        private var readCounter = 0L
+
+        /**
+         * Returns false if this buffer is full and should be drained.
+         */
+        fun offer(node: Node<*, *>): Boolean {
+            val head = readCounter
+            val tail = writeCounter.get()
+            if (tail - head >= READ_BUFFER_SIZE) {
+                return false
+            }
+            if (writeCounter.compareAndSet(tail, tail + 1)) {
+                buffer.lazySet((tail and READ_BUFFER_MASK).toInt(), node)
+                return tail + 1 - head < READ_BUFFER_SIZE
+            }
+            //Contended, just drop this read
+            return true
+        }
+
+        fun drain(consumer: (Node<*, *>) -> Unit) {
+            var head = readCounter
+            val tail = writeCounter.get()
+            while (head < tail) {
+                val index = (head and READ_BUFFER_MASK).toInt()
+                val node = buffer.get(index) ?: break
+                buffer.lazySet(index, null)
+                consumer(node)
+                head++
+            }
+            readCounter = head
+        }
+    }
+
+    /**
+     * Count-min sketch with 4 rows of 4-bit counters, counters are halved after `10 * maxSize` increments so that
+     * old popularity fades.
+     */
+    private class FrequencySketch(maxSize: Long) {
+
+        private val table = LongArray(tableSize(maxSize))
+        private val tableMask = table.size - 1
+        private val sampleSize = minOf(maxSize * 10, Int.MAX_VALUE.toLong()).toInt()
+        private var additions = 0
+
+        fun frequency(hashCode: Int): Int {
+            val hash = spread(hashCode)
+            val start = (hash and 3) shl 2
+            var frequency = 15
+            for (i in 0..3) {
+                val count = (table[indexOf(hash, i)] ushr ((start + i) shl 2)) and 0xFL
+                frequency = minOf(frequency, count.toInt())
+            }
+            return frequency
+        }
+
+        fun increment(hashCode: Int) {
+            val hash = spread(hashCode)
+            val start = (hash and 3) shl 2
+            var added = false
+            for (i in 0..3) {
+                added = incrementAt(indexOf(hash, i), start + i) or added
+            }
+            if (added && ++additions >= sampleSize) {
+                reset()
+            }
+        }
+
+        private fun incrementAt(index: Int, counter: Int): Boolean {
+            val offset = counter shl 2
+            val mask = 0xFL shl offset
+            if ((table[index] and mask) != mask) {
+                table[index] += 1L shl offset
+                return true
+            }
+            return false
+        }
+
+        private fun reset() {
+            for (i in table.indices) {
+                table[i] = (table[i] ushr 1) and 0x7777777777777777L
+            }
+            additions = additions ushr 1
+        }
+
+        private fun indexOf(hash: Int, row: Int): Int {
+            var h = (hash + SKETCH_SEEDS[row]) * SKETCH_SEEDS[row]
+            h += h ushr 32
+            return h.toInt() and tableMask
+        }
+
+        private fun spread(hashCode: Int): Int {
+            var h = ((hashCode ushr 16) xor hashCode) * 0x45d9f3b
+            h = ((h ushr 16) xor h) * 0x45d9f3b
+            return (h ushr 16) xor h
+        }
+
+        private fun tableSize(maxSize: Long): Int {
+            var size = 8
+            while (size < maxSize && size < MAX_SKETCH_SIZE) {
+                size = size shl 1
+            }
+            return size
+        }
+    }
+
+    companion object {
+
+        private const val INITIAL_CAPACITY = 16
+        private const val READ_BUFFER_SIZE = 16
+        private const val READ_BUFFER_MASK = READ_BUFFER_SIZE - 1L
+        private const val MAX_SKETCH_SIZE = 1 shl 24
+
+        private const val UNLINKED = 0
+        private const val WINDOW = 1
+        private const val PROBATION = 2
+        private const val PROTECTED = 3
+        private const val DEAD = 4
+
+        private val SKETCH_SEEDS = longArrayOf(
+            -0x3c5a37a36834ced9L, -0x4b6d499041670d8dL, -0x651e95c4d06fbfb1L, -0x340d631b7bdddcdbL
+        )
+    }
+}
\ No newline at end of file
@@ -0,0 +1,142 @@
+package xyz.srclab.common.cache
+
+import xyz.srclab.common.base.checkArgument
+import java.io.IOException
+import java.net.InetSocketAddress
+import java.net.NetworkInterface
+import java.net.SocketAddress
+import java.nio.ByteBuffer
+import java.nio.channels.DatagramChannel
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.locks.LockSupport
+
+/**
+ * [InvalidationTransport] over UDP, usually on loopback interface between processes of a host.
+ *
+ * Each transport binds [localAddress] and receives messages in a daemon thread, and publishes messages to all
+ * [peers] as datagrams. Messages are lost if a peer is down, so invalidation is best-effort.
+ *
+ * Datagrams from addresses other than [peers] are dropped (a peer bound to wildcard address matches its port on any
+ * local address). Source addresses of UDP can be forged, so this transport should only be used in trusted networks,
+ * and it is a remote transport which refuses [CacheCodec.SERIALIZABLE], see [InvalidatingCache]. A bad message is
+ * dropped, receiving stops only when the transport is closed; failed receives are retried with a backoff growing up
+ * to 1 second.
+ *
+ * @param localAddress address to receive messages
+ * @param peers        addresses of other transports
+ */
+class UdpInvalidationTransport @JvmOverloads constructor(
+    localAddress: InetSocketAddress,
+    peers: List<SocketAddress> = emptyList(),
+) : InvalidationTransport {
+
+    private val peers = CopyOnWriteArrayList(peers)
+    private val channel: DatagramChannel = DatagramChannel.open().bind(localAddress)
+    private val subscribers = CopyOnWriteArrayList<(ByteArray) -> Unit>()
+    private val receiver = Thread({ receive() }, "udp-invalidation-receiver-${localAddress.port}")
+
+    init {
+        receiver.isDaemon = true
+        receiver.start()
+    }
+
+    /**
+     * Returns actual address this transport binds.
+     */
+    val localAddress: SocketAddress
+        @JvmName("localAddress") get() = channel.localAddress
+
+    /**
+     * Adds a peer which messages are published to.
+     */
+    fun addPeer(peer: SocketAddress) {
+        peers.add(peer)
+    }
+
+    override fun publish(message: ByteArray) {
+        checkArgument(message.size <= MAX_MESSAGE_SIZE, "Message is too large: ${message.size}")
+        for (peer in peers) {
+            channel.send(ByteBuffer.wrap(message), peer)
+        }
+    }
+
+    override fun subscribe(subscriber: (ByteArray) -> Unit) {
+        subscribers.add(subscriber)
+    }
+
+    override fun maxMessageSize(): Int {
+        return MAX_MESSAGE_SIZE
+    }
+
+    override fun close() {
+        channel.close()
+    }
+
+    private fun receive() {
+        val buffer = ByteBuffer.allocate(MAX_MESSAGE_SIZE)
+        var backoffNanos = 0L
+        while (channel.isOpen) {
+            val source = try {
+                buffer.clear()
+                channel.receive(buffer)
+            } catch (e: IOException) {
+                if (!channel.isOpen) {
+                    return
+                }
+                //Receives again after a growing backoff, so that a broken channel doesn't spin
+                backoffNanos = if (backoffNanos == 0L) MIN_BACKOFF_NANOS else minOf(backoffNanos * 2, MAX_BACKOFF_NANOS)
+                LockSupport.parkNanos(backoffNanos)
+                continue
+            }
+            backoffNanos = 0L
+            if (source === null || !isPeer(source)) {
+                //From stranger, drop it
+                continue
+            }
+            buffer.flip()
+            val message = ByteArray(buffer.remaining())
+            buffer.get(message)
+            for (subscriber in subscribers) {
+                try {
+                    subscriber(message)
+                } catch (e: RuntimeException) {
+                    //Bad message, drop it
+                }
+            }
+        }
+    }
+
+    private fun isPeer(source: SocketAddress): Boolean {
+        for (peer in peers) {
+            if (peer == source) {
+                return true
+            }
+            if (peer is InetSocketAddress && source is InetSocketAddress && peer.port == source.port) {
+                val address = peer.address
+                if (address !== null && address.isAnyLocalAddress && isLocal(source)) {
+                    return true
+                }
+            }
+        }
+        return false
+    }
+
+    private fun isLocal(source: InetSocketAddress): Boolean {
+        val address = source.address ?: return false
+        if (address.isLoopbackAddress) {
+            return true
+        }
+        return try {
+            NetworkInterface.getByInetAddress(address) !== null
+        } catch (e: IOException) {
+            false
+        }
+    }
+
+    companion object {
+        const val MAX_MESSAGE_SIZE = 65507
+
+        private const val MIN_BACKOFF_NANOS = 1_000_000L
+        private const val MAX_BACKOFF_NANOS = 1_000_000_000L
+    }
+}
\ No newline at end of file
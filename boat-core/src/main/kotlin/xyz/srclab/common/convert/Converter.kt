@@ -17,6 +17,7 @@ import java.time.format.DateTimeFormatter
 import java.time.temporal.Temporal
 import java.time.temporal.TemporalAdjuster
 import java.util.*
+import java.util.concurrent.ConcurrentHashMap
 import kotlin.collections.ArrayList
 import kotlin.collections.HashMap
 import kotlin.collections.HashSet
@@ -111,10 +112,155 @@ interface Converter {
         @JvmField
         val NOP: Converter = newConverter(listOf(NopConvertHandler))
 
+        /**
+         * Returns a new [Converter] with a dispatch cache: for each runtime class of source value (or null) and classes
+         * to convert, it remembers index of the handler which accepted them first. Next conversion of them skips
+         * handlers before that index which are [ConvertHandler.isDecidedByType], and asks others again, so that it
+         * stays correct for handlers which decline by value.
+         *
+         * Conversions of types other than classes, such as parameterized types, are not remembered. Indexes are kept in
+         * a [ClassValue] of the class whose class loader sees class loaders of the other classes, so that they don't
+         * pin any class loader; conversions between classes of unrelated class loaders are not remembered either.
+         */
         @JvmStatic
         fun newConverter(convertHandlers: Iterable<ConvertHandler>): Converter {
-            return object : Converter {
-                override val convertHandlers = convertHandlers.toList()
+            return ConverterImpl(convertHandlers.toList())
+        }
+
+        private class ConverterImpl(override val convertHandlers: List<ConvertHandler>) : Converter {
+
+            private val handlers: Array<ConvertHandler> = convertHandlers.toTypedArray()
+            private val decidedByTypes = BooleanArray(handlers.size) { handlers[it].isDecidedByType }
+            private val dispatchTables = object : ClassValue<MutableMap<DispatchKey, Int>>() {
+                override fun computeValue(type: Class<*>): MutableMap<DispatchKey, Int> {
+                    return ConcurrentHashMap()
+                }
+            }
+
+            override fun <T> convert(from: Any?, toType: Class<T>): T {
+                return dispatch(CLASS_CALL, from, null, toType)
+            }
+
+            override fun <T> convert(from: Any?, toType: Type): T {
+                return dispatch(TYPE_CALL, from, null, toType)
+            }
+
+            override fun <T> convert(from: Any?, fromType: Type, toType: Type): T {
+                return dispatch(FROM_TYPE_CALL, from, fromType, toType)
+            }
+
+            private fun <T> dispatch(call: Int, from: Any?, fromType: Type?, toType: Type): T {
+                val table = tableOf(from, fromType, toType)
+                if (table === null) {
+                    for (i in handlers.indices) {
+                        val result = handle(i, call, from, fromType, toType)
+                        if (result !== null) {
+                            return unwrap(result)
+                        }
+                    }
+                    throw unsupported(from, fromType, toType)
+                }
+                val key = DispatchKey(call, from?.javaClass, fromType, toType)
+                val start = table[key]
+                if (start !== null) {
+                    //Handlers before start declined same key, ask only those may accept by value
+                    for (i in 0 until start) {
+                        if (decidedByTypes[i]) {
+                            continue
+                        }
+                        val result = handle(i, call, from, fromType, toType)
+                        if (result !== null) {
+                            return unwrap(result)
+                        }
+                    }
+                    for (i in start until handlers.size) {
+                        val result = handle(i, call, from, fromType, toType)
+                        if (result !== null) {
+                            return unwrap(result)
+                        }
+                    }
+                } else {
+                    for (i in handlers.indices) {
+                        val result = handle(i, call, from, fromType, toType)
+                        if (result !== null) {
+                            table[key] = i
+                            return unwrap(result)
+                        }
+                    }
+                }
+                throw unsupported(from, fromType, toType)
+            }
+
+            /**
+             * Returns table of class whose class loader sees class loaders of the other classes, or null if types are
+             * not all classes or no such class.
+             */
+            private fun tableOf(from: Any?, fromType: Type?, toType: Type): MutableMap<DispatchKey, Int>? {
+                if (toType !is Class<*> || (fromType !== null && fromType !is Class<*>)) {
+                    return null
+                }
+                val fromClass = from?.javaClass
+                val fromTypeClass = fromType as Class<*>?
+                val owner = when {
+                    fromClass !== null && sees(fromClass, fromTypeClass) && sees(fromClass, toType) -> fromClass
+                    sees(toType, fromClass) && sees(toType, fromTypeClass) -> toType
+                    fromTypeClass !== null && sees(fromTypeClass, fromClass) && sees(fromTypeClass, toType) ->
+                        fromTypeClass
+                    else -> return null
+                }
+                return dispatchTables.get(owner)
+            }
+
+            private fun sees(owner: Class<*>, other: Class<*>?): Boolean {
+                if (other === null) {
+                    return true
+                }
+                val otherLoader = other.classLoader ?: return true
+                var loader = owner.classLoader
+                while (loader !== null) {
+                    if (loader === otherLoader) {
+                        return true
+                    }
+                    loader = loader.parent
+                }
+                return false
+            }
+
+            private fun handle(index: Int, call: Int, from: Any?, fromType: Type?, toType: Type): Any? {
+                val handler = handlers[index]
+                return when (call) {
+                    CLASS_CALL -> handler.convert(from, toType as Class<*>, this)
+                    TYPE_CALL -> handler.convert(from, toType, this)
+                    else -> handler.convert(from, fromType!!, toType, this)
+                }
+            }
+
+            private fun <T> unwrap(result: Any): T {
+                return if (result === Default.NULL) null.asAny() else result.asAny()
+            }
+
+            private fun unsupported(from: Any?, fromType: Type?, toType: Type): UnsupportedOperationException {
+                if (fromType === null) {
+                    return UnsupportedOperationException("Cannot convert $from to $toType.")
+                }
+                return UnsupportedOperationException("Cannot convert $fromType to $toType.")
+            }
+
+            /**
+             * Key of index of handler which accepted first: call, runtime class of source value (or null) and classes
+             * to convert.
+             */
+            private data class DispatchKey(
+                val call: Int,
+                val fromClass: Class<*>?,
+                val fromType: Type?,
+                val toType: Type,
+            )
+
+            companion object {
+                private const val CLASS_CALL = 0
+                private const val TYPE_CALL = 1
+                private const val FROM_TYPE_CALL = 2
             }
         }
     }
@@ -142,6 +288,18 @@ interface ConvertHandler {
      */
     fun convert(from: Any?, fromType: Type, toType: Type, converter: Converter): Any?
 
+    /**
+     * Returns whether this handler accepts or declines only by class of source value (or whether it is null) and
+     * types to convert, not by the value itself. Converter may skip handlers decided by type once they declined same
+     * class and types.
+     *
+     * Default: false.
+     */
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    @JvmDefault
+    val isDecidedByType: Boolean
+        @JvmName("isDecidedByType") get() = false
+
     companion object {
 
         @JvmField
@@ -159,6 +317,8 @@ interface ConvertHandler {
 
 object NopConvertHandler : ConvertHandler {
 
+    override val isDecidedByType: Boolean = true
+
     override fun convert(from: Any?, toType: Class<*>, converter: Converter): Any? {
         if (toType == Any::class.java) {
             return from.replaceNull()
@@ -222,6 +382,8 @@ abstract class AbstractClassConvertHandler : ConvertHandler {
 
 object CharsConvertHandler : AbstractClassConvertHandler() {
 
+    override val isDecidedByType: Boolean = true
+
     override fun convert(from: Any?, toType: Class<*>, converter: Converter): Any? {
         return when (toType) {
             String::class.java, CharSequence::class.java -> when (from) {
@@ -257,6 +419,8 @@ object CharsConvertHandler : AbstractClassConvertHandler() {
 
 object NumberAndPrimitiveConvertHandler : AbstractClassConvertHandler() {
 
+    override val isDecidedByType: Boolean = true
+
     override fun convert(from: Any?, toType: Class<*>, converter: Converter): Any? {
         return when {
             toType.isBooleanType -> from.toBoolean()
@@ -285,6 +449,8 @@ class DateTimeConvertHandler(
     private val localTimeFormatter: DateTimeFormatter,
 ) : AbstractClassConvertHandler() {
 
+    override val isDecidedByType: Boolean = true
+
     constructor() : this(
         dateFormat(),
         DateTimeFormatter.ISO_INSTANT,
@@ -344,6 +510,8 @@ abstract class AbstractTypeConvertHandler : ConvertHandler {
 
 object IterableConvertHandler : AbstractTypeConvertHandler() {
 
+    override val isDecidedByType: Boolean = true
+
     override fun convertNull(toType: Type, converter: Converter): Any {
         return Default.NULL
     }
@@ -468,6 +636,10 @@ open class BeanConvertHandler(
     private val beanResolver: BeanResolver = BeanResolver.DEFAULT
 ) : AbstractTypeConvertHandler() {
 
+    //Subclasses may decline by value
+    override val isDecidedByType: Boolean
+        get() = javaClass == BeanConvertHandler::class.java
+
     override fun convertNull(toType: Type, converter: Converter): Any {
         return Default.NULL
     }
@@ -2,6 +2,7 @@ package test.java.xyz.srclab.common.bean;
 
 import org.apache.commons.beanutils.BeanUtils;
 import org.testng.annotations.Test;
+import xyz.srclab.common.bean.BeanCopier;
 import xyz.srclab.common.bean.Beans;
 import xyz.srclab.common.test.TestLogger;
 import xyz.srclab.common.test.TestTask;
@@ -51,12 +52,18 @@ public class BeanPerformanceTest {
         a.setI7(7);
         a.setI8(8);
         long times = 50000000;
+        BeanCopier copier = Beans.compileCopier(PerformanceBean.class, PerformanceBean.class);
         Tests.testTasksParallel(
                 TestTask.newTask("BeanKit", times, () -> {
                     PerformanceBean b = new PerformanceBean();
                     Beans.copyProperties(a, b);
                     return null;
                 }),
+                TestTask.newTask("BeanCopier", times, () -> {
+                    PerformanceBean b = new PerformanceBean();
+                    copier.copy(a, b);
+                    return null;
+                }),
                 TestTask.newTask("Beanutils", times, () -> {
                     PerformanceBean b = new PerformanceBean();
                     try {
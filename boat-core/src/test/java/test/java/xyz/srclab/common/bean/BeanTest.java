@@ -5,13 +5,23 @@ import org.jetbrains.annotations.NotNull;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 import xyz.srclab.common.base.Anys;
+import xyz.srclab.common.base.NamingCase;
 import xyz.srclab.common.bean.*;
+import xyz.srclab.common.convert.Converter;
 import xyz.srclab.common.reflect.Types;
+import xyz.srclab.common.run.ExecutorServiceRunner;
+import xyz.srclab.common.run.Runner;
 import xyz.srclab.common.test.TestLogger;
 
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.reflect.Type;
 import java.math.BigDecimal;
 import java.nio.charset.Charset;
+import java.time.Duration;
+import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author sunqian
@@ -39,6 +49,22 @@ public class BeanTest {
         Assert.assertNotSame(beanType, beanType2);
     }
 
+    @Test
+    public void testResolveCache() {
+        BeanResolver beanResolver = BeanResolver.newBeanResolver(BeanResolveHandler.DEFAULTS, 1);
+        BeanType beanType = beanResolver.resolve(SimpleBean.class);
+        Assert.assertSame(beanResolver.resolve(SimpleBean.class), beanType);
+        Assert.assertNotSame(
+                BeanResolver.newBeanResolver(BeanResolveHandler.DEFAULTS).resolve(SimpleBean.class), beanType);
+
+        BeanType longB = beanResolver.resolve(Types.parameterizedType(B.class, Long.class));
+        Assert.assertSame(beanResolver.resolve(Types.parameterizedType(B.class, Long.class)), longB);
+        Assert.assertEquals(longB.getProperty("p1").type(), Long.class);
+        BeanType stringB = beanResolver.resolve(Types.parameterizedType(B.class, String.class));
+        Assert.assertEquals(stringB.getProperty("p1").type(), String.class);
+        Assert.assertSame(beanResolver.resolve(SimpleBean.class), beanType);
+    }
+
     @Test
     public void testSimpleBean() {
         SimpleBean a = new SimpleBean();
@@ -122,6 +148,60 @@ public class BeanTest {
         Assert.assertEquals(siMap.get("p1"), (Integer) 555);
         Assert.assertEquals(siMap.get("p2"), (Integer) 888);
         Assert.assertEquals(siMap.size(), 2);
+        //Lookups only see filtered entries, and put converts as setValue of entries
+        Assert.assertFalse(siMap.containsKey("p3"));
+        Assert.assertNull(siMap.get("p3"));
+        Assert.assertFalse(siMap.isEmpty());
+        Assert.assertTrue(Beans.asMap(simpleBean, copyOptions.withNameFilter(n -> false)).isEmpty());
+        Map<String, Object> siObjectMap = Anys.as(siMap);
+        Assert.expectThrows(UnsupportedOperationException.class, () -> siObjectMap.put("p3", 1));
+        siObjectMap.put("p2", "999");
+        Assert.assertEquals(simpleBean.getP2(), 999);
+        simpleBean.setP2(888);
+
+        PropertyIndex propertyIndex = Beans.resolve(SimpleBean.class).propertyIndex();
+        Assert.assertSame(Beans.resolve(SimpleBean.class).propertyIndex(), propertyIndex);
+        Assert.assertEquals(propertyIndex.size(), 4);
+        for (int i = 0; i < propertyIndex.size(); i++) {
+            Assert.assertEquals(propertyIndex.indexOf(new String(propertyIndex.nameAt(i))), i);
+            Assert.assertEquals(propertyIndex.propertyAt(i).name(), propertyIndex.nameAt(i));
+        }
+        Assert.assertEquals(propertyIndex.indexOf("p5"), -1);
+        Assert.assertEquals(propertyIndex.indexOf(null), -1);
+
+        Map<String, Object> copied = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> entry : simpleMap.entrySet()) {
+            copied.put(entry.getKey(), entry.getValue());
+        }
+        Assert.assertEquals(copied, new LinkedHashMap<>(simpleMap));
+        Assert.assertEquals(copied.get("p1"), "555");
+        Assert.assertEquals(copied.get("class"), SimpleBean.class);
+        Iterator<Map.Entry<String, Object>> iterator = simpleMap.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Object> entry = iterator.next();
+            if (entry.getKey().equals("p2")) {
+                entry.setValue(777);
+            }
+        }
+        Assert.assertEquals(simpleBean.getP2(), 777);
+        Assert.expectThrows(NoSuchElementException.class, iterator::next);
+
+        Map<String, Object> snapshot = Beans.asSnapshotMap(simpleBean);
+        simpleBean.setP1("666");
+        Assert.assertEquals(snapshot.get("p1"), "555");
+        Assert.assertEquals(snapshot.get("p2"), 777);
+        Assert.assertEquals(snapshot.size(), 4);
+        Map<String, Integer> siSnapshot = Anys.as(Beans.asSnapshotMap(simpleBean, copyOptions));
+        Assert.assertEquals(siSnapshot, new HashMap<>(siMap));
+        Assert.assertEquals(siSnapshot.get("p1"), (Integer) 666);
+        Assert.assertFalse(siSnapshot.containsKey("p3"));
+        Assert.assertNull(siSnapshot.get("p3"));
+        List<Map.Entry<String, Integer>> snapshotEntries = new ArrayList<>(siSnapshot.entrySet());
+        Assert.assertEquals(
+                new HashSet<>(Arrays.asList(snapshotEntries.get(0).getKey(), snapshotEntries.get(1).getKey())),
+                new HashSet<>(Arrays.asList("p1", "p2"))
+        );
+        Assert.assertEquals(new HashSet<>(siSnapshot.entrySet()).size(), 2);
     }
 
     @Test
@@ -152,6 +232,565 @@ public class BeanTest {
         Assert.assertEquals(b.getS().getS2(), 234d);
     }
 
+    @Test
+    public void testCompileCopier() {
+        Assert.assertSame(
+                Beans.compileCopier(SimpleBean.class, SimpleBean.class),
+                Beans.compileCopier(SimpleBean.class, SimpleBean.class)
+        );
+        Assert.assertEquals(
+                BeanResolver.CopyOptions.DEFAULT.withConverter(Converter.DEFAULT),
+                BeanResolver.CopyOptions.DEFAULT.withConverter(Converter.DEFAULT)
+        );
+        Assert.assertSame(
+                Beans.compileCopier(SimpleBean.class, SimpleBean.class,
+                        BeanResolver.CopyOptions.DEFAULT.withConverter(Converter.DEFAULT)),
+                Beans.compileCopier(SimpleBean.class, SimpleBean.class,
+                        BeanResolver.CopyOptions.DEFAULT.withConverter(Converter.DEFAULT))
+        );
+
+        SimpleBean a = new SimpleBean();
+        a.setP1("123");
+        a.setP2(6);
+        a.setP3(Arrays.asList("1", "2", "3"));
+        BeanCopier copier = Beans.compileCopier(SimpleBean.class, SimpleBean.class);
+        SimpleBean b = copier.copy(a, new SimpleBean());
+        Assert.assertEquals(b.getP1(), a.getP1());
+        Assert.assertEquals(b.getP2(), a.getP2());
+        Assert.assertEquals(b.getP3(), a.getP3());
+
+        a.setP1(null);
+        BeanCopier ignoreNullCopier =
+                Beans.compileCopier(SimpleBean.class, SimpleBean.class, BeanResolver.CopyOptions.IGNORE_NULL);
+        ignoreNullCopier.copy(a, b);
+        Assert.assertEquals(b.getP1(), "123");
+        BeanCopier p2Copier = Beans.compileCopier(SimpleBean.class, SimpleBean.class,
+                BeanResolver.CopyOptions.DEFAULT.withNameFilter(n -> "p2".equals(n)));
+        a.setP2(7);
+        a.setP3(null);
+        p2Copier.copy(a, b);
+        Assert.assertEquals(b.getP1(), "123");
+        Assert.assertEquals(b.getP2(), 7);
+        Assert.assertEquals(b.getP3(), Arrays.asList("1", "2", "3"));
+
+        S1 s1 = new S1();
+        s1.setS1("123");
+        s1.setS2(234);
+        S2 s2 = Beans.compileCopier(S1.class, S2.class).copy(s1, new S2());
+        Assert.assertEquals(s2.getS1(), 123);
+        Assert.assertEquals(s2.getS2(), 234d);
+
+        //Options with capturing lambdas are copied by one-off copiers until seen again
+        BeanResolver resolver = BeanResolver.newBeanResolver(BeanResolver.DEFAULT.resolveHandlers());
+        a.setP1("x");
+        for (int i = 0; i < 3; i++) {
+            String name = i % 2 == 0 ? "p1" : "p2";
+            SimpleBean c = resolver.copyProperties(a, new SimpleBean(),
+                    BeanResolver.CopyOptions.DEFAULT.withNameFilter(n -> name.equals(n)));
+            Assert.assertEquals(c.getP1(), i % 2 == 0 ? "x" : null);
+            Assert.assertEquals(c.getP2(), i % 2 == 0 ? 0 : 7);
+        }
+
+        //Options seen once don't keep a repeated option set from being cached
+        for (int i = 0; i < 100; i++) {
+            int index = i;
+            resolver.copyProperties(a, new SimpleBean(),
+                    BeanResolver.CopyOptions.DEFAULT.withNameFilter(n -> index >= 0));
+        }
+        AtomicInteger filterCount = new AtomicInteger();
+        BeanResolver.CopyOptions repeated = BeanResolver.CopyOptions.DEFAULT.withNameFilter(n -> {
+            filterCount.incrementAndGet();
+            return true;
+        });
+        resolver.copyProperties(a, new SimpleBean(), repeated);
+        resolver.copyProperties(a, new SimpleBean(), repeated);
+        int compiledCount = filterCount.get();
+        SimpleBean cached = resolver.copyProperties(a, new SimpleBean(), repeated);
+        //Name filter is applied only when a copier is compiled
+        Assert.assertEquals(filterCount.get(), compiledCount);
+        Assert.assertEquals(cached.getP1(), "x");
+    }
+
+    @Test
+    public void testCopyAll() {
+        List<Object> sources = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            SimpleBean simpleBean = new SimpleBean();
+            simpleBean.setP1("" + i);
+            simpleBean.setP2(i);
+            sources.add(simpleBean);
+        }
+        Map<String, Object> mapSource = new HashMap<>();
+        mapSource.put("p1", "map");
+        mapSource.put("p2", "-1");
+        sources.add(mapSource);
+
+        List<SimpleBean> copied = Beans.copyAll(sources, SimpleBean::new);
+        Assert.assertEquals(copied.size(), 5001);
+        for (int i = 0; i < 5000; i++) {
+            Assert.assertEquals(copied.get(i).getP1(), "" + i);
+            Assert.assertEquals(copied.get(i).getP2(), i);
+        }
+        Assert.assertEquals(copied.get(5000).getP1(), "map");
+        Assert.assertEquals(copied.get(5000).getP2(), -1);
+
+        ExecutorServiceRunner runner = Runner.newFixedThreadPoolRunner(3);
+        List<SimpleBean> mapped = Beans.mapAll(sources.subList(0, 5000), SimpleBean.class,
+                BeanResolver.CopyOptions.DEFAULT, runner);
+        runner.shutdown();
+        Assert.assertEquals(mapped.size(), 5000);
+        for (int i = 0; i < 5000; i++) {
+            Assert.assertEquals(mapped.get(i).getP1(), "" + i);
+            Assert.assertEquals(mapped.get(i).getP2(), i);
+        }
+        Assert.assertEquals(Beans.mapAll(Collections.emptyList(), SimpleBean.class), Collections.emptyList());
+        Assert.expectThrows(NullPointerException.class,
+                () -> Beans.mapAll(Arrays.asList(new SimpleBean(), null), SimpleBean.class));
+    }
+
+    @Test
+    public void testGeneratedCopier() {
+        PrimitiveBean a = new PrimitiveBean();
+        a.setZ(true);
+        a.setB((byte) 1);
+        a.setC('c');
+        a.setS((short) 2);
+        a.setI(3);
+        a.setJ(4L);
+        a.setF(5.5f);
+        a.setD(6.5);
+        a.setJs(new long[]{7L, 8L});
+        a.setStr("9");
+
+        BeanCopier generatedCopier = BeanCopier.newBeanCopier(BeanResolver.DEFAULT,
+                PrimitiveBean.class, PrimitiveBean.class, BeanResolver.CopyOptions.DEFAULT);
+        BeanCopier invokerCopier = BeanCopier.newBeanCopier(BeanResolver.DEFAULT,
+                PrimitiveBean.class, PrimitiveBean.class, BeanResolver.CopyOptions.DEFAULT, false);
+        Assert.assertTrue(generatedCopier.isGenerated());
+        Assert.assertFalse(invokerCopier.isGenerated());
+        for (BeanCopier copier : Arrays.asList(generatedCopier, invokerCopier)) {
+            PrimitiveBean b = copier.copy(a, new PrimitiveBean());
+            Assert.assertTrue(b.getZ());
+            Assert.assertEquals(b.getB(), (byte) 1);
+            Assert.assertEquals(b.getC(), 'c');
+            Assert.assertEquals(b.getS(), (short) 2);
+            Assert.assertEquals(b.getI(), 3);
+            Assert.assertEquals(b.getJ(), 4L);
+            Assert.assertEquals(b.getF(), 5.5f);
+            Assert.assertEquals(b.getD(), 6.5);
+            Assert.assertEquals(b.getJs(), new long[]{7L, 8L});
+            Assert.assertEquals(b.getStr(), "9");
+        }
+
+        //Only cached copiers are generated
+        Assert.assertTrue(Beans.compileCopier(PrimitiveBean.class, PrimitiveBean.class).isGenerated());
+        Assert.assertFalse(Beans.compileCopier(PrimitiveBean.class, PrimitiveBean.class,
+                new BeanResolver.CopyOptions() {
+                }).isGenerated());
+
+        PrimitiveBean c = new PrimitiveBean();
+        c.setStr("10");
+        BeanCopier ignoreNullCopier = BeanCopier.newBeanCopier(BeanResolver.DEFAULT,
+                PrimitiveBean.class, PrimitiveBean.class, BeanResolver.CopyOptions.IGNORE_NULL);
+        a.setStr(null);
+        a.setJs(null);
+        Assert.assertTrue(ignoreNullCopier.isGenerated());
+        ignoreNullCopier.copy(a, c);
+        Assert.assertEquals(c.getStr(), "10");
+        Assert.assertEquals(c.getI(), 3);
+
+        //Built-in filters are recognized by identity of themselves, not of options
+        Assert.assertTrue(BeanCopier.newBeanCopier(BeanResolver.DEFAULT, PrimitiveBean.class, PrimitiveBean.class,
+                BeanResolver.CopyOptions.DEFAULT.withFromValueFilter(
+                        BeanResolver.CopyOptions.IGNORE_NULL.fromValueFilter())).isGenerated());
+        Assert.assertFalse(BeanCopier.newBeanCopier(BeanResolver.DEFAULT, PrimitiveBean.class, PrimitiveBean.class,
+                BeanResolver.CopyOptions.DEFAULT.withFromValueFilter((n, nt, vt, v) -> v != null)).isGenerated());
+
+        //Properties copied by generated class are written first, then others, both in order of properties
+        List<String> order = new ArrayList<>(Beans.resolve(OrderSource.class).properties().keySet());
+        order.retainAll(Arrays.asList("a", "b", "c"));
+        List<String> generatedOrder = new ArrayList<>(order);
+        generatedOrder.remove("b");
+        generatedOrder.add("b");
+        OrderSource orderSource = new OrderSource();
+        BeanCopier orderedCopier = BeanCopier.newBeanCopier(BeanResolver.DEFAULT,
+                OrderSource.class, OrderTarget.class, BeanResolver.CopyOptions.DEFAULT);
+        Assert.assertTrue(orderedCopier.isGenerated());
+        Assert.assertEquals(orderedCopier.copy(orderSource, new OrderTarget()).writes, generatedOrder);
+        BeanCopier orderedInvokerCopier = BeanCopier.newBeanCopier(BeanResolver.DEFAULT,
+                OrderSource.class, OrderTarget.class, BeanResolver.CopyOptions.DEFAULT, false);
+        Assert.assertEquals(orderedInvokerCopier.copy(orderSource, new OrderTarget()).writes, order);
+    }
+
+    @Test
+    public void testPrimitiveAccessors() throws Exception {
+        PrimitiveBean a = new PrimitiveBean();
+        BeanType beanType = Beans.resolve(PrimitiveBean.class);
+        beanType.getProperty("z").setBoolean(a, true);
+        beanType.getProperty("b").setByte(a, (byte) 1);
+        beanType.getProperty("c").setChar(a, 'c');
+        beanType.getProperty("s").setShort(a, (short) 2);
+        beanType.getProperty("i").setInt(a, 3);
+        beanType.getProperty("j").setLong(a, 4L);
+        beanType.getProperty("f").setFloat(a, 5.5f);
+        beanType.getProperty("d").setDouble(a, 6.5);
+        Assert.assertTrue(beanType.getProperty("z").getBoolean(a));
+        Assert.assertEquals(beanType.getProperty("b").getByte(a), (byte) 1);
+        Assert.assertEquals(beanType.getProperty("c").getChar(a), 'c');
+        Assert.assertEquals(beanType.getProperty("s").getShort(a), (short) 2);
+        Assert.assertEquals(beanType.getProperty("i").getInt(a), 3);
+        Assert.assertEquals(beanType.getProperty("j").getLong(a), 4L);
+        Assert.assertEquals(beanType.getProperty("f").getFloat(a), 5.5f);
+        Assert.assertEquals(beanType.getProperty("d").getDouble(a), 6.5);
+        Assert.assertEquals(a.getI(), 3);
+        Assert.assertEquals(a.getD(), 6.5);
+
+        //Generated descriptor overrides primitive accessors, values are not boxed
+        DescribedBean describedBean = new DescribedBean();
+        PropertyType p2 = Beans.resolve(DescribedBean.class).getProperty("p2");
+        p2.setInt(describedBean, 66);
+        Assert.assertEquals(p2.getInt(describedBean), 66);
+        Assert.assertEquals(describedBean.getP2(), 66);
+
+        //Boxed by default implementations of descriptor which only implements getValue and setValue
+        BeanDescriptor boxing = new BeanDescriptor() {
+            @Override
+            public Class<?> beanClass() {
+                return DescribedBean.class;
+            }
+
+            @Override
+            public int propertyCount() {
+                return 1;
+            }
+
+            @Override
+            public String accessorName(int index) {
+                return "P2";
+            }
+
+            @Override
+            public Type propertyType(int index) {
+                return int.class;
+            }
+
+            @Override
+            public boolean isReadable(int index) {
+                return true;
+            }
+
+            @Override
+            public boolean isWriteable(int index) {
+                return true;
+            }
+
+            @Override
+            public Object getValue(Object bean, int index) {
+                return ((DescribedBean) bean).getP2();
+            }
+
+            @Override
+            public void setValue(Object bean, int index, Object value) {
+                ((DescribedBean) bean).setP2((Integer) value);
+            }
+        };
+        Assert.assertEquals(
+                boxing.getClass().getMethod("getInt", Object.class, int.class).getDeclaringClass(),
+                BeanDescriptor.class
+        );
+        boxing.setInt(describedBean, 0, 77);
+        Assert.assertEquals(describedBean.getP2(), 77);
+        Assert.assertEquals(boxing.getInt(describedBean, 0), 77);
+        Assert.assertEquals(boxing.propertyName(0), "p2");
+    }
+
+    @Test
+    public void testCopyChanged() {
+        PrimitiveBean a = new PrimitiveBean();
+        a.setI(3);
+        a.setD(Double.NaN);
+        a.setStr("str");
+        BeanSnapshot baseline = Beans.snapshot(a);
+        Assert.assertEquals(baseline.getValue("i"), 3);
+        Assert.assertEquals(baseline.getValue("str"), "str");
+        Assert.assertTrue(baseline.changedProperties(a).isEmpty());
+
+        a.setI(4);
+        a.setStr(new String("str"));
+        BitSet changed = baseline.changedProperties(a);
+        Assert.assertEquals(changed.cardinality(), 1);
+        Assert.assertEquals(baseline.propertyIndex().nameAt(changed.nextSetBit(0)), "i");
+
+        PrimitiveBean b = new PrimitiveBean();
+        BeanSnapshot next = Beans.copyChanged(a, b, baseline);
+        Assert.assertEquals(b.getI(), 4);
+        Assert.assertNull(b.getStr());
+        Assert.assertEquals(b.getD(), 0.0);
+        Assert.assertEquals(next.getValue("i"), 4);
+
+        b.setI(100);
+        a.setJ(5L);
+        BeanSnapshot last = Beans.copyChanged(a, b, next);
+        Assert.assertEquals(b.getI(), 100);
+        Assert.assertEquals(b.getJ(), 5L);
+        Assert.assertTrue(last.changedProperties(a).isEmpty());
+        Assert.expectThrows(IllegalArgumentException.class, () -> last.changedProperties(new SimpleBean()));
+    }
+
+    @Test
+    public void testDeepCopy() {
+        SimpleBean simpleBean = new SimpleBean();
+        simpleBean.setP1("p1");
+        simpleBean.setP3(new ArrayList<>(Arrays.asList("1", "2")));
+        DeepBean deepBean = new DeepBean();
+        deepBean.setDate(LocalDate.of(2020, 1, 1));
+        deepBean.setInts(new int[]{1, 2, 3});
+        deepBean.setBeans(new ArrayList<>(Collections.singletonList(simpleBean)));
+        deepBean.setMap(new TreeMap<>(Collections.singletonMap("k", new ArrayList<>(Arrays.asList(1, 2)))));
+
+        DeepBean copy = Beans.deepCopy(deepBean);
+        Assert.assertNotSame(copy, deepBean);
+        Assert.assertSame(copy.getDate(), deepBean.getDate());
+        Assert.assertEquals(copy.getInts(), deepBean.getInts());
+        Assert.assertNotSame(copy.getInts(), deepBean.getInts());
+        Assert.assertEquals(copy.getBeans().size(), 1);
+        Assert.assertNotSame(copy.getBeans().get(0), simpleBean);
+        Assert.assertEquals(copy.getBeans().get(0).getP1(), "p1");
+        Assert.assertEquals(copy.getBeans().get(0).getP3(), simpleBean.getP3());
+        Assert.assertFalse(copy.getBeans().get(0).getP3() == simpleBean.getP3());
+        Assert.assertTrue(copy.getMap() instanceof TreeMap);
+        Assert.assertEquals(copy.getMap(), deepBean.getMap());
+        Assert.assertFalse(copy.getMap().get("k") == deepBean.getMap().get("k"));
+        Assert.assertNull(copy.getAny());
+
+        //Cycles through declared types
+        DeepNode a = new DeepNode();
+        DeepNode b = new DeepNode();
+        a.setName("a");
+        a.setNext(b);
+        b.setName("b");
+        b.setNext(a);
+        a.setChildren(Arrays.asList(b, b));
+        DeepNode nodeCopy = Beans.deepCopy(a);
+        Assert.assertEquals(nodeCopy.getName(), "a");
+        Assert.assertEquals(nodeCopy.getNext().getName(), "b");
+        Assert.assertSame(nodeCopy.getNext().getNext(), nodeCopy);
+        Assert.assertSame(nodeCopy.getChildren().get(0), nodeCopy.getNext());
+        Assert.assertSame(nodeCopy.getChildren().get(1), nodeCopy.getNext());
+
+        //Cycles through undeclared types
+        deepBean.setAny(deepBean);
+        List<Object> selfList = new ArrayList<>();
+        selfList.add(selfList);
+        selfList.add(deepBean);
+        copy.setAny(selfList);
+        DeepBean cycleCopy = Beans.deepCopy(copy);
+        List<Object> selfListCopy = Anys.as(cycleCopy.getAny());
+        Assert.assertSame(selfListCopy.get(0), selfListCopy);
+        DeepBean deepBeanCopy = Anys.as(selfListCopy.get(1));
+        Assert.assertSame(deepBeanCopy.getAny(), deepBeanCopy);
+        Assert.assertEquals(deepBeanCopy.getBeans().get(0).getP1(), "p1");
+
+        //Comparators are kept
+        PriorityQueue<String> queue = new PriorityQueue<>(Comparator.reverseOrder());
+        queue.addAll(Arrays.asList("1", "3", "2"));
+        PriorityQueue<String> queueCopy = Beans.deepCopy(queue);
+        Assert.assertSame(queueCopy.comparator(), queue.comparator());
+        Assert.assertEquals(queueCopy.poll(), "3");
+        SubTreeMap subMap = new SubTreeMap(Comparator.reverseOrder());
+        subMap.put("1", "1");
+        subMap.put("2", "2");
+        SubTreeMap subMapCopy = Beans.deepCopy(subMap);
+        Assert.assertSame(subMapCopy.comparator(), subMap.comparator());
+        Assert.assertEquals(subMapCopy.firstKey(), "2");
+
+        Assert.assertSame(Beans.deepCopy("str"), "str");
+        Assert.assertNull(Beans.deepCopy(null));
+        Assert.expectThrows(IllegalArgumentException.class, () -> Beans.deepCopy(new S1Holder(new S1())));
+    }
+
+    @Test
+    public void testPreResolve() throws Exception {
+        BeanResolver beanResolver = BeanResolver.newBeanResolver(BeanResolver.DEFAULT.resolveHandlers());
+        ExecutorServiceRunner runner = Runner.newFixedThreadPoolRunner(2);
+        PreResolving preResolving = beanResolver.preResolve(
+                Arrays.asList(SimpleBean.class, Types.parameterizedType(B.class, String.class)), runner);
+        Assert.assertTrue(preResolving.await(Duration.ofSeconds(10)));
+        Assert.assertTrue(preResolving.isDone());
+        Assert.assertEquals(preResolving.resolvedCount(), 2);
+        Assert.assertEquals(preResolving.failedCount(), 0);
+        logger.log("preResolving: {}", preResolving);
+        Assert.assertEquals(
+                beanResolver.resolvedClassNames(),
+                new TreeSet<>(Arrays.asList(SimpleBean.class.getName(), B.class.getName()))
+        );
+
+        //Classes directory and jar
+        PreResolving packageResolving = beanResolver.preResolve(BeanTest.class.getPackage().getName(), runner);
+        packageResolving.await();
+        Assert.assertTrue(beanResolver.resolvedClassNames().contains(DeepBean.class.getName()));
+        Assert.assertEquals(packageResolving.resolvedCount() + packageResolving.failedCount(), packageResolving.total());
+        Assert.assertTrue(beanResolver.preResolve(Test.class.getPackage().getName(), runner).await().total() > 0);
+
+        StringWriter record = new StringWriter();
+        beanResolver.writeResolvedClassNames(record);
+        String recorded = record + "# comment\nxyz.srclab.NoSuchClass\n";
+        BeanResolver replayResolver = BeanResolver.newBeanResolver(BeanResolver.DEFAULT.resolveHandlers());
+        PreResolving replaying = replayResolver.preResolveRecorded(new StringReader(recorded), runner).await();
+        Assert.assertEquals(replaying.failures().keySet(), Collections.singleton("xyz.srclab.NoSuchClass"));
+        Assert.assertEquals(replayResolver.resolvedClassNames(), beanResolver.resolvedClassNames());
+
+        //Duplicate failures and rejected tasks
+        String duplicates = "xyz.srclab.NoSuchClass\nxyz.srclab.NoSuchClass\n";
+        PreResolving duplicateResolving = replayResolver.preResolveRecorded(new StringReader(duplicates), runner);
+        Assert.assertTrue(duplicateResolving.await(Duration.ofSeconds(10)));
+        Assert.assertTrue(duplicateResolving.isDone());
+        Assert.assertEquals(duplicateResolving.failedCount(), 2);
+        Assert.assertEquals(duplicateResolving.failures().size(), 1);
+
+        //Virtual machine error fails the type and types not taken yet rather than hangs
+        BeanResolver overflowResolver = BeanResolver.newBeanResolver(Collections.singletonList(context -> {
+            throw new StackOverflowError();
+        }));
+        ExecutorServiceRunner singleRunner = Runner.newSingleThreadRunner();
+        PreResolving overflowResolving = overflowResolver.preResolve(
+                Arrays.asList(SimpleBean.class, B.class, DeepBean.class), singleRunner);
+        Assert.assertTrue(overflowResolving.await(Duration.ofSeconds(10)));
+        Assert.assertTrue(overflowResolving.isDone());
+        Assert.assertEquals(overflowResolving.failedCount(), 3);
+        Assert.assertTrue(overflowResolving.failures().get(SimpleBean.class.getName()) instanceof StackOverflowError);
+        singleRunner.shutdown();
+        runner.shutdown();
+        PreResolving rejected = replayResolver.preResolve(Collections.singletonList(SimpleBean.class), runner);
+        Assert.assertTrue(rejected.await(Duration.ofSeconds(10)));
+        Assert.assertEquals(rejected.failedCount(), 1);
+    }
+
+    @Test
+    public void testLambdaAccessors() {
+        BeanResolver resolver = BeanResolver.newBeanResolver(
+                Collections.singletonList(LambdaBeanStyleBeanResolveHandler.INSTANCE));
+        BeanType beanType = resolver.resolve(PrimitiveBean.class);
+        PrimitiveBean a = new PrimitiveBean();
+        beanType.getProperty("i").setValue(a, 9);
+        beanType.getProperty("d").setValue(a, 9.5);
+        beanType.getProperty("str").setValue(a, "9");
+        Assert.assertEquals(a.getI(), 9);
+        Assert.assertEquals(a.getD(), 9.5);
+        Assert.assertEquals(a.getStr(), "9");
+        Assert.assertEquals(beanType.getProperty("i").<Integer>getValue(a), (Integer) 9);
+        Assert.assertEquals(beanType.getProperty("d").<Double>getValue(a), (Double) 9.5);
+        Assert.assertEquals(beanType.getProperty("str").<String>getValue(a), "9");
+        Assert.assertEquals(beanType.getProperty("str").<String>setValue(a, "10"), "9");
+        //Lambda calls getter directly, while invokers call it by reflection or method handles
+        Assert.assertFalse(isCalledByInvoker(a.strTrace));
+        BeanResolver.DEFAULT.resolve(PrimitiveBean.class).getProperty("str").getValue(a);
+        Assert.assertTrue(isCalledByInvoker(a.strTrace));
+
+        PrimitiveBean b = resolver.copyProperties(a, new PrimitiveBean());
+        Assert.assertEquals(b.getI(), 9);
+        Assert.assertEquals(b.getStr(), "10");
+    }
+
+    //Checks frames between the getter and this test, frames of test runner are not counted
+    private static boolean isCalledByInvoker(StackTraceElement[] trace) {
+        for (int i = 1; i < trace.length; i++) {
+            String className = trace[i].getClassName();
+            if (className.equals(BeanTest.class.getName())) {
+                return false;
+            }
+            if (className.startsWith("xyz.srclab.common.invoke.")
+                    || className.startsWith("java.lang.reflect.")
+                    || className.startsWith("jdk.internal.reflect.")
+                    || className.startsWith("sun.reflect.")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void testBeanDescriptor() throws Exception {
+        BeanDescriptor descriptor = BeanDescriptor.forClass(DescribedBean.class);
+        Assert.assertNotNull(descriptor);
+        Assert.assertEquals(descriptor.beanClass(), DescribedBean.class);
+        Assert.assertNull(BeanDescriptor.forClass(SimpleBean.class));
+        for (int i = 0; i < descriptor.propertyCount(); i++) {
+            Assert.assertEquals(descriptor.propertyName(i),
+                    NamingCase.UPPER_CAMEL.convertTo(descriptor.accessorName(i), NamingCase.LOWER_CAMEL));
+        }
+        Assert.assertEquals(
+                descriptor.getClass().getMethod("propertyName", int.class).getDeclaringClass(),
+                descriptor.getClass()
+        );
+
+        BeanType beanType = BeanResolver.DEFAULT.resolve(DescribedBean.class);
+        Assert.assertEquals(beanType.properties().size(), 8);
+        for (String name : Arrays.asList("p1", "p2", "p3", "p4", "p5", "readOnly", "class")) {
+            String getterName = "get" + name.substring(0, 1).toUpperCase() + name.substring(1);
+            Assert.assertEquals(
+                    beanType.getProperty(name).type(),
+                    DescribedBean.class.getMethod(getterName).getGenericReturnType()
+            );
+        }
+        Assert.assertEquals(beanType.getProperty("writeOnly").type(), String.class);
+        Assert.assertFalse(beanType.getProperty("readOnly").isWriteable());
+        Assert.assertFalse(beanType.getProperty("writeOnly").isReadable());
+        Assert.assertNull(beanType.getProperty("mismatched"));
+        Assert.assertEquals(beanType.getProperty("p1").getterMethod(), DescribedBean.class.getMethod("getP1"));
+        Assert.assertEquals(
+                beanType.getProperty("p2").setterMethod(), DescribedBean.class.getMethod("setP2", int.class));
+        Assert.assertNull(beanType.getProperty("readOnly").setterMethod());
+
+        DescribedBean a = new DescribedBean();
+        beanType.getProperty("p1").setValue(a, "p1");
+        beanType.getProperty("p2").setValue(a, 2);
+        beanType.getProperty("writeOnly").setValue(a, "w");
+        Assert.assertEquals(a.getP1(), "p1");
+        Assert.assertEquals(a.getP2(), 2);
+        Assert.assertEquals(a.writeOnly(), "w");
+        Assert.assertEquals(beanType.getProperty("p2").<Integer>getValue(a), (Integer) 2);
+        Assert.assertEquals(beanType.getProperty("readOnly").<String>getValue(a), "readOnly");
+        Assert.assertEquals(beanType.getProperty("p2").getInt(a), 2);
+        DescribedBean c = new DescribedBean();
+        beanType.getProperty("p2").setInt(c, 3);
+        Assert.assertEquals(c.getP2(), 3);
+        Assert.assertEquals(
+                descriptor.getClass().getMethod("getInt", Object.class, int.class).getDeclaringClass(),
+                descriptor.getClass()
+        );
+        Assert.assertTrue(Beans.compileCopier(DescribedBean.class, DescribedBean.class).isGenerated());
+
+        a.setP3(Arrays.asList("1", "2"));
+        a.setP4(new long[]{4L});
+        DescribedBean b = Beans.copyProperties(a, new DescribedBean());
+        Assert.assertEquals(b.getP1(), "p1");
+        Assert.assertEquals(b.getP2(), 2);
+        Assert.assertEquals(b.getP3(), Arrays.asList("1", "2"));
+        Assert.assertEquals(b.getP4(), new long[]{4L});
+        Map<String, Object> map = Beans.asMap(a);
+        Assert.assertEquals(map.get("p1"), "p1");
+        Assert.assertEquals(map.get("readOnly"), "readOnly");
+
+        //Overloaded setters are resolved same by descriptor and by reflection
+        Assert.assertNotNull(BeanDescriptor.forClass(OverloadedBean.class));
+        Assert.assertNull(BeanDescriptor.forClass(PlainOverloadedBean.class));
+        BeanType described = BeanResolver.DEFAULT.resolve(OverloadedBean.class);
+        BeanType reflective = BeanResolver.DEFAULT.resolve(PlainOverloadedBean.class);
+        Assert.assertEquals(described.properties().keySet(), reflective.properties().keySet());
+        Assert.assertEquals(
+                reflective.getProperty("value").setterMethod(),
+                OverloadedBean.class.getMethod("setValue", String.class)
+        );
+        Assert.assertNull(described.getProperty("writeOnly"));
+        OverloadedBean overloaded = new OverloadedBean();
+        described.getProperty("value").setValue(overloaded, "v1");
+        Assert.assertEquals(overloaded.getValue(), "v1");
+        PlainOverloadedBean plainOverloaded = new PlainOverloadedBean();
+        reflective.getProperty("value").setValue(plainOverloaded, "v2");
+        Assert.assertEquals(plainOverloaded.getValue(), "v2");
+    }
+
     public interface I1<T1> {
 
         T1 getI1();
@@ -391,4 +1030,242 @@ public class BeanTest {
             this.s = s;
         }
     }
+
+    public static class PrimitiveBean {
+        private boolean z;
+        private byte b;
+        private char c;
+        private short s;
+        private int i;
+        private long j;
+        private float f;
+        private double d;
+        private long[] js;
+        private String str;
+        private StackTraceElement[] strTrace;
+
+        public boolean getZ() {
+            return z;
+        }
+
+        public void setZ(boolean z) {
+            this.z = z;
+        }
+
+        public byte getB() {
+            return b;
+        }
+
+        public void setB(byte b) {
+            this.b = b;
+        }
+
+        public char getC() {
+            return c;
+        }
+
+        public void setC(char c) {
+            this.c = c;
+        }
+
+        public short getS() {
+            return s;
+        }
+
+        public void setS(short s) {
+            this.s = s;
+        }
+
+        public int getI() {
+            return i;
+        }
+
+        public void setI(int i) {
+            this.i = i;
+        }
+
+        public long getJ() {
+            return j;
+        }
+
+        public void setJ(long j) {
+            this.j = j;
+        }
+
+        public float getF() {
+            return f;
+        }
+
+        public void setF(float f) {
+            this.f = f;
+        }
+
+        public double getD() {
+            return d;
+        }
+
+        public void setD(double d) {
+            this.d = d;
+        }
+
+        public long[] getJs() {
+            return js;
+        }
+
+        public void setJs(long[] js) {
+            this.js = js;
+        }
+
+        public String getStr() {
+            strTrace = new Throwable().getStackTrace();
+            return str;
+        }
+
+        public void setStr(String str) {
+            this.str = str;
+        }
+    }
+
+    public static class DeepBean {
+
+        private LocalDate date;
+        private int[] ints;
+        private List<SimpleBean> beans;
+        private Map<String, List<Integer>> map;
+        private Object any;
+
+        public LocalDate getDate() {
+            return date;
+        }
+
+        public void setDate(LocalDate date) {
+            this.date = date;
+        }
+
+        public int[] getInts() {
+            return ints;
+        }
+
+        public void setInts(int[] ints) {
+            this.ints = ints;
+        }
+
+        public List<SimpleBean> getBeans() {
+            return beans;
+        }
+
+        public void setBeans(List<SimpleBean> beans) {
+            this.beans = beans;
+        }
+
+        public Map<String, List<Integer>> getMap() {
+            return map;
+        }
+
+        public void setMap(Map<String, List<Integer>> map) {
+            this.map = map;
+        }
+
+        public Object getAny() {
+            return any;
+        }
+
+        public void setAny(Object any) {
+            this.any = any;
+        }
+    }
+
+    public static class DeepNode {
+
+        private String name;
+        private DeepNode next;
+        private List<DeepNode> children;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public DeepNode getNext() {
+            return next;
+        }
+
+        public void setNext(DeepNode next) {
+            this.next = next;
+        }
+
+        public List<DeepNode> getChildren() {
+            return children;
+        }
+
+        public void setChildren(List<DeepNode> children) {
+            this.children = children;
+        }
+    }
+
+    public static class SubTreeMap extends TreeMap<String, String> {
+
+        public SubTreeMap() {
+        }
+
+        public SubTreeMap(Comparator<? super String> comparator) {
+            super(comparator);
+        }
+    }
+
+    public static class OrderSource {
+
+        public String getA() {
+            return "a";
+        }
+
+        public Integer getB() {
+            return 2;
+        }
+
+        public String getC() {
+            return "c";
+        }
+    }
+
+    public static class OrderTarget {
+
+        private final List<String> writes = new ArrayList<>();
+
+        public void setA(String a) {
+            writes.add("a");
+        }
+
+        public void setB(Long b) {
+            writes.add("b");
+        }
+
+        public void setC(String c) {
+            writes.add("c");
+        }
+    }
+
+    //Same methods as OverloadedBean, but without generated descriptor
+    public static class PlainOverloadedBean extends OverloadedBean {
+    }
+
+    public static class S1Holder {
+
+        private S1 s1;
+
+        public S1Holder(S1 s1) {
+            this.s1 = s1;
+        }
+
+        public S1 getS1() {
+            return s1;
+        }
+
+        public void setS1(S1 s1) {
+            this.s1 = s1;
+        }
+    }
 }
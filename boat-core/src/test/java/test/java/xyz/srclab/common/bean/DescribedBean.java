@@ -0,0 +1,79 @@
+package test.java.xyz.srclab.common.bean;
+
+import xyz.srclab.annotations.JavaBean;
+
+import java.util.List;
+import java.util.Map;
+
+@JavaBean
+public class DescribedBean {
+
+    private String p1;
+    private int p2;
+    private List<String> p3;
+    private long[] p4;
+    private Map<String, ? extends Number> p5;
+    private String readOnly = "readOnly";
+    private String writeOnly;
+    private String mismatched;
+
+    public String getP1() {
+        return p1;
+    }
+
+    public void setP1(String p1) {
+        this.p1 = p1;
+    }
+
+    public int getP2() {
+        return p2;
+    }
+
+    public void setP2(int p2) {
+        this.p2 = p2;
+    }
+
+    public List<String> getP3() {
+        return p3;
+    }
+
+    public void setP3(List<String> p3) {
+        this.p3 = p3;
+    }
+
+    public long[] getP4() {
+        return p4;
+    }
+
+    public void setP4(long[] p4) {
+        this.p4 = p4;
+    }
+
+    public Map<String, ? extends Number> getP5() {
+        return p5;
+    }
+
+    public void setP5(Map<String, ? extends Number> p5) {
+        this.p5 = p5;
+    }
+
+    public String getReadOnly() {
+        return readOnly;
+    }
+
+    public void setWriteOnly(String writeOnly) {
+        this.writeOnly = writeOnly;
+    }
+
+    public String writeOnly() {
+        return writeOnly;
+    }
+
+    public String getMismatched() {
+        return mismatched;
+    }
+
+    public void setMismatched(Integer mismatched) {
+        this.mismatched = String.valueOf(mismatched);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,34 @@
+package test.java.xyz.srclab.common.bean;
+
+import xyz.srclab.annotations.JavaBean;
+
+@JavaBean
+public class OverloadedBean {
+
+    private String value;
+    private String writeOnly;
+
+    public void setValue(Integer value) {
+        this.value = "int:" + value;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public void setValue(String value) {
+        this.value = value;
+    }
+
+    public void setWriteOnly(Integer writeOnly) {
+        this.writeOnly = "int:" + writeOnly;
+    }
+
+    public void setWriteOnly(String writeOnly) {
+        this.writeOnly = writeOnly;
+    }
+
+    public String writeOnly() {
+        return writeOnly;
+    }
+}
@@ -1,21 +1,73 @@
 package test.java.xyz.srclab.common.cache;
 
+import kotlin.Unit;
+import kotlin.jvm.functions.Function1;
 import org.testng.Assert;
 import org.testng.annotations.Test;
+import xyz.srclab.common.base.Current;
+import xyz.srclab.common.cache.AsyncCache;
 import xyz.srclab.common.cache.Cache;
+import xyz.srclab.common.cache.CacheCodec;
+import xyz.srclab.common.cache.CacheCreateListener;
+import xyz.srclab.common.cache.CacheLoadCoalescer;
+import xyz.srclab.common.cache.CacheReadListener;
+import xyz.srclab.common.cache.CacheUpdateListener;
+import xyz.srclab.common.cache.CacheStats;
+import xyz.srclab.common.cache.CacheStatsCounter;
+import xyz.srclab.common.cache.DiskCache;
+import xyz.srclab.common.cache.HeapSizeEstimator;
+import xyz.srclab.common.cache.InProcessInvalidationTransport;
+import xyz.srclab.common.cache.IntKeyCache;
+import xyz.srclab.common.cache.InvalidatingCache;
+import xyz.srclab.common.cache.InvalidationTransport;
+import xyz.srclab.common.cache.LongKeyCache;
 import xyz.srclab.common.cache.MapCache;
+import xyz.srclab.common.cache.OffHeapCache;
+import xyz.srclab.common.cache.StripedCache;
+import xyz.srclab.common.cache.TieredCache;
 import xyz.srclab.common.cache.ThreadLocalCache;
+import xyz.srclab.common.cache.TinyLfuCache;
+import xyz.srclab.common.cache.UdpInvalidationTransport;
+import xyz.srclab.common.run.ExecutorServiceRunner;
+import xyz.srclab.common.run.Runner;
+import xyz.srclab.common.test.TestLogger;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * @author sunqian
  */
 public class CacheTest {
 
+    private static final TestLogger logger = TestLogger.DEFAULT;
+
     @Test
     public void testFastCache() {
         doTestCache(Cache.newFastCache());
@@ -31,6 +83,30 @@ public class CacheTest {
         doTestCache(new ThreadLocalCache<>(() -> new MapCache<>(new HashMap<>())));
     }
 
+    @Test
+    public void testStripedCache() throws Exception {
+        doTestCache(StripedCache.newBounded(1000));
+        doTestCache(new StripedCache<>(() -> Cache.<String, String>newBuilder().build(), 4));
+
+        StripedCache<Integer, String> cache = StripedCache.newBounded(1000, 8);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 16; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 5000; i++) {
+                    Assert.assertEquals(cache.getOrLoad(i, k -> "v" + k), "v" + i);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        int size = cache.getPresent(IntStream.range(0, 5000).boxed().collect(Collectors.toList())).size();
+        logger.log("striped size: {}", size);
+        Assert.assertTrue(size <= 1000);
+    }
+
     @Test
     public void testCaffeineCache() {
         Cache.Builder<String, String> builder = Cache.newBuilder();
@@ -43,6 +119,801 @@ public class CacheTest {
         doTestCache(builder.useGuava(true).build());
     }
 
+    @Test
+    public void testOffHeapCache() {
+        Cache.Builder<String, String> builder = Cache.newBuilder();
+        doTestCache(builder.useOffHeap(1024 * 1024, CacheCodec.STRING, CacheCodec.STRING).build());
+
+        OffHeapCache<Integer, String> cache =
+            new OffHeapCache<>(64 * 1024, CacheCodec.INT, CacheCodec.STRING, 4, 4 * 1024);
+        for (int i = 0; i < 100; i++) {
+            cache.put(i, "value" + i);
+        }
+        Assert.assertEquals(cache.size(), 100);
+        Assert.assertEquals(cache.get(50), "value50");
+        cache.put(50, "new value");
+        Assert.assertEquals(cache.get(50), "new value");
+        cache.invalidate(50);
+        Assert.assertNull(cache.getOrNull(50));
+
+        //Eviction by byte budget
+        for (int i = 0; i < 100000; i++) {
+            cache.put(i, "value" + i);
+            //Keep 0 referenced
+            Assert.assertEquals(cache.get(0), "value0");
+        }
+        logger.log("size: {}, used bytes: {}", cache.size(), cache.usedBytes());
+        Assert.assertTrue(cache.size() < 100000);
+        Assert.assertTrue(cache.usedBytes() <= 64 * 1024);
+        Assert.assertEquals(cache.get(99999), "value99999");
+        cache.invalidateAll();
+        Assert.assertEquals(cache.size(), 0);
+        Assert.assertNull(cache.getOrNull(99999));
+    }
+
+    @Test
+    public void testLoadCoalescing() throws Exception {
+        doTestLoadCoalescing(Cache.<Integer, String>newBuilder().build());
+        doTestLoadCoalescing(Cache.<Integer, String>newBuilder().useGuava(true).build());
+        doTestLoadCoalescing(Cache.newFastCache());
+
+        //Loads of different callers are batched
+        AtomicInteger loadCount = new AtomicInteger();
+        Cache<Integer, String> cache = Cache.<Integer, String>newBuilder()
+            .loadBatchWindow(Duration.ofMillis(200))
+            .build();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            int key = i;
+            threads.add(new Thread(() -> {
+                Current.sleep(5 * key);
+                Assert.assertEquals(cache.getAll(Collections.singletonList(key), keys -> {
+                    loadCount.incrementAndGet();
+                    Map<Integer, String> result = new HashMap<>();
+                    for (Integer k : keys) {
+                        result.put(k, "value" + k);
+                    }
+                    return result;
+                }), Collections.singletonMap(key, "value" + key));
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(loadCount.get(), 1);
+        Assert.assertEquals(cache.get(3), "value3");
+
+        //Late arriver finds value stored after its miss rather than loading again
+        CacheLoadCoalescer<Integer, String> coalescer = new CacheLoadCoalescer<>();
+        Map<Integer, String> store = new HashMap<>();
+        store.put(1, "stored1");
+        Assert.assertEquals(coalescer.load(1, store::get, k -> "loaded" + k, (k, v) -> {
+            store.put(k, v);
+            return Unit.INSTANCE;
+        }), "stored1");
+        Assert.assertEquals(coalescer.loadAll(Arrays.asList(1, 2), store::get, keys -> {
+            Assert.assertEquals(keys, Collections.singletonList(2));
+            return Collections.singletonMap(2, "loaded2");
+        }, values -> {
+            store.putAll(values);
+            return Unit.INSTANCE;
+        }), store);
+
+        //Key omitted by bulk loader is loaded again by single loader of waiting caller
+        Cache<Integer, String> omittingCache = Cache.<Integer, String>newBuilder().build();
+        CountDownLatch bulkLoading = new CountDownLatch(1);
+        CountDownLatch bulkRelease = new CountDownLatch(1);
+        Thread bulkThread = new Thread(() -> Assert.assertEquals(
+            omittingCache.getAll(Collections.singletonList(5), keys -> {
+                bulkLoading.countDown();
+                try {
+                    bulkRelease.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return Collections.emptyMap();
+            }), Collections.emptyMap()));
+        bulkThread.start();
+        bulkLoading.await();
+        AtomicReference<String> joined = new AtomicReference<>();
+        Thread singleThread = new Thread(() -> joined.set(omittingCache.getOrLoad(5, k -> "value" + k)));
+        singleThread.start();
+        Current.sleep(100);
+        bulkRelease.countDown();
+        bulkThread.join();
+        singleThread.join();
+        Assert.assertEquals(joined.get(), "value5");
+
+        //Recursive load of same key fails rather than waits for itself
+        Assert.expectThrows(IllegalStateException.class, () -> coalescer.load(6, store::get,
+            k -> coalescer.load(6, store::get, k2 -> "loaded" + k2, (k2, v) -> Unit.INSTANCE),
+            (k, v) -> Unit.INSTANCE));
+
+        //Recursive bulk load fails without leaving other keys of it in flight
+        Assert.expectThrows(IllegalStateException.class, () -> coalescer.load(8, store::get,
+            k -> coalescer.loadAll(Arrays.asList(7, 8), store::get, keys -> Collections.emptyMap(),
+                values -> Unit.INSTANCE).get(7),
+            (k, v) -> Unit.INSTANCE));
+        AtomicReference<String> loaded7 = new AtomicReference<>();
+        Thread loadThread = new Thread(() -> loaded7.set(
+            coalescer.load(7, store::get, k -> "loaded" + k, (k, v) -> Unit.INSTANCE)));
+        loadThread.start();
+        loadThread.join(1000);
+        Assert.assertEquals(loaded7.get(), "loaded7");
+    }
+
+    private void doTestLoadCoalescing(Cache<Integer, String> cache) throws Exception {
+        AtomicInteger loadCount = new AtomicInteger();
+        AtomicInteger bulkLoadCount = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            threads.add(new Thread(() -> {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                Assert.assertEquals(cache.getOrLoad(1, k -> {
+                    loadCount.incrementAndGet();
+                    Current.sleep(100);
+                    return "value" + k;
+                }), "value1");
+                Map<Integer, String> result = cache.getAll(Arrays.asList(2, 3), keys -> {
+                    for (Integer ignored : keys) {
+                        bulkLoadCount.incrementAndGet();
+                    }
+                    Current.sleep(100);
+                    Map<Integer, String> values = new HashMap<>();
+                    for (Integer k : keys) {
+                        values.put(k, "value" + k);
+                    }
+                    return values;
+                });
+                Assert.assertEquals(result.get(2), "value2");
+                Assert.assertEquals(result.get(3), "value3");
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        latch.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(loadCount.get(), 1);
+        Assert.assertEquals(bulkLoadCount.get(), 2);
+        Assert.assertEquals(cache.getOrNull(2), "value2");
+    }
+
+    @Test
+    public void testAsyncCache() throws Exception {
+        ExecutorServiceRunner runner = Runner.newSingleThreadRunner();
+        Thread runnerThread = runner.run(Thread::currentThread).get();
+        AtomicInteger version = new AtomicInteger();
+        AsyncCache<String, String> cache = Cache.<String, String>newBuilder()
+            .refreshAfterWrite(Duration.ofMillis(500))
+            .loader(k -> {
+                Assert.assertSame(Thread.currentThread(), runnerThread);
+                return k + version.incrementAndGet();
+            })
+            .buildAsync(runner);
+        Assert.assertEquals(cache.getAsync("a").get(), "a1");
+        Current.sleep(600);
+        //Stale value is returned and reloaded in background
+        Assert.assertEquals(cache.getAsync("a").get(), "a1");
+        Current.sleep(100);
+        Assert.assertEquals(cache.getAsync("a").get(), "a2");
+        Assert.assertEquals(cache.synchronous().get("a"), "a2");
+
+        AsyncCache<String, String> noLoaderCache = Cache.<String, String>newBuilder().buildAsync(runner);
+        Assert.assertNull(noLoaderCache.getIfPresentAsync("a"));
+        Assert.expectThrows(ExecutionException.class, () -> noLoaderCache.getAsync("a").get());
+        Assert.assertEquals(noLoaderCache.getOrLoadAsync("a", k -> k + k).get(), "aa");
+        Assert.assertEquals(
+            noLoaderCache.getOrLoadAsync("b", (k, executor) -> CompletableFuture.supplyAsync(() -> k + k, executor))
+                .get(),
+            "bb"
+        );
+        noLoaderCache.putAsync("c", CompletableFuture.completedFuture("cc"));
+        Map<String, String> map = new HashMap<>();
+        map.put("a", "aa");
+        map.put("c", "cc");
+        map.put("d", "dd");
+        Assert.assertEquals(noLoaderCache.getAllAsync(Arrays.asList("a", "c", "d"), keys -> {
+            Map<String, String> result = new HashMap<>();
+            for (String k : keys) {
+                result.put(k, k + k);
+            }
+            return result;
+        }).get(), map);
+        noLoaderCache.invalidate("a");
+        Assert.assertNull(noLoaderCache.synchronous().getOrNull("a"));
+        Assert.expectThrows(UnsupportedOperationException.class, () -> noLoaderCache.refresh("a"));
+        runner.shutdown();
+    }
+
+    @Test
+    public void testDiskCache() throws Exception {
+        File directory = Files.createTempDirectory("disk-cache").toFile();
+        DiskCache<Integer, String> cache = new DiskCache<>(
+            directory, CacheCodec.INT, CacheCodec.STRING, 1024 * 1024, 4 * 1024, Runner.SYNC_RUNNER);
+        for (int i = 0; i < 100; i++) {
+            cache.put(i, "value" + i);
+        }
+        cache.put(1, "new value");
+        cache.invalidate(2);
+        cache.close();
+        Assert.expectThrows(IllegalStateException.class, () -> cache.getOrNull(1));
+
+        //Warm restart
+        DiskCache<Integer, String> restarted = new DiskCache<>(
+            directory, CacheCodec.INT, CacheCodec.STRING, 1024 * 1024, 4 * 1024, Runner.SYNC_RUNNER);
+        Assert.assertEquals(restarted.size(), 99);
+        Assert.assertEquals(restarted.get(0), "value0");
+        Assert.assertEquals(restarted.get(1), "new value");
+        Assert.assertNull(restarted.getOrNull(2));
+        Assert.assertEquals(restarted.get(99), "value99");
+
+        //Compaction and eviction
+        for (int j = 0; j < 100; j++) {
+            for (int i = 0; i < 100; i++) {
+                restarted.put(i, "value" + i + "-" + j);
+            }
+        }
+        File[] segmentFiles = directory.listFiles();
+        Assert.assertNotNull(segmentFiles);
+        Assert.assertTrue(segmentFiles.length < 8);
+        Assert.assertEquals(restarted.size(), 100);
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(restarted.get(i), "value" + i + "-99");
+        }
+        restarted.invalidateAll();
+        Assert.assertEquals(restarted.size(), 0);
+        restarted.close();
+
+        //Second level
+        DiskCache<Integer, String> diskCache = new DiskCache<>(
+            directory, CacheCodec.INT, CacheCodec.STRING, 1024 * 1024, 4 * 1024, Runner.SYNC_RUNNER);
+        Cache<Integer, String> tieredCache = Cache.<Integer, String>newBuilder()
+            .secondLevelCache(diskCache)
+            .loader(k -> "loaded" + k)
+            .build();
+        Assert.assertEquals(tieredCache.get(1), "loaded1");
+        Assert.assertEquals(diskCache.get(1), "loaded1");
+        diskCache.put(2, "value2");
+        Assert.assertEquals(tieredCache.get(2), "value2");
+        tieredCache.put(3, "value3");
+        Assert.assertEquals(diskCache.get(3), "value3");
+        //Expiring entries stay in first level only, so they are not promoted back after expired
+        tieredCache.put(4, "value4", Duration.ofMinutes(1));
+        Assert.assertNull(diskCache.getOrNull(4));
+        Assert.assertEquals(tieredCache.get(4), "value4");
+        tieredCache.put(3, "value3-1", Duration.ofMinutes(1));
+        Assert.assertNull(diskCache.getOrNull(3));
+        Assert.assertEquals(tieredCache.get(3), "value3-1");
+        diskCache.close();
+
+        //Failed write leaves neither level written
+        MapCache<Integer, String> firstLevel = new MapCache<>(new HashMap<>());
+        MapCache<Integer, String> failingLevel = new MapCache<>(new HashMap<Integer, String>() {
+            @Override
+            public String put(Integer key, String value) {
+                throw new IllegalStateException();
+            }
+        });
+        TieredCache<Integer, String> failingTiered = new TieredCache<>(firstLevel, failingLevel);
+        Assert.expectThrows(IllegalStateException.class, () -> failingTiered.put(1, "1"));
+        Assert.assertNull(firstLevel.getOrNull(1));
+        for (File file : Objects.requireNonNull(directory.listFiles())) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testTinyLfuCache() throws Exception {
+        TinyLfuCache<Integer, String> cache = new TinyLfuCache<>(100, new CacheStatsCounter());
+        for (int i = 0; i < 100; i++) {
+            cache.put(i, "v" + i);
+        }
+        for (int n = 0; n < 10; n++) {
+            for (int i = 0; i < 50; i++) {
+                cache.get(i);
+            }
+        }
+        cache.cleanUp();
+        //One-hit wonders don't flush frequently-read entries out
+        for (int i = 1000; i < 2000; i++) {
+            cache.put(i, "v" + i);
+        }
+        Assert.assertTrue(cache.size() <= 100);
+        int hot = 0;
+        for (int i = 0; i < 50; i++) {
+            if (cache.getOrNull(i) != null) {
+                hot++;
+            }
+        }
+        logger.log("hot entries: {}", hot);
+        Assert.assertTrue(hot >= 45);
+        Assert.assertTrue(cache.stats().evictionCount() >= 1000);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int seed = t;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 20000; i++) {
+                    int key = (i * 31 + seed) % 300;
+                    Assert.assertEquals(cache.getOrLoad(key, k -> "v" + k), "v" + key);
+                    if (i % 11 == 0) {
+                        cache.invalidate(key);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertTrue(cache.size() <= 100);
+        cache.invalidateAll();
+        Assert.assertEquals(cache.size(), 0);
+    }
+
+    @Test
+    public void testPrimitiveKeyCache() throws Exception {
+        LongKeyCache<String> longKeyCache = LongKeyCache.newCache(1000, 4, true);
+        for (long i = 0; i < 10000; i++) {
+            longKeyCache.put(i, "v" + i);
+        }
+        Assert.assertTrue(longKeyCache.size() <= 1000);
+        Assert.assertEquals(longKeyCache.getOrNull(9999), "v9999");
+        Assert.assertEquals(longKeyCache.getOrLoad(-1, k -> "v" + k), "v-1");
+        Assert.assertEquals(longKeyCache.getOrLoad(-1, k -> "x" + k), "v-1");
+        longKeyCache.invalidate(-1);
+        Assert.assertNull(longKeyCache.getOrNull(-1));
+        Assert.assertThrows(NoSuchElementException.class, () -> longKeyCache.get(-1));
+        Assert.assertEquals(longKeyCache.stats().loadSuccessCount(), 1);
+        Assert.assertTrue(longKeyCache.stats().evictionCount() >= 9000);
+
+        //Entries read recently survive eviction
+        LongKeyCache<String> clockCache = LongKeyCache.newCache(100, 1);
+        for (long i = 0; i < 100; i++) {
+            clockCache.put(i, "v" + i);
+        }
+        for (long i = 0; i < 50; i++) {
+            clockCache.get(i);
+        }
+        for (long i = 100; i < 150; i++) {
+            clockCache.put(i, "v" + i);
+        }
+        for (long i = 0; i < 50; i++) {
+            Assert.assertEquals(clockCache.get(i), "v" + i);
+        }
+
+        IntKeyCache<String> intKeyCache = IntKeyCache.newCache(100);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    int key = i % 200;
+                    String value = intKeyCache.getOrLoad(key, k -> "v" + k);
+                    Assert.assertEquals(value, "v" + key);
+                    if (i % 7 == 0) {
+                        intKeyCache.invalidate(key);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertTrue(intKeyCache.size() <= 100);
+        intKeyCache.invalidateAll();
+        Assert.assertEquals(intKeyCache.size(), 0);
+    }
+
+    @Test
+    public void testCacheSnapshot() throws Exception {
+        Cache<String, String> cache = Cache.<String, String>newBuilder().expireVariably(true).build();
+        cache.put("1", "11", Duration.ofHours(1));
+        cache.put("2", "22", Duration.ofMillis(100));
+        cache.put("3", "33");
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Assert.assertEquals(cache.snapshot(output, CacheCodec.STRING, CacheCodec.STRING), 3);
+        Current.sleep(200);
+        Cache<String, String> restored = Cache.<String, String>newBuilder().expireVariably(true).build();
+        Assert.assertEquals(
+            restored.restore(new ByteArrayInputStream(output.toByteArray()), CacheCodec.STRING, CacheCodec.STRING), 2);
+        Assert.assertEquals(restored.getOrNull("1"), "11");
+        Assert.assertNull(restored.getOrNull("2"));
+        Assert.assertEquals(restored.getOrNull("3"), "33");
+        Cache<String, String> shortLived = Cache.<String, String>newBuilder()
+            .expireAfterWrite(Duration.ofMillis(100))
+            .build();
+        shortLived.put("1", "11");
+        output.reset();
+        shortLived.snapshot(output, CacheCodec.STRING, CacheCodec.STRING);
+        Current.sleep(200);
+        Assert.assertEquals(
+            restored.restore(new ByteArrayInputStream(output.toByteArray()), CacheCodec.STRING, CacheCodec.STRING), 0);
+
+        //Invalid lengths are rejected before allocation
+        for (int length : new int[]{Integer.MAX_VALUE, -1}) {
+            byte[] invalid = ByteBuffer.allocate(18)
+                .putInt(0x43534e50).put((byte) 1).putLong(System.currentTimeMillis()).put((byte) 1).putInt(length)
+                .array();
+            Assert.expectThrows(IOException.class, () ->
+                restored.restore(new ByteArrayInputStream(invalid), CacheCodec.STRING, CacheCodec.STRING));
+        }
+
+        File file = Files.createTempFile("cache-snapshot", ".bin").toFile();
+        file.deleteOnExit();
+        List<Cache<String, String>> caches = Arrays.asList(
+            Cache.<String, String>newBuilder().useGuava(true).build(),
+            new MapCache<>(new ConcurrentHashMap<>()),
+            Cache.newFastCache()
+        );
+        for (Cache<String, String> source : caches) {
+            source.put("1", "11");
+            source.put("2", "22");
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                Assert.assertEquals(source.snapshot(channel, CacheCodec.STRING, CacheCodec.STRING), 2);
+            }
+            Cache<String, String> target = Cache.newFastCache();
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                Assert.assertEquals(target.restore(channel, CacheCodec.STRING, CacheCodec.STRING), 2);
+            }
+            Assert.assertEquals(target.get("1"), "11");
+            Assert.assertEquals(target.get("2"), "22");
+        }
+    }
+
+    @Test
+    public void testInvalidatingCache() throws Exception {
+        InProcessInvalidationTransport transport = new InProcessInvalidationTransport();
+        doTestInvalidatingCache(transport, transport.newPeer());
+
+        UdpInvalidationTransport udp1 = new UdpInvalidationTransport(new InetSocketAddress("127.0.0.1", 0));
+        UdpInvalidationTransport udp2 = new UdpInvalidationTransport(new InetSocketAddress("127.0.0.1", 0));
+        udp1.addPeer(udp2.localAddress());
+        udp2.addPeer(udp1.localAddress());
+        doTestInvalidatingCache(udp1, udp2);
+
+        //Bad messages and messages from strangers are dropped, receiving goes on
+        UdpInvalidationTransport udp3 = new UdpInvalidationTransport(new InetSocketAddress("127.0.0.1", 0));
+        UdpInvalidationTransport udp4 = new UdpInvalidationTransport(new InetSocketAddress("127.0.0.1", 0));
+        udp3.addPeer(udp4.localAddress());
+        udp4.addPeer(udp3.localAddress());
+        InvalidatingCache<String, String> sender = new InvalidatingCache<>(
+            Cache.newFastCache(), udp3, CacheCodec.STRING, Duration.ofMillis(50));
+        InvalidatingCache<String, String> receiver = new InvalidatingCache<>(
+            Cache.newFastCache(), udp4, CacheCodec.STRING, Duration.ofMillis(50));
+        receiver.put("1", "v1");
+        receiver.put("2", "v2");
+        udp3.publish(new byte[]{1, 2, 3});
+        udp3.publish(ByteBuffer.allocate(21).putLong(1L).put((byte) 0).putInt(1).putInt(Integer.MAX_VALUE).array());
+        udp3.publish(ByteBuffer.allocate(21).putLong(1L).put((byte) 0).putInt(1).putInt(-1).array());
+        udp3.publish(ByteBuffer.allocate(13).putLong(1L).put((byte) 0).putInt(Integer.MAX_VALUE).array());
+        try (DatagramChannel stranger = DatagramChannel.open()) {
+            stranger.send(ByteBuffer.wrap(ByteBuffer.allocate(13).putLong(1L).put((byte) 1).putInt(0).array()),
+                udp4.localAddress());
+        }
+        Current.sleep(200);
+        Assert.assertEquals(receiver.getOrNull("1"), "v1");
+        sender.invalidate("1");
+        sender.flush();
+        Current.sleep(200);
+        Assert.assertNull(receiver.getOrNull("1"));
+        Assert.assertEquals(receiver.getOrNull("2"), "v2");
+        Assert.expectThrows(IllegalArgumentException.class, () ->
+            new InvalidatingCache<Serializable, String>(Cache.newFastCache(), udp3, CacheCodec.SERIALIZABLE));
+        sender.close();
+        receiver.close();
+
+        //Invalidations are kept pending if publishing fails
+        InProcessInvalidationTransport inProcess = new InProcessInvalidationTransport();
+        AtomicInteger failures = new AtomicInteger(1);
+        InvalidationTransport failing = new InvalidationTransport() {
+            @Override
+            public void publish(byte[] message) {
+                if (failures.getAndDecrement() > 0) {
+                    throw new IllegalStateException("Publishing fails.");
+                }
+                inProcess.publish(message);
+            }
+
+            @Override
+            public void subscribe(Function1<? super byte[], Unit> subscriber) {
+                inProcess.subscribe(subscriber);
+            }
+        };
+        InvalidatingCache<String, String> failingSender = new InvalidatingCache<>(
+            Cache.newFastCache(), failing, CacheCodec.STRING, Duration.ofMinutes(1));
+        InvalidatingCache<String, String> failingReceiver = new InvalidatingCache<>(
+            Cache.newFastCache(), inProcess.newPeer(), CacheCodec.STRING, Duration.ofMinutes(1));
+        failingReceiver.put("1", "v1");
+        failingReceiver.put("2", "v2");
+        failingReceiver.put("3", "v3");
+        failingSender.invalidate("1");
+        Assert.expectThrows(IllegalStateException.class, failingSender::flush);
+        Assert.assertEquals(failingReceiver.getOrNull("1"), "v1");
+        failingSender.invalidate("2");
+        failingSender.flush();
+        Assert.assertNull(failingReceiver.getOrNull("1"));
+        Assert.assertNull(failingReceiver.getOrNull("2"));
+        failures.set(1);
+        failingSender.invalidateAll();
+        Assert.expectThrows(IllegalStateException.class, failingSender::flush);
+        Assert.assertEquals(failingReceiver.getOrNull("3"), "v3");
+        failingSender.flush();
+        Assert.assertNull(failingReceiver.getOrNull("3"));
+        failingSender.close();
+        failingReceiver.close();
+    }
+
+    private void doTestInvalidatingCache(
+        InvalidationTransport transport1, InvalidationTransport transport2) throws Exception {
+        InvalidatingCache<String, String> cache1 = new InvalidatingCache<>(
+            Cache.newFastCache(), transport1, CacheCodec.STRING, Duration.ofMillis(50));
+        InvalidatingCache<String, String> cache2 = new InvalidatingCache<>(
+            Cache.newFastCache(), transport2, CacheCodec.STRING, Duration.ofMillis(50));
+        for (int i = 0; i < 100; i++) {
+            cache1.put("" + i, "v" + i);
+            cache2.put("" + i, "v" + i);
+        }
+
+        cache1.invalidate("1");
+        cache1.invalidateAll(Arrays.asList("1", "2", "3"));
+        Assert.assertNull(cache1.getOrNull("1"));
+        Assert.assertEquals(cache2.getOrNull("1"), "v1");
+        Current.sleep(500);
+        Assert.assertNull(cache2.getOrNull("1"));
+        Assert.assertNull(cache2.getOrNull("2"));
+        Assert.assertNull(cache2.getOrNull("3"));
+        Assert.assertEquals(cache2.getOrNull("4"), "v4");
+        Assert.assertEquals(cache1.getOrNull("4"), "v4");
+
+        cache2.invalidateAll();
+        cache2.flush();
+        Current.sleep(200);
+        Assert.assertNull(cache1.getOrNull("4"));
+
+        cache1.close();
+        cache2.close();
+    }
+
+    @Test
+    public void testMaxWeight() {
+        doTestMaxWeight(Cache.<Integer, byte[]>newBuilder().useGuava(false));
+        doTestMaxWeight(Cache.<Integer, byte[]>newBuilder().useGuava(true));
+
+        HeapSizeEstimator estimator = HeapSizeEstimator.DEFAULT;
+        Assert.assertEquals(estimator.estimate(new byte[100]), 120);
+        Assert.assertEquals(estimator.estimate(new long[10]), 96);
+        WeighedBean bean = new WeighedBean();
+        bean.setName("12345678");
+        bean.setData(new int[100]);
+        bean.setSelf(bean);
+        long beanSize = estimator.estimate(bean);
+        logger.log("bean size: {}", beanSize);
+        Assert.assertTrue(beanSize > estimator.estimate(new int[100]) + estimator.estimate("12345678"));
+        Assert.assertTrue(beanSize < 1024);
+    }
+
+    private void doTestMaxWeight(Cache.Builder<Integer, byte[]> builder) {
+        Cache<Integer, byte[]> cache = builder.maxWeight(100 * 1024).build();
+        for (int i = 0; i < 1000; i++) {
+            cache.put(i, new byte[1024]);
+        }
+        cache.cleanUp();
+        Map<Integer, byte[]> present = cache.getPresent(IntStream.range(0, 1000).boxed().collect(Collectors.toList()));
+        logger.log("present: {}", present.size());
+        Assert.assertTrue(present.size() < 100);
+
+        Cache<Integer, byte[]> weighedCache = Cache.<Integer, byte[]>newBuilder()
+            .maxWeight(10)
+            .weigher((k, v) -> 1)
+            .build();
+        for (int i = 0; i < 100; i++) {
+            weighedCache.put(i, new byte[1]);
+        }
+        weighedCache.cleanUp();
+        Assert.assertTrue(
+            weighedCache.getPresent(IntStream.range(0, 100).boxed().collect(Collectors.toList())).size() <= 10);
+    }
+
+    public static class WeighedBean {
+
+        private String name;
+        private int[] data;
+        private WeighedBean self;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public int[] getData() {
+            return data;
+        }
+
+        public void setData(int[] data) {
+            this.data = data;
+        }
+
+        public WeighedBean getSelf() {
+            return self;
+        }
+
+        public void setSelf(WeighedBean self) {
+            this.self = self;
+        }
+    }
+
+    @Test
+    public void testCaffeineExpireVariably() {
+        Cache.Builder<String, String> builder = Cache.newBuilder();
+        Cache<String, String> cache = builder.expireVariably(true).build();
+        cache.put("1", "1", Duration.ofMillis(100));
+        cache.put("2", "2", Duration.ofMinutes(10));
+        cache.put("3", "3");
+        cache.expiry("3", Duration.ofMillis(100));
+        Assert.assertEquals(cache.getOrNull("1"), "1");
+        Current.sleep(300);
+        Assert.assertNull(cache.getOrNull("1"));
+        Assert.assertEquals(cache.getOrNull("2"), "2");
+        Assert.assertNull(cache.getOrNull("3"));
+
+        //Per-entry expiry is ignored if not supported
+        Cache<String, String> fixedCache = builder.expireVariably(false).build();
+        fixedCache.put("1", "1", 10);
+        fixedCache.expiry("1", 0);
+        Assert.assertEquals(fixedCache.getOrNull("1"), "1");
+        MapCache<String, String> mapCache = new MapCache<>(new HashMap<>());
+        mapCache.putAll(Collections.singletonMap("1", "1"), Duration.ofMillis(1));
+        mapCache.expiry("1", 0);
+        Assert.assertEquals(mapCache.getOrNull("1"), "1");
+        Assert.expectThrows(IllegalArgumentException.class, () -> builder.expireVariably(true).useGuava(true).build());
+
+        //Reads don't extend entries beyond expireAfterWrite
+        Cache<String, String> cappedCache = Cache.<String, String>newBuilder()
+            .expireVariably(true)
+            .expireAfterAccess(Duration.ofMillis(300))
+            .expireAfterWrite(Duration.ofMillis(600))
+            .build();
+        cappedCache.put("1", "1");
+        for (int i = 0; i < 10; i++) {
+            Current.sleep(100);
+            cappedCache.getOrNull("1");
+        }
+        Assert.assertNull(cappedCache.getOrNull("1"));
+    }
+
+    @Test
+    public void testCacheStats() {
+        Cache.Builder<String, String> builder = Cache.newBuilder();
+        doTestCacheStats(builder.recordStats(true).useGuava(false).build());
+        doTestCacheStats(builder.recordStats(true).useGuava(true).build());
+        doTestCacheStats(new MapCache<>(new HashMap<>(), true));
+        doTestCacheStats(new ThreadLocalCache<>(() -> new MapCache<>(new HashMap<>(), true), true));
+        doTestCacheStats(StripedCache.newBounded(1000, 4, true));
+        doTestCacheStats(Cache.<String, String>newBuilder()
+            .useOffHeap(1024 * 1024, CacheCodec.STRING, CacheCodec.STRING).recordStats(true).build());
+        Assert.assertSame(builder.recordStats(false).build().stats(), CacheStats.EMPTY);
+
+        //Loading shards and loading cache of each thread still load on get
+        StripedCache<String, String> loadingStripedCache = new StripedCache<>(
+            () -> Cache.<String, String>newBuilder().loader(k -> "v" + k).build(), 4, true);
+        Assert.assertEquals(loadingStripedCache.get("a"), "va");
+        Assert.assertEquals(loadingStripedCache.get("a"), "va");
+        Assert.assertEquals(loadingStripedCache.stats().hitCount(), 1);
+        Assert.assertEquals(loadingStripedCache.stats().missCount(), 1);
+        ThreadLocalCache<String, String> loadingThreadLocalCache = new ThreadLocalCache<>(
+            () -> Cache.<String, String>newBuilder().loader(k -> "v" + k).build(), true);
+        Assert.assertEquals(loadingThreadLocalCache.get("a"), "va");
+        Assert.assertEquals(loadingThreadLocalCache.get("a"), "va");
+        Assert.assertEquals(loadingThreadLocalCache.stats().hitCount(), 1);
+        Assert.assertEquals(loadingThreadLocalCache.stats().missCount(), 1);
+    }
+
+    @Test
+    public void testCacheListeners() {
+        Cache.Builder<String, String> builder = Cache.newBuilder();
+        doTestCacheListeners(builder.useGuava(false));
+        doTestCacheListeners(builder.useGuava(true));
+    }
+
+    private void doTestCacheListeners(Cache.Builder<String, String> builder) {
+        List<String> events = new ArrayList<>();
+        Cache<String, String> cache = builder
+            .listenerExecutor(Runner.SYNC_RUNNER)
+            .createListener(new CacheCreateListener<String, String>() {
+                @Override
+                public void beforeCreate(String key) {
+                    events.add("beforeCreate:" + key);
+                }
+
+                @Override
+                public void afterCreate(String key, String value) {
+                    events.add("afterCreate:" + key + "=" + value);
+                }
+            })
+            .readListener(new CacheReadListener<String, String>() {
+                @Override
+                public void beforeRead(String key) {
+                }
+
+                @Override
+                public void onHit(String key, String value) {
+                    events.add("hit:" + key + "=" + value);
+                }
+
+                @Override
+                public void onMiss(String key) {
+                    events.add("miss:" + key);
+                }
+            })
+            .updateListener(new CacheUpdateListener<String, String>() {
+                @Override
+                public void beforeUpdate(String key, String oldValue) {
+                }
+
+                @Override
+                public void afterUpdate(String key, String oldValue, String newValue) {
+                    events.add("update:" + key + "=" + oldValue + "->" + newValue);
+                }
+            })
+            .build();
+        cache.getOrNull("1");
+        cache.getOrLoad("1", k -> k + k);
+        cache.getOrLoad("1", k -> k + k);
+        cache.put("1", "111");
+        cache.put("2", "22");
+        logger.log("events: {}", events);
+        Assert.assertEquals(events, Arrays.asList(
+            "miss:1",
+            "miss:1", "beforeCreate:1", "afterCreate:1=11",
+            "hit:1=11",
+            "update:1=11->111",
+            "beforeCreate:2", "afterCreate:2=22"
+        ));
+
+        //Read events are dispatched in batch or by cleanUp
+        cache.getOrNull("2");
+        cache.getOrLoad("2", k -> k);
+        Assert.assertEquals(events.size(), 8);
+        cache.cleanUp();
+        Assert.assertEquals(events.subList(8, events.size()), Arrays.asList("hit:2=22", "hit:2=22"));
+    }
+
+    private void doTestCacheStats(Cache<String, String> cache) {
+        Assert.assertNull(cache.getOrNull("1"));
+        Assert.assertEquals(cache.getOrLoad("1", k -> {
+            Current.sleep(10);
+            return k + k;
+        }), "11");
+        Assert.assertEquals(cache.getOrNull("1"), "11");
+        CacheStats stats = cache.stats();
+        logger.log("stats: {}", stats);
+        Assert.assertEquals(stats.hitCount(), 1);
+        Assert.assertEquals(stats.missCount(), 2);
+        Assert.assertEquals(stats.hitRate(), 1.0 / 3);
+        Assert.assertEquals(stats.loadSuccessCount(), 1);
+        Assert.assertEquals(stats.size(), 1);
+        Assert.assertTrue(stats.loadLatency(0.99).toMillis() >= 10);
+        Assert.assertTrue(stats.loadLatency(0.99).compareTo(stats.averageLoadPenalty().multipliedBy(2)) < 0);
+    }
+
     private void doTestCache(Cache<String, String> cache) {
         cache.cleanUp();
         Assert.expectThrows(NoSuchElementException.class, () -> cache.get("1"));
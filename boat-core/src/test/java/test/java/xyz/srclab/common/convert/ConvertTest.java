@@ -0,0 +1,109 @@
+package test.java.xyz.srclab.common.convert;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import xyz.srclab.common.convert.ConvertHandler;
+import xyz.srclab.common.convert.Converter;
+import xyz.srclab.common.reflect.Types;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author sunqian
+ */
+public class ConvertTest {
+
+    @Test
+    public void testDispatchCache() {
+        DecliningConvertHandler decliningHandler = new DecliningConvertHandler();
+        List<ConvertHandler> handlers = new ArrayList<>(Arrays.asList(decliningHandler, new PrefixConvertHandler()));
+        handlers.addAll(ConvertHandler.DEFAULTS);
+        Converter converter = Converter.newConverter(handlers);
+
+        Assert.assertEquals(converter.convert("1", Integer.class), (Integer) 1);
+        Assert.assertEquals(decliningHandler.count, 1);
+        Assert.assertEquals(converter.convert("2", Integer.class), (Integer) 2);
+        Assert.assertEquals(decliningHandler.count, 1);
+
+        //Handlers decided by value are asked again
+        Assert.assertEquals(converter.convert("x2", Integer.class), (Integer) (-1));
+        Assert.assertEquals(converter.convert("x3", String.class, Integer.class), (Integer) (-1));
+        Assert.assertEquals(converter.convert("3", String.class, Integer.class), (Integer) 3);
+        Assert.assertEquals(converter.convert("3", String.class, Integer.class), (Integer) 3);
+        Assert.assertEquals(decliningHandler.count, 2);
+
+        Assert.assertNull(converter.convert(null, String.class));
+        Assert.assertEquals(converter.convert(3, String.class), "3");
+        Assert.expectThrows(UnsupportedOperationException.class,
+                () -> Converter.newConverter(handlers.subList(0, 2)).convert("1", Integer.class));
+
+        //Conversions to types other than classes are not remembered
+        Type listType = Types.parameterizedType(List.class, String.class);
+        Assert.assertEquals(converter.convert(Arrays.asList("1"), listType), Arrays.asList("1"));
+        int count = decliningHandler.count;
+        Assert.assertEquals(converter.convert(Arrays.asList("1"), listType), Arrays.asList("1"));
+        Assert.assertEquals(decliningHandler.count, count + 1);
+    }
+
+    private static class DecliningConvertHandler implements ConvertHandler {
+
+        private int count = 0;
+
+        @Nullable
+        @Override
+        public Object convert(@Nullable Object from, @NotNull Class<?> toType, @NotNull Converter converter) {
+            count++;
+            return null;
+        }
+
+        @Nullable
+        @Override
+        public Object convert(@Nullable Object from, @NotNull Type toType, @NotNull Converter converter) {
+            count++;
+            return null;
+        }
+
+        @Nullable
+        @Override
+        public Object convert(
+                @Nullable Object from, @NotNull Type fromType, @NotNull Type toType, @NotNull Converter converter) {
+            count++;
+            return null;
+        }
+
+        @Override
+        public boolean isDecidedByType() {
+            return true;
+        }
+    }
+
+    private static class PrefixConvertHandler implements ConvertHandler {
+
+        @Nullable
+        @Override
+        public Object convert(@Nullable Object from, @NotNull Class<?> toType, @NotNull Converter converter) {
+            return convert(from, (Type) toType, converter);
+        }
+
+        @Nullable
+        @Override
+        public Object convert(@Nullable Object from, @NotNull Type toType, @NotNull Converter converter) {
+            if (from instanceof String && ((String) from).startsWith("x") && toType == Integer.class) {
+                return -1;
+            }
+            return null;
+        }
+
+        @Nullable
+        @Override
+        public Object convert(
+                @Nullable Object from, @NotNull Type fromType, @NotNull Type toType, @NotNull Converter converter) {
+            return convert(from, toType, converter);
+        }
+    }
+}
\ No newline at end of file